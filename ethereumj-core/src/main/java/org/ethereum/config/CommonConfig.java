@@ -83,12 +83,29 @@ public class CommonConfig {
 
     @Bean
     public Repository defaultRepository() {
-        return new RepositoryRoot(stateSource(), null);
+        return new RepositoryRoot(stateSource(), null, stateSnapshot());
     }
 
     @Bean @Scope("prototype")
     public Repository repository(byte[] stateRoot) {
-        return new RepositoryRoot(stateSource(), stateRoot);
+        return new RepositoryRoot(stateSource(), stateRoot, stateSnapshot());
+    }
+
+    /**
+     * Flat state snapshot, null if it's disabled
+     *
+     * @see StateSnapshot
+     */
+    @Bean
+    public StateSnapshot stateSnapshot() {
+        int layers = systemProperties().databaseSnapshotLayers();
+        if (layers < 0) return null;
+
+        // state of the disk layer must not be pruned, it's needed to wipe storage of deleted accounts
+        int pruneDepth = systemProperties().databasePruneDepth();
+        if (pruneDepth >= 0) layers = Math.min(layers, Math.max(0, pruneDepth - 1));
+
+        return new StateSnapshot(keyValueDataSource("snapshot"), stateSource(), layers);
     }
 
     /**
@@ -232,6 +249,12 @@ public class CommonConfig {
         return keyValueDataSource("headers");
     }
 
+    @Bean
+    @Lazy
+    public DbSource<byte[]> syncQueueSource() {
+        return keyValueDataSource("syncqueue");
+    }
+
     @Bean
     @Lazy
     public HeaderStore headerStore() {
@@ -17,11 +17,16 @@
  */
 package org.ethereum.config;
 
+import org.ethereum.datasource.BatchSourceWriter;
+import org.ethereum.datasource.DbSource;
 import org.ethereum.datasource.Source;
+import org.ethereum.datasource.WriteCache;
 import org.ethereum.db.BlockStore;
 import org.ethereum.db.IndexedBlockStore;
 import org.ethereum.db.PruneManager;
 import org.ethereum.db.TransactionStore;
+import org.ethereum.db.logs.LogIndex;
+import org.ethereum.db.logs.LogIndexer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.FatalBeanException;
@@ -83,11 +88,33 @@ public class DefaultConfig {
         return new TransactionStore(commonConfig.cachedDbSource("transactions"));
     }
 
+    @Bean
+    public LogIndexer logIndexer() {
+        LogIndex logIndex = null;
+        if (config.getConfig().getBoolean("database.logIndex.enabled")) {
+            DbSource<byte[]> dataSource = commonConfig.keyValueDataSource("logindex");
+            WriteCache.BytesKey<byte[]> cache = new WriteCache.BytesKey<>(
+                    new BatchSourceWriter<>(dataSource), WriteCache.CacheType.SIMPLE);
+            cache.setFlushSource(true);
+            commonConfig.dbFlushManager().addCache(cache);
+            logIndex = new LogIndex(dataSource, cache, config.getConfig().getInt("database.logIndex.sectionSize"));
+        }
+        return new LogIndexer(logIndex, blockStore(), transactionStore(),
+                config.getConfig().getInt("database.logIndex.confirmations"),
+                config.getConfig().getBoolean("database.logIndex.postings"));
+    }
+
     @Bean
     public PruneManager pruneManager() {
         if (config.databasePruneDepth() >= 0) {
-            return new PruneManager((IndexedBlockStore) blockStore(), commonConfig.stateSource().getJournalSource(),
+            PruneManager pruneManager = new PruneManager((IndexedBlockStore) blockStore(),
+                    commonConfig.stateSource().getJournalSource(),
                     commonConfig.stateSource().getNoJournalSource(), config.databasePruneDepth());
+            if (config.databasePruneBackground()) {
+                pruneManager.withBackgroundPruning(config.databasePruneQueueSize(),
+                        config.databasePruneMaxKeysPerSecond());
+            }
+            return pruneManager;
         } else {
             return new PruneManager(null, null, null, -1); // dummy
         }
@@ -483,6 +483,31 @@ public class SystemProperties {
         return config.getBoolean("database.prune.enabled") ? config.getInt("database.prune.maxDepth") : -1;
     }
 
+    @ValidateMe
+    public int databaseCompactStateDepth() {
+        return config.getBoolean("database.compactState.enabled") ? config.getInt("database.compactState.keepStates") : -1;
+    }
+
+    @ValidateMe
+    public int databaseSnapshotLayers() {
+        return config.getBoolean("database.snapshot.enabled") ? config.getInt("database.snapshot.layers") : -1;
+    }
+
+    @ValidateMe
+    public boolean databasePruneBackground() {
+        return config.getBoolean("database.prune.background.enabled");
+    }
+
+    @ValidateMe
+    public int databasePruneQueueSize() {
+        return config.getInt("database.prune.background.queueSize");
+    }
+
+    @ValidateMe
+    public int databasePruneMaxKeysPerSecond() {
+        return config.getInt("database.prune.background.maxKeysPerSecond");
+    }
+
     @ValidateMe
     public List<Node> peerActive() {
         if (!config.hasPath("peer.active")) {
@@ -730,6 +755,46 @@ public class SystemProperties {
         return config.getInt("peer.maxActivePeers");
     }
 
+    @ValidateMe
+    public int peerMaxInFlightRequests() {
+        return config.getInt("peer.maxInFlightRequests");
+    }
+
+    @ValidateMe
+    public boolean peerTransportEpoll() {
+        return config.getBoolean("peer.transport.epoll");
+    }
+
+    @ValidateMe
+    public int peerServeThreads() {
+        return config.getInt("peer.serve.threads");
+    }
+
+    @ValidateMe
+    public int peerServeMaxQueuedRequests() {
+        return config.getInt("peer.serve.maxQueuedRequests");
+    }
+
+    @ValidateMe
+    public int peerServeMaxRequestsPerSecond() {
+        return config.getInt("peer.serve.maxRequestsPerSecond");
+    }
+
+    @ValidateMe
+    public int peerHandshakeThreads() {
+        return config.getInt("peer.handshake.threads");
+    }
+
+    @ValidateMe
+    public int peerHandshakeMaxQueued() {
+        return config.getInt("peer.handshake.maxQueued");
+    }
+
+    @ValidateMe
+    public int peerHandshakeMaxPerIp() {
+        return config.getInt("peer.handshake.maxPerIpPerMinute");
+    }
+
     @ValidateMe
     public boolean eip8() {
         return config.getBoolean("peer.p2p.eip8");
@@ -821,6 +886,13 @@ public class SystemProperties {
         return ret;
     }
 
+    /**
+     * @return path to the state dump the fast sync state is imported from or null
+     */
+    public String getFastSyncStateFile() {
+        return config.hasPath("sync.fast.stateFile") ? config.getString("sync.fast.stateFile") : null;
+    }
+
     @ValidateMe
     public boolean fastSyncBackupState() {
         return config.getBoolean("sync.fast.backupState");
@@ -831,6 +903,21 @@ public class SystemProperties {
         return config.getBoolean("sync.fast.skipHistory");
     }
 
+    @ValidateMe
+    public boolean isSyncSkeletonEnabled() {
+        return config.getBoolean("sync.skeleton.enabled");
+    }
+
+    @ValidateMe
+    public boolean isSyncQueuePersistent() {
+        return config.getBoolean("sync.queue.persistent");
+    }
+
+    @ValidateMe
+    public long syncQueueDiskSize() {
+        return config.getLong("sync.queue.diskSize") * 1024 * 1024;
+    }
+
     @ValidateMe
     public int makeDoneByTimeout() {
         return config.getInt("sync.makeDoneByTimeout");
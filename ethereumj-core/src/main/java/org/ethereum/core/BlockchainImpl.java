@@ -24,8 +24,7 @@ import org.ethereum.config.SystemProperties;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.inmem.HashMapDB;
 import org.ethereum.db.*;
-import org.ethereum.trie.Trie;
-import org.ethereum.trie.TrieImpl;
+import org.ethereum.trie.TrieBuilder;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.listener.EthereumListenerAdapter;
 import org.ethereum.manager.AdminInfo;
@@ -259,28 +258,18 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     @Override
     public TransactionInfo getTransactionInfo(byte[] hash) {
 
-        List<TransactionInfo> infos = transactionStore.get(hash);
-
-        if (infos == null || infos.isEmpty())
-            return null;
-
-        TransactionInfo txInfo = null;
-        if (infos.size() == 1) {
-            txInfo = infos.get(0);
-        } else {
-            // pick up the receipt from the block on the main chain
-            for (TransactionInfo info : infos) {
-                Block block = blockStore.getBlockByHash(info.blockHash);
-                Block mainBlock = blockStore.getChainBlockByNumber(block.getNumber());
-                if (FastByteComparisons.equal(info.blockHash, mainBlock.getHash())) {
-                    txInfo = info;
-                    break;
-                }
-            }
-        }
+        // pick up the receipt from the block on the main chain
+        TransactionInfo txInfo = transactionStore.getMainChain(hash, blockStore);
         if (txInfo == null) {
-            logger.warn("Can't find block from main chain for transaction " + toHexString(hash));
-            return null;
+            List<TransactionInfo> infos = transactionStore.get(hash);
+            if (infos.isEmpty())
+                return null;
+            if (infos.size() == 1) {
+                txInfo = infos.get(0);
+            } else {
+                logger.warn("Can't find block from main chain for transaction " + toHexString(hash));
+                return null;
+            }
         }
 
         Transaction tx = this.getBlockByHash(txInfo.getBlockHash()).getTransactionsList().get(txInfo.getIndex());
@@ -325,15 +314,14 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     public static byte[] calcTxTrie(List<Transaction> transactions) {
 
-        Trie txsState = new TrieImpl();
-
         if (transactions == null || transactions.isEmpty())
             return HashUtil.EMPTY_TRIE_HASH;
 
-        for (int i = 0; i < transactions.size(); i++) {
-            txsState.put(RLP.encodeInt(i), transactions.get(i).getEncoded());
+        List<byte[]> encoded = new ArrayList<>(transactions.size());
+        for (Transaction tx : transactions) {
+            encoded.add(tx.getEncoded());
         }
-        return txsState.getRootHash();
+        return TrieBuilder.calcOrderedRoot(encoded);
     }
 
     public Repository getRepository() {
@@ -669,15 +657,14 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     }
 
     public static byte[] calcReceiptsTrie(List<TransactionReceipt> receipts) {
-        Trie receiptsTrie = new TrieImpl();
-
         if (receipts == null || receipts.isEmpty())
             return HashUtil.EMPTY_TRIE_HASH;
 
-        for (int i = 0; i < receipts.size(); i++) {
-            receiptsTrie.put(RLP.encodeInt(i), receipts.get(i).getReceiptTrieEncoded());
+        List<byte[]> encoded = new ArrayList<>(receipts.size());
+        for (TransactionReceipt receipt : receipts) {
+            encoded.add(receipt.getReceiptTrieEncoded());
         }
-        return receiptsTrie.getRootHash();
+        return TrieBuilder.calcOrderedRoot(encoded);
     }
 
     private byte[] calcLogBloom(List<TransactionReceipt> receipts) {
@@ -1005,9 +992,7 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         else
             blockStore.saveBlock(block, totalDifficulty, true);
 
-        for (int i = 0; i < receipts.size(); i++) {
-            transactionStore.put(new TransactionInfo(receipts.get(i), block.getHash(), i));
-        }
+        transactionStore.put(block, receipts);
 
         if (pruneManager != null) {
             pruneManager.blockCommitted(block.getHeader());
@@ -1059,6 +1044,9 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     @Override
     public synchronized void close() {
+        if (pruneManager != null) {
+            pruneManager.close();
+        }
         blockStore.close();
     }
 
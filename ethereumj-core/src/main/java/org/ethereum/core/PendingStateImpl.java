@@ -181,17 +181,12 @@ public class PendingStateImpl implements PendingState {
     }
 
     public synchronized void trackTransaction(Transaction tx) {
-        List<TransactionInfo> infos = transactionStore.get(tx.getHash());
-        if (!infos.isEmpty()) {
-            for (TransactionInfo info : infos) {
-                Block txBlock = blockStore.getBlockByHash(info.getBlockHash());
-                if (txBlock.isEqual(blockStore.getChainBlockByNumber(txBlock.getNumber()))) {
-                    // transaction included to the block on main chain
-                    info.getReceipt().setTransaction(tx);
-                    fireTxUpdate(info.getReceipt(), INCLUDED, txBlock);
-                    return;
-                }
-            }
+        TransactionInfo info = transactionStore.getMainChain(tx.getHash(), blockStore);
+        if (info != null) {
+            // transaction included to the block on main chain
+            info.getReceipt().setTransaction(tx);
+            fireTxUpdate(info.getReceipt(), INCLUDED, blockStore.getBlockByHash(info.getBlockHash()));
+            return;
         }
         addPendingTransaction(tx);
     }
@@ -370,8 +365,8 @@ public class PendingStateImpl implements PendingState {
                     if (receipts != null) {
                         receipt = receipts.get(i);
                     } else {
-                        TransactionInfo info = getTransactionInfo(tx.getHash(), block.getHash());
-                        receipt = info.getReceipt();
+                        receipt = transactionStore.get(tx.getHash(), block.getHash()).getReceipt();
+                        receipt.setTransaction(tx);
                     }
                     fireTxUpdate(receipt, INCLUDED, block);
                 } catch (Exception e) {
@@ -381,13 +376,6 @@ public class PendingStateImpl implements PendingState {
         }
     }
 
-    private TransactionInfo getTransactionInfo(byte[] txHash, byte[] blockHash) {
-        TransactionInfo info = transactionStore.get(txHash, blockHash);
-        Transaction tx = blockchain.getBlockByHash(info.getBlockHash()).getTransactionsList().get(info.getIndex());
-        info.getReceipt().setTransaction(tx);
-        return info;
-    }
-
     private void updateState(Block block) {
 
         pendingState = getOrigRepository().startTracking();
@@ -27,8 +27,7 @@ import org.ethereum.core.AccountState;
 import org.ethereum.core.Genesis;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.db.ByteArrayWrapper;
-import org.ethereum.trie.SecureTrie;
-import org.ethereum.trie.Trie;
+import org.ethereum.trie.TrieBuilder;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.util.Utils;
 
@@ -38,6 +37,7 @@ import java.io.InputStream;
 import java.math.BigInteger;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import static org.ethereum.core.Genesis.ZERO_HASH_2048;
 import static org.ethereum.crypto.HashUtil.EMPTY_LIST_HASH;
@@ -229,12 +229,17 @@ public class GenesisLoader {
 
     public static byte[] generateRootHash(Map<ByteArrayWrapper, PremineAccount> premine){
 
-        Trie<byte[]> state = new SecureTrie((byte[]) null);
-
+        // state trie is keyed by address hashes, sorting them allows to build it in one pass
+        TreeMap<ByteArrayWrapper, byte[]> sorted = new TreeMap<>();
         for (ByteArrayWrapper key : premine.keySet()) {
-            state.put(key.getData(), premine.get(key).accountState.getEncoded());
+            sorted.put(new ByteArrayWrapper(HashUtil.sha3(key.getData())), premine.get(key).accountState.getEncoded());
+        }
+
+        TrieBuilder state = new TrieBuilder();
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : sorted.entrySet()) {
+            state.put(entry.getKey().getData(), entry.getValue());
         }
 
-        return state.getRootHash();
+        return state.build();
     }
 }
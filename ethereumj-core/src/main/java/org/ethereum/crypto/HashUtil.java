@@ -18,6 +18,7 @@
 package org.ethereum.crypto;
 
 import org.ethereum.config.SystemProperties;
+import org.ethereum.crypto.cryptohash.Keccak256;
 import org.ethereum.crypto.jce.SpongyCastleProvider;
 import org.ethereum.util.RLP;
 import org.ethereum.util.Utils;
@@ -27,10 +28,14 @@ import org.spongycastle.crypto.Digest;
 import org.spongycastle.crypto.digests.RIPEMD160Digest;
 import org.spongycastle.util.encoders.Hex;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import static java.util.Arrays.copyOfRange;
@@ -51,12 +56,23 @@ public class HashUtil {
     private static final String HASH_256_ALGORITHM_NAME;
     private static final String HASH_512_ALGORITHM_NAME;
 
+    private static final int HASH_256_LENGTH = 32;
+
+    /**
+     * Keccak-256 digests reused by threads, set when the default algorithm of the
+     * bundled provider is configured
+     */
+    private static final ThreadLocal<Keccak256> KECCAK_256;
+
     static {
         SystemProperties props = SystemProperties.getDefault();
         Security.addProvider(SpongyCastleProvider.getInstance());
         CRYPTO_PROVIDER = Security.getProvider(props.getCryptoProviderName());
         HASH_256_ALGORITHM_NAME = props.getHash256AlgName();
         HASH_512_ALGORITHM_NAME = props.getHash512AlgName();
+        KECCAK_256 = SpongyCastleProvider.getInstance() == CRYPTO_PROVIDER &&
+                "ETH-KECCAK-256".equalsIgnoreCase(HASH_256_ALGORITHM_NAME) ?
+                ThreadLocal.withInitial(Keccak256::new) : null;
         EMPTY_DATA_HASH = sha3(EMPTY_BYTE_ARRAY);
         EMPTY_LIST_HASH = sha3(RLP.encodeList());
         EMPTY_TRIE_HASH = sha3(RLP.encodeElement(EMPTY_BYTE_ARRAY));
@@ -78,29 +94,16 @@ public class HashUtil {
     }
 
     public static byte[] sha3(byte[] input) {
-        MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance(HASH_256_ALGORITHM_NAME, CRYPTO_PROVIDER);
-            digest.update(input);
-            return digest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("Can't find such algorithm", e);
-            throw new RuntimeException(e);
-        }
-
+        MessageDigest digest = keccak256();
+        digest.update(input);
+        return digest.digest();
     }
 
     public static byte[] sha3(byte[] input1, byte[] input2) {
-        MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance(HASH_256_ALGORITHM_NAME, CRYPTO_PROVIDER);
-            digest.update(input1, 0, input1.length);
-            digest.update(input2, 0, input2.length);
-            return digest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("Can't find such algorithm", e);
-            throw new RuntimeException(e);
-        }
+        MessageDigest digest = keccak256();
+        digest.update(input1, 0, input1.length);
+        digest.update(input2, 0, input2.length);
+        return digest.digest();
     }
 
     /**
@@ -115,17 +118,106 @@ public class HashUtil {
      * @return - keccak hash of the chunk
      */
     public static byte[] sha3(byte[] input, int start, int length) {
-        MessageDigest digest;
+        MessageDigest digest = keccak256();
+        digest.update(input, start, length);
+        return digest.digest();
+    }
+
+    /**
+     * Hashes chunk of the data into the provided buffer
+     *
+     * @param input     data for hash
+     * @param start     start of hashing chunk
+     * @param length    length of hashing chunk
+     * @param out       buffer receiving 32 bytes of the keccak hash
+     * @param outOffset offset in the output buffer
+     */
+    public static void sha3(byte[] input, int start, int length, byte[] out, int outOffset) {
+        MessageDigest digest = keccak256();
+        digest.update(input, start, length);
+        digestInto(digest, out, outOffset);
+    }
+
+    /**
+     * Hashes remaining bytes of the buffer, the buffer position is moved to its limit
+     *
+     * @return keccak hash of the data
+     */
+    public static byte[] sha3(ByteBuffer input) {
+        MessageDigest digest = keccak256();
+        digest.update(input);
+        return digest.digest();
+    }
+
+    /**
+     * Hashes remaining bytes of the buffer into the provided array,
+     * the buffer position is moved to its limit
+     *
+     * @param out       buffer receiving 32 bytes of the keccak hash
+     * @param outOffset offset in the output buffer
+     */
+    public static void sha3(ByteBuffer input, byte[] out, int outOffset) {
+        MessageDigest digest = keccak256();
+        digest.update(input);
+        digestInto(digest, out, outOffset);
+    }
+
+    /**
+     * Hashes each of the inputs
+     *
+     * @return keccak hashes in the order of inputs
+     */
+    public static List<byte[]> sha3(List<byte[]> inputs) {
+        MessageDigest digest = keccak256();
+        List<byte[]> ret = new ArrayList<>(inputs.size());
+        for (byte[] input : inputs) {
+            digest.update(input);
+            ret.add(digest.digest());
+        }
+        return ret;
+    }
+
+    /**
+     * Hashes each of the inputs, hashes are written one after another
+     * into the provided buffer which should have at least {@code 32 * inputs.size()}
+     * bytes starting from {@code outOffset}
+     */
+    public static void sha3(List<byte[]> inputs, byte[] out, int outOffset) {
+        MessageDigest digest = keccak256();
+        for (byte[] input : inputs) {
+            digest.update(input);
+            digestInto(digest, out, outOffset);
+            outOffset += HASH_256_LENGTH;
+        }
+    }
+
+    /**
+     * Returns a cleared Keccak-256 digest.
+     * With the default settings this is an instance bound to the current thread,
+     * else a new digest is created through the configured provider
+     */
+    private static MessageDigest keccak256() {
+        if (KECCAK_256 != null) {
+            Keccak256 digest = KECCAK_256.get();
+            digest.reset();
+            return digest;
+        }
         try {
-            digest = MessageDigest.getInstance(HASH_256_ALGORITHM_NAME, CRYPTO_PROVIDER);
-            digest.update(input, start, length);
-            return digest.digest();
+            return MessageDigest.getInstance(HASH_256_ALGORITHM_NAME, CRYPTO_PROVIDER);
         } catch (NoSuchAlgorithmException e) {
             LOG.error("Can't find such algorithm", e);
             throw new RuntimeException(e);
         }
     }
 
+    private static void digestInto(MessageDigest digest, byte[] out, int outOffset) {
+        try {
+            digest.digest(out, outOffset, HASH_256_LENGTH);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static byte[] sha512(byte[] input) {
         MessageDigest digest;
         try {
@@ -19,6 +19,7 @@
 
 package org.ethereum.crypto.cryptohash;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 
 /**
@@ -204,6 +205,32 @@ public abstract class DigestEngine extends MessageDigest implements Digest {
 		}
 	}
 
+	/**
+	 * Consumes the remaining bytes of the buffer without copying
+	 * them to a temporary array.
+	 *
+	 * @see java.security.MessageDigestSpi#engineUpdate(java.nio.ByteBuffer)
+	 */
+	protected void engineUpdate(ByteBuffer input)
+	{
+		if (input.hasArray()) {
+			update(input.array(), input.arrayOffset() + input.position(),
+				input.remaining());
+			input.position(input.limit());
+			return;
+		}
+		while (input.hasRemaining()) {
+			int copyLen = Math.min(blockLen - inputLen, input.remaining());
+			input.get(inputBuf, inputLen, copyLen);
+			inputLen += copyLen;
+			if (inputLen == blockLen) {
+				processBlock(inputBuf);
+				blockCount ++;
+				inputLen = 0;
+			}
+		}
+	}
+
 	/**
 	 * Get the internal block length. This is the length (in
 	 * bytes) of the array which will be passed as parameter to
@@ -18,42 +18,69 @@
 package org.ethereum.crypto.zksnark;
 
 import java.math.BigInteger;
-
-import static org.ethereum.crypto.zksnark.Params.P;
+import java.util.Arrays;
 
 /**
- * Arithmetic in F_p, p = 21888242871839275222246405745257275088696311157297823662689037894645226208583
+ * Arithmetic in F_p, p = 21888242871839275222246405745257275088696311157297823662689037894645226208583 <br/>
+ * <br/>
+ *
+ * Values are kept in Montgomery form {@code a * R mod p}, {@code R = 2^256},
+ * as eight 32-bit little-endian limbs, so that multiplication needs neither
+ * {@link BigInteger} nor a division by p
  *
  * @author Mikhail Kalinin
  * @since 01.09.2017
  */
 public class Fp implements Field<Fp> {
 
+    private static final int N = 8;
+    private static final long M = 0xFFFFFFFFL;
+
+    // same as Params.P, which can't be used here as Params is initialized with Fp values
+    private static final BigInteger P = new BigInteger("21888242871839275222246405745257275088696311157297823662689037894645226208583");
+
+    private static final int[] P_LIMBS = limbs(P);
+    // -p^-1 mod 2^32
+    private static final int P_INV = BigInteger.ONE.shiftLeft(32).subtract(P.modInverse(BigInteger.ONE.shiftLeft(32))).intValue();
+    // R^2 mod p, converts to Montgomery form
+    private static final int[] R2 = limbs(BigInteger.ONE.shiftLeft(512).mod(P));
+    private static final int[] ONE_LIMBS = limbs(BigInteger.ONE);
+
     static final Fp ZERO = new Fp(BigInteger.ZERO);
     static final Fp _1 = new Fp(BigInteger.ONE);
     static final Fp NON_RESIDUE = new Fp(new BigInteger("21888242871839275222246405745257275088696311157297823662689037894645226208582"));
 
     static final Fp _2_INV = new Fp(BigInteger.valueOf(2).modInverse(P));
 
-    BigInteger v;
+    private final int[] v;
+    // false if created from a value which is not less than p
+    private final boolean valid;
 
-    Fp(BigInteger v) { this.v = v; }
+    Fp(BigInteger v) {
+        this.valid = v.signum() >= 0 && v.compareTo(P) < 0;
+        this.v = montMul(limbs(valid ? v : v.mod(P)), R2);
+    }
 
-    @Override public Fp add(Fp o) { return new Fp(this.v.add(o.v).mod(P)); }
-    @Override public Fp mul(Fp o) { return new Fp(this.v.multiply(o.v).mod(P)); }
-    @Override public Fp sub(Fp o) { return new Fp(this.v.subtract(o.v).mod(P)); }
-    @Override public Fp squared() { return new Fp(v.multiply(v).mod(P)); }
-    @Override public Fp dbl() { return new Fp(v.add(v).mod(P)); }
-    @Override public Fp inverse() { return new Fp(v.modInverse(P)); }
-    @Override public Fp negate() { return new Fp(v.negate().mod(P)); }
-    @Override public boolean isZero() { return v.compareTo(BigInteger.ZERO) == 0; }
+    private Fp(int[] v) {
+        this.v = v;
+        this.valid = true;
+    }
+
+    @Override public Fp add(Fp o) { return new Fp(add(this.v, o.v)); }
+    @Override public Fp mul(Fp o) { return new Fp(montMul(this.v, o.v)); }
+    @Override public Fp sub(Fp o) { return new Fp(sub(this.v, o.v)); }
+    @Override public Fp squared() { return new Fp(montMul(v, v)); }
+    @Override public Fp dbl() { return new Fp(add(v, v)); }
+    @Override public Fp inverse() { return new Fp(toBigInteger().modInverse(P)); }
+    @Override public Fp negate() { return isZero(v) ? this : new Fp(sub(P_LIMBS, v)); }
+    @Override public boolean isZero() { return valid && isZero(v); }
 
     /**
      * Checks if provided value is a valid Fp member
      */
     @Override
     public boolean isValid() {
-        return v.compareTo(P) < 0;
+        return valid;
     }
 
     Fp2 mul(Fp2 o) { return new Fp2(o.a.mul(this), o.b.mul(this)); }
@@ -67,7 +94,122 @@ public class Fp implements Field<Fp> {
     }
 
     public byte[] bytes() {
-        return v.toByteArray();
+        return toBigInteger().toByteArray();
+    }
+
+    BigInteger toBigInteger() {
+        int[] r = montMul(v, ONE_LIMBS);
+        byte[] bytes = new byte[N * 4];
+        for (int i = 0; i < N; i++) {
+            int limb = r[N - 1 - i];
+            bytes[i * 4] = (byte) (limb >>> 24);
+            bytes[i * 4 + 1] = (byte) (limb >>> 16);
+            bytes[i * 4 + 2] = (byte) (limb >>> 8);
+            bytes[i * 4 + 3] = (byte) limb;
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    private static int[] limbs(BigInteger v) {
+        int[] r = new int[N];
+        for (int i = 0; i < N; i++) {
+            r[i] = v.shiftRight(i * 32).intValue();
+        }
+        return r;
+    }
+
+    private static boolean isZero(int[] a) {
+        for (int i = 0; i < N; i++) {
+            if (a[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Montgomery multiplication {@code a * b * R^-1 mod p}, CIOS method
+     */
+    private static int[] montMul(int[] a, int[] b) {
+        int[] t = new int[N];
+        long tN = 0;
+        for (int i = 0; i < N; i++) {
+            long ai = a[i] & M;
+            long c = 0;
+            for (int j = 0; j < N; j++) {
+                long s = (t[j] & M) + ai * (b[j] & M) + c;
+                t[j] = (int) s;
+                c = s >>> 32;
+            }
+            long s = tN + c;
+            tN = s & M;
+            long tN1 = s >>> 32;
+
+            long m = (t[0] * P_INV) & M;
+            s = (t[0] & M) + m * (P_LIMBS[0] & M);
+            c = s >>> 32;
+            for (int j = 1; j < N; j++) {
+                s = (t[j] & M) + m * (P_LIMBS[j] & M) + c;
+                t[j - 1] = (int) s;
+                c = s >>> 32;
+            }
+            s = tN + c;
+            t[N - 1] = (int) s;
+            tN = tN1 + (s >>> 32);
+        }
+
+        if (tN != 0 || !less(t, P_LIMBS)) {
+            subInPlace(t, P_LIMBS);
+        }
+        return t;
+    }
+
+    private static int[] add(int[] a, int[] b) {
+        int[] r = new int[N];
+        long c = 0;
+        for (int i = 0; i < N; i++) {
+            long s = (a[i] & M) + (b[i] & M) + c;
+            r[i] = (int) s;
+            c = s >>> 32;
+        }
+        // p < 2^254, so the sum never overflows 256 bits
+        if (!less(r, P_LIMBS)) {
+            subInPlace(r, P_LIMBS);
+        }
+        return r;
+    }
+
+    private static int[] sub(int[] a, int[] b) {
+        int[] r = new int[N];
+        long borrow = 0;
+        for (int i = 0; i < N; i++) {
+            long s = (a[i] & M) - (b[i] & M) - borrow;
+            r[i] = (int) s;
+            borrow = s >>> 63;
+        }
+        if (borrow != 0) {
+            long c = 0;
+            for (int i = 0; i < N; i++) {
+                long s = (r[i] & M) + (P_LIMBS[i] & M) + c;
+                r[i] = (int) s;
+                c = s >>> 32;
+            }
+        }
+        return r;
+    }
+
+    private static void subInPlace(int[] a, int[] b) {
+        long borrow = 0;
+        for (int i = 0; i < N; i++) {
+            long s = (a[i] & M) - (b[i] & M) - borrow;
+            a[i] = (int) s;
+            borrow = s >>> 63;
+        }
+    }
+
+    private static boolean less(int[] a, int[] b) {
+        for (int i = N - 1; i >= 0; i--) {
+            if (a[i] != b[i]) return (a[i] & M) < (b[i] & M);
+        }
+        return false;
     }
 
     @Override
@@ -77,11 +219,11 @@ public class Fp implements Field<Fp> {
 
         Fp fp = (Fp) o;
 
-        return !(v != null ? v.compareTo(fp.v) != 0 : fp.v != null);
+        return valid == fp.valid && Arrays.equals(v, fp.v);
     }
 
     @Override
     public String toString() {
-        return v.toString();
+        return toBigInteger().toString();
     }
 }
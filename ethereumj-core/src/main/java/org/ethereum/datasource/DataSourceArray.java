@@ -17,10 +17,12 @@
  */
 package org.ethereum.datasource;
 
+import org.ethereum.util.ByteArrayMap;
 import org.ethereum.util.ByteUtil;
 import org.spongycastle.util.encoders.Hex;
 
 import java.util.AbstractList;
+import java.util.Map;
 
 /**
  * Stores List structure in Source structure
@@ -74,6 +76,34 @@ public class DataSourceArray<V> extends AbstractList<V> {
         return size;
     }
 
+    /**
+     * Drops the elements starting from {@code newSize} index.
+     * When the backing store supports batches the elements are deleted in the same batch
+     * with the size update, otherwise one by one before it
+     */
+    public synchronized void truncate(int newSize) {
+        int oldSize = size();
+        if (newSize >= oldSize) return;
+
+        Source<byte[], byte[]> store = src.getSource();
+        if (store instanceof BatchSource) {
+            // dropped indexes are never read through the src cache since they are beyond the size
+            // and are written through it again when re-added
+            Map<byte[], byte[]> batch = new ByteArrayMap<>();
+            for (int i = newSize; i < oldSize; i++) {
+                batch.put(ByteUtil.intToBytes(i), null);
+            }
+            batch.put(SIZE_KEY, ByteUtil.intToBytes(newSize));
+            ((BatchSource<byte[], byte[]>) store).updateBatch(batch);
+            size = newSize;
+        } else {
+            for (int i = newSize; i < oldSize; i++) {
+                src.delete(ByteUtil.intToBytes(i));
+            }
+            setSize(newSize);
+        }
+    }
+
     private synchronized void setSize(int newSize) {
         size = newSize;
         src.getSource().put(SIZE_KEY, ByteUtil.intToBytes(newSize));
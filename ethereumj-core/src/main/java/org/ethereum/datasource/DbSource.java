@@ -18,6 +18,7 @@
 package org.ethereum.datasource;
 
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * Interface represents DB source which is normally the final Source in the chain
@@ -63,6 +64,18 @@ public interface DbSource<V> extends BatchSource<byte[], V> {
      */
     Set<byte[]> keys() throws RuntimeException;
 
+    /**
+     * Passes all DB entries to the consumer in the order of keys (unsigned lexicographical),
+     * unlike {@link #keys()} doesn't keep the whole key set in memory.
+     * Consumer is allowed to modify DB, such modifications are not visible to the iteration
+     *
+     * @throws RuntimeException if the method is not supported
+     */
+    default void forEach(BiConsumer<byte[], V> consumer) throws RuntimeException {
+        throw new RuntimeException("Ordered iteration over entries is not supported by " + getClass().getName() +
+                ", override DbSource.forEach() to use it for state compaction");
+    }
+
     /**
      * Closes database, destroys its data and finally runs init()
      */
@@ -18,13 +18,16 @@
 package org.ethereum.datasource;
 
 import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.prune.Pruner;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPElement;
 import org.ethereum.util.RLPList;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The JournalSource records all the changes which were made before each commitUpdate
@@ -95,6 +98,9 @@ public class JournalSource<V> extends AbstractChainedSource<byte[], V, byte[], V
 
     Source<byte[], Update> journal = new HashMapDB<>();
 
+    // counts keys inserted by updates which are not yet released, see #retainInserts()
+    private Map<ByteArrayWrapper, Integer> retained;
+
     /**
      * Constructs instance with the underlying backing Source
      */
@@ -124,6 +130,10 @@ public class JournalSource<V> extends AbstractChainedSource<byte[], V, byte[], V
 
         getSource().put(key, val);
         currentUpdate.insertedKeys.add(key);
+
+        if (retained != null) {
+            retained.merge(new ByteArrayWrapper(key), 1, Integer::sum);
+        }
     }
 
     /**
@@ -155,6 +165,61 @@ public class JournalSource<V> extends AbstractChainedSource<byte[], V, byte[], V
         return committed;
     }
 
+    /**
+     * Starts tracking keys inserted by the updates which are not yet released by {@link #release(Update)}.
+     * Intended for {@link Pruner} which runs concurrently with block import
+     * and is fed with committed updates with a delay
+     */
+    public synchronized void retainInserts() {
+        if (retained == null) retained = new HashMap<>();
+    }
+
+    /**
+     * Stops protecting keys of the update from deletes made through {@link #getPruningSource(Source)},
+     * should be called once update is fed to {@link Pruner}
+     */
+    public synchronized void release(Update update) {
+        if (retained == null) return;
+
+        for (byte[] key : update.getInsertedKeys()) {
+            retained.computeIfPresent(new ByteArrayWrapper(key), (k, cnt) -> cnt > 1 ? cnt - 1 : null);
+        }
+    }
+
+    /**
+     * Wraps the storage pruned nodes are deleted from (normally the backing Source of this journal),
+     * deletes are skipped for keys inserted by the current or by any not yet released update. <br>
+     * Deletes are done under the same lock as inserts,
+     * thus node inserted by the block being imported can't be lost
+     */
+    public <T> Source<byte[], T> getPruningSource(Source<byte[], T> storage) {
+        return new AbstractChainedSource<byte[], T, byte[], T>(storage) {
+            @Override
+            public void put(byte[] key, T val) {
+                getSource().put(key, val);
+            }
+
+            @Override
+            public T get(byte[] key) {
+                return getSource().get(key);
+            }
+
+            @Override
+            public void delete(byte[] key) {
+                synchronized (JournalSource.this) {
+                    if (retained == null || !retained.containsKey(new ByteArrayWrapper(key))) {
+                        getSource().delete(key);
+                    }
+                }
+            }
+
+            @Override
+            protected boolean flushImpl() {
+                return false;
+            }
+        };
+    }
+
     public Source<byte[], Update> getJournal() {
         return journal;
     }
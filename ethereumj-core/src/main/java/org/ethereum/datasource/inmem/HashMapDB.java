@@ -23,8 +23,11 @@ import org.ethereum.util.ALock;
 import org.ethereum.util.ByteArrayMap;
 import org.ethereum.util.FastByteComparisons;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -106,6 +109,19 @@ public class HashMapDB<V> implements DbSource<V> {
         }
     }
 
+    @Override
+    public void forEach(BiConsumer<byte[], V> consumer) {
+        List<byte[]> keys;
+        try (ALock l = readLock.lock()) {
+            keys = new ArrayList<>(storage.keySet());
+        }
+        keys.sort((k1, k2) -> FastByteComparisons.compareTo(k1, 0, k1.length, k2, 0, k2.length));
+        for (byte[] key : keys) {
+            V val = get(key);
+            if (val != null) consumer.accept(key, val);
+        }
+    }
+
     @Override
     public void reset() {
         try (ALock l = writeLock.lock()) {
@@ -22,8 +22,11 @@ import org.ethereum.datasource.DbSource;
 import org.ethereum.util.ByteArrayMap;
 import org.ethereum.util.FastByteComparisons;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * Created by Anton Nashatyrev on 12.10.2016.
@@ -91,6 +94,16 @@ public class HashMapDBSimple<V> implements DbSource<V> {
         return getStorage().keySet();
     }
 
+    @Override
+    public void forEach(BiConsumer<byte[], V> consumer) {
+        List<byte[]> keys = new ArrayList<>(storage.keySet());
+        keys.sort((k1, k2) -> FastByteComparisons.compareTo(k1, 0, k1.length, k2, 0, k2.length));
+        for (byte[] key : keys) {
+            V val = get(key);
+            if (val != null) consumer.accept(key, val);
+        }
+    }
+
     @Override
     public void reset() {
         storage.clear();
@@ -36,6 +36,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 
 import static org.fusesource.leveldbjni.JniDBFactory.factory;
 import static org.ethereum.util.ByteUtil.toHexString;
@@ -247,6 +248,26 @@ public class LevelDbDataSource implements DbSource<byte[]> {
         }
     }
 
+    @Override
+    public void forEach(BiConsumer<byte[], byte[]> consumer) {
+        resetDbLock.readLock().lock();
+        try {
+            if (logger.isTraceEnabled()) logger.trace("~> LevelDbDataSource.forEach(): " + name);
+            try (DBIterator iterator = db.iterator()) {
+                for (iterator.seekToFirst(); iterator.hasNext(); ) {
+                    Map.Entry<byte[], byte[]> entry = iterator.next();
+                    consumer.accept(entry.getKey(), entry.getValue());
+                }
+                if (logger.isTraceEnabled()) logger.trace("<~ LevelDbDataSource.forEach(): " + name);
+            } catch (IOException e) {
+                logger.error("Unexpected", e);
+                throw new RuntimeException(e);
+            }
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
+
     private void updateBatchInternal(Map<byte[], byte[]> rows) throws IOException {
         try (WriteBatch batch = db.createWriteBatch()) {
             for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
@@ -37,6 +37,7 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 
 import static java.lang.System.arraycopy;
 import static org.ethereum.util.ByteUtil.toHexString;
@@ -245,6 +246,26 @@ public class RocksDbDataSource implements DbSource<byte[]> {
         }
     }
 
+    @Override
+    public void forEach(BiConsumer<byte[], byte[]> consumer) {
+        resetDbLock.readLock().lock();
+        try {
+            if (logger.isTraceEnabled()) logger.trace("~> RocksDbDataSource.forEach(): " + name);
+            try (RocksIterator iterator = db.newIterator()) {
+                for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                    consumer.accept(iterator.key(), iterator.value());
+                }
+                if (logger.isTraceEnabled()) logger.trace("<~ RocksDbDataSource.forEach(): " + name);
+            } catch (Exception e) {
+                logger.error("Error iterating db '{}'", name, e);
+                hintOnTooManyOpenFiles(e);
+                throw new RuntimeException(e);
+            }
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
+
     @Override
     public void reset() {
         close();
@@ -22,7 +22,9 @@ import org.ethereum.core.BlockHeader;
 import org.ethereum.datasource.DataSourceArray;
 import org.ethereum.datasource.ObjectDataSource;
 import org.ethereum.datasource.Serializer;
+import org.ethereum.datasource.Serializers;
 import org.ethereum.datasource.Source;
+import org.ethereum.datasource.XorDataSource;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.util.FastByteComparisons;
 import org.ethereum.util.RLP;
@@ -34,28 +36,62 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.math.BigInteger.ZERO;
+import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.crypto.HashUtil.shortHash;
 import static org.spongycastle.util.Arrays.areEqual;
 
+/**
+ * Block store with number => block levels index
+ *
+ * Modifying methods are serialized while readers never take the store lock:
+ * they work with the latest {@link ChainSnapshot} published by the writer
+ * and the underlying sources which are thread-safe.
+ * The writer publishes a new snapshot version before it touches the sources,
+ * so readers doing several reads retry when the version has changed meanwhile
+ */
 public class IndexedBlockStore extends AbstractBlockstore{
 
     private static final Logger logger = LoggerFactory.getLogger("general");
 
+    // number of top levels kept decoded in memory
+    private static final int LEVEL_CACHE_SIZE = 1024;
+
     Source<byte[], byte[]> indexDS;
+    ObjectDataSource<List<BlockInfo>> indexSource;
     DataSourceArray<List<BlockInfo>> index;
+    // number => main chain block hash, kept in sync with the index levels
+    ObjectDataSource<byte[]> canonicalSource;
+    DataSourceArray<byte[]> canonical;
     Source<byte[], byte[]> blocksDS;
     ObjectDataSource<Block> blocks;
 
+    // level lists are never modified after they are put here or to the snapshot
+    private final Map<Long, List<BlockInfo>> levelCache = new ConcurrentHashMap<>();
+
+    private volatile ChainSnapshot snapshot = new ChainSnapshot(0, -1, Collections.<Long, List<BlockInfo>>emptyMap());
+
     public IndexedBlockStore(){
     }
 
     public void init(Source<byte[], byte[]> index, Source<byte[], byte[]> blocks) {
         indexDS = index;
-        this.index = new DataSourceArray<>(
-                new ObjectDataSource<>(index, BLOCK_INFO_SERIALIZER, 512));
+        this.indexSource = new ObjectDataSource<>(index, BLOCK_INFO_SERIALIZER, 0);
+        this.index = new DataSourceArray<>(indexSource);
+        // no read cache: a lock-free reader could put a hash it read before a reorg
+        // back into the cache over the one the writer has just set
+        this.canonicalSource = new ObjectDataSource<>(new XorDataSource<>(index, sha3("canonical".getBytes())),
+                new Serializers.Identity<byte[]>(), 0);
+        this.canonical = new DataSourceArray<>(canonicalSource);
+        levelCache.clear();
         this.blocksDS = blocks;
         this.blocks = new ObjectDataSource<>(blocks, new Serializer<Block, byte[]>() {
             @Override
@@ -68,31 +104,47 @@ public class IndexedBlockStore extends AbstractBlockstore{
                 return bytes == null ? null : new Block(bytes);
             }
         }, 256);
+
+        if (canonical.size() < this.index.size()) {
+            logger.info("Building canonical chain index from #" + canonical.size() + " to #" + (this.index.size() - 1));
+            for (int i = canonical.size(); i < this.index.size(); i++) {
+                canonical.set(i, getMainChainHash(this.index.get(i)));
+            }
+        }
+        snapshot = new ChainSnapshot(snapshot.version + 1, this.index.size() - 1, Collections.<Long, List<BlockInfo>>emptyMap());
     }
 
-    public synchronized Block getBestBlock(){
+    public Block getBestBlock(){
+        while (true) {
+            ChainSnapshot snapshot = this.snapshot;
 
-        Long maxLevel = getMaxNumber();
-        if (maxLevel < 0) return null;
+            long maxLevel = snapshot.maxNumber;
+            if (maxLevel < 0) return null;
 
-        Block bestBlock = getChainBlockByNumber(maxLevel);
-        if (bestBlock != null) return  bestBlock;
+            byte[] bestHash = getBlockHashByNumber(snapshot, maxLevel);
+
+            // That scenario can happen
+            // if there is a fork branch that is
+            // higher than main branch but has
+            // less TD than the main branch TD
+            while (bestHash == null && maxLevel > 0){
+                --maxLevel;
+                bestHash = getBlockHashByNumber(snapshot, maxLevel);
+            }
 
-        // That scenario can happen
-        // if there is a fork branch that is
-        // higher than main branch but has
-        // less TD than the main branch TD
-        while (bestBlock == null){
-            --maxLevel;
-            bestBlock = getChainBlockByNumber(maxLevel);
+            if (isCurrent(snapshot)) return bestHash == null ? null : blocks.get(bestHash);
         }
+    }
 
-        return bestBlock;
+    public byte[] getBlockHashByNumber(long blockNumber){
+        return getBlockHashByNumber(snapshot, blockNumber);
     }
 
-    public synchronized byte[] getBlockHashByNumber(long blockNumber){
-        Block chainBlock = getChainBlockByNumber(blockNumber);
-        return chainBlock == null ? null : chainBlock.getHash(); // FIXME: can be improved by accessing the hash directly in the index
+    private byte[] getBlockHashByNumber(ChainSnapshot snapshot, long blockNumber){
+        if (blockNumber < 0 || blockNumber > snapshot.maxNumber) return null;
+        List<BlockInfo> pending = snapshot.pendingLevels.get(blockNumber);
+        if (pending != null) return getMainChainHash(pending);
+        return canonicalSource.get(ByteUtil.intToBytes((int) blockNumber));
     }
 
 
@@ -100,6 +152,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
     public synchronized void flush(){
         blocks.flush();
         index.flush();
+        canonical.flush();
         blocksDS.flush();
         indexDS.flush();
     }
@@ -112,8 +165,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     private void addInternalBlock(Block block, BigInteger totalDifficulty, boolean mainChain){
 
-        List<BlockInfo> blockInfos = block.getNumber() >= index.size() ?  null : index.get((int) block.getNumber());
-        blockInfos = blockInfos == null ? new ArrayList<BlockInfo>() : blockInfos;
+        List<BlockInfo> blockInfos = copyLevel(getBlockInfoForLevel(block.getNumber()));
 
         BlockInfo blockInfo = new BlockInfo();
         blockInfo.setTotalDifficulty(totalDifficulty);
@@ -121,9 +173,10 @@ public class IndexedBlockStore extends AbstractBlockstore{
         blockInfo.setMainChain(mainChain); // FIXME:maybe here I should force reset main chain for all uncles on that level
 
         putBlockInfo(blockInfos, blockInfo);
-        index.set((int) block.getNumber(), blockInfos);
 
+        // the block should be available before readers see it in the index
         blocks.put(block.getHash(), block);
+        commitLevels(Collections.singletonMap(block.getNumber(), blockInfos));
     }
 
     private void putBlockInfo(List<BlockInfo> blockInfos, BlockInfo blockInfo) {
@@ -138,15 +191,11 @@ public class IndexedBlockStore extends AbstractBlockstore{
     }
 
 
-    public synchronized List<Block> getBlocksByNumber(long number){
+    public List<Block> getBlocksByNumber(long number){
 
         List<Block> result = new ArrayList<>();
 
-        if (number >= index.size()) {
-            return result;
-        }
-
-        List<BlockInfo> blockInfos = index.get((int) number);
+        List<BlockInfo> blockInfos = getBlockInfoForLevel(number);
 
         if (blockInfos == null) {
             return result;
@@ -163,47 +212,29 @@ public class IndexedBlockStore extends AbstractBlockstore{
     }
 
     @Override
-    public synchronized Block getChainBlockByNumber(long number){
-        if (number >= index.size()){
-            return null;
-        }
-
-        List<BlockInfo> blockInfos = index.get((int) number);
-
-        if (blockInfos == null) {
-            return null;
-        }
-
-        for (BlockInfo blockInfo : blockInfos){
-
-            if (blockInfo.isMainChain()){
-
-                byte[] hash = blockInfo.getHash();
-                return blocks.get(hash);
-            }
-        }
-
-        return null;
+    public Block getChainBlockByNumber(long number){
+        byte[] hash = getBlockHashByNumber(number);
+        return hash == null ? null : blocks.get(hash);
     }
 
     @Override
-    public synchronized Block getBlockByHash(byte[] hash) {
+    public Block getBlockByHash(byte[] hash) {
         return blocks.get(hash);
     }
 
     @Override
-    public synchronized boolean isBlockExist(byte[] hash) {
+    public boolean isBlockExist(byte[] hash) {
         return blocks.get(hash) != null;
     }
 
 
     @Override
-    public synchronized BigInteger getTotalDifficultyForHash(byte[] hash){
+    public BigInteger getTotalDifficultyForHash(byte[] hash){
         Block block = this.getBlockByHash(hash);
         if (block == null) return ZERO;
 
-        Long level  =  block.getNumber();
-        List<BlockInfo> blockInfos =  index.get(level.intValue());
+        List<BlockInfo> blockInfos = getBlockInfoForLevel(block.getNumber());
+        if (blockInfos == null) return ZERO;
         for (BlockInfo blockInfo : blockInfos)
                  if (areEqual(blockInfo.getHash(), hash)) {
                      return blockInfo.totalDifficulty;
@@ -214,53 +245,44 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
 
     @Override
-    public synchronized BigInteger getTotalDifficulty(){
-        long maxNumber = getMaxNumber();
-
-        List<BlockInfo> blockInfos = index.get((int) maxNumber);
-        for (BlockInfo blockInfo : blockInfos){
-            if (blockInfo.isMainChain()){
-                return blockInfo.getTotalDifficulty();
-            }
-        }
-
-        while (true){
-            --maxNumber;
-            List<BlockInfo> infos = getBlockInfoForLevel(maxNumber);
-
-            for (BlockInfo blockInfo : infos) {
-                if (blockInfo.isMainChain()) {
-                    return blockInfo.getTotalDifficulty();
+    public BigInteger getTotalDifficulty(){
+        while (true) {
+            ChainSnapshot snapshot = this.snapshot;
+            long maxNumber = snapshot.maxNumber;
+
+            BigInteger totalDifficulty = ZERO;
+            while (maxNumber >= 0){
+                byte[] hash = getBlockHashByNumber(snapshot, maxNumber);
+                if (hash != null) {
+                    BlockInfo blockInfo = getBlockInfoForHash(getBlockInfoForLevel(snapshot, maxNumber), hash);
+                    if (blockInfo != null) totalDifficulty = blockInfo.getTotalDifficulty();
+                    break;
                 }
+                --maxNumber;
             }
+
+            if (isCurrent(snapshot)) return totalDifficulty;
         }
     }
 
     public synchronized void updateTotDifficulties(long index) {
-        List<BlockInfo> level = getBlockInfoForLevel(index);
+        List<BlockInfo> level = copyLevel(getBlockInfoForLevel(index));
         for (BlockInfo blockInfo : level) {
             Block block = getBlockByHash(blockInfo.getHash());
             List<BlockInfo> parentInfos = getBlockInfoForLevel(index - 1);
             BlockInfo parentInfo = getBlockInfoForHash(parentInfos, block.getParentHash());
             blockInfo.setTotalDifficulty(parentInfo.getTotalDifficulty().add(block.getDifficultyBI()));
         }
-        this.index.set((int) index, level);
+        commitLevels(Collections.singletonMap(index, level));
     }
 
     @Override
-    public synchronized long getMaxNumber(){
-
-        Long bestIndex = 0L;
-
-        if (index.size() > 0){
-            bestIndex = (long) index.size();
-        }
-
-        return bestIndex - 1L;
+    public long getMaxNumber(){
+        return snapshot.maxNumber;
     }
 
     @Override
-    public synchronized List<byte[]> getListHashesEndWith(byte[] hash, long number){
+    public List<byte[]> getListHashesEndWith(byte[] hash, long number){
 
         List<Block> blocks = getListBlocksEndWith(hash, number);
         List<byte[]> hashes = new ArrayList<>(blocks.size());
@@ -273,7 +295,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
     }
 
     @Override
-    public synchronized List<BlockHeader> getListHeadersEndWith(byte[] hash, long qty) {
+    public List<BlockHeader> getListHeadersEndWith(byte[] hash, long qty) {
 
         List<Block> blocks = getListBlocksEndWith(hash, qty);
         List<BlockHeader> headers = new ArrayList<>(blocks.size());
@@ -286,7 +308,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
     }
 
     @Override
-    public synchronized List<Block> getListBlocksEndWith(byte[] hash, long qty) {
+    public List<Block> getListBlocksEndWith(byte[] hash, long qty) {
         return getListBlocksEndWithInner(hash, qty);
     }
 
@@ -311,6 +333,8 @@ public class IndexedBlockStore extends AbstractBlockstore{
     public synchronized void reBranch(Block forkBlock){
 
         Block bestBlock = getBestBlock();
+        // levels are switched all at once when the whole branch is walked
+        Map<Long, List<BlockInfo>> changedLevels = new HashMap<>();
 
         long maxLevel = Math.max(bestBlock.getNumber(), forkBlock.getNumber());
 
@@ -320,11 +344,11 @@ public class IndexedBlockStore extends AbstractBlockstore{
         if (forkBlock.getNumber() > bestBlock.getNumber()){
 
             while(currentLevel > bestBlock.getNumber()){
-                List<BlockInfo> blocks =  getBlockInfoForLevel(currentLevel);
+                List<BlockInfo> blocks =  copyLevel(getBlockInfoForLevel(currentLevel));
                 BlockInfo blockInfo = getBlockInfoForHash(blocks, forkLine.getHash());
                 if (blockInfo != null)  {
                     blockInfo.setMainChain(true);
-                    setBlockInfoForLevel(currentLevel, blocks);
+                    changedLevels.put(currentLevel, blocks);
                 }
                 forkLine = getBlockByHash(forkLine.getParentHash());
                 --currentLevel;
@@ -336,11 +360,11 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
             while(currentLevel > forkBlock.getNumber()){
 
-                List<BlockInfo> blocks =  getBlockInfoForLevel(currentLevel);
+                List<BlockInfo> blocks =  copyLevel(getBlockInfoForLevel(currentLevel));
                 BlockInfo blockInfo = getBlockInfoForHash(blocks, bestLine.getHash());
                 if (blockInfo != null)  {
                     blockInfo.setMainChain(false);
-                    setBlockInfoForLevel(currentLevel, blocks);
+                    changedLevels.put(currentLevel, blocks);
                 }
                 bestLine = getBlockByHash(bestLine.getParentHash());
                 --currentLevel;
@@ -351,17 +375,17 @@ public class IndexedBlockStore extends AbstractBlockstore{
         // 2. Loop back on each level until common block
         while( !bestLine.isEqual(forkLine) ) {
 
-            List<BlockInfo> levelBlocks = getBlockInfoForLevel(currentLevel);
+            List<BlockInfo> levelBlocks = copyLevel(getBlockInfoForLevel(currentLevel));
             BlockInfo bestInfo = getBlockInfoForHash(levelBlocks, bestLine.getHash());
             if (bestInfo != null) {
                 bestInfo.setMainChain(false);
-                setBlockInfoForLevel(currentLevel, levelBlocks);
+                changedLevels.put(currentLevel, levelBlocks);
             }
 
             BlockInfo forkInfo = getBlockInfoForHash(levelBlocks, forkLine.getHash());
             if (forkInfo != null) {
                 forkInfo.setMainChain(true);
-                setBlockInfoForLevel(currentLevel, levelBlocks);
+                changedLevels.put(currentLevel, levelBlocks);
             }
 
 
@@ -371,30 +395,49 @@ public class IndexedBlockStore extends AbstractBlockstore{
             --currentLevel;
         }
 
-
+        commitLevels(changedLevels);
     }
 
 
-    public synchronized List<byte[]> getListHashesStartWith(long number, long maxBlocks){
+    public List<byte[]> getListHashesStartWith(long number, long maxBlocks){
+        while (true) {
+            ChainSnapshot snapshot = this.snapshot;
 
-        List<byte[]> result = new ArrayList<>();
+            List<byte[]> result = new ArrayList<>();
 
-        int i;
-        for ( i = 0; i < maxBlocks; ++i){
-            List<BlockInfo> blockInfos =  index.get((int) number);
-            if (blockInfos == null) break;
-
-            for (BlockInfo blockInfo : blockInfos)
-               if (blockInfo.isMainChain()){
-                   result.add(blockInfo.getHash());
-                   break;
-               }
+            for (long i = 0, n = number; i < maxBlocks; ++i, ++n){
+                if (n > snapshot.maxNumber) break;
+                byte[] hash = getBlockHashByNumber(snapshot, n);
+                if (hash != null) result.add(hash);
+            }
 
-            ++number;
+            if (isCurrent(snapshot)) return result;
         }
-        maxBlocks -= i;
+    }
 
-        return result;
+    /**
+     * Checks that no levels were committed since the snapshot was taken,
+     * i.e. the index sources read against it weren't modified meanwhile
+     */
+    private boolean isCurrent(ChainSnapshot snapshot) {
+        return this.snapshot.version == snapshot.version;
+    }
+
+    /**
+     * Immutable state of the index published by the writer
+     */
+    private static class ChainSnapshot {
+        // incremented on every publication
+        final long version;
+        final long maxNumber;
+        // levels which may be not written to the index yet
+        final Map<Long, List<BlockInfo>> pendingLevels;
+
+        ChainSnapshot(long version, long maxNumber, Map<Long, List<BlockInfo>> pendingLevels) {
+            this.version = version;
+            this.maxNumber = maxNumber;
+            this.pendingLevels = pendingLevels;
+        }
     }
 
     public static class BlockInfo implements Serializable {
@@ -428,17 +471,46 @@ public class IndexedBlockStore extends AbstractBlockstore{
     }
 
 
+    /**
+     * Encodes the level as a fixed layout record:
+     * [version (1 byte)] [hash (32 bytes), total difficulty (32 bytes), main chain flag (1 byte)]*
+     * Falls back to the legacy RLP encoding when hash or total difficulty don't fit the layout,
+     * legacy records are distinguished by the RLP list prefix
+     */
     public static final Serializer<List<BlockInfo>, byte[]> BLOCK_INFO_SERIALIZER = new Serializer<List<BlockInfo>, byte[]>(){
 
+        private static final byte FIXED_LAYOUT = 0x01;
+        private static final int ENTRY_SIZE = 32 + 32 + 1;
+
         @Override
         public byte[] serialize(List<BlockInfo> value) {
+            boolean fixedLayout = true;
+            for (BlockInfo blockInfo : value) {
+                // Encoding works correctly only with positive BigIntegers
+                if (blockInfo.getTotalDifficulty() == null || blockInfo.getTotalDifficulty().compareTo(BigInteger.ZERO) < 0) {
+                    throw new RuntimeException("BlockInfo totalDifficulty should be positive BigInteger");
+                }
+                fixedLayout &= blockInfo.getHash().length == 32 && blockInfo.getTotalDifficulty().bitLength() <= 256;
+            }
+            if (!fixedLayout) return serializeRlp(value);
+
+            byte[] ret = new byte[1 + value.size() * ENTRY_SIZE];
+            ret[0] = FIXED_LAYOUT;
+            int off = 1;
+            for (BlockInfo blockInfo : value) {
+                System.arraycopy(blockInfo.getHash(), 0, ret, off, 32);
+                byte[] totalDiff = ByteUtil.bigIntegerToBytes(blockInfo.getTotalDifficulty(), 32);
+                System.arraycopy(totalDiff, 0, ret, off + 32, 32);
+                ret[off + 64] = (byte) (blockInfo.isMainChain() ? 1 : 0);
+                off += ENTRY_SIZE;
+            }
+            return ret;
+        }
+
+        private byte[] serializeRlp(List<BlockInfo> value) {
                 List<byte[]> rlpBlockInfoList = new ArrayList<>();
                 for (BlockInfo blockInfo : value) {
                     byte[] hash = RLP.encodeElement(blockInfo.getHash());
-                    // Encoding works correctly only with positive BigIntegers
-                    if (blockInfo.getTotalDifficulty() == null || blockInfo.getTotalDifficulty().compareTo(BigInteger.ZERO) < 0) {
-                        throw new RuntimeException("BlockInfo totalDifficulty should be positive BigInteger");
-                    }
                     byte[] totalDiff = RLP.encodeBigInteger(blockInfo.getTotalDifficulty());
                     byte[] isMainChain = RLP.encodeInt(blockInfo.isMainChain() ? 1 : 0);
                     rlpBlockInfoList.add(RLP.encodeList(hash, totalDiff, isMainChain));
@@ -451,7 +523,21 @@ public class IndexedBlockStore extends AbstractBlockstore{
         @Override
         public List<BlockInfo> deserialize(byte[] bytes) {
             if (bytes == null) return null;
+            if (bytes.length == 0 || bytes[0] != FIXED_LAYOUT) return deserializeRlp(bytes);
+
+            int count = (bytes.length - 1) / ENTRY_SIZE;
+            List<BlockInfo> blockInfoList = new ArrayList<>(count);
+            for (int off = 1; off + ENTRY_SIZE <= bytes.length; off += ENTRY_SIZE) {
+                BlockInfo blockInfo = new BlockInfo();
+                blockInfo.setHash(Arrays.copyOfRange(bytes, off, off + 32));
+                blockInfo.setTotalDifficulty(ByteUtil.bytesToBigInteger(Arrays.copyOfRange(bytes, off + 32, off + 64)));
+                blockInfo.setMainChain(bytes[off + 64] == 1);
+                blockInfoList.add(blockInfo);
+            }
+            return blockInfoList;
+        }
 
+        private List<BlockInfo> deserializeRlp(byte[] bytes) {
             List<BlockInfo> blockInfoList = new ArrayList<>();
             RLPList list = (RLPList) RLP.decode2(bytes).get(0);
             for (RLPElement element : list) {
@@ -470,12 +556,12 @@ public class IndexedBlockStore extends AbstractBlockstore{
     };
 
 
-    public synchronized void printChain(){
+    public void printChain(){
 
         Long number = getMaxNumber();
 
         for (int i = 0; i < number; ++i){
-            List<BlockInfo> levelInfos = index.get(i);
+            List<BlockInfo> levelInfos = getBlockInfoForLevel(i);
 
             if (levelInfos != null) {
                 System.out.print(i);
@@ -492,12 +578,77 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     }
 
-    private synchronized List<BlockInfo> getBlockInfoForLevel(long level){
-        return index.get((int) level);
+    private List<BlockInfo> getBlockInfoForLevel(long level){
+        return getBlockInfoForLevel(snapshot, level);
     }
 
-    private synchronized void setBlockInfoForLevel(long level, List<BlockInfo> infos){
-        index.set((int) level, infos);
+    private List<BlockInfo> getBlockInfoForLevel(ChainSnapshot snapshot, long level){
+        if (level < 0 || level > snapshot.maxNumber) return null;
+
+        List<BlockInfo> infos = snapshot.pendingLevels.get(level);
+        if (infos == null) infos = levelCache.get(level);
+        if (infos == null) {
+            infos = indexSource.get(ByteUtil.intToBytes((int) level));
+            if (infos != null && level > snapshot.maxNumber - LEVEL_CACHE_SIZE &&
+                    levelCache.putIfAbsent(level, infos) == null && !isCurrent(snapshot)) {
+                // the level might be read before the writer rewrote it and evicted the new one,
+                // the writer puts the level after it is written so a version checked after our put
+                // guarantees the cached level is the actual one
+                levelCache.remove(level, infos);
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * Publishes modified levels: readers see them via the snapshot
+     * while they are written to the index, then via the index itself
+     */
+    private synchronized void commitLevels(Map<Long, List<BlockInfo>> levels){
+        if (levels.isEmpty()) return;
+
+        long maxNumber = snapshot.maxNumber;
+        for (Long level : levels.keySet()) {
+            maxNumber = Math.max(maxNumber, level);
+        }
+        snapshot = new ChainSnapshot(snapshot.version + 1, maxNumber, new HashMap<>(levels));
+
+        for (Map.Entry<Long, List<BlockInfo>> entry : levels.entrySet()) {
+            int level = entry.getKey().intValue();
+            index.set(level, entry.getValue());
+            canonical.set(level, getMainChainHash(entry.getValue()));
+            levelCache.put(entry.getKey(), entry.getValue());
+        }
+
+        snapshot = new ChainSnapshot(snapshot.version + 1, maxNumber, Collections.<Long, List<BlockInfo>>emptyMap());
+
+        if (levelCache.size() > LEVEL_CACHE_SIZE * 2) {
+            long minLevel = maxNumber - LEVEL_CACHE_SIZE;
+            for (Iterator<Long> it = levelCache.keySet().iterator(); it.hasNext(); ) {
+                if (it.next() <= minLevel) it.remove();
+            }
+        }
+    }
+
+    private static List<BlockInfo> copyLevel(List<BlockInfo> infos) {
+        List<BlockInfo> ret = new ArrayList<>();
+        if (infos == null) return ret;
+        for (BlockInfo blockInfo : infos) {
+            BlockInfo copy = new BlockInfo();
+            copy.setHash(blockInfo.getHash());
+            copy.setTotalDifficulty(blockInfo.getTotalDifficulty());
+            copy.setMainChain(blockInfo.isMainChain());
+            ret.add(copy);
+        }
+        return ret;
+    }
+
+    private static byte[] getMainChainHash(List<BlockInfo> infos) {
+        if (infos == null) return null;
+        for (BlockInfo blockInfo : infos) {
+            if (blockInfo.isMainChain()) return blockInfo.getHash();
+        }
+        return null;
     }
 
     private static BlockInfo getBlockInfoForHash(List<BlockInfo> blocks, byte[] hash){
@@ -17,6 +17,7 @@
  */
 package org.ethereum.db;
 
+import com.google.common.util.concurrent.RateLimiter;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
@@ -24,10 +25,15 @@ import org.ethereum.datasource.JournalSource;
 import org.ethereum.datasource.Source;
 import org.ethereum.db.prune.Segment;
 import org.ethereum.db.prune.Pruner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -36,6 +42,14 @@ import java.util.stream.Collectors;
  * <p>
  *     Constructs chain segments and prune them when they are complete
  *
+ * <p>
+ *     Pruning could be moved to a background thread, see {@link #withBackgroundPruning(int, int)},
+ *     in that case block import is only blocked when the pruning falls too much behind.
+ *     Background pruning is not crash safe: the worker doesn't hold the {@link DbFlushManager} lock
+ *     (block import enqueues blocks under it), so a flush may persist a partially applied prune step.
+ *     After an unclean shutdown the DB could keep unreachable nodes,
+ *     which are only removed by the one-off state compaction
+ *
  * Created by Anton Nashatyrev on 10.11.2016.
  *
  * @see Segment
@@ -43,9 +57,12 @@ import java.util.stream.Collectors;
  */
 public class PruneManager {
 
+    private static final Logger logger = LoggerFactory.getLogger("prune");
+
     private static final int LONGEST_CHAIN = 192;
 
     private JournalSource<?> journalSource;
+    private Source<byte[], ?> pruneStorage;
 
     @Autowired
     private IndexedBlockStore blockStore;
@@ -55,6 +72,28 @@ public class PruneManager {
     private Segment segment;
     private Pruner pruner;
 
+    private static class Committed {
+        BlockHeader block;
+        JournalSource.Update update;
+
+        Committed(BlockHeader block, JournalSource.Update update) {
+            this.block = block;
+            this.update = update;
+        }
+    }
+
+    // background pruning
+    private BlockingQueue<Committed> pruneQueue;
+    private RateLimiter rateLimiter;
+    private Thread pruneThread;
+    // set when the worker is done: either closed or failed to prune,
+    // the pruner state is not trusted after a failure, so pruning is stopped for good
+    private volatile boolean pruneStopped = false;
+    private volatile long lastPrunedBlock = -1;
+    private volatile long keysProcessed = 0;
+    private volatile long blocksQueued = 0;
+    private volatile long blocksPruned = 0;
+
     @Autowired
     private PruneManager(SystemProperties config) {
         pruneBlocksCnt = config.databasePruneDepth();
@@ -65,22 +104,190 @@ public class PruneManager {
         this.blockStore = blockStore;
         this.journalSource = journalSource;
         this.pruneBlocksCnt = pruneBlocksCnt;
+        this.pruneStorage = pruneStorage;
 
-        if (journalSource != null && pruneStorage != null)
-            this.pruner = new Pruner(journalSource.getJournal(), pruneStorage);
+        initPruner();
     }
 
     @Autowired
     public void setStateSource(StateSource stateSource) {
         journalSource = stateSource.getJournalSource();
-        if (journalSource != null)
-            pruner = new Pruner(journalSource.getJournal(), stateSource.getNoJournalSource());
+        pruneStorage = stateSource.getNoJournalSource();
+        initPruner();
+    }
+
+    /**
+     * Moves pruning to a separate thread which is fed with committed blocks through a queue.
+     * Not crash safe, see the class description
+     *
+     * @param queueSize number of committed blocks which pruning could fall behind,
+     *                  block import is blocked when the queue is full
+     * @param maxKeysPerSecond limits the rate of pruning in journal keys processed per second,
+     *                         zero means no limit
+     */
+    public PruneManager withBackgroundPruning(int queueSize, int maxKeysPerSecond) {
+        if (pruneBlocksCnt < 0 || pruneThread != null) return this;
+
+        pruneQueue = new ArrayBlockingQueue<>(queueSize);
+        if (maxKeysPerSecond > 0)
+            rateLimiter = RateLimiter.create(maxKeysPerSecond);
+        initPruner();
+
+        pruneThread = new Thread(this::pruneLoop, "prune-worker");
+        pruneThread.setDaemon(true);
+        pruneThread.start();
+        return this;
+    }
+
+    private void initPruner() {
+        if (journalSource == null || pruneStorage == null) return;
+
+        if (pruneQueue != null) {
+            // keys inserted by blocks waiting in the queue must survive until they are fed to the pruner
+            journalSource.retainInserts();
+            pruner = new Pruner(journalSource.getJournal(), journalSource.getPruningSource(pruneStorage));
+        } else {
+            pruner = new Pruner(journalSource.getJournal(), pruneStorage);
+        }
     }
 
     public void blockCommitted(BlockHeader block) {
         if (pruneBlocksCnt < 0) return; // pruning disabled
 
         JournalSource.Update update = journalSource.commitUpdates(block.getHash());
+
+        if (pruneQueue != null) {
+            enqueue(new Committed(block, update));
+        } else {
+            prune(block, update);
+        }
+    }
+
+    /**
+     * Puts the block to the prune queue, retries when interrupted:
+     * a dropped update would never be released and its keys never pruned.
+     * The update is released right away if the worker has stopped
+     */
+    private void enqueue(Committed committed) {
+        boolean interrupted = false;
+        try {
+            while (!pruneStopped) {
+                try {
+                    if (pruneQueue.offer(committed, 100, TimeUnit.MILLISECONDS)) {
+                        blocksQueued++;
+                        // the worker might stop before taking it
+                        if (pruneStopped) releaseQueued();
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            journalSource.release(committed.update);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private void pruneLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Committed committed;
+                try {
+                    committed = pruneQueue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                int keys = committed.update.getInsertedKeys().size() + committed.update.getDeletedKeys().size();
+                if (rateLimiter != null && keys > 0)
+                    rateLimiter.acquire(keys);
+
+                try {
+                    prune(committed.block, committed.update);
+                } catch (Exception e) {
+                    logger.error("Failed to prune state at block {}, state pruning is stopped", committed.block.getShortDescr(), e);
+                    break;
+                } finally {
+                    journalSource.release(committed.update);
+                    blocksPruned++;
+                }
+
+                lastPrunedBlock = committed.block.getNumber();
+                keysProcessed += keys;
+                if (lastPrunedBlock % 1000 == 0) {
+                    logger.info("Pruned up to block #{}, blocks in queue: {}, journal keys processed: {}",
+                            lastPrunedBlock, pruneQueue.size(), keysProcessed);
+                }
+            }
+        } finally {
+            pruneStopped = true;
+            releaseQueued();
+        }
+    }
+
+    /**
+     * Releases updates left in the queue once the worker has stopped,
+     * they are kept in the journal but not pruned
+     */
+    private void releaseQueued() {
+        Committed committed;
+        while ((committed = pruneQueue.poll()) != null) {
+            journalSource.release(committed.update);
+            blocksPruned++;
+        }
+    }
+
+    /**
+     * Number of committed blocks waiting for background pruning
+     */
+    public int getPruneQueueSize() {
+        return pruneQueue == null ? 0 : pruneQueue.size();
+    }
+
+    /**
+     * Number of the last block processed by background pruning, -1 if there is no such block
+     */
+    public long getLastPrunedBlock() {
+        return lastPrunedBlock;
+    }
+
+    /**
+     * Total number of journal keys processed by background pruning
+     */
+    public long getKeysProcessed() {
+        return keysProcessed;
+    }
+
+    /**
+     * Waits for the background pruning to process all committed blocks
+     * or to stop
+     */
+    public void waitForPruning() throws InterruptedException {
+        if (pruneQueue == null) return;
+
+        while (blocksPruned < blocksQueued && !pruneStopped) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Stops background pruning, blocks left in the queue are kept in the journal
+     * and are not pruned, blocks committed afterwards are not pruned either
+     */
+    public void close() {
+        if (pruneThread == null) return;
+
+        pruneThread.interrupt();
+        try {
+            pruneThread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pruneThread = null;
+    }
+
+    private void prune(BlockHeader block, JournalSource.Update update) {
         pruner.feed(update);
 
         long forkBlockNum = block.getNumber() - getForkBlocksCnt();
@@ -422,6 +422,16 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
         throw new RuntimeException("Not supported");
     }
 
+    @Override
+    public List<byte[]> getAccountProof(byte[] addr) {
+        throw new RuntimeException("Not supported");
+    }
+
+    @Override
+    public List<byte[]> getStorageProof(byte[] addr, DataWord key) {
+        throw new RuntimeException("Not supported");
+    }
+
     @Override
     public void updateBatch(HashMap<ByteArrayWrapper, AccountState> accountStates, HashMap<ByteArrayWrapper, ContractDetails> contractDetailes) {
         for (Map.Entry<ByteArrayWrapper, AccountState> entry : accountStates.entrySet()) {
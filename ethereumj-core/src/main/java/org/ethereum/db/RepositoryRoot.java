@@ -23,6 +23,12 @@ import org.ethereum.datasource.*;
 import org.ethereum.trie.*;
 import org.ethereum.vm.DataWord;
 
+import java.util.Collections;
+import java.util.List;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+
 /**
  * Created by Anton Nashatyrev on 07.10.2016.
  */
@@ -30,10 +36,13 @@ public class RepositoryRoot extends RepositoryImpl {
 
     private static class StorageCache extends ReadWriteCache<DataWord, DataWord> {
         Trie<byte[]> trie;
+        // storage is started from scratch, any older storage of the account is wiped
+        boolean created;
 
-        public StorageCache(Trie<byte[]> trie) {
-            super(new SourceCodec<>(trie, Serializers.StorageKeySerializer, Serializers.StorageValueSerializer), WriteCache.CacheType.SIMPLE);
+        public StorageCache(Trie<byte[]> trie, Source<byte[], byte[]> src, boolean created) {
+            super(new SourceCodec<>(src, Serializers.StorageKeySerializer, Serializers.StorageValueSerializer), WriteCache.CacheType.SIMPLE);
             this.trie = trie;
+            this.created = created;
         }
     }
 
@@ -47,11 +56,16 @@ public class RepositoryRoot extends RepositoryImpl {
             Serializer<byte[], byte[]> keyCompositor = new NodeKeyCompositor(key);
             Source<byte[], byte[]> composingSrc = new SourceCodec.KeyOnly<>(trieCache, keyCompositor);
             TrieImpl storageTrie = createTrie(composingSrc, accountState == null ? null : accountState.getStateRoot());
-            return new StorageCache(storageTrie);
+            Source<byte[], byte[]> storageSrc = snapshot == null ? storageTrie : new SnapshotStorageSource(sha3(key), storageTrie);
+            return new StorageCache(storageTrie, storageSrc, accountState == null);
         }
 
         @Override
         protected synchronized boolean flushChild(byte[] key, StorageCache childCache) {
+            if (snapshot != null && (childCache == null || childCache.created)) {
+                snapshotDiff.destruct(sha3(key));
+                if (childCache != null) childCache.created = false;
+            }
             if (super.flushChild(key, childCache)) {
                 if (childCache != null) {
                     AccountState storageOwnerAcct = accountStateCache.get(key);
@@ -71,14 +85,99 @@ public class RepositoryRoot extends RepositoryImpl {
         }
     }
 
+    /**
+     * Serves account reads from the pending changes and the snapshot when it covers the state,
+     * records changes for the next snapshot layer
+     */
+    private class SnapshotAccountSource extends AbstractChainedSource<byte[], byte[], byte[], byte[]> {
+
+        SnapshotAccountSource(Source<byte[], byte[]> trie) {
+            super(trie);
+        }
+
+        @Override
+        public void put(byte[] addr, byte[] val) {
+            getSource().put(addr, val);
+            snapshotDiff.putAccount(sha3(addr), val);
+        }
+
+        @Override
+        public byte[] get(byte[] addr) {
+            byte[] addrHash = sha3(addr);
+            byte[] ret = snapshotDiff.getAccount(new ByteArrayWrapper(addrHash));
+            if (ret == null) ret = snapshot.getAccount(snapshotRoot, addrHash);
+            if (ret == null) return getSource().get(addr);
+            return ret.length == 0 ? null : ret;
+        }
+
+        @Override
+        public void delete(byte[] addr) {
+            getSource().delete(addr);
+            snapshotDiff.putAccount(sha3(addr), null);
+            snapshotDiff.destruct(sha3(addr));
+        }
+
+        @Override
+        protected boolean flushImpl() {
+            return false;
+        }
+    }
+
+    /**
+     * The same as {@link SnapshotAccountSource} for the storage of a single account
+     */
+    private class SnapshotStorageSource extends AbstractChainedSource<byte[], byte[], byte[], byte[]> {
+        private final byte[] addrHash;
+
+        SnapshotStorageSource(byte[] addrHash, Source<byte[], byte[]> trie) {
+            super(trie);
+            this.addrHash = addrHash;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] val) {
+            getSource().put(key, val);
+            snapshotDiff.putStorage(addrHash, sha3(key), val);
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            byte[] keyHash = sha3(key);
+            byte[] ret = snapshotDiff.getStorage(new ByteArrayWrapper(addrHash), new ByteArrayWrapper(keyHash));
+            if (ret == null) ret = snapshot.getStorage(snapshotRoot, addrHash, keyHash);
+            if (ret == null) return getSource().get(key);
+            return ret.length == 0 ? null : ret;
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            getSource().delete(key);
+            snapshotDiff.putStorage(addrHash, sha3(key), null);
+        }
+
+        @Override
+        protected boolean flushImpl() {
+            return false;
+        }
+    }
+
     private Source<byte[], byte[]> stateDS;
     private CachedSource.BytesKey<byte[]> trieCache;
     private Trie<byte[]> stateTrie;
 
+    private StateSnapshot snapshot;
+    // root of the state which is extended by the pending diff
+    private byte[] snapshotRoot;
+    private StateSnapshot.Diff snapshotDiff;
+
     public RepositoryRoot(Source<byte[], byte[]> stateDS) {
         this(stateDS, null);
     }
 
+    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root) {
+        this(stateDS, root, null);
+    }
+
     /**
      * Building the following structure for snapshot Repository:
      *
@@ -88,16 +187,28 @@ public class RepositoryRoot extends RepositoryImpl {
      *    \--> codeCache
      *
      *
+     * When the {@link StateSnapshot} is supplied accounts and storage are read from it in the first place
+     * and the trie is used for root calculation only
+     *
      * @param stateDS
      * @param root
+     * @param snapshot flat state snapshot or null
      */
-    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root) {
+    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root, StateSnapshot snapshot) {
         this.stateDS = stateDS;
 
         trieCache = new WriteCache.BytesKey<>(stateDS, WriteCache.CacheType.COUNTING);
         stateTrie = new SecureTrie(trieCache, root);
 
-        SourceCodec.BytesKey<AccountState, byte[]> accountStateCodec = new SourceCodec.BytesKey<>(stateTrie, Serializers.AccountStateSerializer);
+        Source<byte[], byte[]> accountSource = stateTrie;
+        if (snapshot != null) {
+            this.snapshot = snapshot;
+            this.snapshotRoot = root == null ? EMPTY_TRIE_HASH : root;
+            this.snapshotDiff = new StateSnapshot.Diff();
+            accountSource = new SnapshotAccountSource(stateTrie);
+        }
+
+        SourceCodec.BytesKey<AccountState, byte[]> accountStateCodec = new SourceCodec.BytesKey<>(accountSource, Serializers.AccountStateSerializer);
         final ReadWriteCache.BytesKey<AccountState> accountStateCache = new ReadWriteCache.BytesKey<>(accountStateCodec, WriteCache.CacheType.SIMPLE);
 
         final MultiCache<StorageCache> storageCache = new MultiStorageCache();
@@ -114,6 +225,15 @@ public class RepositoryRoot extends RepositoryImpl {
 
         stateTrie.flush();
         trieCache.flush();
+
+        if (snapshot != null) {
+            byte[] root = stateTrie.getRootHash();
+            if (!snapshotDiff.isEmpty()) {
+                snapshot.update(snapshotRoot, root, snapshotDiff);
+                snapshotDiff = new StateSnapshot.Diff();
+            }
+            snapshotRoot = root;
+        }
     }
 
     @Override
@@ -131,7 +251,7 @@ public class RepositoryRoot extends RepositoryImpl {
 
     @Override
     public Repository getSnapshotTo(byte[] root) {
-        return new RepositoryRoot(stateDS, root);
+        return new RepositoryRoot(stateDS, root, snapshot);
     }
 
     @Override
@@ -144,9 +264,29 @@ public class RepositoryRoot extends RepositoryImpl {
         return ((TrieImpl) stateTrie).dumpTrie();
     }
 
+    @Override
+    public synchronized List<byte[]> getAccountProof(byte[] addr) {
+        getRoot();
+        return stateTrie.getProof(addr);
+    }
+
+    @Override
+    public synchronized List<byte[]> getStorageProof(byte[] addr, DataWord key) {
+        getRoot();
+        AccountState accountState = accountStateCache.get(addr);
+        if (accountState == null) return Collections.emptyList();
+
+        Source<byte[], byte[]> composingSrc = new SourceCodec.KeyOnly<>(trieCache, new NodeKeyCompositor(addr));
+        return createTrie(composingSrc, accountState.getStateRoot()).getProof(key.getData());
+    }
+
     @Override
     public synchronized void syncToRoot(byte[] root) {
         stateTrie.setRoot(root);
+        if (snapshot != null) {
+            snapshotRoot = root;
+            snapshotDiff = new StateSnapshot.Diff();
+        }
     }
 
     protected TrieImpl createTrie(Source<byte[], byte[]> trieCache, byte[] root) {
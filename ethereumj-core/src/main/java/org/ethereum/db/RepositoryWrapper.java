@@ -29,6 +29,7 @@ import javax.annotation.Nullable;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -220,4 +221,14 @@ public class RepositoryWrapper implements Repository {
     public Map<DataWord, DataWord> getStorage(byte[] addr, @Nullable Collection<DataWord> keys) {
         return blockchain.getRepository().getStorage(addr, keys);
     }
+
+    @Override
+    public List<byte[]> getAccountProof(byte[] addr) {
+        return blockchain.getRepository().getAccountProof(addr);
+    }
+
+    @Override
+    public List<byte[]> getStorageProof(byte[] addr, DataWord key) {
+        return blockchain.getRepository().getStorageProof(addr, key);
+    }
 }
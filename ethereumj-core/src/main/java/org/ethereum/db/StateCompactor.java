@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.datasource.*;
+import org.ethereum.trie.TrieImpl;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_DATA_HASH;
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.datasource.NodeKeyCompositor.HASH_LEN;
+import static org.ethereum.datasource.NodeKeyCompositor.PREFIX_BYTES;
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * Removes state entries which are not reachable from the given set of state roots.
+ *
+ * <p>
+ *     Intended for databases which state has not been pruned, see {@link StateSource}.
+ *     Must not be run while blocks are imported.
+ *
+ * <p>
+ *     Mark phase walks account, storage tries and contract codes starting from the oldest root,
+ *     each next state trie is walked only where it differs from the previous one,
+ *     see {@link TrieImpl#scanTreeDiff(TrieImpl, TrieImpl.ScanAction)}.
+ *     Reachable keys are kept in a {@link QuotientFilter}, its false positives could only leave some garbage.
+ *
+ * <p>
+ *     Sweep phase iterates over DB in the key order and deletes state entries which are not marked,
+ *     deletes are written in batches. State entry is recognized by its key which is derived from the value hash,
+ *     hence other data sharing the same DB is never touched.
+ */
+public class StateCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    private static final int DELETE_BATCH_SIZE = 10_000;
+
+    // fingerprint size of the filter allows it to grow up to this number of nodes
+    private static final long MAX_NODES = 1L << 34;
+    private static final long INITIAL_NODES = 1L << 20;
+
+    private final DbSource<byte[]> db;
+    private final byte[] keyMask;
+    private final Source<byte[], byte[]> stateSource;
+
+    private QuotientFilter marked;
+    private long nodesMarked = 0;
+
+    /**
+     * @param db state database
+     * @param keyMask XOR mask of state keys when state shares DB with other data, see {@link XorDataSource},
+     *                null if keys are stored as is
+     */
+    public StateCompactor(DbSource<byte[]> db, byte[] keyMask) {
+        this.db = db;
+        this.keyMask = keyMask;
+        this.stateSource = keyMask == null ? db : new XorDataSource<>(db, keyMask);
+    }
+
+    /**
+     * Runs both phases
+     *
+     * @param roots state roots to keep ordered from the oldest to the latest one
+     * @return number of deleted entries
+     */
+    public long compact(List<byte[]> roots) {
+        mark(roots);
+        return sweep();
+    }
+
+    /**
+     * Marks all entries reachable from the roots.
+     * Incomplete states are skipped unless it's the latest one, in that case exception is thrown
+     */
+    public void mark(List<byte[]> roots) {
+        long t = System.currentTimeMillis();
+
+        marked = QuotientFilter.create(MAX_NODES, INITIAL_NODES);
+        nodesMarked = 0;
+
+        TrieImpl prev = null;
+        for (int i = 0; i < roots.size(); i++) {
+            TrieImpl trie = new TrieImpl(stateSource, roots.get(i));
+            final TrieImpl prevTrie = prev;
+            try {
+                trie.scanTreeDiff(prevTrie, new TrieImpl.ScanAction() {
+                    @Override
+                    public void doOnNode(byte[] hash, TrieImpl.Node node) {
+                        mark(hash);
+                    }
+
+                    @Override
+                    public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] key, byte[] value) {
+                        markAccount(key, new AccountState(value), prevTrie);
+                    }
+                });
+                prev = trie;
+            } catch (RuntimeException e) {
+                if (i == roots.size() - 1) throw e;
+
+                // next state can't rely on this one, it's scanned in full
+                logger.warn("State compaction: skip incomplete state {}: {}", toHexString(roots.get(i)), e.getMessage());
+                prev = null;
+            }
+        }
+
+        logger.info("State compaction: {} nodes marked from {} roots in {}s",
+                nodesMarked, roots.size(), (System.currentTimeMillis() - t) / 1000);
+    }
+
+    private void markAccount(final byte[] addrHash, AccountState state, TrieImpl prevTrie) {
+        if (!FastByteComparisons.equal(state.getCodeHash(), EMPTY_DATA_HASH)) {
+            mark(NodeKeyCompositor.compose(state.getCodeHash(), addrHash));
+        }
+
+        if (FastByteComparisons.equal(state.getStateRoot(), EMPTY_TRIE_HASH))
+            return;
+
+        Source<byte[], byte[]> storageSource = new SourceCodec.KeyOnly<>(stateSource, new NodeKeyCompositor(addrHash));
+        TrieImpl prevStorage = null;
+        if (prevTrie != null) {
+            byte[] prevValue = prevTrie.get(addrHash);
+            if (prevValue != null) {
+                prevStorage = new TrieImpl(storageSource, new AccountState(prevValue).getStateRoot());
+            }
+        }
+
+        new TrieImpl(storageSource, state.getStateRoot()).scanTreeDiff(prevStorage, new TrieImpl.ScanAction() {
+            @Override
+            public void doOnNode(byte[] hash, TrieImpl.Node node) {
+                mark(NodeKeyCompositor.compose(hash, addrHash));
+            }
+
+            @Override
+            public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] key, byte[] value) {}
+        });
+    }
+
+    private void mark(byte[] key) {
+        marked.insert(key);
+        if (++nodesMarked % 1_000_000 == 0) {
+            logger.info("State compaction: {} nodes marked", nodesMarked);
+        }
+    }
+
+    /**
+     * Deletes state entries which are not marked by {@link #mark(List)}
+     *
+     * @return number of deleted entries
+     */
+    public long sweep() {
+        if (marked == null)
+            throw new IllegalStateException("State is not marked");
+
+        long t = System.currentTimeMillis();
+        long[] scanned = new long[1];
+        long[] deleted = new long[1];
+        Map<byte[], byte[]> batch = new HashMap<>();
+
+        db.forEach((key, value) -> {
+            if (++scanned[0] % 10_000_000 == 0) {
+                logger.info("State compaction: {} entries scanned, {} deleted", scanned[0], deleted[0]);
+            }
+
+            if (key.length != HASH_LEN || value == null) return;
+
+            byte[] stateKey = keyMask == null ? key : ByteUtil.xorAlignRight(key, keyMask);
+            if (!isStateEntry(stateKey, value) || marked.maybeContains(stateKey)) return;
+
+            batch.put(key, null);
+            if (batch.size() >= DELETE_BATCH_SIZE) {
+                db.updateBatch(batch);
+                deleted[0] += batch.size();
+                batch.clear();
+            }
+        });
+
+        if (!batch.isEmpty()) {
+            db.updateBatch(batch);
+            deleted[0] += batch.size();
+        }
+
+        logger.info("State compaction: {} entries scanned, {} deleted in {}s",
+                scanned[0], deleted[0], (System.currentTimeMillis() - t) / 1000);
+
+        return deleted[0];
+    }
+
+    /**
+     * Trie nodes and codes are stored under the hash of the value,
+     * storage nodes and codes have the second half of the hash substituted, see {@link NodeKeyCompositor}
+     */
+    private boolean isStateEntry(byte[] key, byte[] value) {
+        return FastByteComparisons.compareTo(sha3(value), 0, PREFIX_BYTES, key, 0, PREFIX_BYTES) == 0;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.datasource.NodeKeyCompositor;
+import org.ethereum.datasource.Source;
+import org.ethereum.datasource.SourceCodec;
+import org.ethereum.trie.TrieImpl;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_DATA_HASH;
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * Writes the full state of a block to a stream which can be loaded
+ * by {@link StateImporter} to bootstrap another node without downloading the state trie. <br/>
+ *
+ * The stream is a sequence of frames: {@code [int length][RLP payload][sha3(payload)]}.
+ * The first frame is the header {@code [version, blockNumber, blockHash, stateRoot]},
+ * the rest are chunks {@code [seqNumber, [[type, key, value], ...]]} terminated by a chunk without entries.
+ * Entries follow in the trie order: an account ({@code key = sha3(address)}, value is RLP encoded account)
+ * is followed by its code (empty key) and its storage values ({@code key = sha3(storageKey)})
+ * sorted by key.
+ */
+public class StateExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    public static final int VERSION = 1;
+
+    public static final int ACCOUNT = 0;
+    public static final int CODE = 1;
+    public static final int STORAGE = 2;
+
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Identifies the state stored in the stream
+     */
+    public static class Header {
+        private final long blockNumber;
+        private final byte[] blockHash;
+        private final byte[] stateRoot;
+
+        public Header(long blockNumber, byte[] blockHash, byte[] stateRoot) {
+            this.blockNumber = blockNumber;
+            this.blockHash = blockHash;
+            this.stateRoot = stateRoot;
+        }
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        public byte[] getBlockHash() {
+            return blockHash;
+        }
+
+        public byte[] getStateRoot() {
+            return stateRoot;
+        }
+
+        byte[] getEncoded() {
+            return RLP.encodeList(RLP.encodeInt(VERSION), RLP.encodeBigInteger(BigInteger.valueOf(blockNumber)),
+                    RLP.encodeElement(blockHash), RLP.encodeElement(stateRoot));
+        }
+
+        /**
+         * Reads the header frame from the beginning of the stream
+         */
+        public static Header read(DataInputStream in) throws IOException {
+            RLPList list = RLP.unwrapList(readFrame(in));
+            int version = ByteUtil.byteArrayToInt(list.get(0).getRLPData());
+            if (version != VERSION)
+                throw new IOException("Unsupported state dump version: " + version);
+
+            return new Header(ByteUtil.byteArrayToLong(list.get(1).getRLPData()),
+                    list.get(2).getRLPData(), list.get(3).getRLPData());
+        }
+
+        @Override
+        public String toString() {
+            return "#" + blockNumber + " (" + toHexString(blockHash).substring(0, 6) + ") root: " + toHexString(stateRoot);
+        }
+    }
+
+    private final Source<byte[], byte[]> stateSource;
+
+    /**
+     * @param stateSource source of state trie nodes and contract codes
+     */
+    public StateExporter(Source<byte[], byte[]> stateSource) {
+        this.stateSource = stateSource;
+    }
+
+    /**
+     * Writes the state of the block to the stream, the stream is not closed
+     */
+    public void export(BlockHeader block, OutputStream out) throws IOException {
+        long t = System.currentTimeMillis();
+        logger.info("State export: exporting state of block {}", block.getShortDescr());
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        writeFrame(dataOut, new Header(block.getNumber(), block.getHash(), block.getStateRoot()).getEncoded());
+
+        ChunkWriter writer = new ChunkWriter(dataOut);
+        try {
+            if (!FastByteComparisons.equal(block.getStateRoot(), EMPTY_TRIE_HASH)) {
+                new TrieImpl(stateSource, block.getStateRoot()).scanTreeDiff(null, new TrieImpl.ScanAction() {
+                    @Override
+                    public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+                    @Override
+                    public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] addrHash, byte[] value) {
+                        writer.add(ACCOUNT, addrHash, value);
+                        writeAccountData(writer, addrHash, new AccountState(value));
+                    }
+                });
+            }
+            writer.close();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        dataOut.flush();
+
+        logger.info("State export: {} accounts, {} entries in {} chunks exported in {}s",
+                writer.accounts, writer.entries, writer.seq, (System.currentTimeMillis() - t) / 1000);
+    }
+
+    private void writeAccountData(ChunkWriter writer, byte[] addrHash, AccountState account) {
+        if (!FastByteComparisons.equal(account.getCodeHash(), EMPTY_DATA_HASH)) {
+            byte[] code = stateSource.get(NodeKeyCompositor.compose(account.getCodeHash(), addrHash));
+            if (code == null)
+                throw new RuntimeException("Code not found: " + toHexString(account.getCodeHash()));
+            writer.add(CODE, ByteUtil.EMPTY_BYTE_ARRAY, code);
+        }
+
+        if (FastByteComparisons.equal(account.getStateRoot(), EMPTY_TRIE_HASH)) return;
+
+        Source<byte[], byte[]> storageSource = new SourceCodec.KeyOnly<>(stateSource, new NodeKeyCompositor(addrHash));
+        new TrieImpl(storageSource, account.getStateRoot()).scanTreeDiff(null, new TrieImpl.ScanAction() {
+            @Override
+            public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+            @Override
+            public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] key, byte[] value) {
+                writer.add(STORAGE, key, value);
+            }
+        });
+    }
+
+    private static class ChunkWriter {
+        final DataOutputStream out;
+        final List<byte[]> chunk = new ArrayList<>();
+        long seq = 0;
+        long entries = 0;
+        long accounts = 0;
+
+        ChunkWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void add(int type, byte[] key, byte[] value) {
+            chunk.add(RLP.encodeList(RLP.encodeInt(type), RLP.encodeElement(key), RLP.encodeElement(value)));
+            entries++;
+            if (type == ACCOUNT && ++accounts % 100_000 == 0) {
+                logger.info("State export: {} accounts exported", accounts);
+            }
+            if (chunk.size() >= CHUNK_SIZE) writeChunk();
+        }
+
+        void close() {
+            if (!chunk.isEmpty()) writeChunk();
+            // empty chunk marks the end
+            writeChunk();
+        }
+
+        private void writeChunk() {
+            byte[] payload = RLP.encodeList(RLP.encodeBigInteger(BigInteger.valueOf(seq++)),
+                    RLP.encodeList(chunk.toArray(new byte[chunk.size()][])));
+            chunk.clear();
+            try {
+                writeFrame(out, payload);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.write(sha3(payload));
+    }
+
+    /**
+     * Reads a frame and verifies its checksum
+     */
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) throw new IOException("Invalid frame length: " + len);
+
+        byte[] payload = new byte[len];
+        in.readFully(payload);
+        byte[] checksum = new byte[32];
+        in.readFully(checksum);
+        if (!FastByteComparisons.equal(checksum, sha3(payload)))
+            throw new IOException("State dump frame checksum mismatch");
+
+        return payload;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.tuple.Pair;
+import org.ethereum.core.AccountState;
+import org.ethereum.datasource.NoDeleteSource;
+import org.ethereum.datasource.NodeKeyCompositor;
+import org.ethereum.datasource.Source;
+import org.ethereum.datasource.SourceCodec;
+import org.ethereum.trie.TrieBuilder;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPElement;
+import org.ethereum.util.RLPList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_DATA_HASH;
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * Rebuilds the state from the stream written by {@link StateExporter}. <br/>
+ *
+ * Account trie is built in the reading thread while storage tries are built
+ * and hashed in parallel. Storages larger than {@link #MAX_BUFFERED_STORAGE} entries
+ * are streamed into the trie in the reading thread instead, so memory is bounded
+ * by the number of entries rather than by the size of contracts. Every chunk checksum, code hash, storage root and
+ * finally the state root are verified, so the imported state is as trusted
+ * as the header it's checked against.
+ * Nodes are written without journal, nothing is ever deleted from the source.
+ */
+public class StateImporter {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    // number of imported accounts (or storage entries of a streamed storage)
+    // after which written nodes are committed
+    private static final int COMMIT_INTERVAL = 10_000;
+
+    // max number of storage entries of an account buffered for a parallel build
+    static final int MAX_BUFFERED_STORAGE = 10_000;
+
+    private final Source<byte[], byte[]> nodeSource;
+    private Runnable commit = () -> {};
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param nodeSource source for state trie nodes and contract codes
+     */
+    public StateImporter(Source<byte[], byte[]> nodeSource) {
+        this.nodeSource = new NoDeleteSource<>(nodeSource);
+    }
+
+    /**
+     * @param commit invoked periodically to flush written nodes, e.g. {@link DbFlushManager#commit()}
+     */
+    public StateImporter withCommit(Runnable commit) {
+        this.commit = commit;
+        return this;
+    }
+
+    public StateImporter withThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Imports the state from the stream
+     *
+     * @param expectedRoot state root from the trusted block header, null to trust the root from the stream
+     * @return header of the imported state
+     * @throws IOException if the stream is corrupted or doesn't contain the expected state
+     */
+    public StateExporter.Header importState(InputStream in, byte[] expectedRoot) throws IOException {
+        DataInputStream dataIn = new DataInputStream(in);
+        StateExporter.Header header = StateExporter.Header.read(dataIn);
+        if (expectedRoot != null && !FastByteComparisons.equal(expectedRoot, header.getStateRoot()))
+            throw new IOException("State dump " + header + " doesn't match expected root " + toHexString(expectedRoot));
+
+        long t = System.currentTimeMillis();
+        logger.info("State import: importing state of block {}", header);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("state-import-%d").setDaemon(true).build());
+        try {
+            Builder builder = new Builder(executor);
+            for (long seq = 0; ; seq++) {
+                RLPList chunk = (RLPList) RLP.decode2(StateExporter.readFrame(dataIn)).get(0);
+                if (ByteUtil.byteArrayToLong(chunk.get(0).getRLPData()) != seq)
+                    throw new IOException("Unexpected state dump chunk number, expected " + seq);
+
+                RLPList entries = (RLPList) chunk.get(1);
+                if (entries.isEmpty()) break;
+
+                for (RLPElement e : entries) {
+                    RLPList entry = (RLPList) e;
+                    builder.add(ByteUtil.byteArrayToInt(entry.get(0).getRLPData()),
+                            data(entry.get(1)), data(entry.get(2)));
+                }
+            }
+
+            byte[] root = builder.complete();
+            if (!FastByteComparisons.equal(root, header.getStateRoot()))
+                throw new IOException("Imported state root " + toHexString(root) + " doesn't match " + header);
+
+            logger.info("State import: {} accounts imported in {}s", builder.accounts, (System.currentTimeMillis() - t) / 1000);
+            return header;
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid state dump: " + e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] data(RLPElement e) {
+        return e.getRLPData() == null ? ByteUtil.EMPTY_BYTE_ARRAY : e.getRLPData();
+    }
+
+    private class Builder {
+        final ExecutorService executor;
+        // limits the number of storages held in memory
+        final Semaphore pending;
+        final List<Future<?>> storageTasks = new ArrayList<>();
+
+        // dump entries come in the trie order, so nodes are written out as soon as subtrees are complete
+        TrieBuilder accountTrie = new TrieBuilder(nodeSource);
+        long accounts = 0;
+
+        byte[] addrHash;
+        AccountState account;
+        boolean codeImported;
+        List<Pair<byte[], byte[]>> storage = new ArrayList<>();
+        // set when the account storage is too large to be buffered
+        TrieBuilder storageTrie;
+        long storageEntries;
+
+        Builder(ExecutorService executor) {
+            this.executor = executor;
+            this.pending = new Semaphore(threads * 2);
+        }
+
+        void add(int type, byte[] key, byte[] value) throws IOException {
+            switch (type) {
+                case StateExporter.ACCOUNT:
+                    completeAccount();
+                    addrHash = key;
+                    account = new AccountState(value);
+                    codeImported = false;
+
+                    accountTrie.put(key, value);
+                    if (++accounts % COMMIT_INTERVAL == 0) {
+                        commit.run();
+                    }
+                    if (accounts % 100_000 == 0) {
+                        logger.info("State import: {} accounts imported", accounts);
+                    }
+                    break;
+                case StateExporter.CODE:
+                    if (account == null || !FastByteComparisons.equal(sha3(value), account.getCodeHash()))
+                        throw new IOException("Code doesn't match account code hash");
+                    nodeSource.put(NodeKeyCompositor.compose(account.getCodeHash(), addrHash), value);
+                    codeImported = true;
+                    break;
+                case StateExporter.STORAGE:
+                    if (account == null) throw new IOException("Storage entry without account");
+                    addStorage(key, value);
+                    break;
+                default:
+                    throw new IOException("Unknown state dump entry type: " + type);
+            }
+        }
+
+        void addStorage(byte[] key, byte[] value) {
+            if (storageTrie == null) {
+                storage.add(Pair.of(key, value));
+                if (storage.size() < MAX_BUFFERED_STORAGE) return;
+
+                // switching to streaming, the rest of entries go to the trie as they are read
+                storageTrie = new TrieBuilder(storageSource(addrHash));
+                for (Pair<byte[], byte[]> entry : storage) {
+                    storageTrie.put(entry.getLeft(), entry.getRight());
+                }
+                storage = new ArrayList<>();
+                storageEntries = MAX_BUFFERED_STORAGE;
+            } else {
+                storageTrie.put(key, value);
+                if (++storageEntries % COMMIT_INTERVAL == 0) {
+                    commit.run();
+                }
+            }
+        }
+
+        void completeAccount() throws IOException {
+            if (account == null) return;
+
+            if (!codeImported && !FastByteComparisons.equal(account.getCodeHash(), EMPTY_DATA_HASH))
+                throw new IOException("Code is missing for account " + toHexString(addrHash));
+
+            if (storageTrie != null) {
+                byte[] root = storageTrie.build();
+                storageTrie = null;
+                if (!FastByteComparisons.equal(root, account.getStateRoot()))
+                    throw new IOException("Storage root mismatch for account " + toHexString(addrHash));
+                logger.debug("State import: {} storage entries streamed for account {}", storageEntries, toHexString(addrHash));
+            } else if (!storage.isEmpty() || !FastByteComparisons.equal(account.getStateRoot(), EMPTY_TRIE_HASH)) {
+                final byte[] addrHash = this.addrHash;
+                final byte[] storageRoot = account.getStateRoot();
+                final List<Pair<byte[], byte[]>> storage = this.storage;
+
+                checkStorageTasks(false);
+                pending.acquireUninterruptibly();
+                storageTasks.add(executor.submit(() -> {
+                    try {
+                        buildStorage(addrHash, storageRoot, storage);
+                    } finally {
+                        pending.release();
+                    }
+                }));
+                this.storage = new ArrayList<>();
+            }
+            account = null;
+        }
+
+        byte[] complete() throws IOException {
+            completeAccount();
+            checkStorageTasks(true);
+
+            byte[] root = accountTrie.build();
+            commit.run();
+            return root;
+        }
+
+        /**
+         * Rethrows storage build errors, removes completed tasks
+         */
+        void checkStorageTasks(boolean waitAll) throws IOException {
+            for (Iterator<Future<?>> it = storageTasks.iterator(); it.hasNext(); ) {
+                Future<?> task = it.next();
+                if (!waitAll && !task.isDone()) continue;
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause().getMessage(), e.getCause());
+                }
+                it.remove();
+            }
+        }
+    }
+
+    private Source<byte[], byte[]> storageSource(byte[] addrHash) {
+        return new SourceCodec.KeyOnly<>(nodeSource, new NodeKeyCompositor(addrHash));
+    }
+
+    private void buildStorage(byte[] addrHash, byte[] expectedRoot, List<Pair<byte[], byte[]>> storage) {
+        TrieBuilder trie = new TrieBuilder(storageSource(addrHash));
+        for (Pair<byte[], byte[]> entry : storage) {
+            trie.put(entry.getLeft(), entry.getRight());
+        }
+
+        if (!FastByteComparisons.equal(trie.build(), expectedRoot))
+            throw new RuntimeException("Storage root mismatch for account " + toHexString(addrHash));
+    }
+}
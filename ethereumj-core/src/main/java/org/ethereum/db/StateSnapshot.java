@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.datasource.DbSource;
+import org.ethereum.datasource.NodeKeyCompositor;
+import org.ethereum.datasource.Source;
+import org.ethereum.datasource.SourceCodec;
+import org.ethereum.trie.TrieImpl;
+import org.ethereum.util.ByteArrayMap;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * Flat snapshot of the world state which serves account and storage reads
+ * with a single lookup instead of walking the Merkle-Patricia trie. <br/>
+ *
+ * The snapshot consists of the disk layer holding the state of a single root
+ * as {@code sha3(address) -> account} and {@code sha3(address) ++ sha3(key) -> storage value} records
+ * and in-memory diff layers on top of it, one per committed state.
+ * Diff layers form a tree, so any of recent states including forks can be read.
+ * When the tree gets deeper than {@code maxLayers} the bottom layer is merged into the disk layer
+ * and forks which don't descend from it are dropped.
+ * Storage of accounts destructed by the merged layer is wiped from the disk in chunks
+ * without holding the snapshot lock, until it's done the old entries are hidden from reads. <br/>
+ *
+ * Values are stored in the same encoding they have in the trie. Lookups return
+ * {@code null} when the state is not covered by the snapshot, then the trie should be used,
+ * and an empty array when the entry is known to be absent.
+ */
+public class StateSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    private static final byte[] ROOT_KEY = "snapshotRoot".getBytes();
+    // present while destructed storage is being wiped, the disk layer is not trusted if it's left after restart
+    private static final byte[] WIPE_KEY = "snapshotWipe".getBytes();
+    private static final int BATCH_SIZE = 10_000;
+
+    /**
+     * State changes made between two state roots, keys are hashed
+     */
+    public static class Diff {
+        // null value means account deletion
+        private final Map<ByteArrayWrapper, byte[]> accounts = new HashMap<>();
+        private final Map<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> storage = new HashMap<>();
+        // accounts whose storage has been wiped entirely
+        private final Set<ByteArrayWrapper> destructed = new HashSet<>();
+
+        public void putAccount(byte[] addrHash, byte[] value) {
+            accounts.put(new ByteArrayWrapper(addrHash), value);
+        }
+
+        public void putStorage(byte[] addrHash, byte[] keyHash, byte[] value) {
+            storage.computeIfAbsent(new ByteArrayWrapper(addrHash), k -> new HashMap<>())
+                    .put(new ByteArrayWrapper(keyHash), value);
+        }
+
+        public void destruct(byte[] addrHash) {
+            ByteArrayWrapper addr = new ByteArrayWrapper(addrHash);
+            storage.remove(addr);
+            destructed.add(addr);
+        }
+
+        public boolean isEmpty() {
+            return accounts.isEmpty() && storage.isEmpty() && destructed.isEmpty();
+        }
+
+        byte[] getAccount(ByteArrayWrapper addrHash) {
+            if (!accounts.containsKey(addrHash)) return null;
+            byte[] ret = accounts.get(addrHash);
+            return ret == null ? EMPTY_BYTE_ARRAY : ret;
+        }
+
+        byte[] getStorage(ByteArrayWrapper addrHash, ByteArrayWrapper keyHash) {
+            Map<ByteArrayWrapper, byte[]> slots = storage.get(addrHash);
+            if (slots != null && slots.containsKey(keyHash)) {
+                byte[] ret = slots.get(keyHash);
+                return ret == null ? EMPTY_BYTE_ARRAY : ret;
+            }
+            return destructed.contains(addrHash) ? EMPTY_BYTE_ARRAY : null;
+        }
+    }
+
+    private static class Layer {
+        final ByteArrayWrapper root;
+        final ByteArrayWrapper parent;
+        final Diff diff;
+
+        Layer(ByteArrayWrapper root, ByteArrayWrapper parent, Diff diff) {
+            this.root = root;
+            this.parent = parent;
+            this.diff = diff;
+        }
+    }
+
+    private final DbSource<byte[]> db;
+    private final Source<byte[], byte[]> stateSource;
+    private final int maxLayers;
+
+    private final Map<ByteArrayWrapper, Layer> layers = new HashMap<>();
+    // null when disk layer is not generated yet
+    private ByteArrayWrapper diskRoot;
+    // destructed accounts whose storage is being wiped from the disk layer
+    // => storage keys written to the disk layer after the destruction
+    private final Map<ByteArrayWrapper, Set<ByteArrayWrapper>> wiping = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param db snapshot storage
+     * @param stateSource trie node source the state is read from on generation
+     * @param maxLayers max number of in-memory diff layers, limits the depth of reorg served by the snapshot
+     */
+    public StateSnapshot(DbSource<byte[]> db, Source<byte[], byte[]> stateSource, int maxLayers) {
+        this.db = db;
+        this.stateSource = stateSource;
+        this.maxLayers = maxLayers;
+
+        byte[] root = db.get(ROOT_KEY);
+        if (root != null && db.get(WIPE_KEY) != null) {
+            logger.warn("State snapshot: storage wipe was interrupted, snapshot is dropped");
+            root = null;
+        }
+        this.diskRoot = root == null ? null : new ByteArrayWrapper(root);
+    }
+
+    /**
+     * @return true if state with given root can be read from the snapshot
+     */
+    public boolean isAvailable(byte[] root) {
+        lock.readLock().lock();
+        try {
+            ByteArrayWrapper r = new ByteArrayWrapper(root);
+            return diskRoot != null && (diskRoot.equals(r) || layers.containsKey(r));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return encoded account, empty array if there is no such account in the state,
+     *         null if the state is not covered by the snapshot
+     */
+    public byte[] getAccount(byte[] root, byte[] addrHash) {
+        ByteArrayWrapper addr = new ByteArrayWrapper(addrHash);
+        return lookup(root, diff -> diff.getAccount(addr), () -> db.get(addrHash));
+    }
+
+    /**
+     * @return encoded storage value, empty array if there is no such value in the state,
+     *         null if the state is not covered by the snapshot
+     */
+    public byte[] getStorage(byte[] root, byte[] addrHash, byte[] keyHash) {
+        ByteArrayWrapper addr = new ByteArrayWrapper(addrHash);
+        ByteArrayWrapper key = new ByteArrayWrapper(keyHash);
+        return lookup(root, diff -> diff.getStorage(addr, key), () -> {
+            Set<ByteArrayWrapper> written = wiping.get(addr);
+            if (written != null && !written.contains(key)) return null;
+            return db.get(ByteUtil.merge(addrHash, keyHash));
+        });
+    }
+
+    private byte[] lookup(byte[] root, Function<Diff, byte[]> diffLookup, Supplier<byte[]> diskLookup) {
+        lock.readLock().lock();
+        try {
+            if (diskRoot == null) return null;
+
+            ByteArrayWrapper r = new ByteArrayWrapper(root);
+            while (!r.equals(diskRoot)) {
+                Layer layer = layers.get(r);
+                if (layer == null) return null;
+
+                byte[] ret = diffLookup.apply(layer.diff);
+                if (ret != null) return ret;
+                r = layer.parent;
+            }
+
+            byte[] ret = diskLookup.get();
+            return ret == null ? EMPTY_BYTE_ARRAY : ret;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a diff layer for the new state,
+     * ignored if the parent state is not covered by the snapshot
+     *
+     * @param parentRoot root of the state the diff is based on
+     * @param root root of the resulting state
+     * @param diff state changes, must not be modified afterwards
+     */
+    public synchronized void update(byte[] parentRoot, byte[] root, Diff diff) {
+        List<Layer> chain;
+        lock.writeLock().lock();
+        try {
+            ByteArrayWrapper parent = new ByteArrayWrapper(parentRoot);
+            ByteArrayWrapper r = new ByteArrayWrapper(root);
+
+            if (diskRoot == null || r.equals(parent)) return;
+            if (!parent.equals(diskRoot) && !layers.containsKey(parent)) return;
+            if (r.equals(diskRoot) || layers.containsKey(r)) return;
+
+            layers.put(r, new Layer(r, parent, diff));
+            chain = chain(r);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // layers are only modified by synchronized writers, no need to lock for reading them here
+        while (chain.size() > maxLayers && diskRoot != null) {
+            flattenBottom(chain.remove(chain.size() - 1));
+        }
+    }
+
+    /**
+     * Merges all diff layers down to the given state into the disk layer,
+     * e.g. to preserve the snapshot on shutdown
+     */
+    public synchronized void persist(byte[] root) {
+        if (diskRoot == null) return;
+
+        List<Layer> chain = chain(new ByteArrayWrapper(root));
+        while (!chain.isEmpty() && diskRoot != null) {
+            flattenBottom(chain.remove(chain.size() - 1));
+        }
+    }
+
+    /**
+     * @return layers from the given one down to the one which is based on the disk layer,
+     *         empty list if the root is unknown
+     */
+    private List<Layer> chain(ByteArrayWrapper root) {
+        List<Layer> ret = new ArrayList<>();
+        ByteArrayWrapper r = root;
+        while (!r.equals(diskRoot)) {
+            Layer layer = layers.get(r);
+            if (layer == null) return Collections.emptyList();
+            ret.add(layer);
+            r = layer.parent;
+        }
+        return ret;
+    }
+
+    /**
+     * Merges the layer into the disk layer under the lock,
+     * then wipes the old storage of accounts it destructs without the lock
+     */
+    private void flattenBottom(Layer layer) {
+        // storage roots destructed accounts have in the disk layer before the merge
+        Map<ByteArrayWrapper, byte[]> wipeRoots = new HashMap<>();
+        for (ByteArrayWrapper addr : layer.diff.destructed) {
+            byte[] encoded = db.get(addr.getData());
+            if (encoded == null) continue;
+            byte[] storageRoot = new AccountState(encoded).getStateRoot();
+            if (!FastByteComparisons.equal(storageRoot, EMPTY_TRIE_HASH)) {
+                wipeRoots.put(addr, storageRoot);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            Map<byte[], byte[]> batch = new ByteArrayMap<>();
+            for (Map.Entry<ByteArrayWrapper, byte[]> e : layer.diff.accounts.entrySet()) {
+                batch.put(e.getKey().getData(), e.getValue());
+            }
+            for (Map.Entry<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> e : layer.diff.storage.entrySet()) {
+                for (Map.Entry<ByteArrayWrapper, byte[]> slot : e.getValue().entrySet()) {
+                    batch.put(ByteUtil.merge(e.getKey().getData(), slot.getKey().getData()), slot.getValue());
+                }
+            }
+            batch.put(ROOT_KEY, layer.root.getData());
+            if (!wipeRoots.isEmpty()) batch.put(WIPE_KEY, new byte[] {1});
+            db.updateBatch(batch);
+
+            layers.remove(layer.root);
+            diskRoot = layer.root;
+
+            // drop forks which are not based on the new disk layer
+            layers.values().removeIf(l -> chain(l.root).isEmpty());
+
+            for (ByteArrayWrapper addr : wipeRoots.keySet()) {
+                Map<ByteArrayWrapper, byte[]> written = layer.diff.storage.get(addr);
+                wiping.put(addr, written == null ? Collections.<ByteArrayWrapper>emptySet() : written.keySet());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (wipeRoots.isEmpty()) return;
+
+        try {
+            for (Map.Entry<ByteArrayWrapper, byte[]> e : wipeRoots.entrySet()) {
+                wipeStorage(e.getKey(), e.getValue());
+            }
+        } catch (RuntimeException e) {
+            logger.error("State snapshot: can't wipe destructed storage, snapshot is dropped: {}", e.getMessage());
+            lock.writeLock().lock();
+            try {
+                invalidate();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            wiping.clear();
+            db.delete(WIPE_KEY);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes storage entries the account had before destruction from the disk layer,
+     * entries written after destruction are kept
+     */
+    private void wipeStorage(ByteArrayWrapper addr, byte[] storageRoot) {
+        byte[] addrHash = addr.getData();
+        Set<ByteArrayWrapper> written = wiping.get(addr);
+        Map<byte[], byte[]> batch = new ByteArrayMap<>();
+
+        Source<byte[], byte[]> storageSource = new SourceCodec.KeyOnly<>(stateSource, new NodeKeyCompositor(addrHash));
+        new TrieImpl(storageSource, storageRoot).scanTreeDiff(null, new TrieImpl.ScanAction() {
+            @Override
+            public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+            @Override
+            public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] key, byte[] value) {
+                if (written.contains(new ByteArrayWrapper(key))) return;
+                batch.put(ByteUtil.merge(addrHash, key), null);
+                if (batch.size() >= BATCH_SIZE) {
+                    db.updateBatch(batch);
+                    batch.clear();
+                }
+            }
+        });
+        if (!batch.isEmpty()) db.updateBatch(batch);
+    }
+
+    private void invalidate() {
+        layers.clear();
+        wiping.clear();
+        diskRoot = null;
+        db.delete(ROOT_KEY);
+        db.delete(WIPE_KEY);
+    }
+
+    /**
+     * Rebuilds the disk layer from the state trie, all diff layers are dropped
+     */
+    public synchronized void generate(byte[] root) {
+        lock.writeLock().lock();
+        try {
+            long t = System.currentTimeMillis();
+            logger.info("State snapshot: generating for root {}", toHexString(root));
+
+            invalidate();
+            db.reset();
+
+            Map<byte[], byte[]> batch = new HashMap<>();
+            long[] entries = new long[1];
+            Runnable put = () -> {
+                if (batch.size() >= BATCH_SIZE) {
+                    db.updateBatch(batch);
+                    batch.clear();
+                }
+                if (++entries[0] % 1_000_000 == 0) {
+                    logger.info("State snapshot: {} entries generated", entries[0]);
+                }
+            };
+
+            if (!FastByteComparisons.equal(root, EMPTY_TRIE_HASH)) {
+                new TrieImpl(stateSource, root).scanTreeDiff(null, new TrieImpl.ScanAction() {
+                    @Override
+                    public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+                    @Override
+                    public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] addrHash, byte[] value) {
+                        batch.put(addrHash, value);
+                        put.run();
+
+                        byte[] storageRoot = new AccountState(value).getStateRoot();
+                        if (FastByteComparisons.equal(storageRoot, EMPTY_TRIE_HASH)) return;
+
+                        Source<byte[], byte[]> storageSource =
+                                new SourceCodec.KeyOnly<>(stateSource, new NodeKeyCompositor(addrHash));
+                        new TrieImpl(storageSource, storageRoot).scanTreeDiff(null, new TrieImpl.ScanAction() {
+                            @Override
+                            public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+                            @Override
+                            public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] key, byte[] value) {
+                                batch.put(ByteUtil.merge(addrHash, key), value);
+                                put.run();
+                            }
+                        });
+                    }
+                });
+            }
+
+            // root is written along with the last batch to mark generation completed
+            batch.put(ROOT_KEY, root);
+            db.updateBatch(batch);
+            diskRoot = new ByteArrayWrapper(root);
+
+            logger.info("State snapshot: {} entries generated in {}s", entries[0],
+                    (System.currentTimeMillis() - t) / 1000);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -18,8 +18,13 @@
 package org.ethereum.db;
 
 import org.apache.commons.collections4.map.LRUMap;
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.*;
 import org.ethereum.core.TransactionInfo;
+import org.ethereum.util.ByteUtil;
 import org.ethereum.util.FastByteComparisons;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPList;
@@ -29,15 +34,26 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 /**
- * Storage (tx hash) => List of (block idx, tx idx, TransactionReceipt)
+ * Storage of transaction receipts consisting of two parts:
+ *
+ * <ul>
+ *     <li>(block hash) => receipts of all block transactions stored as a single record:
+ *     [count (4 bytes)] [receipt end offsets (4 bytes each)] [receipt encodings],
+ *     so a single receipt can be read without decoding others</li>
+ *     <li>(tx hash) => list of pointers (block hash, block number, tx index)</li>
+ * </ul>
  *
  * Since a transaction could be included into blocks from different forks and
  * have different receipts the class stores all of them (the same manner fork blocks are stored)
  *
+ * Previous DB version stored (tx hash) => List of (TransactionReceipt, block hash, tx idx),
+ * such entries are still readable
+ *
  * NOTE: the TransactionInfo instances returned contains TransactionReceipt which
  * has no initialized Transaction object. If needed use BlockStore to retrieve and setup
  * Transaction instance
@@ -45,13 +61,21 @@ import java.util.List;
  * Created by Anton Nashatyrev on 07.04.2016.
  */
 @Component
-public class TransactionStore extends ObjectDataSource<List<TransactionInfo>> {
+public class TransactionStore {
     private static final Logger logger = LoggerFactory.getLogger("db");
 
+    // pointers are distinguished from legacy RLP encoded entries by the first byte
+    private static final byte POINTERS_VERSION = 0x01;
+    // block hash (32) + block number (8) + tx index (4)
+    private static final int POINTER_SIZE = 44;
+
     private final LRUMap<ByteArrayWrapper, Object> lastSavedTxHash = new LRUMap<>(5000);
     private final Object object = new Object();
 
-    private final static Serializer<List<TransactionInfo>, byte[]> serializer =
+    private final Source<byte[], byte[]> pointers;
+    private final Source<byte[], byte[]> receipts;
+
+    private final static Serializer<List<TransactionInfo>, byte[]> legacySerializer =
             new Serializer<List<TransactionInfo>, byte[]>() {
         @Override
         public byte[] serialize(List<TransactionInfo> object) {
@@ -79,51 +103,208 @@ public class TransactionStore extends ObjectDataSource<List<TransactionInfo>> {
         }
     };
 
+    public TransactionStore(Source<byte[], byte[]> src) {
+        this.pointers = src;
+        this.receipts = new XorDataSource<>(src, HashUtil.sha3("receipts".getBytes()));
+    }
+
     /**
-     * Adds TransactionInfo to the store.
-     * If entries for this transaction already exist the method adds new entry to the list
-     * if no entry for the same block exists
-     * @return true if TransactionInfo was added, false if already exist
+     * Adds receipts of the block transactions to the store.
+     * @return true if receipts were added, false if they already exist
      */
-    public boolean put(TransactionInfo tx) {
-        byte[] txHash = tx.getReceipt().getTransaction().getHash();
+    public boolean put(Block block, List<TransactionReceipt> blockReceipts) {
+        if (receipts.get(block.getHash()) != null) return false;
+
+        receipts.put(block.getHash(), encodeReceipts(blockReceipts));
 
-        List<TransactionInfo> existingInfos = null;
+        List<Transaction> txs = block.getTransactionsList();
+        for (int i = 0; i < txs.size(); i++) {
+            addPointer(txs.get(i).getHash(), pointer(block.getHash(), block.getNumber(), i));
+        }
+        return true;
+    }
+
+    private void addPointer(byte[] txHash, byte[] pointer) {
+        byte[] existing = null;
         synchronized (lastSavedTxHash) {
             if (lastSavedTxHash.put(new ByteArrayWrapper(txHash), object) != null || !lastSavedTxHash.isFull()) {
-                existingInfos = get(txHash);
+                existing = pointers.get(txHash);
             }
         }
         // else it is highly unlikely that the transaction was included into another block
         // earlier than 5000 transactions before with regard to regular block import process
 
-        if (existingInfos == null) {
-            existingInfos = new ArrayList<>();
+        if (existing == null) {
+            pointers.put(txHash, ByteUtil.merge(new byte[] {POINTERS_VERSION}, pointer));
+        } else if (existing[0] == POINTERS_VERSION) {
+            pointers.put(txHash, ByteUtil.merge(existing, pointer));
         } else {
-            for (TransactionInfo info : existingInfos) {
-                if (FastByteComparisons.equal(info.getBlockHash(), tx.getBlockHash())) {
-                    return false;
+            // legacy entry, keeping its infos as is and adding the new one to the list
+            List<TransactionInfo> infos = new ArrayList<>(legacySerializer.deserialize(existing));
+            byte[] blockHash = Arrays.copyOfRange(pointer, 0, 32);
+            int idx = ByteUtil.byteArrayToInt(Arrays.copyOfRange(pointer, 40, 44));
+            infos.add(new TransactionInfo(getReceipt(blockHash, idx), blockHash, idx));
+            pointers.put(txHash, legacySerializer.serialize(infos));
+        }
+    }
+
+    /**
+     * @return infos of all stored inclusions of the transaction or empty list if there are no such
+     */
+    public List<TransactionInfo> get(byte[] txHash) {
+        byte[] bytes = pointers.get(txHash);
+        if (bytes == null) return new ArrayList<>();
+        if (bytes[0] != POINTERS_VERSION) return legacySerializer.deserialize(bytes);
+
+        List<TransactionInfo> ret = new ArrayList<>();
+        for (int off = 1; off + POINTER_SIZE <= bytes.length; off += POINTER_SIZE) {
+            byte[] blockHash = Arrays.copyOfRange(bytes, off, off + 32);
+            int idx = ByteUtil.byteArrayToInt(Arrays.copyOfRange(bytes, off + 40, off + 44));
+            TransactionReceipt receipt = getReceipt(blockHash, idx);
+            if (receipt != null) {
+                ret.add(new TransactionInfo(receipt, blockHash, idx));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Looks up the transaction inclusion into the block
+     * matching pointers by the block hash so only the matching receipt is decoded
+     * @return info or null if the transaction is not included into the block
+     */
+    public TransactionInfo get(byte[] txHash, byte[] blockHash) {
+        byte[] bytes = pointers.get(txHash);
+        if (bytes == null) return null;
+        if (bytes[0] != POINTERS_VERSION) {
+            for (TransactionInfo info : legacySerializer.deserialize(bytes)) {
+                if (FastByteComparisons.equal(info.getBlockHash(), blockHash)) {
+                    return info;
                 }
             }
+            return null;
         }
-        existingInfos.add(tx);
-        put(txHash, existingInfos);
 
-        return true;
+        for (int off = 1; off + POINTER_SIZE <= bytes.length; off += POINTER_SIZE) {
+            if (FastByteComparisons.compareTo(bytes, off, 32, blockHash, 0, blockHash.length) == 0) {
+                int idx = ByteUtil.byteArrayToInt(Arrays.copyOfRange(bytes, off + 40, off + 44));
+                TransactionReceipt receipt = getReceipt(blockHash, idx);
+                return receipt == null ? null : new TransactionInfo(receipt, blockHash, idx);
+            }
+        }
+        return null;
     }
 
-    public TransactionInfo get(byte[] txHash, byte[] blockHash) {
-        List<TransactionInfo> existingInfos = get(txHash);
-        for (TransactionInfo info : existingInfos) {
-            if (FastByteComparisons.equal(info.getBlockHash(), blockHash)) {
-                return info;
+    /**
+     * Picks the transaction info from the main chain block
+     * checking pointed block numbers against the block store index, so no blocks are loaded
+     * unless the entry is stored in the legacy format
+     * @return info or null if the transaction is not included into the main chain
+     */
+    public TransactionInfo getMainChain(byte[] txHash, BlockStore blockStore) {
+        byte[] bytes = pointers.get(txHash);
+        if (bytes == null) return null;
+        if (bytes[0] != POINTERS_VERSION) {
+            for (TransactionInfo info : legacySerializer.deserialize(bytes)) {
+                Block block = blockStore.getBlockByHash(info.getBlockHash());
+                if (block != null && isMainChain(info.getBlockHash(), block.getNumber(), blockStore)) {
+                    return info;
+                }
+            }
+            return null;
+        }
+
+        for (int off = 1; off + POINTER_SIZE <= bytes.length; off += POINTER_SIZE) {
+            byte[] blockHash = Arrays.copyOfRange(bytes, off, off + 32);
+            long number = ByteUtil.byteArrayToLong(Arrays.copyOfRange(bytes, off + 32, off + 40));
+            if (isMainChain(blockHash, number, blockStore)) {
+                int idx = ByteUtil.byteArrayToInt(Arrays.copyOfRange(bytes, off + 40, off + 44));
+                TransactionReceipt receipt = getReceipt(blockHash, idx);
+                return receipt == null ? null : new TransactionInfo(receipt, blockHash, idx);
             }
         }
         return null;
     }
 
-    public TransactionStore(Source<byte[], byte[]> src) {
-        super(src, serializer, 256);
+    private static boolean isMainChain(byte[] blockHash, long number, BlockStore blockStore) {
+        byte[] mainHash = blockStore.getBlockHashByNumber(number);
+        return mainHash != null && FastByteComparisons.equal(blockHash, mainHash);
+    }
+
+    /**
+     * @return receipts of the block transactions in their order (with no Transaction set)
+     * or null if they are not stored
+     */
+    public List<TransactionReceipt> getReceipts(Block block) {
+        byte[] record = receipts.get(block.getHash());
+        if (record != null) {
+            int count = readInt(record, 0);
+            List<TransactionReceipt> ret = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ret.add(decodeReceipt(record, i));
+            }
+            return ret;
+        }
+
+        // legacy entries are stored per transaction
+        List<TransactionReceipt> ret = new ArrayList<>();
+        for (Transaction tx : block.getTransactionsList()) {
+            TransactionInfo info = get(tx.getHash(), block.getHash());
+            if (info == null) return null;
+            ret.add(info.getReceipt());
+        }
+        return ret;
+    }
+
+    private TransactionReceipt getReceipt(byte[] blockHash, int idx) {
+        byte[] record = receipts.get(blockHash);
+        if (record == null || idx >= readInt(record, 0)) return null;
+        return decodeReceipt(record, idx);
+    }
+
+    private static byte[] encodeReceipts(List<TransactionReceipt> blockReceipts) {
+        byte[][] encoded = new byte[blockReceipts.size()][];
+        byte[] header = new byte[4 + 4 * encoded.length];
+        writeInt(header, 0, encoded.length);
+        int end = header.length;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = blockReceipts.get(i).getEncoded();
+            end += encoded[i].length;
+            writeInt(header, 4 + 4 * i, end);
+        }
+        byte[] ret = Arrays.copyOf(header, end);
+        int off = header.length;
+        for (byte[] receipt : encoded) {
+            System.arraycopy(receipt, 0, ret, off, receipt.length);
+            off += receipt.length;
+        }
+        return ret;
+    }
+
+    private static TransactionReceipt decodeReceipt(byte[] record, int idx) {
+        int start = idx == 0 ? 4 + 4 * readInt(record, 0) : readInt(record, 4 * idx);
+        int end = readInt(record, 4 + 4 * idx);
+        return new TransactionReceipt(Arrays.copyOfRange(record, start, end));
+    }
+
+    private static byte[] pointer(byte[] blockHash, long blockNumber, int idx) {
+        return ByteUtil.merge(blockHash, ByteUtil.longToBytes(blockNumber), ByteUtil.intToBytes(idx));
+    }
+
+    private static int readInt(byte[] bytes, int off) {
+        return ((bytes[off] & 0xFF) << 24) | ((bytes[off + 1] & 0xFF) << 16) |
+                ((bytes[off + 2] & 0xFF) << 8) | (bytes[off + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] bytes, int off, int val) {
+        bytes[off] = (byte) (val >>> 24);
+        bytes[off + 1] = (byte) (val >>> 16);
+        bytes[off + 2] = (byte) (val >>> 8);
+        bytes[off + 3] = (byte) val;
+    }
+
+    public boolean flush() {
+        return pointers.flush();
     }
 
     @PreDestroy
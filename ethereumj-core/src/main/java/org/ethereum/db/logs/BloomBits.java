@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db.logs;
+
+import org.ethereum.core.Bloom;
+import org.ethereum.util.ByteUtil;
+
+/**
+ * Bloom bits of a section of consecutive blocks rotated by 90 degrees:
+ * instead of a 2048-bit bloom per block the section keeps 2048 bit vectors,
+ * one per bloom bit, each having one bit per block of the section.
+ *
+ * To find blocks which might contain an item it is enough to AND
+ * the three vectors corresponding to the bits set by the item
+ * instead of checking every block header bloom
+ */
+public class BloomBits {
+
+    public static final int BLOOM_BITS = 256 * 8;
+
+    private final int sectionSize;
+    private final byte[][] vectors = new byte[BLOOM_BITS][];
+
+    public BloomBits(int sectionSize) {
+        if (sectionSize <= 0 || sectionSize % 8 != 0)
+            throw new IllegalArgumentException("Section size should be a positive multiple of 8: " + sectionSize);
+        this.sectionSize = sectionSize;
+    }
+
+    /**
+     * Adds a bloom of the block with index [idx] within the section
+     */
+    public void add(int idx, byte[] bloom) {
+        if (idx < 0 || idx >= sectionSize) throw new IndexOutOfBoundsException(idx + " >= " + sectionSize);
+        for (int bit : setBits(bloom)) {
+            if (vectors[bit] == null) {
+                vectors[bit] = new byte[vectorSize(sectionSize)];
+            }
+            setBlock(vectors[bit], idx);
+        }
+    }
+
+    /**
+     * @return the vector for the bloom bit or null if no block in the section has this bit set
+     */
+    public byte[] getVector(int bit) {
+        return vectors[bit];
+    }
+
+    public int getSectionSize() {
+        return sectionSize;
+    }
+
+    /**
+     * @return indexes of all bits set in the bloom data in terms of {@link ByteUtil#getBit(byte[], int)}
+     */
+    public static int[] setBits(byte[] bloom) {
+        int cnt = 0;
+        for (byte b : bloom) cnt += Integer.bitCount(b & 0xFF);
+        int[] ret = new int[cnt];
+        int pos = 0;
+        for (int i = 0; i < bloom.length; i++) {
+            int b = bloom[i] & 0xFF;
+            while (b != 0) {
+                int lowBit = Integer.numberOfTrailingZeros(b);
+                ret[pos++] = (bloom.length - 1 - i) * 8 + lowBit;
+                b &= b - 1;
+            }
+        }
+        return ret;
+    }
+
+    public static int[] setBits(Bloom bloom) {
+        return setBits(bloom.getData());
+    }
+
+    public static int vectorSize(int sectionSize) {
+        return sectionSize / 8;
+    }
+
+    public static void setBlock(byte[] vector, int idx) {
+        vector[idx >> 3] |= 1 << (idx & 7);
+    }
+
+    public static boolean hasBlock(byte[] vector, int idx) {
+        return (vector[idx >> 3] & (1 << (idx & 7))) != 0;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db.logs;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.ethereum.vm.LogInfo;
+
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * A log found by {@link LogIndexer} along with its location in the main chain
+ */
+public class IndexedLog {
+
+    private final LogInfo logInfo;
+    private final long blockNumber;
+    private final byte[] blockHash;
+    private final byte[] txHash;
+    private final int txIndex;
+    private final int logIndex;
+
+    public IndexedLog(LogInfo logInfo, Block block, Transaction tx, int txIndex, int logIndex) {
+        this.logInfo = logInfo;
+        this.blockNumber = block.getNumber();
+        this.blockHash = block.getHash();
+        this.txHash = tx.getHash();
+        this.txIndex = txIndex;
+        this.logIndex = logIndex;
+    }
+
+    public LogInfo getLogInfo() {
+        return logInfo;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public byte[] getTxHash() {
+        return txHash;
+    }
+
+    /**
+     * @return index of the transaction in the block
+     */
+    public int getTxIndex() {
+        return txIndex;
+    }
+
+    /**
+     * @return index of the log in the transaction receipt
+     */
+    public int getLogIndex() {
+        return logIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedLog{" +
+                "block=" + blockNumber +
+                ", blockHash=" + toHexString(blockHash) +
+                ", txHash=" + toHexString(txHash) +
+                ", txIndex=" + txIndex +
+                ", logIndex=" + logIndex +
+                ", log=" + logInfo +
+                '}';
+    }
+}
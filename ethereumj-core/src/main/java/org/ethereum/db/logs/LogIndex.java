@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db.logs;
+
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.datasource.DbSource;
+import org.ethereum.datasource.Source;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.ethereum.util.ByteUtil.byteArrayToLong;
+import static org.ethereum.util.ByteUtil.longToBytes;
+import static org.ethereum.util.ByteUtil.merge;
+
+/**
+ * Persistent index of contract logs. Consists of two parts:
+ *
+ * <ul>
+ *     <li>bloom bits: the main chain is split into sections of [sectionSize] blocks,
+ *     for every complete section {@link BloomBits} vectors are stored under
+ *     (section, bit) keys. The number of indexed sections is stored as well</li>
+ *     <li>postings (optional): (log address | topic at position) => list of
+ *     (block number, tx index, log index) stored in buckets of {@link #POSTINGS_BUCKET} blocks.
+ *     Postings are appended for every imported block including fork ones, thus they
+ *     should be checked against the main chain on lookup.
+ *     Postings of the latest bucket are kept in memory and every key of the bucket is written
+ *     once the bucket is complete, the stored postings head never goes past written postings</li>
+ * </ul>
+ *
+ * Key layout:
+ * <pre>
+ *   bloom bits:  0x00 + section (8 bytes) + bit (2 bytes)
+ *   postings:    0x01 + position + term (20 or 32 bytes) + bucket (8 bytes),
+ *                position is 0 for the log address and 1 + i for the topic i
+ * </pre>
+ */
+public class LogIndex {
+
+    public static final int POSTINGS_BUCKET = 256;
+
+    private static final byte BLOOM_BITS_PREFIX = 0x00;
+    private static final byte POSTINGS_PREFIX = 0x01;
+    private static final byte[] SECTIONS_KEY = "logIndex.sections".getBytes();
+    private static final byte[] POSTINGS_HEAD_KEY = "logIndex.postingsHead".getBytes();
+
+    // block number (8) + tx index (4) + log index (4)
+    private static final int POSTING_SIZE = 16;
+    // number of last indexed block hashes remembered to skip blocks indexed twice
+    private static final int RECENT_BLOCKS = POSTINGS_BUCKET * 4;
+
+    private final DbSource<byte[]> db;
+    private final Source<byte[], byte[]> src;
+    private final int sectionSize;
+
+    private long sections = -1;
+    private long postingsHead = -2;
+
+    // postings of the latest bucket which are not written yet
+    private long pendingBucket = -1;
+    private final Map<ByteArrayWrapper, ByteArrayOutputStream> pending = new LinkedHashMap<>();
+    private final Map<ByteArrayWrapper, Boolean> recentBlocks = new LinkedHashMap<ByteArrayWrapper, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteArrayWrapper, Boolean> eldest) {
+            return size() > RECENT_BLOCKS;
+        }
+    };
+
+    /**
+     * @param db  underlying database, used for {@link #reset()} only
+     * @param src (normally cached) source on top of the [db] used for reads and writes
+     * @param sectionSize number of blocks in a bloom bits section
+     */
+    public LogIndex(DbSource<byte[]> db, Source<byte[], byte[]> src, int sectionSize) {
+        this.db = db;
+        this.src = src;
+        this.sectionSize = sectionSize;
+    }
+
+    public int getSectionSize() {
+        return sectionSize;
+    }
+
+    /**
+     * @return number of sections with bloom bits stored, all blocks
+     * below [sections * sectionSize] are covered by bloom bits
+     */
+    public synchronized long getSections() {
+        if (sections < 0) {
+            byte[] bytes = src.get(SECTIONS_KEY);
+            sections = bytes == null ? 0 : byteArrayToLong(bytes);
+        }
+        return sections;
+    }
+
+    /**
+     * Stores bloom bits of the next section
+     */
+    public synchronized void addSection(long section, BloomBits bits) {
+        if (section != getSections())
+            throw new IllegalStateException("Expected section #" + getSections() + ", got #" + section);
+
+        for (int bit = 0; bit < BloomBits.BLOOM_BITS; bit++) {
+            byte[] vector = bits.getVector(bit);
+            if (vector != null) {
+                src.put(bloomBitsKey(section, bit), vector);
+            } else {
+                src.delete(bloomBitsKey(section, bit));
+            }
+        }
+        sections = section + 1;
+        src.put(SECTIONS_KEY, longToBytes(sections));
+    }
+
+    /**
+     * @return the bloom bits vector or null if none of the section blocks has the bit set
+     */
+    public byte[] getBloomBits(long section, int bit) {
+        return src.get(bloomBitsKey(section, bit));
+    }
+
+    /**
+     * @return the number of the block, postings of all main chain blocks
+     * up to which (inclusive) were stored, -1 if there are no postings
+     */
+    public synchronized long getPostingsHead() {
+        if (postingsHead < -1) {
+            byte[] bytes = src.get(POSTINGS_HEAD_KEY);
+            postingsHead = bytes == null ? -1 : byteArrayToLong(bytes);
+        }
+        return postingsHead;
+    }
+
+    /**
+     * Moves the postings head forward, a lower block number is ignored.
+     * The head is stored along with the pending postings bucket
+     */
+    public synchronized void setPostingsHead(long blockNumber) {
+        if (blockNumber > getPostingsHead()) {
+            postingsHead = blockNumber;
+        }
+    }
+
+    /**
+     * Appends postings of all logs from the block receipts
+     * @return false if the block has been indexed already
+     */
+    public synchronized boolean addPostings(long blockNumber, byte[] blockHash, List<TransactionReceipt> receipts) {
+        if (recentBlocks.put(new ByteArrayWrapper(blockHash), Boolean.TRUE) != null) return false;
+
+        // grouping block entries by key so every key is updated once per block
+        Map<ByteArrayWrapper, List<byte[]>> entries = new LinkedHashMap<>();
+        for (int txIdx = 0; txIdx < receipts.size(); txIdx++) {
+            List<LogInfo> logs = receipts.get(txIdx).getLogInfoList();
+            for (int logIdx = 0; logIdx < logs.size(); logIdx++) {
+                byte[] posting = posting(blockNumber, txIdx, logIdx);
+                LogInfo log = logs.get(logIdx);
+                addEntry(entries, postingsKey(0, log.getAddress(), blockNumber), posting);
+                List<DataWord> topics = log.getTopics();
+                for (int i = 0; i < topics.size(); i++) {
+                    addEntry(entries, postingsKey(1 + i, topics.get(i).getData(), blockNumber), posting);
+                }
+            }
+        }
+
+        long bucket = blockNumber / POSTINGS_BUCKET;
+        if (bucket > pendingBucket) {
+            writePending();
+            pendingBucket = bucket;
+        }
+
+        for (Map.Entry<ByteArrayWrapper, List<byte[]>> entry : entries.entrySet()) {
+            if (bucket == pendingBucket) {
+                ByteArrayOutputStream postings = pending.computeIfAbsent(entry.getKey(), k -> new ByteArrayOutputStream());
+                for (byte[] posting : entry.getValue()) {
+                    postings.write(posting, 0, posting.length);
+                }
+            } else {
+                // a fork block below the latest bucket, rare enough to be appended right away
+                append(entry.getKey().getData(), merge(entry.getValue().toArray(new byte[0][])));
+            }
+        }
+        return true;
+    }
+
+    private void append(byte[] key, byte[] added) {
+        byte[] existing = src.get(key);
+        src.put(key, existing == null ? added : merge(existing, added));
+    }
+
+    /**
+     * Writes postings of the pending bucket with the postings head
+     */
+    private void writePending() {
+        for (Map.Entry<ByteArrayWrapper, ByteArrayOutputStream> entry : pending.entrySet()) {
+            append(entry.getKey().getData(), entry.getValue().toByteArray());
+        }
+        pending.clear();
+        if (getPostingsHead() >= 0) {
+            src.put(POSTINGS_HEAD_KEY, longToBytes(postingsHead));
+        }
+    }
+
+    /**
+     * Returns postings of the term in the [fromBlock, toBlock] range
+     * @param position 0 for the log address, 1 + i for the topic i
+     * @return list of (block number, tx index, log index) triplets
+     */
+    public synchronized List<long[]> getPostings(int position, byte[] term, long fromBlock, long toBlock) {
+        List<long[]> ret = new ArrayList<>();
+        for (long bucket = fromBlock / POSTINGS_BUCKET; bucket <= toBlock / POSTINGS_BUCKET; bucket++) {
+            byte[] key = postingsKey(position, term, bucket * POSTINGS_BUCKET);
+            addPostings(ret, src.get(key), fromBlock, toBlock);
+            addPostings(ret, getPending(bucket, key), fromBlock, toBlock);
+        }
+        return ret;
+    }
+
+    private byte[] getPending(long bucket, byte[] key) {
+        if (bucket != pendingBucket) return null;
+        ByteArrayOutputStream postings = pending.get(new ByteArrayWrapper(key));
+        return postings == null ? null : postings.toByteArray();
+    }
+
+    private static void addPostings(List<long[]> ret, byte[] postings, long fromBlock, long toBlock) {
+        if (postings == null) return;
+        for (int off = 0; off + POSTING_SIZE <= postings.length; off += POSTING_SIZE) {
+            long number = readLong(postings, off);
+            if (number < fromBlock || number > toBlock) continue;
+            ret.add(new long[] {number, readInt(postings, off + 8), readInt(postings, off + 12)});
+        }
+    }
+
+    /**
+     * Writes pending postings of the incomplete bucket and flushes the source
+     */
+    public synchronized boolean flush() {
+        writePending();
+        return src.flush();
+    }
+
+    /**
+     * Drops the whole index
+     */
+    public synchronized void reset() {
+        src.flush();
+        db.reset();
+        sections = -1;
+        postingsHead = -2;
+        pendingBucket = -1;
+        pending.clear();
+        recentBlocks.clear();
+    }
+
+    private static void addEntry(Map<ByteArrayWrapper, List<byte[]>> entries, byte[] key, byte[] posting) {
+        entries.computeIfAbsent(new ByteArrayWrapper(key), k -> new ArrayList<>()).add(posting);
+    }
+
+    private static byte[] bloomBitsKey(long section, int bit) {
+        return merge(new byte[] {BLOOM_BITS_PREFIX}, longToBytes(section), new byte[] {(byte) (bit >> 8), (byte) bit});
+    }
+
+    private static byte[] postingsKey(int position, byte[] term, long blockNumber) {
+        return merge(new byte[] {POSTINGS_PREFIX, (byte) position}, term, longToBytes(blockNumber / POSTINGS_BUCKET));
+    }
+
+    private static byte[] posting(long blockNumber, int txIdx, int logIdx) {
+        return merge(longToBytes(blockNumber), ByteUtil.intToBytes(txIdx), ByteUtil.intToBytes(logIdx));
+    }
+
+    private static long readLong(byte[] bytes, int off) {
+        long ret = 0;
+        for (int i = 0; i < 8; i++) ret = (ret << 8) | (bytes[off + i] & 0xFF);
+        return ret;
+    }
+
+    private static int readInt(byte[] bytes, int off) {
+        int ret = 0;
+        for (int i = 0; i < 4; i++) ret = (ret << 8) | (bytes[off + i] & 0xFF);
+        return ret;
+    }
+}
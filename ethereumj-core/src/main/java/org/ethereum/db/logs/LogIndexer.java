@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db.logs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockSummary;
+import org.ethereum.core.Bloom;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.TransactionStore;
+import org.ethereum.listener.CompositeEthereumListener;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.listener.LogFilter;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Maintains {@link LogIndex} and answers historical log queries.
+ *
+ * Postings are added on every imported block, bloom bits are added
+ * in the background once a whole section is [confirmations] blocks deep in the main chain.
+ * On start the indexer catches up with blocks imported while it was disabled,
+ * the same routine is used by {@link #rebuild()} to recreate the index from scratch.
+ *
+ * Queries use postings when they are available for the whole range,
+ * else bloom bits for indexed sections and header blooms for the rest of the range.
+ * Without index every block header bloom in the range is checked
+ */
+public class LogIndexer {
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    private final LogIndex index;
+    private final BlockStore blockStore;
+    private final TransactionStore transactionStore;
+    private final int confirmations;
+    private final boolean postings;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("LogIndexerThread-%d").setDaemon(true).build());
+    private final AtomicBoolean sectionsScheduled = new AtomicBoolean();
+
+    /**
+     * @param index the index or null when indexing is disabled
+     * @param confirmations how deep a section should be in the main chain to get its bloom bits
+     * @param postings whether postings should be maintained
+     */
+    public LogIndexer(LogIndex index, BlockStore blockStore, TransactionStore transactionStore,
+                      int confirmations, boolean postings) {
+        this.index = index;
+        this.blockStore = blockStore;
+        this.transactionStore = transactionStore;
+        this.confirmations = confirmations;
+        this.postings = postings;
+    }
+
+    @Autowired
+    public void setEthereumListener(CompositeEthereumListener listener) {
+        if (index == null) return;
+        listener.addListener(new EthereumListenerAdapter() {
+            @Override
+            public void onBlock(BlockSummary blockSummary) {
+                LogIndexer.this.onBlock(blockSummary);
+            }
+        });
+        worker.submit(this::catchUp);
+    }
+
+    public boolean isEnabled() {
+        return index != null;
+    }
+
+    public LogIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Indexes imported block, either from the main chain or a fork
+     */
+    public void onBlock(BlockSummary blockSummary) {
+        if (index == null) return;
+        try {
+            if (postings) {
+                Block block = blockSummary.getBlock();
+                index.addPostings(block.getNumber(), block.getHash(), blockSummary.getReceipts());
+                if (block.getNumber() == index.getPostingsHead() + 1) {
+                    index.setPostingsHead(block.getNumber());
+                }
+            }
+            scheduleSections();
+        } catch (Exception e) {
+            logger.error("Error indexing logs of block " + blockSummary.getBlock().getShortDescr(), e);
+        }
+    }
+
+    /**
+     * Drops the index and rebuilds it from stored blocks and receipts
+     * @return future completed when the index is rebuilt
+     */
+    public Future<?> rebuild() {
+        if (index == null) throw new IllegalStateException("Log index is disabled");
+        return worker.submit(() -> {
+            logger.info("Rebuilding log index...");
+            index.reset();
+            catchUp();
+            index.flush();
+            logger.info("Log index rebuilt: " + index.getSections() + " sections" +
+                    (postings ? ", postings up to block #" + index.getPostingsHead() : ""));
+        });
+    }
+
+    /**
+     * Returns logs from the main chain matching the filter
+     * @param fromBlock first block number of the range
+     * @param toBlock last block number of the range (inclusive),
+     *                limited by the best block number
+     * @return matching logs ordered by their position in the chain
+     */
+    public List<IndexedLog> getLogs(LogFilter filter, long fromBlock, long toBlock) {
+        toBlock = Math.min(toBlock, blockStore.getMaxNumber());
+        List<IndexedLog> ret = new ArrayList<>();
+        if (fromBlock > toBlock) return ret;
+
+        if (index != null && postings && index.getPostingsHead() >= toBlock && getPostingsTerms(filter) != null) {
+            matchPostings(filter, fromBlock, toBlock, ret);
+            return ret;
+        }
+
+        long num = fromBlock;
+        if (index != null) {
+            int sectionSize = index.getSectionSize();
+            long indexedEnd = Math.min(toBlock + 1, index.getSections() * sectionSize);
+            for (; num < indexedEnd; num = (num / sectionSize + 1) * sectionSize) {
+                long section = num / sectionSize;
+                byte[] candidates = matchSection(filter, section);
+                long sectionEnd = Math.min(indexedEnd, (section + 1) * sectionSize);
+                for (long n = num; n < sectionEnd; n++) {
+                    if (BloomBits.hasBlock(candidates, (int) (n - section * sectionSize))) {
+                        matchBlock(filter, blockStore.getChainBlockByNumber(n), ret);
+                    }
+                }
+            }
+            num = Math.max(num, indexedEnd);
+        }
+
+        for (; num <= toBlock; num++) {
+            matchBlock(filter, blockStore.getChainBlockByNumber(num), ret);
+        }
+        return ret;
+    }
+
+    private void scheduleSections() {
+        if (sectionsScheduled.compareAndSet(false, true)) {
+            worker.submit(() -> {
+                try {
+                    buildSections();
+                } finally {
+                    sectionsScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    private void catchUp() {
+        try {
+            buildSections();
+            if (postings) {
+                long num;
+                while ((num = index.getPostingsHead() + 1) <= blockStore.getMaxNumber()) {
+                    Block block = blockStore.getChainBlockByNumber(num);
+                    List<TransactionReceipt> receipts = block == null ? null : transactionStore.getReceipts(block);
+                    if (receipts == null) {
+                        logger.warn("Log index: can't get receipts of block #" + num + ", postings are not complete");
+                        break;
+                    }
+                    index.addPostings(num, block.getHash(), receipts);
+                    index.setPostingsHead(num);
+                    if (num % 10000 == 0) {
+                        logger.info("Log index: postings added up to block #" + num);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error catching up log index", e);
+        }
+    }
+
+    private void buildSections() {
+        int sectionSize = index.getSectionSize();
+        long section;
+        while ((section = index.getSections()) * sectionSize + sectionSize - 1 + confirmations <= blockStore.getMaxNumber()) {
+            BloomBits bits = new BloomBits(sectionSize);
+            for (int i = 0; i < sectionSize; i++) {
+                Block block = blockStore.getChainBlockByNumber(section * sectionSize + i);
+                if (block == null) {
+                    // blocks are not there yet (e.g. downloaded backward by fast sync)
+                    logger.debug("Log index: block #" + (section * sectionSize + i) + " not found, postponing section");
+                    return;
+                }
+                bits.add(i, block.getLogBloom());
+            }
+            index.addSection(section, bits);
+            logger.debug("Log index: section #" + section + " added");
+        }
+    }
+
+    /**
+     * @return candidate blocks vector of the section
+     */
+    private byte[] matchSection(LogFilter filter, long section) {
+        int vectorSize = BloomBits.vectorSize(index.getSectionSize());
+        Map<Integer, byte[]> vectors = new HashMap<>();
+
+        byte[] ret = allBlocks(vectorSize);
+        for (Bloom[] orBlooms : filter.getFilterBlooms()) {
+            byte[] orVector = new byte[vectorSize];
+            for (Bloom bloom : orBlooms) {
+                byte[] andVector = allBlocks(vectorSize);
+                for (int bit : BloomBits.setBits(bloom)) {
+                    byte[] bitVector = vectors.computeIfAbsent(bit, b -> {
+                        byte[] v = index.getBloomBits(section, b);
+                        return v == null ? new byte[vectorSize] : v;
+                    });
+                    for (int i = 0; i < vectorSize; i++) andVector[i] &= bitVector[i];
+                }
+                for (int i = 0; i < vectorSize; i++) orVector[i] |= andVector[i];
+            }
+            for (int i = 0; i < vectorSize; i++) ret[i] &= orVector[i];
+        }
+        return ret;
+    }
+
+    private static byte[] allBlocks(int vectorSize) {
+        byte[] ret = new byte[vectorSize];
+        Arrays.fill(ret, (byte) 0xFF);
+        return ret;
+    }
+
+    private void matchBlock(LogFilter filter, Block block, List<IndexedLog> ret) {
+        if (block == null || !filter.matchBloom(new Bloom(block.getLogBloom()))) return;
+
+        List<Transaction> txs = block.getTransactionsList();
+        List<TransactionReceipt> receipts = transactionStore.getReceipts(block);
+        if (receipts == null) return;
+        for (int txIdx = 0; txIdx < txs.size(); txIdx++) {
+            TransactionReceipt receipt = receipts.get(txIdx);
+            if (!filter.matchBloom(receipt.getBloomFilter())) continue;
+            List<LogInfo> logs = receipt.getLogInfoList();
+            for (int logIdx = 0; logIdx < logs.size(); logIdx++) {
+                if (filter.matchesExactly(logs.get(logIdx))) {
+                    ret.add(new IndexedLog(logs.get(logIdx), block, txs.get(txIdx), txIdx, logIdx));
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the filter element to look up postings for: the address set when it's given,
+     * otherwise the first topic position with non-empty terms. Posting list sizes are not compared.
+     *
+     * @return (position, terms) of the element or null if the filter matches any address and any topic
+     */
+    private static Map.Entry<Integer, byte[][]> getPostingsTerms(LogFilter filter) {
+        if (filter.getContractAddresses().length > 0) {
+            return new AbstractMap.SimpleImmutableEntry<>(0, filter.getContractAddresses());
+        }
+        List<byte[][]> topics = filter.getTopics();
+        for (int i = 0; i < topics.size(); i++) {
+            if (topics.get(i) != null && topics.get(i).length > 0) {
+                return new AbstractMap.SimpleImmutableEntry<>(1 + i, topics.get(i));
+            }
+        }
+        return null;
+    }
+
+    private void matchPostings(LogFilter filter, long fromBlock, long toBlock, List<IndexedLog> ret) {
+        Map.Entry<Integer, byte[][]> terms = getPostingsTerms(filter);
+        TreeSet<long[]> candidates = new TreeSet<>((p1, p2) -> {
+            for (int i = 0; i < 3; i++) {
+                int cmp = Long.compare(p1[i], p2[i]);
+                if (cmp != 0) return cmp;
+            }
+            return 0;
+        });
+        for (byte[] term : terms.getValue()) {
+            byte[] key = terms.getKey() == 0 ? term : DataWord.of(term).getData();
+            candidates.addAll(index.getPostings(terms.getKey(), key, fromBlock, toBlock));
+        }
+
+        // postings may refer fork blocks, so the main chain block is checked
+        Block block = null;
+        List<TransactionReceipt> receipts = null;
+        for (long[] posting : candidates) {
+            if (block == null || block.getNumber() != posting[0]) {
+                block = blockStore.getChainBlockByNumber(posting[0]);
+                receipts = block == null ? null : transactionStore.getReceipts(block);
+            }
+            if (receipts == null) continue;
+            List<Transaction> txs = block.getTransactionsList();
+            int txIdx = (int) posting[1];
+            int logIdx = (int) posting[2];
+            if (txIdx >= txs.size()) continue;
+            List<LogInfo> logs = receipts.get(txIdx).getLogInfoList();
+            if (logIdx < logs.size() && filter.matchesExactly(logs.get(logIdx))) {
+                ret.add(new IndexedLog(logs.get(logIdx), block, txs.get(txIdx), txIdx, logIdx));
+            }
+        }
+    }
+}
@@ -19,7 +19,9 @@ package org.ethereum.facade;
 
 import org.ethereum.core.*;
 import org.ethereum.crypto.ECKey;
+import org.ethereum.db.logs.IndexedLog;
 import org.ethereum.listener.EthereumListener;
+import org.ethereum.listener.LogFilter;
 import org.ethereum.manager.AdminInfo;
 import org.ethereum.manager.BlockLoader;
 import org.ethereum.mine.BlockMiner;
@@ -29,6 +31,8 @@ import org.ethereum.net.server.ChannelManager;
 import org.ethereum.net.shh.Whisper;
 import org.ethereum.vm.program.ProgramResult;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.List;
@@ -120,6 +124,29 @@ public interface Ethereum {
      */
     BlockSummary replayBlock(Block block);
 
+    /**
+     * Searches the main chain for logs matching the filter.
+     * Uses the log index if it's enabled (database.logIndex.enabled),
+     * else checks every block bloom in the range
+     *
+     * @param filter     addresses and topics to match
+     * @param fromBlock  first block of the range
+     * @param toBlock    last block of the range (inclusive)
+     * @return matching logs ordered by block, transaction and log index
+     */
+    List<IndexedLog> getLogs(LogFilter filter, long fromBlock, long toBlock);
+
+    /**
+     * Writes the full state of the block to the stream,
+     * the dump can be used to bootstrap another node with fast sync (sync.fast.stateFile)
+     *
+     * <b>Note:</b> the state of the block must not be pruned
+     *
+     * @param block  block whose state is exported
+     * @param out    destination stream, it's not closed
+     */
+    void exportState(Block block, OutputStream out) throws IOException;
+
     /**
      * Call a contract function locally without sending transaction to the network
      * and without changing contract storage.
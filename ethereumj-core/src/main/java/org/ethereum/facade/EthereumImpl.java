@@ -24,9 +24,13 @@ import org.ethereum.core.*;
 import org.ethereum.core.PendingState;
 import org.ethereum.core.Repository;
 import org.ethereum.crypto.ECKey;
+import org.ethereum.db.StateExporter;
+import org.ethereum.db.logs.IndexedLog;
+import org.ethereum.db.logs.LogIndexer;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.listener.GasPriceTracker;
+import org.ethereum.listener.LogFilter;
 import org.ethereum.manager.AdminInfo;
 import org.ethereum.manager.BlockLoader;
 import org.ethereum.manager.WorldManager;
@@ -52,6 +56,8 @@ import org.springframework.context.support.AbstractApplicationContext;
 import org.springframework.stereotype.Component;
 import org.springframework.util.concurrent.FutureAdapter;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.*;
@@ -98,6 +104,9 @@ public class EthereumImpl implements Ethereum, SmartLifecycle {
     @Autowired
     SyncManager syncManager;
 
+    @Autowired
+    LogIndexer logIndexer;
+
     @Autowired
     CommonConfig commonConfig = CommonConfig.getDefault();
 
@@ -298,6 +307,16 @@ public class EthereumImpl implements Ethereum, SmartLifecycle {
         }
     }
 
+    @Override
+    public List<IndexedLog> getLogs(LogFilter filter, long fromBlock, long toBlock) {
+        return logIndexer.getLogs(filter, fromBlock, toBlock);
+    }
+
+    @Override
+    public void exportState(Block block, OutputStream out) throws IOException {
+        new StateExporter(commonConfig.stateSource()).export(block.getHeader(), out);
+    }
+
     @Override
     public ProgramResult callConstantFunction(String receiveAddress,
                                               CallTransaction.Function function, Object... funcArgs) {
@@ -22,6 +22,7 @@ import org.ethereum.vm.DataWord;
 import javax.annotation.Nullable;
 import java.math.BigInteger;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -95,4 +96,29 @@ public interface Repository {
      * @return storage entries for specified keys, or full storage if keys parameter is <code>null</code>
      */
     Map<DataWord, DataWord> getStorage(byte[] addr, @Nullable Collection<DataWord> keys);
+
+    /**
+     * Retrieve Merkle proof of an account against the state root,
+     * can be checked with {@link org.ethereum.trie.TrieProof#verifySecure(byte[], byte[], List)}
+     *
+     * @param addr of the account
+     * @return state trie nodes on the account path, proves absence of non-existing account as well
+     * @throws UnsupportedOperationException if the repository can't produce proofs
+     */
+    default List<byte[]> getAccountProof(byte[] addr) {
+        throw new UnsupportedOperationException("Account proofs are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Retrieve Merkle proof of a storage entry against the account storage root,
+     * can be checked with {@link org.ethereum.trie.TrieProof#verifySecure(byte[], byte[], List)}
+     *
+     * @param addr of the account
+     * @param key storage key
+     * @return storage trie nodes on the key path, empty list if the account has no storage
+     * @throws UnsupportedOperationException if the repository can't produce proofs
+     */
+    default List<byte[]> getStorageProof(byte[] addr, DataWord key) {
+        throw new UnsupportedOperationException("Storage proofs are not supported by " + getClass().getName());
+    }
 }
@@ -19,6 +19,8 @@ package org.ethereum.listener;
 
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.ethereum.core.*;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.Source;
 import org.ethereum.db.BlockStore;
 import org.ethereum.db.TransactionStore;
 import org.ethereum.net.eth.message.StatusMessage;
@@ -26,6 +28,8 @@ import org.ethereum.net.message.Message;
 import org.ethereum.net.p2p.HelloMessage;
 import org.ethereum.net.rlpx.Node;
 import org.ethereum.net.server.Channel;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.ExecutorPipeline;
 import org.ethereum.util.FastByteComparisons;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +53,8 @@ import static org.ethereum.sync.BlockDownloader.MAX_IN_REQUEST;
 public class BlockReplay extends EthereumListenerAdapter {
     private static final Logger logger = LoggerFactory.getLogger("events");
     private static final int HALF_BUFFER = MAX_IN_REQUEST;
+    // batches per reader thread which may be read ahead of the listener
+    private static final int WINDOW_PER_THREAD = 4;
 
     BlockStore blockStore;
     TransactionStore transactionStore;
@@ -56,11 +62,20 @@ public class BlockReplay extends EthereumListenerAdapter {
     EthereumListener listener;
 
     long firstBlock;
+    long lastBlock = Long.MAX_VALUE;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int batchSize = 32;
 
-    boolean replayComplete = false;
-    Block lastReplayedBlock;
+    Source<byte[], byte[]> checkpointSource;
+    byte[] checkpointKey;
+
+    volatile boolean replayComplete = false;
+    volatile Block lastReplayedBlock;
     CircularFifoQueue<BlockSummary> onBlockBuffer = new CircularFifoQueue<>(HALF_BUFFER * 2);
 
+    private long lastDelivered;
+    private Throwable replayError;
+
     public BlockReplay(BlockStore blockStore, TransactionStore transactionStore, EthereumListener listener, long firstBlock) {
         this.blockStore = blockStore;
         this.transactionStore = transactionStore;
@@ -68,6 +83,50 @@ public class BlockReplay extends EthereumListenerAdapter {
         this.firstBlock = firstBlock;
     }
 
+    /**
+     * Limits replay with the [lastBlock] (inclusive).
+     * Bounded replay doesn't switch to online mode: newly imported blocks are not forwarded
+     */
+    public BlockReplay withLastBlock(long lastBlock) {
+        this.lastBlock = lastBlock;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads reading and decoding blocks and receipts
+     */
+    public BlockReplay withThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the number of consecutive blocks read by a thread at once
+     */
+    public BlockReplay withBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Saves the number of the last replayed block to the [source] after each batch
+     * and resumes replay from the next block if the checkpoint already exists.
+     * The [name] distinguishes checkpoints of different replays sharing the same source
+     */
+    public BlockReplay withCheckpoint(Source<byte[], byte[]> source, String name) {
+        this.checkpointSource = source;
+        this.checkpointKey = HashUtil.sha3(("BlockReplay." + name).getBytes());
+        return this;
+    }
+
+    /**
+     * @return the number of the last block replayed according to the checkpoint or -1 if there is no checkpoint
+     */
+    public long getCheckpoint() {
+        byte[] bytes = checkpointSource == null ? null : checkpointSource.get(checkpointKey);
+        return bytes == null ? -1 : ByteUtil.byteArrayToLong(bytes);
+    }
+
     /**
      * Replay blocks asynchronously
      */
@@ -77,55 +136,115 @@ public class BlockReplay extends EthereumListenerAdapter {
 
     /**
      * Replay blocks synchronously
+     *
+     * Blocks and receipts are read and decoded by batches on [threads] workers
+     * ahead of the listener while the listener receives them on a single thread
+     * in order. Readers are blocked when the listener falls behind
+     * more than [threads] * {@link #WINDOW_PER_THREAD} batches
      */
     public void replay() {
-        long lastBlock = blockStore.getMaxNumber();
+        long firstBlock = Math.max(this.firstBlock, getCheckpoint() + 1);
+        long lastBlock = Math.min(this.lastBlock, blockStore.getMaxNumber());
         logger.info("Replaying blocks from " + firstBlock + ", current best block: " + lastBlock);
-        int cnt = 0;
+
+        ExecutorPipeline<long[], List<BlockSummary>> readers = new ExecutorPipeline<>(threads, threads, true,
+                this::readBatch, this::onReplayError).setThreadPoolName("BlockReplay-read");
+        readers.add(1, threads, this::deliverBatch).setThreadPoolName("BlockReplay-deliver");
+
+        synchronized (this) {
+            lastDelivered = firstBlock - 1;
+        }
         long num = firstBlock;
-        while(!replayComplete) {
-            for (; num <= lastBlock; num++) {
-                replayBlock(num);
-                cnt++;
-                if (cnt % 1000 == 0) {
-                    logger.info("Replayed " + cnt + " blocks so far. Current block: " + num);
+        long window = (long) threads * WINDOW_PER_THREAD * batchSize;
+        try {
+            while (!replayComplete) {
+                for (; num <= lastBlock; num += batchSize) {
+                    // bounds the blocks buffered in the pipeline, throws if replay has failed
+                    waitDelivered(num - window);
+                    readers.push(new long[]{num, Math.min(num + batchSize - 1, lastBlock)});
                 }
-            }
+                waitDelivered(lastBlock);
 
-            synchronized (this) {
-                if (onBlockBuffer.size() < onBlockBuffer.maxSize()) {
-                    replayComplete = true;
-                } else {
-                    // So we'll have half of the buffer for new blocks until not synchronized replay finish
-                    long newLastBlock = blockStore.getMaxNumber() - HALF_BUFFER;
-                    if (lastBlock >= newLastBlock) {
+                synchronized (this) {
+                    if (isBounded() || onBlockBuffer.size() < onBlockBuffer.maxSize()) {
                         replayComplete = true;
                     } else {
-                        lastBlock = newLastBlock;
+                        // So we'll have half of the buffer for new blocks until not synchronized replay finish
+                        long newLastBlock = blockStore.getMaxNumber() - HALF_BUFFER;
+                        if (lastBlock >= newLastBlock) {
+                            replayComplete = true;
+                        } else {
+                            lastBlock = newLastBlock;
+                        }
                     }
                 }
             }
+        } finally {
+            readers.shutdown();
         }
         logger.info("Replay complete.");
     }
 
-    private void replayBlock(long num) {
-        Block block = blockStore.getChainBlockByNumber(num);
-        lastReplayedBlock = block;
-        List<TransactionReceipt> receipts = new ArrayList<>();
-        for (Transaction tx : block.getTransactionsList()) {
-            TransactionInfo info = transactionStore.get(tx.getHash(), block.getHash());
-            TransactionReceipt receipt = info.getReceipt();
-            receipt.setTransaction(tx);
-            receipts.add(receipt);
+    private boolean isBounded() {
+        return lastBlock != Long.MAX_VALUE;
+    }
+
+    private List<BlockSummary> readBatch(long[] range) {
+        List<BlockSummary> ret = new ArrayList<>();
+        for (long num = range[0]; num <= range[1]; num++) {
+            Block block = blockStore.getChainBlockByNumber(num);
+            if (block == null) throw new RuntimeException("Block #" + num + " not found");
+            List<TransactionReceipt> receipts = transactionStore.getReceipts(block);
+            if (receipts == null) throw new RuntimeException("Receipts not found for block " + block.getShortDescr());
+            for (int i = 0; i < receipts.size(); i++) {
+                receipts.get(i).setTransaction(block.getTransactionsList().get(i));
+            }
+            BlockSummary blockSummary = new BlockSummary(block, null, receipts, null);
+            blockSummary.setTotalDifficulty(BigInteger.valueOf(num));
+            ret.add(blockSummary);
+        }
+        return ret;
+    }
+
+    private void deliverBatch(List<BlockSummary> batch) {
+        for (BlockSummary blockSummary : batch) {
+            lastReplayedBlock = blockSummary.getBlock();
+            listener.onBlock(blockSummary);
+        }
+        long num = lastReplayedBlock.getNumber();
+        if (checkpointSource != null) {
+            checkpointSource.put(checkpointKey, ByteUtil.longToBytes(num));
+        }
+        if (num / 1000 > (num - batch.size()) / 1000) {
+            logger.info("Replayed blocks up to #" + num);
+        }
+        synchronized (this) {
+            lastDelivered = num;
+            notifyAll();
+        }
+    }
+
+    private synchronized void onReplayError(Throwable e) {
+        logger.error("Error replaying blocks", e);
+        replayError = e;
+        notifyAll();
+    }
+
+    private synchronized void waitDelivered(long num) {
+        while (lastDelivered < num && replayError == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
         }
-        BlockSummary blockSummary = new BlockSummary(block, null, receipts, null);
-        blockSummary.setTotalDifficulty(BigInteger.valueOf(num));
-        listener.onBlock(blockSummary);
+        if (replayError != null) throw new RuntimeException("Block replay failed", replayError);
     }
 
     @Override
     public synchronized void onBlock(BlockSummary blockSummary) {
+        if (isBounded()) return;
         if (replayComplete) {
             if (onBlockBuffer.isEmpty()) {
                 listener.onBlock(blockSummary);
@@ -46,6 +46,30 @@ public class LogFilter {
         return this;
     }
 
+    /**
+     * @return contract addresses any of which should match, empty array matches any address
+     */
+    public byte[][] getContractAddresses() {
+        return contractAddresses;
+    }
+
+    /**
+     * @return topics by their position, any of which should match at this position,
+     * null or empty array at a position matches any topic
+     */
+    public List<byte[][]> getTopics() {
+        return topics;
+    }
+
+    /**
+     * @return blooms of every topic position followed by blooms of contract addresses,
+     * a matching bloom should match at least one bloom from every element
+     */
+    public Bloom[][] getFilterBlooms() {
+        initBlooms();
+        return filterBlooms;
+    }
+
     private void initBlooms() {
         if (filterBlooms != null) return;
 
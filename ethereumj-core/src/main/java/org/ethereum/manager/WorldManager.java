@@ -17,11 +17,15 @@
  */
 package org.ethereum.manager;
 
+import org.ethereum.config.CommonConfig;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.db.BlockStore;
 import org.ethereum.db.DbFlushManager;
 import org.ethereum.db.HeaderStore;
+import org.ethereum.db.StateCompactor;
+import org.ethereum.db.StateSnapshot;
 import org.ethereum.db.migrate.MigrateHeaderSourceTotalDiff;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
@@ -45,6 +49,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
 import static org.ethereum.util.ByteUtil.toHexString;
@@ -118,6 +123,8 @@ public class WorldManager {
     @PostConstruct
     private void init() {
         fastSyncDbJobs();
+        compactState();
+        initStateSnapshot();
         syncManager.init(channelManager, pool);
     }
 
@@ -251,6 +258,47 @@ public class WorldManager {
 */
     }
 
+    /**
+     * Removes state nodes which are not reachable from the recent states,
+     * runs only if it's requested by config
+     */
+    private void compactState() {
+        int keepStates = config.databaseCompactStateDepth();
+        if (keepStates <= 0) return;
+
+        Block bestBlock = blockStore.getBestBlock();
+        List<byte[]> roots = new ArrayList<>();
+        for (long num = Math.max(0, bestBlock.getNumber() - keepStates + 1); num <= bestBlock.getNumber(); num++) {
+            Block block = blockStore.getChainBlockByNumber(num);
+            if (block != null) roots.add(block.getStateRoot());
+        }
+
+        logger.info("Compacting state, keeping states of blocks [{}..{}]",
+                Math.max(0, bestBlock.getNumber() - keepStates + 1), bestBlock.getNumber());
+
+        dbFlushManager.flushSync();
+        new StateCompactor(ctx.getBean(CommonConfig.class).blockchainDB(), HashUtil.sha3("state".getBytes()))
+                .compact(roots);
+    }
+
+    /**
+     * Generates the state snapshot if it doesn't cover the best block state
+     */
+    private void initStateSnapshot() {
+        StateSnapshot snapshot = ctx.getBean(CommonConfig.class).stateSnapshot();
+        if (snapshot == null) return;
+
+        byte[] root = blockchain.getBestBlock().getStateRoot();
+        if (snapshot.isAvailable(root)) return;
+
+        try {
+            snapshot.generate(root);
+        } catch (RuntimeException e) {
+            // e.g. fast sync hasn't completed yet, the trie is used until the next start
+            logger.warn("State snapshot can't be generated: {}", e.getMessage());
+        }
+    }
+
     /**
      * After introducing skipHistory in FastSync this method
      * adds additional header storage to Blockchain
@@ -282,6 +330,11 @@ public class WorldManager {
         activePeer.close();
         logger.info("close: shutting down event dispatch thread used by EventBus ...");
         eventDispatchThread.shutdown();
+        StateSnapshot snapshot = ctx.getBean(CommonConfig.class).stateSnapshot();
+        if (snapshot != null) {
+            logger.info("close: persisting state snapshot ...");
+            snapshot.persist(blockchain.getBestBlock().getStateRoot());
+        }
         logger.info("close: closing Blockchain instance ...");
         blockchain.close();
         logger.info("close: closing main repository ...");
@@ -204,6 +204,10 @@ public class EthashValidationHelper {
 
         private void reset(long blockNumber) {
             synchronized (EthashValidationHelper.this) {
+                // might be already reset by concurrent validation
+                if (epoch(blockNumber) >= lastCachedEpoch && lastCachedEpoch >= 0)
+                    return;
+
                 caches.clear();
                 caches.add(new Cache(blockNumber));
 
@@ -258,6 +262,10 @@ public class EthashValidationHelper {
 
         private void reset(long blockNumber) {
             synchronized (EthashValidationHelper.this) {
+                // might be already reset by concurrent validation
+                if (epoch(blockNumber) <= lastCachedEpoch && lastCachedEpoch >= 0)
+                    return;
+
                 caches.clear();
                 caches.add(new Cache(blockNumber));
 
@@ -19,13 +19,13 @@ package org.ethereum.net;
 
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import org.ethereum.config.SystemProperties;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.eth.message.EthMessage;
 import org.ethereum.net.message.Message;
 import org.ethereum.net.message.ReasonCode;
 import org.ethereum.net.p2p.DisconnectMessage;
 import org.ethereum.net.p2p.PingMessage;
-import org.ethereum.net.p2p.PongMessage;
 import org.ethereum.net.server.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,8 +34,8 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import java.util.Queue;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.ethereum.net.message.StaticMessages.DISCONNECT_MESSAGE;
 
@@ -52,6 +52,11 @@ import static org.ethereum.net.message.StaticMessages.DISCONNECT_MESSAGE;
  * The following messages will not be answered:
  *      PONG, PEERS, HELLO, STATUS, TRANSACTIONS, BLOCKS
  *
+ * Messages are written from the channel event loop as soon as they are queued,
+ * all messages queued at the moment are written with a single flush.
+ * Up to 'peer.maxInFlightRequests' requests may wait for answers at the same time,
+ * an answer covers the oldest request waiting for the answer of that type
+ *
  * @author Roman Mandeleil
  */
 @Component
@@ -60,36 +65,31 @@ public class MessageQueue {
 
     private static final Logger logger = LoggerFactory.getLogger("net");
 
-    private static final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4, new ThreadFactory() {
-        private AtomicInteger cnt = new AtomicInteger(0);
-
-        public Thread newThread(Runnable r) {
-            return new Thread(r, "MessageQueueTimer-" + cnt.getAndIncrement());
-        }
-    });
-
     private Queue<MessageRoundtrip> requestQueue = new ConcurrentLinkedQueue<>();
     private Queue<MessageRoundtrip> respondQueue = new ConcurrentLinkedQueue<>();
-    private ChannelHandlerContext ctx = null;
+    // requests written to the wire and not answered yet in the order they were sent
+    private Queue<MessageRoundtrip> inFlightQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile ChannelHandlerContext ctx = null;
+    private volatile boolean closed = false;
 
     @Autowired
     EthereumListener ethereumListener;
-    boolean hasPing = false;
-    private ScheduledFuture<?> timerTask;
+    @Autowired
+    SystemProperties config;
+    volatile boolean hasPing = false;
+    private int maxInFlightRequests = 1;
     private Channel channel;
 
     public MessageQueue() {
     }
 
     public void activate(ChannelHandlerContext ctx) {
+        if (config != null) {
+            maxInFlightRequests = config.peerMaxInFlightRequests();
+        }
         this.ctx = ctx;
-        timerTask = timer.scheduleAtFixedRate(() -> {
-            try {
-                nudgeQueue();
-            } catch (Throwable t) {
-                logger.error("Unhandled exception", t);
-            }
-        }, 10, 10, TimeUnit.MILLISECONDS);
+        scheduleDrain();
     }
 
     public void setChannel(Channel channel) {
@@ -111,6 +111,8 @@ public class MessageQueue {
             requestQueue.add(new MessageRoundtrip(msg));
         else
             respondQueue.add(new MessageRoundtrip(msg));
+
+        scheduleDrain();
     }
 
     public void disconnect() {
@@ -130,57 +132,77 @@ public class MessageQueue {
 
         ethereumListener.trace("[Recv: " + msg + "]");
 
-        if (requestQueue.peek() != null) {
-            MessageRoundtrip messageRoundtrip = requestQueue.peek();
+        for (MessageRoundtrip messageRoundtrip : inFlightQueue) {
             Message waitingMessage = messageRoundtrip.getMsg();
 
-            if (waitingMessage instanceof PingMessage) hasPing = false;
+            if (msg.getClass() == waitingMessage.getAnswerMessage()) {
+                if (waitingMessage instanceof PingMessage) hasPing = false;
 
-            if (waitingMessage.getAnswerMessage() != null
-                    && msg.getClass() == waitingMessage.getAnswerMessage()) {
                 messageRoundtrip.answer();
+                inFlightQueue.remove(messageRoundtrip);
                 if (waitingMessage instanceof EthMessage)
                     channel.getPeerStats().pong(messageRoundtrip.lastTimestamp);
                 logger.trace("Message round trip covered: [{}] ",
                         messageRoundtrip.getMsg().getClass());
+
+                // there is a room for the next request
+                scheduleDrain();
+                break;
             }
         }
     }
 
-    private void removeAnsweredMessage(MessageRoundtrip messageRoundtrip) {
-        if (messageRoundtrip != null && messageRoundtrip.isAnswered())
-            requestQueue.remove();
+    private void scheduleDrain() {
+        ChannelHandlerContext ctx = this.ctx;
+        if (ctx == null || closed) return;
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(() -> {
+                try {
+                    drainQueues();
+                } catch (Throwable t) {
+                    logger.error("Unhandled exception", t);
+                }
+            });
+        }
     }
 
-    private void nudgeQueue() {
-        // remove last answered message on the queue
-        removeAnsweredMessage(requestQueue.peek());
-        // Now send the next message
-        sendToWire(respondQueue.poll());
-        sendToWire(requestQueue.peek());
+    private void drainQueues() {
+        // messages queued after this point schedule one more drain
+        drainScheduled.set(false);
+        if (closed) return;
+
+        boolean written = false;
+        MessageRoundtrip messageRoundtrip;
+        while ((messageRoundtrip = respondQueue.poll()) != null) {
+            sendToWire(messageRoundtrip);
+            written = true;
+        }
+        while (inFlightQueue.size() < maxInFlightRequests &&
+                (messageRoundtrip = requestQueue.poll()) != null) {
+            inFlightQueue.add(messageRoundtrip);
+            sendToWire(messageRoundtrip);
+            written = true;
+        }
+
+        if (written) ctx.flush();
     }
 
     private void sendToWire(MessageRoundtrip messageRoundtrip) {
 
-        if (messageRoundtrip != null && messageRoundtrip.getRetryTimes() == 0) {
-            // TODO: retry logic || messageRoundtrip.hasToRetry()){
-
-            Message msg = messageRoundtrip.getMsg();
+        Message msg = messageRoundtrip.getMsg();
 
-            ethereumListener.onSendMessage(channel, msg);
+        ethereumListener.onSendMessage(channel, msg);
 
-            ctx.writeAndFlush(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
 
-            if (msg.getAnswerMessage() != null) {
-                messageRoundtrip.incRetryTimes();
-                messageRoundtrip.saveTime();
-            }
+        if (msg.getAnswerMessage() != null) {
+            messageRoundtrip.incRetryTimes();
+            messageRoundtrip.saveTime();
         }
     }
 
     public void close() {
-        if (timerTask != null) {
-            timerTask.cancel(false);
-        }
+        closed = true;
     }
 }
@@ -20,14 +20,13 @@ package org.ethereum.net.client;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.server.EthereumChannelInitializer;
+import org.ethereum.net.server.NettyTransport;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,10 +59,14 @@ public class PeerClient {
     @Autowired
     EthereumListener ethereumListener;
 
+    private NettyTransport transport;
+
     private EventLoopGroup workerGroup;
 
-    public PeerClient() {
-        workerGroup = new NioEventLoopGroup(0, new ThreadFactory() {
+    @Autowired
+    public PeerClient(NettyTransport transport) {
+        this.transport = transport;
+        workerGroup = transport.newEventLoopGroup(0, new ThreadFactory() {
             AtomicInteger cnt = new AtomicInteger(0);
             @Override
             public Thread newThread(Runnable r) {
@@ -112,7 +115,7 @@ public class PeerClient {
 
         Bootstrap b = new Bootstrap();
         b.group(workerGroup);
-        b.channel(NioSocketChannel.class);
+        b.channel(transport.socketChannel());
 
         b.option(ChannelOption.SO_KEEPALIVE, true);
         b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
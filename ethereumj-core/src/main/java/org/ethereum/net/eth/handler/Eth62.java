@@ -86,6 +86,18 @@ public class Eth62 extends EthHandler {
     @Autowired
     protected NodeManager nodeManager;
 
+    @Autowired
+    protected PeerRequestExecutor requestExecutor;
+
+    @Autowired
+    protected ServedBlockCache servedCache;
+
+    /**
+     * Data requests of the remote peer waiting to be served,
+     * created with the first request
+     */
+    private PeerRequestExecutor.PeerQueue requestQueue;
+
     protected EthState ethState = EthState.INIT;
 
     protected PeerState peerState = IDLE;
@@ -221,21 +233,26 @@ public class Eth62 extends EthHandler {
 
     @Override
     public synchronized ListenableFuture<List<BlockHeader>> sendGetBlockHeaders(long blockNumber, int maxBlocksAsk, boolean reverse) {
+        return sendGetBlockHeaders(blockNumber, maxBlocksAsk, 0, reverse);
+    }
+
+    @Override
+    public synchronized ListenableFuture<List<BlockHeader>> sendGetBlockHeaders(long blockNumber, int maxBlocksAsk, int skip, boolean reverse) {
 
         if (ethState == EthState.STATUS_SUCCEEDED && peerState != IDLE) return null;
 
         if(logger.isTraceEnabled()) logger.trace(
-                "Peer {}: queue GetBlockHeaders, blockNumber [{}], maxBlocksAsk [{}]",
+                "Peer {}: queue GetBlockHeaders, blockNumber [{}], maxBlocksAsk [{}], skip[{}]",
                 channel.getPeerIdShort(),
                 blockNumber,
-                maxBlocksAsk
+                maxBlocksAsk, skip
         );
 
         if (headerRequest != null) {
             throw new RuntimeException("The peer is waiting for headers response: " + this);
         }
 
-        GetBlockHeadersMessage headersRequest = new GetBlockHeadersMessage(blockNumber, null, maxBlocksAsk, 0, reverse);
+        GetBlockHeadersMessage headersRequest = new GetBlockHeadersMessage(blockNumber, null, maxBlocksAsk, skip, reverse);
         GetBlockHeadersMessageWrapper messageWrapper = new GetBlockHeadersMessageWrapper(headersRequest);
         headerRequest = messageWrapper;
 
@@ -410,7 +427,18 @@ public class Eth62 extends EthHandler {
         }
     }
 
-    protected synchronized void processGetBlockHeaders(GetBlockHeadersMessage msg) {
+    protected void processGetBlockHeaders(final GetBlockHeadersMessage msg) {
+        serveRequest(PeerRequestExecutor.Priority.HIGH,
+                () -> sendMessage(new BlockHeadersMessage(readBlockHeaders(msg))),
+                () -> sendMessage(new BlockHeadersMessage(Collections.emptyList())));
+    }
+
+    protected List<BlockHeader> readBlockHeaders(GetBlockHeadersMessage msg) {
+        List<BlockHeader> cached = servedCache != null ? servedCache.getHeaders(msg) : null;
+        if (cached != null) return cached;
+
+        // Getting it from blockstore, not blocked by blockchain sync
+        Block best = blockstore.getBestBlock();
         Iterator<BlockHeader> headersIterator = blockchain.getIteratorOfHeadersStartFrom(
                 msg.getBlockIdentifier(),
                 msg.getSkipBlocks(),
@@ -421,8 +449,8 @@ public class Eth62 extends EthHandler {
         while (headersIterator.hasNext()) {
             blockHeaders.add(headersIterator.next());
         }
-        BlockHeadersMessage response = new BlockHeadersMessage(blockHeaders);
-        sendMessage(response);
+        if (servedCache != null) servedCache.putHeaders(msg, blockHeaders, best);
+        return blockHeaders;
     }
 
     protected synchronized void processBlockHeaders(BlockHeadersMessage msg) {
@@ -448,6 +476,7 @@ public class Eth62 extends EthHandler {
             processInitHeaders(received);
         else {
             syncStats.addHeaders(received.size());
+            requestDone(EthMessageCodes.GET_BLOCK_HEADERS, request.getMessage().getMaxHeaders(), received.size(), msg);
             request.getFutureHeaders().set(received);
         }
 
@@ -456,18 +485,28 @@ public class Eth62 extends EthHandler {
         peerState = IDLE;
     }
 
-    protected synchronized void processGetBlockBodies(GetBlockBodiesMessage msg) {
-        Iterator<byte[]> bodiesIterator = blockchain.getIteratorOfBodiesByHashes(msg.getBlockHashes());
+    protected void processGetBlockBodies(final GetBlockBodiesMessage msg) {
+        serveRequest(PeerRequestExecutor.Priority.HIGH,
+                () -> sendMessage(new BlockBodiesMessage(readBlockBodies(msg.getBlockHashes()))),
+                () -> sendMessage(new BlockBodiesMessage(Collections.emptyList())));
+    }
+
+    protected List<byte[]> readBlockBodies(List<byte[]> hashes) {
         List<byte[]> bodies = new ArrayList<>();
         int sizeSum = 0;
-        while (bodiesIterator.hasNext()) {
-            byte[] body = bodiesIterator.next();
+        for (byte[] hash : hashes) {
+            byte[] body = servedCache != null ? servedCache.getBody(hash) : null;
+            if (body == null) {
+                Block block = blockstore.getBlockByHash(hash);
+                if (block == null) break;
+                body = block.getEncodedBody();
+                if (servedCache != null) servedCache.putBody(block, body);
+            }
             sizeSum += ByteArrayEstimator.estimateSize(body);
             bodies.add(body);
             if (sizeSum >= MAX_MESSAGE_SIZE) break;
         }
-        BlockBodiesMessage response = new BlockBodiesMessage(bodies);
-        sendMessage(response);
+        return bodies;
     }
 
     protected synchronized void processBlockBodies(BlockBodiesMessage msg) {
@@ -485,6 +524,7 @@ public class Eth62 extends EthHandler {
         }
 
         syncStats.addBlocks(msg.getBlockBodies().size());
+        requestDone(EthMessageCodes.GET_BLOCK_BODIES, sentHeaders.size(), msg.getBlockBodies().size(), msg);
 
         List<Block> blocks = null;
         try {
@@ -507,6 +547,16 @@ public class Eth62 extends EthHandler {
         peerState = IDLE;
     }
 
+    /**
+     * Reports the response to the data request sent at {@link #lastReqSentTime} to the peer stats
+     */
+    protected void requestDone(EthMessageCodes request, int requested, int received, EthMessage response) {
+        if (lastReqSentTime > 0) {
+            channel.getPeerStats().requestDone(request, requested, received,
+                    response.getEncoded().length, System.currentTimeMillis() - lastReqSentTime);
+        }
+    }
+
     protected synchronized void processNewBlock(NewBlockMessage newBlockMessage) {
 
         Block newBlock = newBlockMessage.getBlock();
@@ -528,6 +578,27 @@ public class Eth62 extends EthHandler {
 
     @Override
     public synchronized void onShutdown() {
+        if (requestQueue != null) requestQueue.close();
+    }
+
+    /**
+     * Serves the data request of the remote peer off the channel thread.
+     * Runs it in place when no executor is set up (handler created outside of Spring context)
+     *
+     * @param onDropped invoked in place when the request exceeds the peer limits,
+     *                  replies with an empty response so the peer doesn't wait for its timeout
+     */
+    protected void serveRequest(PeerRequestExecutor.Priority priority, Runnable request, Runnable onDropped) {
+        if (requestExecutor == null) {
+            request.run();
+            return;
+        }
+        if (requestQueue == null) {
+            requestQueue = requestExecutor.createQueue(channel.getPeerIdShort());
+        }
+        if (!requestQueue.submit(priority, request)) {
+            onDropped.run();
+        }
     }
 
     @Override
@@ -878,7 +949,7 @@ public class Eth62 extends EthHandler {
         int waitResp = lastReqSentTime > 0 ? (int) (System.currentTimeMillis() - lastReqSentTime) / 1000 : 0;
         long lifeTime = System.currentTimeMillis() - connectedTime;
         return String.format(
-                "Peer %s: [ %s, %18s, ping %6s ms, rep: %s, difficulty %s, best block %s%s]: (idle %s of %s) %s",
+                "Peer %s: [ %s, %18s, ping %6s ms, rep: %s, difficulty %s, best block %s%s]: (idle %s of %s) %s [%s]",
                 getVersion(),
                 channel.getPeerIdShort(),
                 peerState,
@@ -889,7 +960,8 @@ public class Eth62 extends EthHandler {
                 waitResp > 5 ? ", wait " + waitResp + "s" : " ",
                 longToTimePeriod(lifeTime - processingTime),
                 longToTimePeriod(lifeTime),
-                channel.getNodeStatistics().getClientId());
+                channel.getNodeStatistics().getClientId(),
+                channel.getPeerStats());
     }
 
     protected enum EthState {
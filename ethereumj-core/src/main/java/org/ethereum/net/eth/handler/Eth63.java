@@ -25,9 +25,11 @@ import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
 import org.ethereum.datasource.Source;
 import org.ethereum.db.BlockStore;
+import org.ethereum.db.TransactionStore;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.net.eth.EthVersion;
 import org.ethereum.net.eth.message.EthMessage;
+import org.ethereum.net.eth.message.EthMessageCodes;
 import org.ethereum.net.eth.message.GetNodeDataMessage;
 import org.ethereum.net.eth.message.GetReceiptsMessage;
 import org.ethereum.net.eth.message.NodeDataMessage;
@@ -43,6 +45,7 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -62,6 +65,9 @@ public class Eth63 extends Eth62 {
     @Autowired @Qualifier("trieNodeSource")
     private Source<byte[], byte[]> trieNodeSource;
 
+    @Autowired
+    private TransactionStore transactionStore;
+
     private List<byte[]> requestedReceipts;
     private SettableFuture<List<List<TransactionReceipt>>> requestReceiptsFuture;
     private Set<byte[]> requestedNodes;
@@ -101,7 +107,7 @@ public class Eth63 extends Eth62 {
         }
     }
 
-    protected synchronized void processGetNodeData(GetNodeDataMessage msg) {
+    protected void processGetNodeData(final GetNodeDataMessage msg) {
 
         if (logger.isTraceEnabled()) logger.trace(
                 "Peer {}: processing GetNodeData, size [{}]",
@@ -109,8 +115,14 @@ public class Eth63 extends Eth62 {
                 msg.getNodeKeys().size()
         );
 
+        serveRequest(PeerRequestExecutor.Priority.LOW,
+                () -> sendMessage(new NodeDataMessage(readNodeData(msg.getNodeKeys()))),
+                () -> sendMessage(new NodeDataMessage(Collections.emptyList())));
+    }
+
+    protected List<Value> readNodeData(List<byte[]> nodeKeys) {
         List<Value> nodeValues = new ArrayList<>();
-        for (byte[] nodeKey : msg.getNodeKeys()) {
+        for (byte[] nodeKey : nodeKeys) {
             byte[] rawNode = trieNodeSource.get(nodeKey);
             if (rawNode != null) {
                 Value value = new Value(rawNode);
@@ -119,11 +131,10 @@ public class Eth63 extends Eth62 {
                 logger.trace("Eth63: " + toHexString(nodeKey).substring(0, 8) + " -> " + value);
             }
         }
-
-        sendMessage(new NodeDataMessage(nodeValues));
+        return nodeValues;
     }
 
-    protected synchronized void processGetReceipts(GetReceiptsMessage msg) {
+    protected void processGetReceipts(final GetReceiptsMessage msg) {
 
         if (logger.isTraceEnabled()) logger.trace(
                 "Peer {}: processing GetReceipts, size [{}]",
@@ -131,24 +142,27 @@ public class Eth63 extends Eth62 {
                 msg.getBlockHashes().size()
         );
 
+        serveRequest(PeerRequestExecutor.Priority.LOW,
+                () -> sendMessage(new ReceiptsMessage(readReceipts(msg.getBlockHashes()))),
+                () -> sendMessage(new ReceiptsMessage(Collections.emptyList())));
+    }
+
+    protected List<List<TransactionReceipt>> readReceipts(List<byte[]> blockHashes) {
         List<List<TransactionReceipt>> receipts = new ArrayList<>();
         int sizeSum = 0;
-        for (byte[] blockHash : msg.getBlockHashes()) {
+        for (byte[] blockHash : blockHashes) {
             Block block = blockchain.getBlockByHash(blockHash);
             if (block == null) continue;
 
-            List<TransactionReceipt> blockReceipts = new ArrayList<>();
-            for (Transaction transaction : block.getTransactionsList()) {
-                TransactionInfo transactionInfo = blockchain.getTransactionInfo(transaction.getHash());
-                if (transactionInfo == null) break;
-                blockReceipts.add(transactionInfo.getReceipt());
-                sizeSum += TransactionReceipt.MemEstimator.estimateSize(transactionInfo.getReceipt());
+            List<TransactionReceipt> blockReceipts = transactionStore.getReceipts(block);
+            if (blockReceipts == null) blockReceipts = new ArrayList<>();
+            for (TransactionReceipt receipt : blockReceipts) {
+                sizeSum += TransactionReceipt.MemEstimator.estimateSize(receipt);
             }
             receipts.add(blockReceipts);
             if (sizeSum >= MAX_MESSAGE_SIZE) break;
         }
-
-        sendMessage(new ReceiptsMessage(receipts));
+        return receipts;
     }
 
     public synchronized ListenableFuture<List<Pair<byte[], byte[]>>> requestTrieNodes(List<byte[]> hashes) {
@@ -205,6 +219,7 @@ public class Eth63 extends Eth62 {
             }
             ret.add(Pair.of(hash, nodeVal.asBytes()));
         }
+        requestDone(EthMessageCodes.GET_NODE_DATA, requestedNodes.size(), ret.size(), msg);
         requestNodesFuture.set(ret);
 
         requestedNodes = null;
@@ -228,6 +243,7 @@ public class Eth63 extends Eth62 {
         );
 
         List<List<TransactionReceipt>> receipts = msg.getReceipts();
+        requestDone(EthMessageCodes.GET_RECEIPTS, requestedReceipts.size(), receipts.size(), msg);
 
         requestReceiptsFuture.set(receipts);
 
@@ -98,6 +98,11 @@ public class EthAdapter implements Eth {
         return null;
     }
 
+    @Override
+    public ListenableFuture<List<BlockHeader>> sendGetBlockHeaders(long blockNumber, int maxBlocksAsk, int skip, boolean reverse) {
+        return null;
+    }
+
     @Override
     public ListenableFuture<List<BlockHeader>> sendGetBlockHeaders(byte[] blockHash, int maxBlocksAsk, int skip, boolean reverse) {
         return null;
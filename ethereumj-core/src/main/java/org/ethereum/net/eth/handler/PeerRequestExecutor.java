@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.eth.handler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.ethereum.config.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Serves data requests of remote peers (block headers, bodies, receipts, state nodes)
+ * on a bounded pool of worker threads, so that slow disk reads don't block
+ * the Netty event loop shared by many channels. <br>
+ *
+ * Each peer gets its own {@link PeerQueue}. Workers take peers in round-robin order
+ * and run one request per turn, so a single greedy peer can't take over the pool.
+ * Requests of a peer with the same {@link Priority} are served one by one in the order
+ * they were received which keeps responses in the order expected by the peer. <br>
+ *
+ * Requests above the per-peer queue limit or rate limit are rejected, the handler replies to them with empty response
+ */
+@Component
+public class PeerRequestExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger("net");
+
+    /**
+     * Cheap requests which are needed to follow the chain head go first
+     */
+    public enum Priority {
+        HIGH,
+        LOW
+    }
+
+    /**
+     * A turn of LOW requests is given after this number of HIGH ones
+     * when both are waiting
+     */
+    private static final int LOW_PRIORITY_TURN = 4;
+
+    private final ExecutorService executor;
+    private final int maxQueuedRequests;
+    private final int maxRequestsPerSecond;
+
+    private final Deque<PeerQueue>[] ready;
+    private int highTurns = 0;
+
+    @Autowired
+    public PeerRequestExecutor(SystemProperties config) {
+        this(config.peerServeThreads(), config.peerServeMaxQueuedRequests(), config.peerServeMaxRequestsPerSecond());
+    }
+
+    @SuppressWarnings("unchecked")
+    public PeerRequestExecutor(int threads, int maxQueuedRequests, int maxRequestsPerSecond) {
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.ready = new Deque[Priority.values().length];
+        for (int i = 0; i < ready.length; i++) {
+            ready[i] = new ArrayDeque<>();
+        }
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("peer-request-%d").build());
+    }
+
+    /**
+     * Creates the request queue for a newly connected peer
+     */
+    public PeerQueue createQueue(String peerId) {
+        return new PeerQueue(peerId);
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Marks the peer's queue as having requests of the given priority.
+     * Each ready entry is paired with exactly one worker turn
+     */
+    private void schedule(PeerQueue queue, Priority priority) {
+        ready[priority.ordinal()].add(queue);
+        try {
+            executor.execute(this::runTurn);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Request executor is shut down");
+        }
+    }
+
+    private void runTurn() {
+        PeerQueue queue;
+        Priority priority;
+        synchronized (this) {
+            Deque<PeerQueue> high = ready[Priority.HIGH.ordinal()];
+            Deque<PeerQueue> low = ready[Priority.LOW.ordinal()];
+            if (!high.isEmpty() && (low.isEmpty() || highTurns < LOW_PRIORITY_TURN)) {
+                queue = high.poll();
+                priority = Priority.HIGH;
+                highTurns++;
+            } else {
+                queue = low.poll();
+                priority = Priority.LOW;
+                highTurns = 0;
+            }
+        }
+        if (queue != null) {
+            queue.runNext(priority);
+        }
+    }
+
+    /**
+     * Requests of a single peer
+     */
+    public class PeerQueue {
+
+        private final String peerId;
+        private final Deque<Runnable>[] tasks;
+        private final boolean[] scheduled;
+        private int queued = 0;
+        private boolean closed = false;
+
+        private long windowStart = 0;
+        private int windowRequests = 0;
+
+        @SuppressWarnings("unchecked")
+        private PeerQueue(String peerId) {
+            this.peerId = peerId;
+            this.tasks = new Deque[Priority.values().length];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = new ArrayDeque<>();
+            }
+            this.scheduled = new boolean[tasks.length];
+        }
+
+        /**
+         * Queues the request for serving
+         * @return false if the request was dropped due to the peer limits
+         */
+        public boolean submit(Priority priority, Runnable task) {
+            synchronized (PeerRequestExecutor.this) {
+                if (closed) return false;
+
+                long now = System.currentTimeMillis();
+                if (now - windowStart >= 1000) {
+                    windowStart = now;
+                    windowRequests = 0;
+                }
+                if (windowRequests >= maxRequestsPerSecond || queued >= maxQueuedRequests) {
+                    logger.debug("Peer {}: dropping request, rate {}/sec, queued {}", peerId, windowRequests, queued);
+                    return false;
+                }
+                windowRequests++;
+                queued++;
+
+                tasks[priority.ordinal()].add(task);
+                if (!scheduled[priority.ordinal()]) {
+                    scheduled[priority.ordinal()] = true;
+                    schedule(this, priority);
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Drops all requests waiting to be served
+         */
+        public void close() {
+            synchronized (PeerRequestExecutor.this) {
+                closed = true;
+                for (Deque<Runnable> t : tasks) t.clear();
+                queued = 0;
+            }
+        }
+
+        private void runNext(Priority priority) {
+            Runnable task;
+            synchronized (PeerRequestExecutor.this) {
+                task = tasks[priority.ordinal()].poll();
+                if (task == null) {
+                    scheduled[priority.ordinal()] = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn("Peer " + peerId + ": failed to serve request", t);
+            } finally {
+                synchronized (PeerRequestExecutor.this) {
+                    if (!closed) queued--;
+                    if (tasks[priority.ordinal()].isEmpty()) {
+                        scheduled[priority.ordinal()] = false;
+                    } else {
+                        schedule(this, priority);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.eth.handler;
+
+import org.apache.commons.collections4.map.LRUMap;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.net.eth.message.GetBlockHeadersMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * Keeps header ranges and block bodies recently served to peers. <br>
+ *
+ * Only the data near the chain head is cached, that's what most peers ask for
+ * when following the chain and what gets asked many times in a row.
+ * Header ranges depend on the canonical chain, so they are dropped when the best block changes.
+ * Bodies are looked up by block hash and never get stale.
+ */
+@Component
+public class ServedBlockCache {
+
+    /**
+     * Depth from the best block which data is cached
+     */
+    static final int NEAR_HEAD_BLOCKS = 128;
+
+    private static final int HEADER_RANGES = 64;
+    private static final int BODIES = 256;
+
+    // the best block is taken from the store which is not blocked by the block import
+    private final BlockStore blockStore;
+
+    private final Map<String, List<BlockHeader>> headers = new LRUMap<>(HEADER_RANGES);
+    private final Map<ByteArrayWrapper, byte[]> bodies = new LRUMap<>(BODIES);
+    private byte[] headersBestHash;
+
+    @Autowired
+    public ServedBlockCache(BlockStore blockStore) {
+        this.blockStore = blockStore;
+    }
+
+    /**
+     * @return cached response to the request or null
+     */
+    public synchronized List<BlockHeader> getHeaders(GetBlockHeadersMessage request) {
+        Block best = blockStore.getBestBlock();
+        if (!Arrays.equals(best.getHash(), headersBestHash)) {
+            headers.clear();
+            headersBestHash = best.getHash();
+            return null;
+        }
+        return headers.get(headersKey(request));
+    }
+
+    /**
+     * Caches the response if it is near the chain head
+     *
+     * @param best  the best block at the moment the response was read,
+     *              the response is skipped if the best block is changed since then
+     */
+    public synchronized void putHeaders(GetBlockHeadersMessage request, List<BlockHeader> response, Block best) {
+        if (response.isEmpty() || !Arrays.equals(best.getHash(), headersBestHash)) return;
+
+        long nearHead = best.getNumber() - NEAR_HEAD_BLOCKS;
+        if (response.get(0).getNumber() < nearHead && response.get(response.size() - 1).getNumber() < nearHead) return;
+
+        headers.put(headersKey(request), response);
+    }
+
+    public synchronized byte[] getBody(byte[] blockHash) {
+        return bodies.get(new ByteArrayWrapper(blockHash));
+    }
+
+    /**
+     * Caches the block body if the block is near the chain head
+     */
+    public synchronized void putBody(Block block, byte[] body) {
+        if (block.getNumber() < blockStore.getBestBlock().getNumber() - NEAR_HEAD_BLOCKS) return;
+        bodies.put(new ByteArrayWrapper(block.getHash()), body);
+    }
+
+    private String headersKey(GetBlockHeadersMessage request) {
+        String start = request.getBlockHash() != null && request.getBlockHash().length > 0 ?
+                toHexString(request.getBlockHash()) : String.valueOf(request.getBlockNumber());
+        return start + ":" + request.getSkipBlocks() + ":" +
+                request.getMaxHeaders() + ":" + request.isReverse();
+    }
+}
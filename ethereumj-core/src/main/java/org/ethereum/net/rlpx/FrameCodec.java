@@ -17,9 +17,11 @@
  */
 package org.ethereum.net.rlpx;
 
+import com.google.common.io.ByteStreams;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
 import org.ethereum.net.swarm.Util;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPList;
@@ -36,17 +38,23 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import static java.lang.Math.min;
 import static org.ethereum.util.RLP.decode2OneItem;
 
 /**
  * Created by devrandom on 2015-04-11.
  */
 public class FrameCodec {
+    // size of the buffer used to process non heap ByteBufs
+    private static final int CHUNK_SIZE = 8192;
+
     private final StreamCipher enc;
     private final StreamCipher dec;
     private final KeccakDigest egressMac;
     private final KeccakDigest ingressMac;
     private final byte[] mac;
+    private final byte[] egressChunk = new byte[CHUNK_SIZE];
+    private final byte[] ingressChunk = new byte[CHUNK_SIZE];
     boolean isHeadRead;
     private int totalBodySize;
     private int contextId = -1;
@@ -71,24 +79,31 @@ public class FrameCodec {
         return macc;
     }
 
-    public static class Frame {
+    /**
+     * Frame payload is kept in a ByteBuf which may be a slice of the pooled inbound buffer,
+     * so the frame should be released when it is consumed.
+     * Netty codecs release consumed frames automatically
+     */
+    public static class Frame implements ReferenceCounted {
         long type;
         int size;
-        InputStream payload;
+        ByteBuf payload;
 
         int totalFrameSize = -1;
         int contextId = -1;
 
-        public Frame(long type, int size, InputStream payload) {
+        public Frame(long type, ByteBuf payload) {
             this.type = type;
-            this.size = size;
+            this.size = payload.readableBytes();
             this.payload = payload;
         }
 
+        public Frame(long type, int size, InputStream payload) throws IOException {
+            this(type, Unpooled.wrappedBuffer(ByteStreams.toByteArray(ByteStreams.limit(payload, size))));
+        }
+
         public Frame(int type, byte[] payload) {
-            this.type = type;
-            this.size = payload.length;
-            this.payload = new ByteArrayInputStream(payload);
+            this(type, Unpooled.wrappedBuffer(payload));
         }
 
         public int getSize() {
@@ -97,20 +112,53 @@ public class FrameCodec {
 
         public long getType() {return  type;}
 
-        public InputStream getStream() {
+        public ByteBuf getPayload() {
             return payload;
         }
+
+        public InputStream getStream() {
+            return new ByteBufInputStream(payload.duplicate());
+        }
+
         public boolean isChunked() {
             return contextId >= 0;
         }
 
-    }
+        @Override
+        public int refCnt() {
+            return payload.refCnt();
+        }
+
+        @Override
+        public Frame retain() {
+            payload.retain();
+            return this;
+        }
 
-    public void writeFrame(Frame frame, ByteBuf buf) throws IOException {
-        writeFrame(frame, new ByteBufOutputStream(buf));
+        @Override
+        public Frame retain(int increment) {
+            payload.retain(increment);
+            return this;
+        }
+
+        @Override
+        public boolean release() {
+            return payload.release();
+        }
+
+        @Override
+        public boolean release(int decrement) {
+            return payload.release(decrement);
+        }
     }
 
     public void writeFrame(Frame frame, OutputStream out) throws IOException {
+        ByteBuf buf = Unpooled.buffer(frame.size + 64);
+        writeFrame(frame, buf);
+        buf.readBytes(out, buf.readableBytes());
+    }
+
+    public void writeFrame(Frame frame, ByteBuf out) throws IOException {
         byte[] headBuffer = new byte[32];
         byte[] ptype = RLP.encodeInt((int) frame.type); // FIXME encodeLong
         int totalSize = frame.size + ptype.length;
@@ -131,37 +179,39 @@ public class FrameCodec {
         // Header MAC
         updateMac(egressMac, headBuffer, 0, headBuffer, 16, true);
 
-        byte[] buff = new byte[256];
-        out.write(headBuffer);
-        enc.processBytes(ptype, 0, ptype.length, buff, 0);
-        out.write(buff, 0, ptype.length);
-        egressMac.update(buff, 0, ptype.length);
-        while (true) {
-            int n = frame.payload.read(buff);
-            if (n <= 0) break;
-            enc.processBytes(buff, 0, n, buff, 0);
-            egressMac.update(buff, 0, n);
-            out.write(buff, 0, n);
-        }
+        out.writeBytes(headBuffer);
+
+        // payload is encrypted right in the output buffer
         int padding = 16 - (totalSize % 16);
-        byte[] pad = new byte[16];
-        if (padding < 16) {
-            enc.processBytes(pad, 0, padding, buff, 0);
-            egressMac.update(buff, 0, padding);
-            out.write(buff, 0, padding);
-        }
+        if (padding == 16) padding = 0;
+        int bodyStart = out.writerIndex();
+        out.writeBytes(ptype);
+        out.writeBytes(frame.payload, frame.payload.readerIndex(), frame.size);
+        out.writeZero(padding);
+        processInPlace(out, bodyStart, totalSize + padding, enc, egressMac, true, egressChunk);
 
         // Frame MAC
         byte[] macBuffer = new byte[egressMac.getDigestSize()];
         doSum(egressMac, macBuffer); // fmacseed
         updateMac(egressMac, macBuffer, 0, macBuffer, 0, true);
-        out.write(macBuffer, 0, 16);
+        out.writeBytes(macBuffer, 0, 16);
     }
 
+    /**
+     * Reads the frame if the buffer contains it entirely
+     * Frame payload is decrypted in place and retained as a slice of the buffer
+     * @return the frame or null if there are not enough bytes yet
+     */
     public List<Frame> readFrames(ByteBuf buf) throws IOException {
-        try (ByteBufInputStream bufInputStream = new ByteBufInputStream(buf)) {
-            return readFrames(bufInputStream);
+        if (!isHeadRead) {
+            if (buf.readableBytes() < 32) return null;
+            byte[] headBuffer = new byte[32];
+            buf.readBytes(headBuffer);
+            readHeader(headBuffer);
         }
+
+        if (buf.readableBytes() < getBodySize() + 16) return null;
+        return readBody(buf);
     }
 
     public List<Frame> readFrames(DataInput inp) throws IOException {
@@ -172,58 +222,103 @@ public class FrameCodec {
             } catch (EOFException e) {
                 return null;
             }
+            readHeader(headBuffer);
+        }
 
-            // Header MAC
-            updateMac(ingressMac, headBuffer, 0, headBuffer, 16, false);
-
-            dec.processBytes(headBuffer, 0, 16, headBuffer, 0);
-            totalBodySize = headBuffer[0] & 0xFF;
-            totalBodySize = (totalBodySize << 8) + (headBuffer[1] & 0xFF);
-            totalBodySize = (totalBodySize << 8) + (headBuffer[2] & 0xFF);
-
-            RLPList rlpList = (RLPList) decode2OneItem(headBuffer, 3);
+        byte[] buffer = new byte[getBodySize() + 16];
+        try {
+            inp.readFully(buffer);
+        } catch (EOFException e) {
+            return null;
+        }
+        return readBody(Unpooled.wrappedBuffer(buffer));
+    }
 
-            protocol = Util.rlpDecodeInt(rlpList.get(0));
-            contextId = -1;
-            totalFrameSize = -1;
-            if (rlpList.size() > 1) {
-                contextId = Util.rlpDecodeInt(rlpList.get(1));
-                if (rlpList.size() > 2) {
-                    totalFrameSize = Util.rlpDecodeInt(rlpList.get(2));
-                }
+    private void readHeader(byte[] headBuffer) throws IOException {
+        // Header MAC
+        updateMac(ingressMac, headBuffer, 0, headBuffer, 16, false);
+
+        dec.processBytes(headBuffer, 0, 16, headBuffer, 0);
+        totalBodySize = headBuffer[0] & 0xFF;
+        totalBodySize = (totalBodySize << 8) + (headBuffer[1] & 0xFF);
+        totalBodySize = (totalBodySize << 8) + (headBuffer[2] & 0xFF);
+
+        RLPList rlpList = (RLPList) decode2OneItem(headBuffer, 3);
+
+        protocol = Util.rlpDecodeInt(rlpList.get(0));
+        contextId = -1;
+        totalFrameSize = -1;
+        if (rlpList.size() > 1) {
+            contextId = Util.rlpDecodeInt(rlpList.get(1));
+            if (rlpList.size() > 2) {
+                totalFrameSize = Util.rlpDecodeInt(rlpList.get(2));
             }
-
-            isHeadRead = true;
         }
 
+        isHeadRead = true;
+    }
+
+    /**
+     * @return size of the frame body with padding (without MAC)
+     */
+    private int getBodySize() {
         int padding = 16 - (totalBodySize % 16);
         if (padding == 16) padding = 0;
-        int macSize = 16;
-        byte[] buffer = new byte[totalBodySize + padding + macSize];
+        return totalBodySize + padding;
+    }
+
+    private List<Frame> readBody(ByteBuf buf) throws IOException {
+        int frameSize = getBodySize();
+        ByteBuf body = buf.readSlice(frameSize).retain();
         try {
-            inp.readFully(buffer);
-        } catch (EOFException e) {
-            return null;
+            byte[] frameMac = new byte[16];
+            buf.readBytes(frameMac);
+
+            processInPlace(body, body.readerIndex(), frameSize, dec, ingressMac, false, ingressChunk);
+
+            // Frame MAC
+            byte[] macBuffer = new byte[ingressMac.getDigestSize()];
+            doSum(ingressMac, macBuffer); // fmacseed
+            updateMac(ingressMac, macBuffer, 0, frameMac, 0, false);
+
+            byte[] typeBytes = new byte[min(totalBodySize, 9)];
+            body.getBytes(body.readerIndex(), typeBytes);
+            long type = RLP.decodeLong(typeBytes, 0);
+            int pos = RLP.getNextElementIndex(typeBytes, 0);
+
+            isHeadRead = false;
+            Frame frame = new Frame(type, body.slice(body.readerIndex() + pos, totalBodySize - pos));
+            frame.contextId = contextId;
+            frame.totalFrameSize = totalFrameSize;
+            return Collections.singletonList(frame);
+        } catch (IOException | RuntimeException e) {
+            body.release();
+            throw e;
         }
-        int frameSize = buffer.length - macSize;
-        ingressMac.update(buffer, 0, frameSize);
-        dec.processBytes(buffer, 0, frameSize, buffer, 0);
-        int pos = 0;
-        long type = RLP.decodeLong(buffer, pos);
-        pos = RLP.getNextElementIndex(buffer, pos);
-        InputStream payload = new ByteArrayInputStream(buffer, pos, totalBodySize - pos);
-        int size = totalBodySize - pos;
-        byte[] macBuffer = new byte[ingressMac.getDigestSize()];
+    }
 
-        // Frame MAC
-        doSum(ingressMac, macBuffer); // fmacseed
-        updateMac(ingressMac, macBuffer, 0, buffer, frameSize, false);
-
-        isHeadRead = false;
-        Frame frame = new Frame(type, size, payload);
-        frame.contextId = contextId;
-        frame.totalFrameSize = totalFrameSize;
-        return Collections.singletonList(frame);
+    /**
+     * Encrypts/decrypts the buffer region in place updating the MAC with the cipher text
+     */
+    private static void processInPlace(ByteBuf buf, int index, int length, StreamCipher cipher,
+                                       KeccakDigest mac, boolean egress, byte[] chunk) {
+        if (buf.hasArray()) {
+            byte[] array = buf.array();
+            int offset = buf.arrayOffset() + index;
+            if (!egress) mac.update(array, offset, length);
+            cipher.processBytes(array, offset, length, array, offset);
+            if (egress) mac.update(array, offset, length);
+            return;
+        }
+
+        for (int pos = 0; pos < length; pos += chunk.length) {
+            int n = min(chunk.length, length - pos);
+            buf.getBytes(index + pos, chunk, 0, n);
+            if (!egress) mac.update(chunk, 0, n);
+            cipher.processBytes(chunk, 0, n, chunk, 0);
+            if (egress) mac.update(chunk, 0, n);
+            buf.setBytes(index + pos, chunk, 0, n);
+        }
     }
 
     private byte[] updateMac(KeccakDigest mac, byte[] seed, int offset, byte[] out, int outOffset, boolean egress) throws IOException {
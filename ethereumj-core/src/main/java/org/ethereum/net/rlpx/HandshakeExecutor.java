@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.rlpx;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.commons.collections4.map.LRUMap;
+import org.ethereum.config.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the expensive RLPx handshake crypto (ECDH, ECIES, signature recovery)
+ * on a bounded pool instead of the channel event loop. <br>
+ *
+ * A handshake which doesn't fit the pool queue is rejected and its connection is closed.
+ * Inbound handshakes are also limited per remote IP.
+ * Loopback and site local addresses are not limited.
+ */
+@Component
+public class HandshakeExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger("net");
+
+    private static final long RATE_WINDOW = 60 * 1000;
+    private static final long STATS_PERIOD = 60;
+
+    /**
+     * The handshake step continued on the channel event loop with the crypto result
+     */
+    public interface Continuation<T> {
+        void run(T result) throws Exception;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService statsTimer;
+    private final int maxPerIpPerMinute;
+
+    // remote address -> [window start, handshakes in the window]
+    private final Map<InetAddress, long[]> ipWindows = Collections.synchronizedMap(new LRUMap<>(8192));
+
+    private final AtomicLong tasks = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong taskTimeTotal = new AtomicLong();
+    private final AtomicLong taskTimeMax = new AtomicLong();
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong handshakeTimeTotal = new AtomicLong();
+
+    @Autowired
+    public HandshakeExecutor(SystemProperties config) {
+        this(config.peerHandshakeThreads(), config.peerHandshakeMaxQueued(), config.peerHandshakeMaxPerIp());
+    }
+
+    public HandshakeExecutor(int threads, int maxQueued, int maxPerIpPerMinute) {
+        this.maxPerIpPerMinute = maxPerIpPerMinute;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rlpx-handshake-%d").build());
+        this.statsTimer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rlpx-handshake-stats").build());
+        statsTimer.scheduleAtFixedRate(this::logStats, STATS_PERIOD, STATS_PERIOD, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Counts inbound handshake from the address
+     * @return false if the address exceeded its handshake rate
+     */
+    public boolean admit(InetAddress address) {
+        if (address == null || address.isLoopbackAddress() || address.isSiteLocalAddress()) return true;
+
+        long now = System.currentTimeMillis();
+        synchronized (ipWindows) {
+            long[] window = ipWindows.get(address);
+            if (window == null || now - window[0] >= RATE_WINDOW) {
+                window = new long[] {now, 0};
+                ipWindows.put(address, window);
+            }
+            if (window[1] >= maxPerIpPerMinute) {
+                rateLimited.incrementAndGet();
+                return false;
+            }
+            window[1]++;
+            return true;
+        }
+    }
+
+    /**
+     * Runs the crypto task on the pool and then the continuation on the channel event loop.
+     * Errors of both are passed to the channel pipeline
+     */
+    public <T> void execute(final ChannelHandlerContext ctx, final Callable<T> task, final Continuation<T> continuation) {
+        final long start = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                if (!ctx.channel().isActive()) return;
+
+                final T result;
+                try {
+                    result = task.call();
+                } catch (Throwable t) {
+                    failed.incrementAndGet();
+                    ctx.executor().execute(() -> ctx.pipeline().fireExceptionCaught(t));
+                    return;
+                }
+                long time = System.nanoTime() - start;
+                tasks.incrementAndGet();
+                taskTimeTotal.addAndGet(time);
+                taskTimeMax.accumulateAndGet(time, Math::max);
+
+                ctx.executor().execute(() -> {
+                    if (!ctx.channel().isActive()) return;
+                    try {
+                        continuation.run(result);
+                    } catch (Throwable t) {
+                        ctx.pipeline().fireExceptionCaught(t);
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            logger.debug("Too many pending handshakes, dropping connection {}", ctx.channel().remoteAddress());
+            ctx.close();
+        }
+    }
+
+    /**
+     * Reports the time from the connection to the completed handshake
+     */
+    public void handshakeDone(long millis) {
+        handshakes.incrementAndGet();
+        handshakeTimeTotal.addAndGet(millis);
+    }
+
+    public String stats() {
+        long taskCnt = tasks.getAndSet(0);
+        long taskTime = taskTimeTotal.getAndSet(0);
+        long handshakeCnt = handshakes.getAndSet(0);
+        long handshakeTime = handshakeTimeTotal.getAndSet(0);
+        return "handshakes " + handshakeCnt +
+                " (avg " + (handshakeCnt > 0 ? handshakeTime / handshakeCnt : 0) + " ms)" +
+                ", crypto tasks " + taskCnt +
+                " (avg " + (taskCnt > 0 ? taskTime / taskCnt / 1000 : 0) + " us" +
+                ", max " + taskTimeMax.getAndSet(0) / 1000 + " us)" +
+                ", queued " + executor.getQueue().size() +
+                ", failed " + failed.getAndSet(0) +
+                ", rejected " + rejected.getAndSet(0) +
+                ", rate limited " + rateLimited.getAndSet(0);
+    }
+
+    private void logStats() {
+        if (tasks.get() > 0 || failed.get() > 0 || rejected.get() > 0 || rateLimited.get() > 0) {
+            logger.info("RLPx handshakes: " + stats());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        statsTimer.shutdownNow();
+        executor.shutdownNow();
+    }
+}
@@ -19,6 +19,7 @@ package org.ethereum.net.rlpx;
 
 import com.google.common.io.ByteStreams;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.timeout.ReadTimeoutException;
@@ -44,6 +45,7 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import static org.ethereum.net.rlpx.FrameCodec.Frame;
 import static org.ethereum.util.ByteUtil.bigEndianToShort;
@@ -71,107 +73,129 @@ public class HandshakeHandler extends ByteToMessageDecoder {
     private final ECKey myKey;
     private byte[] nodeId;
     private byte[] remoteId;
+    private boolean initiator;
     private EncryptionHandshake handshake;
     private byte[] initiatePacket;
     private Channel channel;
     private boolean isHandshakeDone;
 
+    // auth packet prefix of the fixed pre-EIP-8 size
+    private byte[] authPacket;
+    // the auth packet is not pre-EIP-8, its rest should be read
+    private boolean eip8Packet;
+    // the crypto of the current handshake step is running on the HandshakeExecutor
+    private boolean cryptoPending;
+    private long startTime;
+
     private final SystemProperties config;
     private final NodeManager nodeManager;
+    private final HandshakeExecutor handshakeExecutor;
 
     @Autowired
-    public HandshakeHandler(final SystemProperties config, final NodeManager nodeManager) {
+    public HandshakeHandler(final SystemProperties config, final NodeManager nodeManager,
+                            final HandshakeExecutor handshakeExecutor) {
         this.config = config;
         this.nodeManager = nodeManager;
+        this.handshakeExecutor = handshakeExecutor;
 
         myKey = config.getMyKey();
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
-        channel.setInetSocketAddress((InetSocketAddress) ctx.channel().remoteAddress());
+        InetSocketAddress remoteAddress = (InetSocketAddress) ctx.channel().remoteAddress();
+        channel.setInetSocketAddress(remoteAddress);
+        startTime = System.currentTimeMillis();
+        nodeId = myKey.getNodeId();
         if (remoteId.length == 64) {
+            initiator = true;
             channel.initWithNode(remoteId);
             initiate(ctx);
-        } else {
-            handshake = new EncryptionHandshake();
-            nodeId = myKey.getNodeId();
+        } else if (!handshakeExecutor.admit(remoteAddress.getAddress())) {
+            loggerNet.debug("Too many handshakes from {}, dropping connection", remoteAddress);
+            ctx.close();
         }
     }
 
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (cryptoPending) return;
+
         loggerWire.debug("Decoding handshake... (" + in.readableBytes() + " bytes available)");
         decodeHandshake(ctx, in);
         if (isHandshakeDone) {
+            handshakeExecutor.handshakeDone(System.currentTimeMillis() - startTime);
             loggerWire.debug("Handshake done, removing HandshakeHandler from pipeline.");
             ctx.pipeline().remove(this);
         }
     }
 
-    public void initiate(ChannelHandlerContext ctx) throws Exception {
+    public void initiate(final ChannelHandlerContext ctx) throws Exception {
 
         loggerNet.debug("RLPX protocol activated");
 
-        nodeId = myKey.getNodeId();
-
-        handshake = new EncryptionHandshake(ECKey.fromNodeId(this.remoteId).getPubKeyPoint());
+        final ECPoint remotePubKey = ECKey.fromNodeId(this.remoteId).getPubKeyPoint();
+        final boolean eip8 = config.eip8();
 
-        Object msg;
-        if (config.eip8()) {
-            AuthInitiateMessageV4 initiateMessage = handshake.createAuthInitiateV4(myKey);
-            initiatePacket = handshake.encryptAuthInitiateV4(initiateMessage);
-            msg = initiateMessage;
-        } else {
-            AuthInitiateMessage initiateMessage = handshake.createAuthInitiate(null, myKey);
-            initiatePacket = handshake.encryptAuthMessage(initiateMessage);
-            msg = initiateMessage;
-        }
+        runCrypto(ctx, () -> {
+            EncryptionHandshake handshake = new EncryptionHandshake(remotePubKey);
+            if (eip8) {
+                AuthInitiateMessageV4 initiateMessage = handshake.createAuthInitiateV4(myKey);
+                return new AuthStep(handshake, handshake.encryptAuthInitiateV4(initiateMessage), initiateMessage);
+            } else {
+                AuthInitiateMessage initiateMessage = handshake.createAuthInitiate(null, myKey);
+                return new AuthStep(handshake, handshake.encryptAuthMessage(initiateMessage), initiateMessage);
+            }
+        }, step -> {
+            handshake = step.handshake;
+            initiatePacket = step.packet;
 
-        final ByteBuf byteBufMsg = ctx.alloc().buffer(initiatePacket.length);
-        byteBufMsg.writeBytes(initiatePacket);
-        ctx.writeAndFlush(byteBufMsg).sync();
+            final ByteBuf byteBufMsg = ctx.alloc().buffer(initiatePacket.length);
+            byteBufMsg.writeBytes(initiatePacket);
+            ctx.writeAndFlush(byteBufMsg);
 
-        channel.getNodeStatistics().rlpxAuthMessagesSent.add();
+            channel.getNodeStatistics().rlpxAuthMessagesSent.add();
 
-        if (loggerNet.isDebugEnabled())
-            loggerNet.debug("To:   {}    Send:  {}", ctx.channel().remoteAddress(), msg);
+            if (loggerNet.isDebugEnabled())
+                loggerNet.debug("To:   {}    Send:  {}", ctx.channel().remoteAddress(), step.message);
+        });
     }
 
     // consume handshake, producing no resulting message to upper layers
     private void decodeHandshake(final ChannelHandlerContext ctx, ByteBuf buffer) throws Exception {
 
-        if (handshake.isInitiator()) {
+        if (initiator) {
             if (frameCodec == null) {
 
-                byte[] responsePacket = new byte[AuthResponseMessage.getLength() + ECIESCoder.getOverhead()];
-                if (!buffer.isReadable(responsePacket.length))
-                    return;
-                buffer.readBytes(responsePacket);
-
-                try {
-
-                    // trying to decode as pre-EIP-8
-
-                    AuthResponseMessage response = handshake.handleAuthResponse(myKey, initiatePacket, responsePacket);
-                    loggerNet.debug("From: {}    Recv:  {}", ctx.channel().remoteAddress(), response);
-
-                } catch (Throwable t) {
-
-                    // it must be format defined by EIP-8 then
-
-                    responsePacket = readEIP8Packet(buffer, responsePacket);
-
-                    if (responsePacket == null) return;
-
-                    AuthResponseMessageV4 response = handshake.handleAuthResponseV4(myKey, initiatePacket, responsePacket);
+                final byte[] responsePacket = readAuthPacket(buffer, AuthResponseMessage.getLength() + ECIESCoder.getOverhead());
+                if (responsePacket == null) return;
+
+                final EncryptionHandshake handshake = this.handshake;
+                final boolean eip8 = eip8Packet;
+
+                runCrypto(ctx, () -> {
+                    if (!eip8) {
+                        try {
+                            // trying to decode as pre-EIP-8
+                            return handshake.handleAuthResponse(myKey, initiatePacket, responsePacket);
+                        } catch (Throwable t) {
+                            // it must be format defined by EIP-8 then
+                            return null;
+                        }
+                    }
+                    return handshake.handleAuthResponseV4(myKey, initiatePacket, responsePacket);
+                }, response -> {
+                    if (response == null) {
+                        eip8Packet = true;
+                        return;
+                    }
                     loggerNet.debug("From: {}    Recv:  {}", ctx.channel().remoteAddress(), response);
-                }
 
-                EncryptionHandshake.Secrets secrets = this.handshake.getSecrets();
-                this.frameCodec = new FrameCodec(secrets);
+                    EncryptionHandshake.Secrets secrets = handshake.getSecrets();
+                    this.frameCodec = new FrameCodec(secrets);
 
-                loggerNet.debug("auth exchange done");
-                channel.sendHelloMessage(ctx, frameCodec, Hex.toHexString(nodeId));
+                    loggerNet.debug("auth exchange done");
+                    channel.sendHelloMessage(ctx, frameCodec, Hex.toHexString(nodeId));
+                });
             } else {
                 loggerWire.info("MessageCodec: Buffer bytes: " + buffer.readableBytes());
                 List<Frame> frames = frameCodec.readFrames(buffer);
@@ -179,6 +203,7 @@ public class HandshakeHandler extends ByteToMessageDecoder {
                     return;
                 Frame frame = frames.get(0);
                 byte[] payload = ByteStreams.toByteArray(frame.getStream());
+                frame.release();
                 if (frame.getType() == P2pMessageCodes.HELLO.asByte()) {
                     HelloMessage helloMessage = new HelloMessage(payload);
                     if (loggerNet.isDebugEnabled())
@@ -196,71 +221,71 @@ public class HandshakeHandler extends ByteToMessageDecoder {
             loggerWire.debug("Not initiator.");
             if (frameCodec == null) {
                 loggerWire.debug("FrameCodec == null");
-                byte[] authInitPacket = new byte[AuthInitiateMessage.getLength() + ECIESCoder.getOverhead()];
-                if (!buffer.isReadable(authInitPacket.length))
-                    return;
-                buffer.readBytes(authInitPacket);
-
-                this.handshake = new EncryptionHandshake();
-
-                byte[] responsePacket;
-
-                try {
-
-                    // trying to decode as pre-EIP-8
-                    AuthInitiateMessage initiateMessage = handshake.decryptAuthInitiate(authInitPacket, myKey);
-                    loggerNet.debug("From: {}    Recv:  {}", ctx.channel().remoteAddress(), initiateMessage);
-
-                    AuthResponseMessage response = handshake.makeAuthInitiate(initiateMessage, myKey);
-                    loggerNet.debug("To:   {}    Send:  {}", ctx.channel().remoteAddress(), response);
-                    responsePacket = handshake.encryptAuthResponse(response);
-
-                } catch (Throwable t) {
-
-                    // it must be format defined by EIP-8 then
-                    try {
-
-                        authInitPacket = readEIP8Packet(buffer, authInitPacket);
-
-                        if (authInitPacket == null) return;
-
+                final byte[] authInitPacket = readAuthPacket(buffer, AuthInitiateMessage.getLength() + ECIESCoder.getOverhead());
+                if (authInitPacket == null) return;
+
+                final boolean eip8 = eip8Packet;
+
+                runCrypto(ctx, () -> {
+                    EncryptionHandshake handshake = new EncryptionHandshake();
+                    byte[] responsePacket;
+                    Object response;
+
+                    if (!eip8) {
+                        try {
+                            // trying to decode as pre-EIP-8
+                            AuthInitiateMessage initiateMessage = handshake.decryptAuthInitiate(authInitPacket, myKey);
+                            loggerNet.debug("From: {}    Recv:  {}", ctx.channel().remoteAddress(), initiateMessage);
+
+                            AuthResponseMessage responseMessage = handshake.makeAuthInitiate(initiateMessage, myKey);
+                            responsePacket = handshake.encryptAuthResponse(responseMessage);
+                            response = responseMessage;
+                        } catch (Throwable t) {
+                            // it must be format defined by EIP-8 then
+                            return null;
+                        }
+                    } else {
                         AuthInitiateMessageV4 initiateMessage = handshake.decryptAuthInitiateV4(authInitPacket, myKey);
                         loggerNet.debug("From: {}    Recv:  {}", ctx.channel().remoteAddress(), initiateMessage);
 
-                        AuthResponseMessageV4 response = handshake.makeAuthInitiateV4(initiateMessage, myKey);
-                        loggerNet.debug("To:   {}    Send:  {}", ctx.channel().remoteAddress(), response);
-                        responsePacket = handshake.encryptAuthResponseV4(response);
+                        AuthResponseMessageV4 responseMessage = handshake.makeAuthInitiateV4(initiateMessage, myKey);
+                        responsePacket = handshake.encryptAuthResponseV4(responseMessage);
+                        response = responseMessage;
+                    }
 
-                    } catch (InvalidCipherTextException ce) {
-                        loggerNet.warn("Can't decrypt AuthInitiateMessage from " + ctx.channel().remoteAddress() +
-                                ". Most likely the remote peer used wrong public key (NodeID) to encrypt message.");
+                    handshake.agreeSecret(authInitPacket, responsePacket);
+                    return new AuthStep(handshake, responsePacket, response);
+                }, step -> {
+                    if (step == null) {
+                        eip8Packet = true;
                         return;
                     }
-                }
-
-                handshake.agreeSecret(authInitPacket, responsePacket);
+                    loggerNet.debug("To:   {}    Send:  {}", ctx.channel().remoteAddress(), step.message);
 
-                EncryptionHandshake.Secrets secrets = this.handshake.getSecrets();
-                this.frameCodec = new FrameCodec(secrets);
+                    this.handshake = step.handshake;
+                    EncryptionHandshake.Secrets secrets = this.handshake.getSecrets();
+                    this.frameCodec = new FrameCodec(secrets);
 
-                ECPoint remotePubKey = this.handshake.getRemotePublicKey();
+                    ECPoint remotePubKey = this.handshake.getRemotePublicKey();
 
-                byte[] compressed = remotePubKey.getEncoded();
+                    byte[] compressed = remotePubKey.getEncoded();
 
-                this.remoteId = new byte[compressed.length - 1];
-                System.arraycopy(compressed, 1, this.remoteId, 0, this.remoteId.length);
+                    this.remoteId = new byte[compressed.length - 1];
+                    System.arraycopy(compressed, 1, this.remoteId, 0, this.remoteId.length);
 
-                final ByteBuf byteBufMsg = ctx.alloc().buffer(responsePacket.length);
-                byteBufMsg.writeBytes(responsePacket);
-                ctx.writeAndFlush(byteBufMsg).sync();
+                    final ByteBuf byteBufMsg = ctx.alloc().buffer(step.packet.length);
+                    byteBufMsg.writeBytes(step.packet);
+                    ctx.writeAndFlush(byteBufMsg);
+                });
             } else {
                 List<Frame> frames = frameCodec.readFrames(buffer);
                 if (frames == null || frames.isEmpty())
                     return;
                 Frame frame = frames.get(0);
 
-                Message message = new P2pMessageFactory().create((byte) frame.getType(),
-                        ByteStreams.toByteArray(frame.getStream()));
+                byte[] payload = ByteStreams.toByteArray(frame.getStream());
+                frame.release();
+                Message message = new P2pMessageFactory().create((byte) frame.getType(), payload);
                 loggerNet.debug("From: {}    Recv:  {}", ctx.channel().remoteAddress(), message);
 
                 if (frame.getType() == P2pMessageCodes.DISCONNECT.asByte()) {
@@ -287,6 +312,37 @@ public class HandshakeHandler extends ByteToMessageDecoder {
         }
     }
 
+    /**
+     * Reads the auth packet: first its pre-EIP-8 sized prefix,
+     * then the rest of it if the prefix turned out to be an EIP-8 packet
+     * @return null if the packet bytes are not available yet
+     */
+    private byte[] readAuthPacket(ByteBuf buffer, int plainSize) {
+        if (!eip8Packet) {
+            if (!buffer.isReadable(plainSize))
+                return null;
+            authPacket = new byte[plainSize];
+            buffer.readBytes(authPacket);
+            return authPacket;
+        }
+        return readEIP8Packet(buffer, authPacket);
+    }
+
+    /**
+     * Runs the handshake crypto on the {@link HandshakeExecutor}, the input is not decoded
+     * until the continuation is done on the channel event loop
+     */
+    private <T> void runCrypto(final ChannelHandlerContext ctx, Callable<T> task,
+                               final HandshakeExecutor.Continuation<T> continuation) {
+        cryptoPending = true;
+        handshakeExecutor.execute(ctx, task, result -> {
+            cryptoPending = false;
+            continuation.run(result);
+            // decode the input received while the crypto was running
+            channelRead(ctx, Unpooled.EMPTY_BUFFER);
+        });
+    }
+
     private byte[] readEIP8Packet(ByteBuf buffer, byte[] plainPacket) {
 
         int size = bigEndianToShort(plainPacket);
@@ -322,7 +378,10 @@ public class HandshakeHandler extends ByteToMessageDecoder {
         if (channel.isDiscoveryMode()) {
             loggerNet.trace("Handshake failed: " + cause);
         } else {
-            if (cause instanceof IOException || cause instanceof ReadTimeoutException) {
+            if (cause instanceof InvalidCipherTextException) {
+                loggerNet.warn("Can't decrypt AuthInitiateMessage from " + ctx.channel().remoteAddress() +
+                        ". Most likely the remote peer used wrong public key (NodeID) to encrypt message.");
+            } else if (cause instanceof IOException || cause instanceof ReadTimeoutException) {
                 loggerNet.debug("Handshake failed: " + ctx.channel().remoteAddress() + ": " + cause);
             } else {
                 loggerNet.warn("Handshake failed: ", cause);
@@ -330,4 +389,16 @@ public class HandshakeHandler extends ByteToMessageDecoder {
         }
         ctx.close();
     }
+
+    private static class AuthStep {
+        final EncryptionHandshake handshake;
+        final byte[] packet;
+        final Object message;
+
+        AuthStep(EncryptionHandshake handshake, byte[] packet, Object message) {
+            this.handshake = handshake;
+            this.packet = packet;
+            this.message = message;
+        }
+    }
 }
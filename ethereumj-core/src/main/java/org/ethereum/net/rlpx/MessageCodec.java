@@ -17,7 +17,8 @@
  */
 package org.ethereum.net.rlpx;
 
-import com.google.common.io.ByteStreams;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 import org.apache.commons.collections4.map.LRUMap;
@@ -78,8 +79,15 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
 
     private boolean supportChunkedFrames = false;
 
-    Map<Integer, Pair<? extends List<Frame>, AtomicInteger>> incompleteFrames = new LRUMap<>(16);
     // LRU avoids OOM on invalid peers
+    Map<Integer, Pair<? extends List<Frame>, AtomicInteger>> incompleteFrames =
+            new LRUMap<Integer, Pair<? extends List<Frame>, AtomicInteger>>(16) {
+        @Override
+        protected boolean removeLRU(LinkEntry<Integer, Pair<? extends List<Frame>, AtomicInteger>> entry) {
+            releaseFrames(entry.getValue());
+            return super.removeLRU(entry);
+        }
+    };
     AtomicInteger contextIdCounter = new AtomicInteger(1);
 
     public MessageCodec() {
@@ -115,12 +123,13 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
             } else {
                 if (frame.totalFrameSize >= 0) {
                     loggerNet.warn("Non-initial chunked frame shouldn't contain totalFrameSize field (context-id: " + frame.contextId + ", totalFrameSize: " + frame.totalFrameSize + "). Discarding this frame and all previous.");
-                    incompleteFrames.remove(frame.contextId);
+                    releaseFrames(incompleteFrames.remove(frame.contextId));
                     return;
                 }
             }
 
-            frameParts.getLeft().add(frame);
+            // the frame is released by the codec once decode() returns
+            frameParts.getLeft().add(frame.retain());
             int curSize = frameParts.getRight().addAndGet(frame.size);
 
             if (loggerWire.isDebugEnabled())
@@ -128,13 +137,16 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
 
             if (curSize > frameParts.getLeft().get(0).totalFrameSize) {
                 loggerNet.warn("The total frame chunks size (" + curSize + ") is greater than expected (" + frameParts.getLeft().get(0).totalFrameSize + "). Discarding the frame.");
-                incompleteFrames.remove(frame.contextId);
+                releaseFrames(incompleteFrames.remove(frame.contextId));
                 return;
             }
             if (curSize == frameParts.getLeft().get(0).totalFrameSize) {
-                Message message = decodeMessage(ctx, frameParts.getLeft());
-                incompleteFrames.remove(frame.contextId);
-                out.add(message);
+                try {
+                    Message message = decodeMessage(ctx, frameParts.getLeft());
+                    out.add(message);
+                } finally {
+                    releaseFrames(incompleteFrames.remove(frame.contextId));
+                }
             }
         } else {
             Message message = decodeMessage(ctx, Collections.singletonList(frame));
@@ -148,7 +160,9 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
         byte[] payload = new byte[frames.size() == 1 ? frames.get(0).getSize() : frames.get(0).totalFrameSize];
         int pos = 0;
         for (Frame frame : frames) {
-            pos += ByteStreams.read(frame.getStream(), payload, pos, frame.getSize());
+            ByteBuf framePayload = frame.getPayload();
+            framePayload.getBytes(framePayload.readerIndex(), payload, pos, frame.getSize());
+            pos += frame.getSize();
         }
 
         if (loggerWire.isDebugEnabled())
@@ -192,6 +206,13 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
         channel.getNodeStatistics().rlpxOutMessages.add();
     }
 
+    private static void releaseFrames(Pair<? extends List<Frame>, AtomicInteger> frameParts) {
+        if (frameParts == null) return;
+        for (Frame frame : frameParts.getLeft()) {
+            frame.release();
+        }
+    }
+
     private List<Frame> splitMessageToFrames(Message msg) {
         byte code = getCode(msg.getCommand());
         List<Frame> ret = new ArrayList<>();
@@ -199,8 +220,8 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
         int curPos = 0;
         while(curPos < bytes.length) {
             int newPos = min(curPos + maxFramePayloadSize, bytes.length);
-            byte[] frameBytes = curPos == 0 && newPos == bytes.length ? bytes :
-                    Arrays.copyOfRange(bytes, curPos, newPos);
+            // frames share the encoded message bytes
+            ByteBuf frameBytes = Unpooled.wrappedBuffer(bytes, curPos, newPos - curPos);
             ret.add(new Frame(code, frameBytes));
             curPos = newPos;
         }
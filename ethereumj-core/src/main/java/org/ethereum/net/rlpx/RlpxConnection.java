@@ -58,14 +58,14 @@ public class RlpxConnection {
                 throw new IOException("expected handshake or disconnect");
             // TODO handle disconnect
             byte[] wire = new byte[frame.size];
-            frame.payload.read(wire);
+            frame.getPayload().readBytes(wire);
             System.out.println("packet " + toHexString(wire));
             handshakeMessage = HandshakeMessage.parse(wire);
             logger.info(" ===> " + handshakeMessage);
         } else {
             System.out.println("packet type " + frame.type);
             byte[] wire = new byte[frame.size];
-            frame.payload.read(wire);
+            frame.getPayload().readBytes(wire);
             System.out.println("packet " + toHexString(wire));
         }
     }
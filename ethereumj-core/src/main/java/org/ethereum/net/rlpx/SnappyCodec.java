@@ -17,6 +17,8 @@
  */
 package org.ethereum.net.rlpx;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 import org.ethereum.net.message.ReasonCode;
@@ -26,11 +28,14 @@ import org.slf4j.LoggerFactory;
 import org.xerial.snappy.Snappy;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
  * Snappy compression codec. <br>
  *
+ * Works with direct buffers, frame payload is copied only if it's not a direct buffer already. <br>
+ *
  * Check <a href="https://github.com/ethereum/EIPs/blob/master/EIPS/eip-706.md">EIP-706</a> for details
  *
  * @author Mikhail Kalinin
@@ -63,43 +68,77 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
             return;
         }
 
-        byte[] in = new byte[msg.size];
-        msg.payload.read(in);
-
-        byte[] compressed = Snappy.rawCompress(in, in.length);
-
-        out.add(new FrameCodec.Frame((int) msg.type, compressed));
+        ByteBufAllocator alloc = alloc(ctx);
+        ByteBuf in = toDirect(alloc, msg.payload);
+        ByteBuf compressed = alloc.directBuffer(Snappy.maxCompressedLength(msg.size));
+        try {
+            int size = Snappy.compress(in.nioBuffer(in.readerIndex(), msg.size),
+                    compressed.nioBuffer(0, compressed.capacity()));
+            compressed.writerIndex(size);
+            out.add(new FrameCodec.Frame(msg.type, compressed));
+        } catch (IOException | RuntimeException e) {
+            compressed.release();
+            throw e;
+        } finally {
+            if (in != msg.payload) in.release();
+        }
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, FrameCodec.Frame msg, List<Object> out) throws Exception {
 
-        byte[] in = new byte[msg.size];
-        msg.payload.read(in);
-
-        long uncompressedLength = Snappy.uncompressedLength(in) & 0xFFFFFFFFL;
-        if (uncompressedLength > MAX_SIZE) {
-            logger.info("{}: uncompressed frame size exceeds the limit ({} bytes), drop the peer", channel, uncompressedLength);
-            channel.disconnect(ReasonCode.BAD_PROTOCOL);
-            return;
-        }
-
-        byte[] uncompressed = new byte[(int) uncompressedLength];
+        ByteBufAllocator alloc = alloc(ctx);
+        ByteBuf in = toDirect(alloc, msg.payload);
+        ByteBuf uncompressed = null;
         try {
-            Snappy.rawUncompress(in, 0, in.length, uncompressed, 0);
-        } catch (IOException e) {
-            String detailMessage = e.getMessage();
-            // 5 - error code for framed snappy
-            if (detailMessage.startsWith("FAILED_TO_UNCOMPRESS") && detailMessage.contains("5")) {
-                logger.info("{}: Snappy frames are not allowed in DEVp2p protocol, drop the peer", channel);
+            ByteBuffer inBuffer = in.nioBuffer(in.readerIndex(), msg.size);
+
+            long uncompressedLength = Snappy.uncompressedLength(inBuffer) & 0xFFFFFFFFL;
+            if (uncompressedLength > MAX_SIZE) {
+                logger.info("{}: uncompressed frame size exceeds the limit ({} bytes), drop the peer", channel, uncompressedLength);
                 channel.disconnect(ReasonCode.BAD_PROTOCOL);
                 return;
-            } else {
-                throw e;
             }
+
+            uncompressed = alloc.directBuffer((int) uncompressedLength);
+            try {
+                int size = Snappy.uncompress(inBuffer, uncompressed.nioBuffer(0, (int) uncompressedLength));
+                uncompressed.writerIndex(size);
+            } catch (IOException e) {
+                String detailMessage = e.getMessage();
+                // 5 - error code for framed snappy
+                if (detailMessage.startsWith("FAILED_TO_UNCOMPRESS") && detailMessage.contains("5")) {
+                    logger.info("{}: Snappy frames are not allowed in DEVp2p protocol, drop the peer", channel);
+                    channel.disconnect(ReasonCode.BAD_PROTOCOL);
+                    uncompressed.release();
+                    return;
+                } else {
+                    throw e;
+                }
+            }
+
+            out.add(new FrameCodec.Frame(msg.type, uncompressed));
+        } catch (IOException | RuntimeException e) {
+            if (uncompressed != null) uncompressed.release();
+            throw e;
+        } finally {
+            if (in != msg.payload) in.release();
         }
+    }
+
+    private static ByteBufAllocator alloc(ChannelHandlerContext ctx) {
+        return ctx != null ? ctx.alloc() : ByteBufAllocator.DEFAULT;
+    }
 
-        out.add(new FrameCodec.Frame((int) msg.type, uncompressed));
+    /**
+     * Snappy works with direct ByteBuffers only
+     * @return the same buffer if it's direct or its direct copy which should be released by the caller
+     */
+    private static ByteBuf toDirect(ByteBufAllocator alloc, ByteBuf buf) {
+        if (buf.isDirect() && buf.nioBufferCount() == 1) return buf;
+        ByteBuf ret = alloc.directBuffer(buf.readableBytes());
+        ret.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+        return ret;
     }
 
     @Override
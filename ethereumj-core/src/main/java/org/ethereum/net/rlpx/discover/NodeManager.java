@@ -20,6 +20,7 @@ package org.ethereum.net.rlpx.discover;
 import org.apache.commons.lang3.tuple.Pair;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.crypto.ECKey;
+import org.ethereum.datasource.DataSourceArray;
 import org.ethereum.db.PeerSource;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.rlpx.*;
@@ -33,6 +34,7 @@ import org.springframework.stereotype.Component;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
@@ -68,7 +70,7 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
     Consumer<DiscoveryEvent> messageSender;
 
     NodeTable table;
-    private Map<String, NodeHandler> nodeHandlerMap = new HashMap<>();
+    private final Map<String, NodeHandler> nodeHandlerMap = new ConcurrentHashMap<>();
     final ECKey key;
     final Node homeNode;
     private List<Node> bootNodes;
@@ -78,7 +80,14 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
 
     private boolean discoveryEnabled;
 
-    private Map<DiscoverListener, ListenerHandler> listeners = new IdentityHashMap<>();
+    private final Map<DiscoverListener, ListenerHandler> listeners = new IdentityHashMap<>();
+
+    /**
+     * Nodes written to {@link #peerSource} by their keys and their slots in the DB array,
+     * only the changed entries are written on the next DB commit
+     */
+    private final Map<String, PersistedNode> persistedNodes = new HashMap<>();
+    private final List<String> persistedSlots = new ArrayList<>();
 
     private boolean inited = false;
     private Timer logStatsTimer = new Timer();
@@ -103,7 +112,7 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
         logStatsTimer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
-                logger.trace("Statistics:\n {}", dumpAllStatistics());
+                if (logger.isTraceEnabled()) logger.trace("Statistics:\n {}", dumpAllStatistics());
             }
         }, 1 * 1000, 60 * 1000);
 
@@ -154,25 +163,80 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
     }
 
     private void dbRead() {
-        logger.info("Reading Node statistics from DB: " + peerSource.getNodes().size() + " nodes.");
-        for (Pair<Node, Integer> nodeElement : peerSource.getNodes()) {
-            getNodeHandler(nodeElement.getLeft()).getNodeStatistics().setPersistedReputation(nodeElement.getRight());
+        synchronized (persistedNodes) {
+            logger.info("Reading Node statistics from DB: " + peerSource.getNodes().size() + " nodes.");
+            int slot = 0;
+            for (Pair<Node, Integer> nodeElement : peerSource.getNodes()) {
+                NodeHandler handler = getNodeHandler(nodeElement.getLeft());
+                handler.getNodeStatistics().setPersistedReputation(nodeElement.getRight());
+
+                String key = getKey(nodeElement.getLeft());
+                if (persistedNodes.containsKey(key)) {
+                    // the same endpoint stored twice, the slot is reused on the next write
+                    persistedSlots.add(null);
+                } else {
+                    persistedNodes.put(key, new PersistedNode(slot, nodeElement.getLeft(), nodeElement.getRight()));
+                    persistedSlots.add(key);
+                }
+                slot++;
+            }
         }
     }
 
+    /**
+     * Writes new nodes and nodes with changed reputation to the DB
+     * reusing slots of the nodes which were dropped since the last write
+     */
     private void dbWrite() {
-        List<Pair<Node, Integer>> batch = new ArrayList<>();
-        synchronized (this) {
-            for (NodeHandler handler : nodeHandlerMap.values()) {
-                batch.add(Pair.of(handler.getNode(), handler.getNodeStatistics().getPersistedReputation()));
+        synchronized (persistedNodes) {
+            Deque<Integer> freeSlots = new ArrayDeque<>();
+            for (int i = 0; i < persistedSlots.size(); i++) {
+                String key = persistedSlots.get(i);
+                if (key == null || !nodeHandlerMap.containsKey(key)) {
+                    if (key != null) persistedNodes.remove(key);
+                    persistedSlots.set(i, null);
+                    freeSlots.add(i);
+                }
             }
+
+            DataSourceArray<Pair<Node, Integer>> nodes = peerSource.getNodes();
+            int written = 0;
+            for (Map.Entry<String, NodeHandler> entry : nodeHandlerMap.entrySet()) {
+                Node node = entry.getValue().getNode();
+                int reputation = entry.getValue().getNodeStatistics().getPersistedReputation();
+                PersistedNode persisted = persistedNodes.get(entry.getKey());
+                if (persisted == null) {
+                    int slot = freeSlots.isEmpty() ? persistedSlots.size() : freeSlots.poll();
+                    if (slot == persistedSlots.size()) persistedSlots.add(null);
+                    persistedSlots.set(slot, entry.getKey());
+                    persisted = new PersistedNode(slot, node, reputation);
+                    persistedNodes.put(entry.getKey(), persisted);
+                } else if (persisted.node == node && persisted.reputation == reputation) {
+                    continue;
+                }
+                persisted.node = node;
+                persisted.reputation = reputation;
+                nodes.set(persisted.slot, Pair.of(node, reputation));
+                written++;
+            }
+
+            // move the tail entries to the remaining free slots to keep the array dense
+            while (!freeSlots.isEmpty()) {
+                int slot = freeSlots.pollLast();
+                int last = persistedSlots.size() - 1;
+                if (slot != last) {
+                    PersistedNode moved = persistedNodes.get(persistedSlots.get(last));
+                    moved.slot = slot;
+                    persistedSlots.set(slot, persistedSlots.get(last));
+                    nodes.set(slot, Pair.of(moved.node, moved.reputation));
+                    written++;
+                }
+                persistedSlots.remove(last);
+            }
+            nodes.truncate(persistedSlots.size());
+            nodes.flush();
+            logger.info("Write Node statistics to DB: " + persistedSlots.size() + " nodes, " + written + " updated.");
         }
-        peerSource.clear();
-        for (Pair<Node, Integer> nodeElement : batch) {
-            peerSource.getNodes().add(nodeElement);
-        }
-        peerSource.getNodes().flush();
-        logger.info("Write Node statistics to DB: " + peerSource.getNodes().size() + " nodes.");
     }
 
     public void setMessageSender(Consumer<DiscoveryEvent> messageSender) {
@@ -189,25 +253,32 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
         return (addr == null ? address.getHostString() : addr.getHostAddress()) + ":" + address.getPort();
     }
 
-    public synchronized NodeHandler getNodeHandler(Node n) {
+    public NodeHandler getNodeHandler(Node n) {
         String key = getKey(n);
         NodeHandler ret = nodeHandlerMap.get(key);
-        if (ret == null) {
-            trimTable();
-            ret = new NodeHandler(n ,this);
-            nodeHandlerMap.put(key, ret);
-            logger.debug(" +++ New node: " + ret + " " + n);
-            if (!n.isDiscoveryNode() && !n.getHexId().equals(homeNode.getHexId())) {
-                ethereumListener.onNodeDiscovered(ret.getNode());
-            }
-        } else if (ret.getNode().isDiscoveryNode() && !n.isDiscoveryNode()) {
-            // we found discovery node with same host:port,
-            // replace node with correct nodeId
-            ret.node = n;
-            if (!n.getHexId().equals(homeNode.getHexId())) {
-                ethereumListener.onNodeDiscovered(ret.getNode());
+        if (ret != null && !(ret.getNode().isDiscoveryNode() && !n.isDiscoveryNode())) {
+            return ret;
+        }
+
+        synchronized (this) {
+            ret = nodeHandlerMap.get(key);
+            if (ret == null) {
+                trimTable();
+                ret = new NodeHandler(n, this);
+                nodeHandlerMap.put(key, ret);
+                logger.debug(" +++ New node: " + ret + " " + n);
+                if (!n.isDiscoveryNode() && !n.getHexId().equals(homeNode.getHexId())) {
+                    ethereumListener.onNodeDiscovered(ret.getNode());
+                }
+            } else if (ret.getNode().isDiscoveryNode() && !n.isDiscoveryNode()) {
+                // we found discovery node with same host:port,
+                // replace node with correct nodeId
+                ret.node = n;
+                if (!n.getHexId().equals(homeNode.getHexId())) {
+                    ethereumListener.onNodeDiscovered(ret.getNode());
+                }
+                logger.debug(" +++ Found real nodeId for discovery endpoint {}", n);
             }
-            logger.debug(" +++ Found real nodeId for discovery endpoint {}", n);
         }
 
         return ret;
@@ -216,12 +287,15 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
     private void trimTable() {
         if (nodeHandlerMap.size() > NODES_TRIM_THRESHOLD) {
 
-            List<NodeHandler> sorted = new ArrayList<>(nodeHandlerMap.values());
-            // reverse sort by reputation
-            sorted.sort((o1, o2) -> o1.getNodeStatistics().getReputation() - o2.getNodeStatistics().getReputation());
+            // reputation is evaluated once per node, not on every comparison
+            List<Pair<Integer, String>> sorted = new ArrayList<>(nodeHandlerMap.size());
+            for (Map.Entry<String, NodeHandler> entry : nodeHandlerMap.entrySet()) {
+                sorted.add(Pair.of(entry.getValue().getNodeStatistics().getReputation(), entry.getKey()));
+            }
+            sorted.sort((o1, o2) -> o1.getLeft() - o2.getLeft());
 
-            for (NodeHandler handler : sorted) {
-                nodeHandlerMap.remove(getKey(handler.getNode()));
+            for (Pair<Integer, String> handler : sorted) {
+                nodeHandlerMap.remove(handler.getRight());
                 if (nodeHandlerMap.size() <= MAX_NODES) break;
             }
         }
@@ -300,7 +374,7 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
         }
     }
 
-    public synchronized List<NodeHandler> getNodes(int minReputation) {
+    public List<NodeHandler> getNodes(int minReputation) {
         List<NodeHandler> ret = new ArrayList<>();
         for (NodeHandler nodeHandler : nodeHandlerMap.values()) {
             if (nodeHandler.getNodeStatistics().getReputation() >= minReputation) {
@@ -323,11 +397,9 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
             Predicate<NodeHandler> predicate,
             int limit    ) {
         ArrayList<NodeHandler> filtered = new ArrayList<>();
-        synchronized (this) {
-            for (NodeHandler handler : nodeHandlerMap.values()) {
-                if (predicate.test(handler)) {
-                    filtered.add(handler);
-                }
+        for (NodeHandler handler : nodeHandlerMap.values()) {
+            if (predicate.test(handler)) {
+                filtered.add(handler);
             }
         }
         filtered.sort((o1, o2) -> o2.getNodeStatistics().getEthTotalDifficulty().compareTo(
@@ -335,12 +407,14 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
         return CollectionUtils.truncate(filtered, limit);
     }
 
-    private synchronized void processListeners() {
-        for (ListenerHandler handler : listeners.values()) {
-            try {
-                handler.checkAll();
-            } catch (Exception e) {
-                logger.error("Exception processing listener: " + handler, e);
+    private void processListeners() {
+        synchronized (listeners) {
+            for (ListenerHandler handler : listeners.values()) {
+                try {
+                    handler.checkAll();
+                } catch (Exception e) {
+                    logger.error("Exception processing listener: " + handler, e);
+                }
             }
         }
     }
@@ -349,15 +423,19 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
      * Add a listener which is notified when the node statistics starts or stops meeting
      * the criteria specified by [filter] param.
      */
-    public synchronized void addDiscoverListener(DiscoverListener listener, Predicate<NodeStatistics> filter) {
-        listeners.put(listener, new ListenerHandler(listener, filter));
+    public void addDiscoverListener(DiscoverListener listener, Predicate<NodeStatistics> filter) {
+        synchronized (listeners) {
+            listeners.put(listener, new ListenerHandler(listener, filter));
+        }
     }
 
-    public synchronized void removeDiscoverListener(DiscoverListener listener) {
-        listeners.remove(listener);
+    public void removeDiscoverListener(DiscoverListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
     }
 
-    public synchronized String dumpAllStatistics() {
+    public String dumpAllStatistics() {
         List<NodeHandler> l = new ArrayList<>(nodeHandlerMap.values());
         l.sort((o1, o2) -> -(o1.getNodeStatistics().getReputation() - o2.getNodeStatistics().getReputation()));
 
@@ -413,6 +491,18 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
         }
     }
 
+    private static class PersistedNode {
+        int slot;
+        Node node;
+        int reputation;
+
+        PersistedNode(int slot, Node node, int reputation) {
+            this.slot = slot;
+            this.node = node;
+            this.reputation = reputation;
+        }
+    }
+
     private class ListenerHandler {
         Map<NodeHandler, Object> discoveredNodes = new IdentityHashMap<>();
         DiscoverListener listener;
@@ -19,7 +19,6 @@ package org.ethereum.net.rlpx.discover.table;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -28,7 +27,12 @@ import java.util.List;
 public class NodeBucket {
 
     private final int depth;
-    private List<NodeEntry> nodes = new ArrayList<>();
+
+    /**
+     * Immutable snapshot replaced on every change,
+     * so the bucket can be read without locking
+     */
+    private volatile List<NodeEntry> nodes = Collections.emptyList();
 
     NodeBucket(int depth) {
         this.depth = depth;
@@ -43,7 +47,10 @@ public class NodeBucket {
             if (nodes.size() >= KademliaOptions.BUCKET_SIZE) {
                 return getLastSeen();
             } else {
-                nodes.add(e);
+                List<NodeEntry> updated = new ArrayList<>(nodes.size() + 1);
+                updated.addAll(nodes);
+                updated.add(e);
+                nodes = Collections.unmodifiableList(updated);
             }
         }
 
@@ -51,29 +58,43 @@ public class NodeBucket {
     }
 
     private NodeEntry getLastSeen() {
-        List<NodeEntry> sorted = nodes;
-        Collections.sort(sorted, new TimeComparator());
-        return sorted.get(0);
+        NodeEntry lastSeen = nodes.get(0);
+        for (NodeEntry e : nodes) {
+            if (e.getModified() > lastSeen.getModified()) {
+                lastSeen = e;
+            }
+        }
+        return lastSeen;
     }
 
     public synchronized void dropNode(NodeEntry entry) {
-        for (NodeEntry e : nodes) {
-            if (e.getId().equals(entry.getId())) {
-                nodes.remove(e);
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i).getId().equals(entry.getId())) {
+                List<NodeEntry> updated = new ArrayList<>(nodes);
+                updated.remove(i);
+                nodes = Collections.unmodifiableList(updated);
                 break;
             }
         }
     }
 
+    /**
+     * @return the entry equal to the given one or null
+     */
+    public NodeEntry getNode(NodeEntry entry) {
+        for (NodeEntry e : nodes) {
+            if (e.equals(entry)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
     public int getNodesCount() {
         return nodes.size();
     }
 
     public List<NodeEntry> getNodes() {
-//        List<NodeEntry> nodes = new ArrayList<>();
-//        for (NodeEntry e : this.nodes) {
-//            nodes.add(e);
-//        }
         return nodes;
     }
 }
@@ -29,7 +29,7 @@ public class NodeEntry {
     Node node;
     private String entryId;
     private int distance;
-    private long modified;
+    private volatile long modified;
 
     public NodeEntry(Node n) {
         this.node = n;
@@ -81,7 +81,8 @@ public class NodeEntry {
 
     @Override
     public int hashCode() {
-        return this.node.hashCode();
+        // same as node.hashCode() but without rendering the node each time
+        return entryId.hashCode();
     }
 
     public static int distance(byte[] ownerId, byte[] targetId) {
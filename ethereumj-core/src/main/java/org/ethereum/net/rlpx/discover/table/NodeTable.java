@@ -20,6 +20,7 @@ package org.ethereum.net.rlpx.discover.table;
 import org.ethereum.net.rlpx.Node;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by kest on 5/25/15.
@@ -28,7 +29,7 @@ public class NodeTable {
 
     private final Node node;  // our node
     private transient NodeBucket[] buckets;
-    private transient List<NodeEntry> nodes;
+    private transient Set<NodeEntry> nodes;
     private Map<Node, Node> evictedCandidates = new HashMap<>();
     private Map<Node, Date> expectedPongs = new HashMap<>();
 
@@ -50,7 +51,7 @@ public class NodeTable {
 
     public final void initialize()
     {
-        nodes = new ArrayList<>();
+        nodes = ConcurrentHashMap.newKeySet();
         buckets = new NodeBucket[KademliaOptions.BINS];
         for (int i = 0; i < KademliaOptions.BINS; i++)
         {
@@ -64,9 +65,7 @@ public class NodeTable {
         if (lastSeen != null) {
             return lastSeen.getNode();
         }
-        if (!nodes.contains(e)) {
-            nodes.add(e);
-        }
+        nodes.add(e);
         return null;
     }
 
@@ -76,23 +75,16 @@ public class NodeTable {
         nodes.remove(e);
     }
 
-    public synchronized boolean contains(Node n) {
+    public boolean contains(Node n) {
         NodeEntry e = new NodeEntry(node.getId(), n);
-        for (NodeBucket b : buckets) {
-            if (b.getNodes().contains(e)) {
-                return true;
-            }
-        }
-        return false;
+        return buckets[getBucketId(e)].getNode(e) != null;
     }
 
-    public synchronized void touchNode(Node n) {
+    public void touchNode(Node n) {
         NodeEntry e = new NodeEntry(node.getId(), n);
-        for (NodeBucket b : buckets) {
-            if (b.getNodes().contains(e)) {
-                b.getNodes().get(b.getNodes().indexOf(e)).touch();
-                break;
-            }
+        NodeEntry entry = buckets[getBucketId(e)].getNode(e);
+        if (entry != null) {
+            entry.touch();
         }
     }
 
@@ -106,26 +98,29 @@ public class NodeTable {
         return i;
     }
 
-    public synchronized NodeBucket[] getBuckets() {
+    public NodeBucket[] getBuckets() {
         return buckets;
     }
 
     public int getBucketId(NodeEntry e) {
-        int id = e.getDistance() - 1;
+        return getBucketId(e.getDistance());
+    }
+
+    private static int getBucketId(int distance) {
+        int id = distance - 1;
         return id < 0 ? 0 : id;
     }
 
-    public synchronized int getNodesCount() {
+    public int getNodesCount() {
         return nodes.size();
     }
 
-    public synchronized List<NodeEntry> getAllNodes()
+    public List<NodeEntry> getAllNodes()
     {
         List<NodeEntry> nodes = new ArrayList<>();
 
         for (NodeBucket b : buckets)
         {
-//            nodes.addAll(b.getNodes());
             for (NodeEntry e : b.getNodes())
             {
                 if (!e.getNode().equals(node)) {
@@ -134,18 +129,33 @@ public class NodeTable {
             }
         }
 
-//        boolean res = nodes.remove(node);
         return nodes;
     }
 
-    public synchronized List<Node> getClosestNodes(byte[] targetId) {
-        List<NodeEntry> closestEntries = getAllNodes();
-        List<Node> closestNodes = new ArrayList<>();
-        Collections.sort(closestEntries, new DistanceComparator(targetId));
-        if (closestEntries.size() > KademliaOptions.BUCKET_SIZE) {
-            closestEntries = closestEntries.subList(0, KademliaOptions.BUCKET_SIZE);
+    /**
+     * Returns up to {@link KademliaOptions#BUCKET_SIZE} nodes closest to the target. <br>
+     *
+     * Buckets are walked outward from the target's own bucket instead of sorting the whole table.
+     * For the target at distance D from our node:
+     * nodes of the bucket at distance D are the only ones closer than D to the target,
+     * nodes of the buckets below are all at distance D from the target
+     * and nodes of a bucket at distance K > D are all at distance K from the target
+     */
+    public List<Node> getClosestNodes(byte[] targetId) {
+        int targetBucket = getBucketId(NodeEntry.distance(node.getId(), targetId));
+
+        List<NodeEntry> closestEntries = new ArrayList<>(KademliaOptions.BUCKET_SIZE);
+        List<NodeEntry> sameBucket = new ArrayList<>(buckets[targetBucket].getNodes());
+        sameBucket.sort(new DistanceComparator(targetId));
+        addClosest(closestEntries, sameBucket);
+        for (int i = 0; i < targetBucket && closestEntries.size() < KademliaOptions.BUCKET_SIZE; i++) {
+            addClosest(closestEntries, buckets[i].getNodes());
+        }
+        for (int i = targetBucket + 1; i < buckets.length && closestEntries.size() < KademliaOptions.BUCKET_SIZE; i++) {
+            addClosest(closestEntries, buckets[i].getNodes());
         }
 
+        List<Node> closestNodes = new ArrayList<>();
         for (NodeEntry e : closestEntries) {
             if (!e.getNode().isDiscoveryNode()) {
                 closestNodes.add(e.getNode());
@@ -153,4 +163,13 @@ public class NodeTable {
         }
         return closestNodes;
     }
+
+    private void addClosest(List<NodeEntry> closest, List<NodeEntry> bucket) {
+        for (NodeEntry e : bucket) {
+            if (closest.size() >= KademliaOptions.BUCKET_SIZE) return;
+            if (!e.getNode().equals(node)) {
+                closest.add(e);
+            }
+        }
+    }
 }
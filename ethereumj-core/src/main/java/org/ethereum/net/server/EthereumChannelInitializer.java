@@ -17,8 +17,9 @@
  */
 package org.ethereum.net.server;
 
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import org.ethereum.net.rlpx.discover.NodeManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,7 +34,7 @@ import org.springframework.stereotype.Component;
  */
 @Component
 @Scope("prototype")
-public class EthereumChannelInitializer extends ChannelInitializer<NioSocketChannel> {
+public class EthereumChannelInitializer extends ChannelInitializer<SocketChannel> {
 
     private static final Logger logger = LoggerFactory.getLogger("net");
 
@@ -55,7 +56,7 @@ public class EthereumChannelInitializer extends ChannelInitializer<NioSocketChan
     }
 
     @Override
-    public void initChannel(NioSocketChannel ch) throws Exception {
+    public void initChannel(SocketChannel ch) throws Exception {
         try {
             if (!peerDiscoveryMode) {
                 logger.debug("Open {} connection, channel: {}", isInbound() ? "inbound" : "outbound", ch.toString());
@@ -74,8 +75,9 @@ public class EthereumChannelInitializer extends ChannelInitializer<NioSocketChan
                 channelManager.add(channel);
             }
 
-            // limit the size of receiving buffer to 1024
-            ch.config().setRecvByteBufAllocator(new FixedRecvByteBufAllocator(256 * 1024));
+            // pooled buffers sized by the recent reads, up to 256K per read
+            ch.config().setAllocator(PooledByteBufAllocator.DEFAULT);
+            ch.config().setRecvByteBufAllocator(NettyTransport.recvBufAllocator());
             ch.config().setOption(ChannelOption.SO_RCVBUF, 256 * 1024);
             ch.config().setOption(ChannelOption.SO_BACKLOG, 1024);
 
@@ -96,7 +98,7 @@ public class EthereumChannelInitializer extends ChannelInitializer<NioSocketChan
      * @param ch    Channel
      * @return true if we should refuse this connection, otherwise false
      */
-    private boolean notEligibleForIncomingConnection(NioSocketChannel ch) {
+    private boolean notEligibleForIncomingConnection(SocketChannel ch) {
         if(!isInbound()) return false;
         // For incoming connection drop if..
         
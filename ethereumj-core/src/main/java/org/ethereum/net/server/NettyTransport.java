@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+import org.ethereum.config.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Picks the Netty transport for peer TCP connections:
+ * native epoll on Linux when it's enabled and available, NIO otherwise
+ */
+@Component
+public class NettyTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger("net");
+
+    /**
+     * Bounds of the buffer allocated per socket read,
+     * the buffer grows and shrinks with the amount of data read last times
+     */
+    public static final int MIN_READ_BUFFER = 64;
+    public static final int INITIAL_READ_BUFFER = 16 * 1024;
+    public static final int MAX_READ_BUFFER = 256 * 1024;
+
+    private static final RecvByteBufAllocator READ_BUFFER_ALLOCATOR =
+            new AdaptiveRecvByteBufAllocator(MIN_READ_BUFFER, INITIAL_READ_BUFFER, MAX_READ_BUFFER);
+
+    private final boolean epoll;
+
+    @Autowired
+    public NettyTransport(SystemProperties config) {
+        this(config.peerTransportEpoll());
+    }
+
+    public NettyTransport(boolean preferEpoll) {
+        // epoll event loops need direct memory access through Unsafe
+        // which is not always allowed on newer JVMs
+        boolean available = Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+        if (preferEpoll && !available) {
+            logger.info("Native epoll transport is not available, using NIO: {}",
+                    Epoll.isAvailable() ? "no sun.misc.Unsafe" : String.valueOf(Epoll.unavailabilityCause()));
+        }
+        this.epoll = preferEpoll && available;
+        logger.debug("Peer connections transport: {}", epoll ? "epoll" : "nio");
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public Class<? extends SocketChannel> socketChannel() {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public Class<? extends ServerSocketChannel> serverSocketChannel() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static RecvByteBufAllocator recvBufAllocator() {
+        return READ_BUFFER_ALLOCATOR;
+    }
+}
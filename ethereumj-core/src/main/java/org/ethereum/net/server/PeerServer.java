@@ -25,8 +25,6 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LoggingHandler;
 
 import org.slf4j.Logger;
@@ -56,6 +54,8 @@ public class PeerServer {
 
     private EthereumListener ethereumListener;
 
+    private NettyTransport transport;
+
     public EthereumChannelInitializer ethereumChannelInitializer;
 
     private boolean listening;
@@ -66,16 +66,17 @@ public class PeerServer {
 
     @Autowired
     public PeerServer(final SystemProperties config, final ApplicationContext ctx,
-                      final EthereumListener ethereumListener) {
+                      final EthereumListener ethereumListener, final NettyTransport transport) {
         this.ctx = ctx;
         this.config = config;
         this.ethereumListener = ethereumListener;
+        this.transport = transport;
     }
 
     public void start(int port) {
 
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        bossGroup = transport.newEventLoopGroup(1, null);
+        workerGroup = transport.newEventLoopGroup(0, null);
 
         ethereumChannelInitializer = ctx.getBean(EthereumChannelInitializer.class, "");
 
@@ -86,7 +87,7 @@ public class PeerServer {
             ServerBootstrap b = new ServerBootstrap();
 
             b.group(bossGroup, workerGroup);
-            b.channel(NioServerSocketChannel.class);
+            b.channel(transport.serverSocketChannel());
 
             b.option(ChannelOption.SO_KEEPALIVE, true);
             b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
@@ -17,6 +17,11 @@
  */
 package org.ethereum.net.server;
 
+import org.ethereum.net.eth.message.EthMessageCodes;
+
+import java.util.EnumMap;
+import java.util.Map;
+
 /**
  * @author Mikhail Kalinin
  * @since 29.02.2016
@@ -26,6 +31,12 @@ public class PeerStatistics {
     private double avgLatency = 0;
     private long pingCount = 0;
 
+    // weight of the latest sample in moving averages
+    private static final double ALPHA = 0.2;
+
+    private final Map<EthMessageCodes, RequestStats> requests = new EnumMap<>(EthMessageCodes.class);
+    private double throughput = 0;
+
     public void pong(long pingStamp) {
         long latency = System.currentTimeMillis() - pingStamp;
         avgLatency = ((avgLatency * pingCount) + latency) / ++pingCount;
@@ -34,4 +45,119 @@ public class PeerStatistics {
     public double getAvgLatency() {
         return avgLatency;
     }
+
+    /**
+     * Records the response to a data request
+     *
+     * @param request   request message code, e.g. {@link EthMessageCodes#GET_BLOCK_BODIES}
+     * @param requested number of items asked
+     * @param received  number of items returned
+     * @param bytes     response size
+     * @param millis    time from sending the request to receiving the response
+     */
+    public synchronized void requestDone(EthMessageCodes request, int requested, int received, long bytes, long millis) {
+        stats(request).onResponse(requested, received, bytes, millis);
+        double bytesPerSec = bytes * 1000d / Math.max(millis, 1);
+        throughput = throughput == 0 ? bytesPerSec : throughput + ALPHA * (bytesPerSec - throughput);
+    }
+
+    /**
+     * Returns the number of items the next request of that type should ask the peer for
+     */
+    public synchronized int getRequestSize(EthMessageCodes request, int maxSize) {
+        return Math.max(1, Math.min(maxSize, stats(request).window));
+    }
+
+    /**
+     * Moving average of response bytes per second over all data requests,
+     * 0 if the peer hasn't served anything yet
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Returns a copy of the current stats of the request type
+     */
+    public synchronized RequestStats getRequestStats(EthMessageCodes request) {
+        return stats(request).copy();
+    }
+
+    private RequestStats stats(EthMessageCodes request) {
+        return requests.computeIfAbsent(request, r -> new RequestStats());
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%.1f kb/s", throughput / 1024));
+        for (Map.Entry<EthMessageCodes, RequestStats> e : requests.entrySet()) {
+            sb.append(", ").append(e.getKey()).append(' ').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Latency and throughput of one request type with the size of the next request. <br>
+     *
+     * The size grows like a TCP congestion window: doubles while below the threshold,
+     * then grows by 1/8 on each full and timely response. A partial or a slow response
+     * halves it and lowers the threshold.
+     */
+    public static class RequestStats {
+        static final int INITIAL_WINDOW = 32;
+        static final int INITIAL_THRESHOLD = 1024;
+        // the response is slow if it took more than that many times of the average latency
+        static final int SLOW_FACTOR = 3;
+
+        private int window = INITIAL_WINDOW;
+        private int threshold = INITIAL_THRESHOLD;
+        private double latency = 0;
+        private double itemsPerSec = 0;
+        private long count = 0;
+
+        void onResponse(int requested, int received, long bytes, long millis) {
+            boolean slow = count > 0 && millis > SLOW_FACTOR * latency;
+
+            latency = count == 0 ? millis : latency + ALPHA * (millis - latency);
+            double rate = received * 1000d / Math.max(millis, 1);
+            itemsPerSec = count == 0 ? rate : itemsPerSec + ALPHA * (rate - itemsPerSec);
+            count++;
+
+            if (received < requested || slow) {
+                threshold = Math.max(1, Math.min(window, requested) / 2);
+                window = threshold;
+            } else if (requested >= window) {
+                // grow only when the window was actually used
+                window = window < threshold ? window * 2 : window + Math.max(1, window / 8);
+            }
+        }
+
+        RequestStats copy() {
+            RequestStats ret = new RequestStats();
+            ret.window = window;
+            ret.threshold = threshold;
+            ret.latency = latency;
+            ret.itemsPerSec = itemsPerSec;
+            ret.count = count;
+            return ret;
+        }
+
+        public int getWindow() {
+            return window;
+        }
+
+        public double getLatency() {
+            return latency;
+        }
+
+        public double getItemsPerSec() {
+            return itemsPerSec;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ms %.1f/s size %d", (long) latency, itemsPerSec, window);
+        }
+    }
 }
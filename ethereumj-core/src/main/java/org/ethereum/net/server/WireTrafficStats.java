@@ -19,6 +19,8 @@ package org.ethereum.net.server;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -53,10 +55,35 @@ public class WireTrafficStats  implements Runnable  {
         executor.scheduleAtFixedRate(this, 10, 10, TimeUnit.SECONDS);
     }
 
+    private long lastAllocations;
+    private long lastAllocTime = System.currentTimeMillis();
+
     @Override
     public void run() {
         logger.info("TCP: " + tcp.stats());
         logger.info("UDP: " + udp.stats());
+        logger.info("Buffers: " + allocatorStats());
+    }
+
+    /**
+     * Allocation rate and live buffers of the pooled allocator used by peer channels
+     */
+    String allocatorStats() {
+        long allocations = 0;
+        long active = 0;
+        for (PoolArenaMetric arena : PooledByteBufAllocator.DEFAULT.directArenas()) {
+            allocations += arena.numAllocations();
+            active += arena.numActiveAllocations();
+        }
+        for (PoolArenaMetric arena : PooledByteBufAllocator.DEFAULT.heapArenas()) {
+            allocations += arena.numAllocations();
+            active += arena.numActiveAllocations();
+        }
+        long curTime = System.currentTimeMillis();
+        long rate = (allocations - lastAllocations) * 1000 / Math.max(1, curTime - lastAllocTime);
+        lastAllocations = allocations;
+        lastAllocTime = curTime;
+        return "allocations " + rate + "(sec), active " + active;
     }
 
     @PreDestroy
@@ -72,6 +99,7 @@ public class WireTrafficStats  implements Runnable  {
         AtomicLong inSize = new AtomicLong();
         AtomicLong outPackets = new AtomicLong();
         AtomicLong inPackets = new AtomicLong();
+        AtomicLong pendingWrite = new AtomicLong();
         long lastTime = System.currentTimeMillis();
 
         public String stats() {
@@ -88,6 +116,8 @@ public class WireTrafficStats  implements Runnable  {
             lastTime = curTime;
             return "Speed in/out " + sizeToStr(inSpeed) + " / " + sizeToStr(outSpeed) +
                     "(sec), packets in/out " + inPac + "/" + outPac +
+                    ", bytes per read " + (inPac > 0 ? in / inPac : 0) +
+                    ", pending write " + sizeToStr(pendingWrite.get()) +
                     ", total in/out: " + sizeToStr(inSizeTot) + " / " + sizeToStr(outSizeTot);
         }
 
@@ -106,10 +136,18 @@ public class WireTrafficStats  implements Runnable  {
         @Override
         public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
             outPackets.incrementAndGet();
+            long size = 0;
             if (msg instanceof ByteBuf) {
-                outSize.addAndGet(((ByteBuf) msg).readableBytes());
+                size = ((ByteBuf) msg).readableBytes();
             } else if (msg instanceof DatagramPacket) {
-                outSize.addAndGet(((DatagramPacket) msg).content().readableBytes());
+                size = ((DatagramPacket) msg).content().readableBytes();
+            }
+            outSize.addAndGet(size);
+            if (size > 0 && promise != ctx.voidPromise()) {
+                // written or failed, either way it's not pending anymore
+                final long written = size;
+                pendingWrite.addAndGet(written);
+                promise.addListener(future -> pendingWrite.addAndGet(-written));
             }
             super.write(ctx, msg, promise);
         }
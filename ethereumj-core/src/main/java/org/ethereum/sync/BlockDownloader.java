@@ -21,6 +21,7 @@ import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.ethereum.core.*;
 import org.ethereum.crypto.HashUtil;
@@ -36,6 +37,7 @@ import java.util.concurrent.*;
 import static java.lang.Math.max;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
+import static org.ethereum.net.eth.message.EthMessageCodes.GET_BLOCK_BODIES;
 import static org.ethereum.util.ByteUtil.toHexString;
 
 /**
@@ -52,6 +54,14 @@ public abstract class BlockDownloader {
     public static int MAX_IN_REQUEST = 192;
     private static int REQUESTS = 32;
 
+    // Min number of headers validated by one thread
+    private static final int MIN_VALIDATION_CHUNK = 16;
+    private static final int VALIDATION_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService validationExecutor = Executors.newFixedThreadPool(VALIDATION_THREADS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("header-validation-%d").build());
+    // batch validation result when it was interrupted, headers are neither valid nor invalid
+    static final int VALIDATION_ABORTED = -2;
+
     private BlockHeaderValidator headerValidator;
 
     private SyncPool pool;
@@ -175,7 +185,8 @@ public abstract class BlockDownloader {
                     for (Iterator<SyncQueueIfc.HeadersRequest> it = hReq.iterator(); it.hasNext();) {
                         SyncQueueIfc.HeadersRequest headersRequest = it.next();
 
-                        final Channel any = getAnyPeer();
+                        // sparse skeleton headers are fetched from the best peer only
+                        final Channel any = headersRequest.getStep() > 0 ? getBestPeer() : getAnyPeer();
 
                         if (any == null) {
                             logger.debug("{} headerRetrieveLoop: No IDLE peers found", name);
@@ -183,20 +194,24 @@ public abstract class BlockDownloader {
                         } else {
                             logger.debug("{} headerRetrieveLoop: request headers (" + headersRequest.toString() + ") from " + any.getNode(), name);
                             ListenableFuture<List<BlockHeader>> futureHeaders = headersRequest.getHash() == null ?
-                                    any.getEthHandler().sendGetBlockHeaders(headersRequest.getStart(), headersRequest.getCount(), headersRequest.isReverse()) :
+                                    any.getEthHandler().sendGetBlockHeaders(headersRequest.getStart(), headersRequest.getCount(), headersRequest.getStep(), headersRequest.isReverse()) :
                                     any.getEthHandler().sendGetBlockHeaders(headersRequest.getHash(), headersRequest.getCount(), headersRequest.getStep(), headersRequest.isReverse());
                             if (futureHeaders != null) {
                                 Futures.addCallback(futureHeaders, new FutureCallback<List<BlockHeader>>() {
                                     @Override
                                     public void onSuccess(List<BlockHeader> result) {
-                                        if (!validateAndAddHeaders(result, any.getNodeId())) {
+                                        if (!validateAndAddHeaders(headersRequest, result, any.getNodeId())) {
                                             onFailure(new RuntimeException("Received headers validation failed"));
+                                        } else if (result.isEmpty() || (headersRequest.getHash() != null &&
+                                                !Arrays.equals(headersRequest.getHash(), result.get(0).getHash()))) {
+                                            syncQueue.headersRequestFailed(headersRequest);
                                         }
                                     }
 
                                     @Override
                                     public void onFailure(Throwable t) {
                                         logger.debug("{}: Error receiving headers. Dropping the peer.", name, t);
+                                        syncQueue.headersRequestFailed(headersRequest);
                                         any.getEthHandler().dropConnection();
                                     }
                                 }, MoreExecutors.directExecutor());
@@ -277,7 +292,7 @@ public abstract class BlockDownloader {
                     int maxBlocks = MAX_IN_REQUEST * Math.min(maxRequests, REQUESTS);
                     int reqBlocksCounter = 0;
                     int blocksRequested = 0;
-                    Iterator<SyncQueueIfc.BlocksRequest> it = bReqs.iterator();
+                    ListIterator<SyncQueueIfc.BlocksRequest> it = bReqs.listIterator();
                     while (it.hasNext() && blocksRequested < maxBlocks) {
 //                    for (SyncQueueIfc.BlocksRequest blocksRequest : bReq.split(MAX_IN_REQUEST)) {
                         SyncQueueIfc.BlocksRequest blocksRequest = it.next();
@@ -286,15 +301,26 @@ public abstract class BlockDownloader {
                             logger.debug("{} blockRetrieveLoop: No IDLE peers found", name);
                             break;
                         } else {
-                            logger.debug("{} blockRetrieveLoop: Requesting " + blocksRequest.getBlockHeaders().size() + " blocks from " + any.getNode(), name);
+                            // the peer gets as many as its measured request size allows,
+                            // the rest is put back to be requested from the next peer
+                            List<BlockHeaderWrapper> allHeaders = blocksRequest.getBlockHeaders();
+                            int size = any.getPeerStats().getRequestSize(GET_BLOCK_BODIES, allHeaders.size());
+                            List<BlockHeaderWrapper> headers = allHeaders.subList(0, size);
+                            logger.debug("{} blockRetrieveLoop: Requesting " + headers.size() + " blocks from " + any.getNode(), name);
                             ListenableFuture<List<Block>> futureBlocks =
-                                    any.getEthHandler().sendGetBlockBodies(blocksRequest.getBlockHeaders());
-                            blocksRequested += blocksRequest.getBlockHeaders().size();
+                                    any.getEthHandler().sendGetBlockBodies(headers);
+                            blocksRequested += headers.size();
                             if (futureBlocks != null) {
                                 Futures.addCallback(futureBlocks, new BlocksCallback(any),
                                         MoreExecutors.directExecutor());
                                 reqBlocksCounter++;
                                 it.remove();
+                                if (size < allHeaders.size()) {
+                                    // the next peer picks it up, ordered import doesn't wait for another queue request
+                                    it.add(new SyncQueueImpl.BlocksRequestImpl(
+                                            new ArrayList<>(allHeaders.subList(size, allHeaders.size()))));
+                                    it.previous();
+                                }
                             }
                         }
                     }
@@ -364,35 +390,40 @@ public abstract class BlockDownloader {
      * Runs header validation before addition <br>
      * It also won't add headers of those blocks which are already presented in the queue
      *
+     * @param request request the headers are received for
      * @param headers list of headers got from remote host
      * @param nodeId remote host nodeId
      *
      * @return true if blocks passed validation and were added to the queue,
      *          otherwise it returns false
      */
-    private boolean validateAndAddHeaders(List<BlockHeader> headers, byte[] nodeId) {
+    private boolean validateAndAddHeaders(SyncQueueIfc.HeadersRequest request, List<BlockHeader> headers, byte[] nodeId) {
 
         if (headers.isEmpty()) return true;
 
-        List<BlockHeaderWrapper> wrappers = new ArrayList<>(headers.size());
-
-        for (BlockHeader header : headers) {
-
-            if (!isValid(header)) {
-
-                if (logger.isDebugEnabled()) {
-                    logger.debug("{}: Invalid header RLP: {}", toHexString(header.getEncoded()), name);
-                }
+        int invalid = findInvalidHeader(headers);
+        if (invalid == VALIDATION_ABORTED) {
+            // not the peer's fault, headers are requested again later
+            logger.debug("{}: Headers validation aborted, {} headers skipped", name, headers.size());
+            return true;
+        }
+        if (invalid >= 0) {
 
-                return false;
+            if (logger.isDebugEnabled()) {
+                logger.debug("{}: Invalid header RLP: {}", toHexString(headers.get(invalid).getEncoded()), name);
             }
 
+            return false;
+        }
+
+        List<BlockHeaderWrapper> wrappers = new ArrayList<>(headers.size());
+        for (BlockHeader header : headers) {
             wrappers.add(new BlockHeaderWrapper(header, nodeId));
         }
 
         SyncQueueIfc.ValidatedHeaders res;
         synchronized (this) {
-            res = syncQueue.addHeadersAndValidate(wrappers);
+            res = syncQueue.addHeadersAndValidate(request, wrappers);
             if (res.isValid() && !res.getHeaders().isEmpty()) {
                 pushHeaders(res.getHeaders());
             }
@@ -425,6 +456,73 @@ public abstract class BlockDownloader {
         }
     }
 
+    /**
+     * Validates batch of headers. <br>
+     * Big batches are split into chunks which are validated concurrently,
+     * results are merged in chunk order, thus the first invalid header of the batch is always reported
+     *
+     * @return index of the first invalid header, -1 if all headers are valid
+     *          or {@link #VALIDATION_ABORTED} if the thread was interrupted
+     */
+    int findInvalidHeader(List<BlockHeader> headers) {
+
+        prepareValidation(headers);
+
+        int chunks = Math.min(VALIDATION_THREADS, headers.size() / MIN_VALIDATION_CHUNK);
+        if (chunks <= 1) {
+            return findInvalidHeader(headers, 0, headers.size());
+        }
+
+        int chunkSize = (headers.size() + chunks - 1) / chunks;
+        List<Future<Integer>> results = new ArrayList<>(chunks - 1);
+        for (int from = chunkSize; from < headers.size(); from += chunkSize) {
+            final int start = from, end = Math.min(from + chunkSize, headers.size());
+            results.add(validationExecutor.submit(() -> findInvalidHeader(headers, start, end)));
+        }
+
+        // first chunk is checked by the calling thread
+        int invalid = findInvalidHeader(headers, 0, chunkSize);
+
+        try {
+            for (Future<Integer> result : results) {
+                if (invalid >= 0) {
+                    result.cancel(false);
+                } else {
+                    invalid = result.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<Integer> result : results) {
+                result.cancel(true);
+            }
+            return VALIDATION_ABORTED;
+        } catch (ExecutionException e) {
+            // local failure says nothing about the headers, check them once more in this thread
+            logger.warn("{}: Unexpected error while validating headers concurrently, falling back to sequential check", name, e.getCause());
+            return findInvalidHeader(headers, 0, headers.size());
+        }
+
+        return invalid;
+    }
+
+    private int findInvalidHeader(List<BlockHeader> headers, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isValid(headers.get(i))) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Called before headers of the batch are passed to {@link #isValid(BlockHeader)},
+     * which might happen concurrently and out of order
+     *
+     * @param headers headers in the order they've been received
+     */
+    protected void prepareValidation(List<BlockHeader> headers) {
+        headerValidator.prepare(headers);
+    }
+
     /**
      * Runs checks against block's header. <br>
      * All these checks make sense before block is added to queue
@@ -441,6 +539,10 @@ public abstract class BlockDownloader {
         return pool.getAnyIdle();
     }
 
+    Channel getBestPeer() {
+        return pool.getBestIdle();
+    }
+
     public boolean isSyncDone() {
         return false;
     }
@@ -119,6 +119,12 @@ public class FastSyncDownloader extends BlockDownloader {
         blockStore.flush();
     }
 
+    @Override
+    protected void prepareValidation(List<BlockHeader> headers) {
+        super.prepareValidation(headers);
+        reverseEthashRule.prepare(headers);
+    }
+
     @Override
     protected boolean isValid(BlockHeader header) {
         return super.isValid(header) && reverseEthashRule.validateAndLog(header, logger);
@@ -30,6 +30,8 @@ import org.ethereum.datasource.rocksdb.RocksDbDataSource;
 import org.ethereum.db.DbFlushManager;
 import org.ethereum.db.HeaderStore;
 import org.ethereum.db.IndexedBlockStore;
+import org.ethereum.db.StateExporter;
+import org.ethereum.db.StateImporter;
 import org.ethereum.db.StateSource;
 import org.ethereum.facade.SyncStatus;
 import org.ethereum.listener.CompositeEthereumListener;
@@ -48,6 +50,11 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -59,6 +66,7 @@ import java.util.stream.Collectors;
 import static org.ethereum.listener.EthereumListener.SyncState.COMPLETE;
 import static org.ethereum.listener.EthereumListener.SyncState.SECURE;
 import static org.ethereum.listener.EthereumListener.SyncState.UNSECURE;
+import static org.ethereum.net.eth.message.EthMessageCodes.GET_NODE_DATA;
 import static org.ethereum.trie.TrieKey.fromPacked;
 import static org.ethereum.util.CompactEncoder.hasTerminator;
 import static org.ethereum.util.ByteUtil.toHexString;
@@ -381,6 +389,7 @@ public class FastSyncManager {
         final Channel idle = pool.getAnyIdle();
 
         if (idle != null) {
+            cnt = idle.getPeerStats().getRequestSize(GET_NODE_DATA, cnt);
             final List<byte[]> hashes = new ArrayList<>();
             final List<TrieNodeRequest> requestsSent = new ArrayList<>();
             final Set<Long> sentRequestIds = new HashSet<>();
@@ -531,18 +540,20 @@ public class FastSyncManager {
 
 
     private void syncUnsecure(BlockHeader pivot) {
-        byte[] pivotStateRoot = pivot.getStateRoot();
-        TrieNodeRequest request = new TrieNodeRequest(TrieNodeType.STATE, pivotStateRoot);
-        nodesQueue.add(request);
-        logger.info("FastSync: downloading state trie at pivot block: " + pivot.getShortDescr());
-
         setSyncStage(UNSECURE);
 
-        retrieveLoop();
+        if (!importStateFile(pivot)) {
+            byte[] pivotStateRoot = pivot.getStateRoot();
+            TrieNodeRequest request = new TrieNodeRequest(TrieNodeType.STATE, pivotStateRoot);
+            nodesQueue.add(request);
+            logger.info("FastSync: downloading state trie at pivot block: " + pivot.getShortDescr());
+
+            retrieveLoop();
 
-        logger.info("FastSync: state trie download complete! (Nodes count: state: " + stateNodesCnt + ", storage: " +storageNodesCnt + ", code: " +codeNodesCnt + ")");
-        last = 0;
-        logStat();
+            logger.info("FastSync: state trie download complete! (Nodes count: state: " + stateNodesCnt + ", storage: " + storageNodesCnt + ", code: " + codeNodesCnt + ")");
+            last = 0;
+            logStat();
+        }
 
         logger.info("FastSync: downloading 256 blocks prior to pivot block (" + pivot.getShortDescr() + ")");
         FastSyncDownloader downloader = applicationContext.getBean(FastSyncDownloader.class);
@@ -763,10 +774,50 @@ public class FastSyncManager {
         return fastSyncInProgress;
     }
 
+    /**
+     * Loads the pivot state from the file written by {@link StateExporter} if it's configured
+     *
+     * @return false if the state should be downloaded from peers
+     */
+    private boolean importStateFile(BlockHeader pivot) {
+        String stateFile = config.getFastSyncStateFile();
+        if (stateFile == null) return false;
+
+        logger.info("FastSync: importing state at pivot block " + pivot.getShortDescr() + " from " + stateFile);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(stateFile), 1 << 20)) {
+            new StateImporter(stateSource.getNoJournalSource())
+                    .withCommit(dbFlushManager::commit)
+                    .importState(in, pivot.getStateRoot());
+            logger.info("FastSync: state import complete!");
+            return true;
+        } catch (IOException e) {
+            logger.error("FastSync: state import failed, falling back to state download", e);
+            return false;
+        }
+    }
+
+    private StateExporter.Header readStateFileHeader() {
+        String stateFile = config.getFastSyncStateFile();
+        if (stateFile == null) return null;
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(stateFile))) {
+            return StateExporter.Header.read(in);
+        } catch (IOException e) {
+            logger.error("FastSync: can't read state file " + stateFile, e);
+            return null;
+        }
+    }
+
     private BlockHeader getPivotBlock() throws InterruptedException {
         byte[] pivotBlockHash = config.getFastSyncPivotBlockHash();
         long pivotBlockNumber = 0;
 
+        StateExporter.Header stateFileHeader = readStateFileHeader();
+        if (pivotBlockHash == null && stateFileHeader != null) {
+            // state file defines the pivot
+            pivotBlockHash = stateFileHeader.getBlockHash();
+        }
+
         long start = System.currentTimeMillis();
         long s = start;
 
@@ -139,6 +139,12 @@ public class HeadersDownloader extends BlockDownloader {
         return genesisHash;
     }
 
+    @Override
+    protected void prepareValidation(List<BlockHeader> headers) {
+        super.prepareValidation(headers);
+        reverseEthashRule.prepare(headers);
+    }
+
     @Override
     protected boolean isValid(BlockHeader header) {
         return super.isValid(header) && reverseEthashRule.validateAndLog(header, logger);
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.sync;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockWrapper;
+import org.ethereum.core.Blockchain;
+import org.ethereum.datasource.DbSource;
+import org.ethereum.db.ByteArrayWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.ethereum.util.ByteUtil.byteArrayToLong;
+import static org.ethereum.util.ByteUtil.longToBytes;
+
+/**
+ * FIFO of downloaded but not yet imported blocks kept in a {@link DbSource}.
+ *
+ * Blocks are stored under sequential keys in the order they were passed to import,
+ * so that only a bounded window has to be kept on the heap and the download
+ * may be resumed from the queue tail after a restart.
+ * A block is removed once it is reported as imported, blocks dropped
+ * by the import pipeline keep the head and are loaded again after restart
+ */
+public class PersistentBlockQueue {
+
+    private final static Logger logger = LoggerFactory.getLogger("sync");
+
+    private static final byte[] HEAD_KEY = "head".getBytes();
+    private static final byte[] TAIL_KEY = "tail".getBytes();
+
+    private final DbSource<byte[]> db;
+
+    // first block not yet imported
+    private long head;
+    // loaded blocks which are not yet reported as imported
+    private final Map<BlockWrapper, Long> inFlight = new IdentityHashMap<>();
+    private final TreeSet<Long> inFlightSeqs = new TreeSet<>();
+    // first block not yet loaded to the import pipeline
+    private long loaded;
+    // next free slot
+    private long tail;
+
+    public PersistentBlockQueue(DbSource<byte[]> db) {
+        this.db = db;
+        this.head = readLong(HEAD_KEY);
+        this.tail = readLong(TAIL_KEY);
+        this.loaded = head;
+    }
+
+    /**
+     * Appends blocks to the queue tail
+     */
+    public synchronized void add(List<BlockWrapper> blocks) {
+        if (blocks.isEmpty()) return;
+        Map<byte[], byte[]> batch = new HashMap<>();
+        for (BlockWrapper block : blocks) {
+            batch.put(longToBytes(tail++), block.getBytes());
+        }
+        batch.put(TAIL_KEY, longToBytes(tail));
+        db.updateBatch(batch);
+    }
+
+    /**
+     * Reads next blocks which were not yet loaded
+     *
+     * @param max max number of blocks to return
+     */
+    public synchronized List<BlockWrapper> load(int max) {
+        List<BlockWrapper> ret = new ArrayList<>();
+        while (loaded < tail && ret.size() < max) {
+            long seq = loaded++;
+            byte[] bytes = db.get(longToBytes(seq));
+            // removed on import after a block dropped before it
+            if (bytes == null) continue;
+            BlockWrapper wrapper = new BlockWrapper(bytes);
+            inFlight.put(wrapper, seq);
+            inFlightSeqs.add(seq);
+            ret.add(wrapper);
+        }
+        return ret;
+    }
+
+    /**
+     * Removes the block from the queue, should be called once the block
+     * returned by {@link #load(int)} is processed by import.
+     * The head is moved up to the first loaded block which is not yet imported
+     */
+    public synchronized void imported(BlockWrapper block) {
+        Long seq = inFlight.remove(block);
+        if (seq == null) return;
+        inFlightSeqs.remove(seq);
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        batch.put(longToBytes(seq), null);
+        long newHead = inFlightSeqs.isEmpty() ? loaded : inFlightSeqs.first();
+        if (newHead != head) {
+            head = newHead;
+            batch.put(HEAD_KEY, longToBytes(head));
+        }
+        db.updateBatch(batch);
+    }
+
+    /**
+     * @return number of blocks which are not yet imported
+     */
+    public synchronized int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return number of blocks which are not yet loaded to the import pipeline
+     */
+    public synchronized int notLoaded() {
+        return (int) (tail - loaded);
+    }
+
+    /**
+     * Checks the blocks left from the previous run against the blockchain.
+     * The queue is truncated at the first block which doesn't connect neither to
+     * the blockchain nor to the preceding queued blocks.
+     *
+     * @param bc        blockchain
+     * @param chainLen  length of the chain to return
+     * @return the last {@code chainLen} blocks of the chain ending with the queue tail
+     *         (or with the best block when the queue is empty) suitable to init {@link SyncQueueImpl}
+     */
+    public synchronized List<Block> restore(Blockchain bc, int chainLen) {
+        Map<ByteArrayWrapper, Block> recent = new LinkedHashMap<ByteArrayWrapper, Block>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteArrayWrapper, Block> eldest) {
+                return size() > chainLen * 2;
+            }
+        };
+
+        Block best = bc.getBestBlock();
+        for (long i = Math.max(0, best.getNumber() - chainLen + 1); i <= best.getNumber(); i++) {
+            Block block = bc.getBlockByNumber(i);
+            recent.put(new ByteArrayWrapper(block.getHash()), block);
+        }
+
+        Block tip = best;
+        loaded = head;
+        inFlight.clear();
+        inFlightSeqs.clear();
+        for (long i = head; i < tail; i++) {
+            byte[] bytes = db.get(longToBytes(i));
+            if (bytes == null) continue;
+            Block block = new BlockWrapper(bytes).getBlock();
+            if (!recent.containsKey(new ByteArrayWrapper(block.getParentHash())) &&
+                    !bc.isBlockExist(block.getParentHash())) {
+                logger.warn("Queued block #{} doesn't connect to the chain, dropping {} queued blocks",
+                        block.getNumber(), tail - i);
+                truncate(i);
+                break;
+            }
+            recent.put(new ByteArrayWrapper(block.getHash()), block);
+            tip = block;
+        }
+
+        List<Block> chain = chainTo(tip, chainLen, recent, bc);
+        if (chain.size() < chainLen && chain.get(0).getNumber() > 0) {
+            logger.warn("Couldn't restore chain of queued blocks, dropping {} queued blocks", size());
+            truncate(head);
+            chain = chainTo(best, chainLen, recent, bc);
+        } else if (size() > 0) {
+            logger.info("Restored {} queued blocks up to #{}", size(), tip.getNumber());
+        }
+        return chain;
+    }
+
+    private List<Block> chainTo(Block tip, int chainLen, Map<ByteArrayWrapper, Block> recent, Blockchain bc) {
+        List<Block> chain = new ArrayList<>();
+        for (Block block = tip; block != null && chain.size() < chainLen; ) {
+            chain.add(block);
+            if (block.getNumber() == 0) break;
+            Block parent = recent.get(new ByteArrayWrapper(block.getParentHash()));
+            block = parent != null ? parent : bc.getBlockByHash(block.getParentHash());
+        }
+        Collections.reverse(chain);
+        return chain;
+    }
+
+    private void truncate(long newTail) {
+        Map<byte[], byte[]> batch = new HashMap<>();
+        for (long i = newTail; i < tail; i++) {
+            batch.put(longToBytes(i), null);
+        }
+        tail = newTail;
+        batch.put(TAIL_KEY, longToBytes(tail));
+        db.updateBatch(batch);
+    }
+
+    private long readLong(byte[] key) {
+        byte[] bytes = db.get(key);
+        return bytes == null ? 0 : byteArrayToLong(bytes);
+    }
+}
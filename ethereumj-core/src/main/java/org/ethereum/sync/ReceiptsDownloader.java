@@ -43,6 +43,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Math.max;
 import static java.lang.Math.min;
+import static org.ethereum.net.eth.message.EthMessageCodes.GET_RECEIPTS;
 
 /**
  * Created by Anton Nashatyrev on 27.10.2016.
@@ -118,12 +119,7 @@ public class ReceiptsDownloader {
             if (receipts != null) {
                 Block block = blockStore.getBlockByHash(queuedBlock.hash);
                 if (validate(block, receipts)) {
-                    for (int i = 0; i < queuedBlock.receipts.size(); i++) {
-                        TransactionReceipt receipt = receipts.get(i);
-                        TransactionInfo txInfo = new TransactionInfo(receipt, block.getHash(), i);
-                        txInfo.setTransaction(block.getTransactionsList().get(i));
-                        txStore.put(txInfo);
-                    }
+                    txStore.put(block, receipts);
 
                     estimateBlockSize(receipts, block.getNumber());
 
@@ -176,7 +172,12 @@ public class ReceiptsDownloader {
 
                 Channel idle = getAnyPeer();
                 if (idle != null && !toDownload.isEmpty()) {
-                    List<byte[]> list = toDownload.remove(0);
+                    List<byte[]> request = toDownload.remove(0);
+                    int size = idle.getPeerStats().getRequestSize(GET_RECEIPTS, request.size());
+                    if (size < request.size()) {
+                        toDownload.add(0, new ArrayList<>(request.subList(size, request.size())));
+                    }
+                    final List<byte[]> list = new ArrayList<>(request.subList(0, size));
                     ListenableFuture<List<List<TransactionReceipt>>> future =
                             ((Eth63) idle.getEthHandler()).requestReceipts(list);
                     if (future != null) {
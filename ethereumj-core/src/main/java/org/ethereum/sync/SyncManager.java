@@ -20,6 +20,7 @@ package org.ethereum.sync;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
 import org.ethereum.core.Blockchain;
+import org.ethereum.datasource.DbSource;
 import org.ethereum.facade.SyncStatus;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
@@ -31,6 +32,8 @@ import org.ethereum.validator.DependentBlockHeaderRule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.text.DecimalFormat;
@@ -95,6 +98,9 @@ public class SyncManager extends BlockDownloader {
     @Autowired
     private DependentBlockHeaderRule parentHeaderValidator;
 
+    @Autowired @Lazy @Qualifier("syncQueueSource")
+    private DbSource<byte[]> syncQueueSource;
+
     ChannelManager channelManager;
 
     private SystemProperties config;
@@ -103,9 +109,15 @@ public class SyncManager extends BlockDownloader {
 
     private SyncQueueImpl syncQueue;
 
+    /**
+     * Blocks pushed to import, when set only a window of it is kept in {@link #blockQueue}
+     */
+    private PersistentBlockQueue persistentQueue;
+
     private Thread syncQueueThread;
 
     private long blockBytesLimit = 32 * 1024 * 1024;
+    private long queueDiskLimit = 0;
     private long lastKnownBlockNumber = 0;
     private boolean syncDone = false;
     private AtomicLong importIdleTime = new AtomicLong();
@@ -125,6 +137,7 @@ public class SyncManager extends BlockDownloader {
         super(validator);
         this.config = config;
         blockBytesLimit = config.blockQueueSize();
+        queueDiskLimit = config.isSyncQueuePersistent() ? config.syncQueueDiskSize() : 0;
         setHeaderQueueLimit(config.headerQueueSize() / BlockHeader.MAX_HEADER_SIZE);
     }
 
@@ -165,14 +178,23 @@ public class SyncManager extends BlockDownloader {
         logger.info("Initializing SyncManager regular sync.");
         this.syncDoneType = syncDoneType;
 
-        syncQueue = new SyncQueueImpl(blockchain)
-                .withParentHeaderValidator(parentHeaderValidator);
+        if (queueDiskLimit > 0) {
+            persistentQueue = new PersistentBlockQueue(syncQueueSource);
+            syncQueue = new SyncQueueImpl(persistentQueue.restore(blockchain, SyncQueueImpl.MAX_CHAIN_LEN));
+        } else {
+            syncQueue = new SyncQueueImpl(blockchain);
+        }
+        syncQueue.withParentHeaderValidator(parentHeaderValidator);
+        if (config.isSyncSkeletonEnabled()) {
+            syncQueue.withSkeleton();
+        }
         super.init(syncQueue, pool, "RegularSync");
 
         Runnable queueProducer = this::produceQueue;
 
         syncQueueThread = new Thread (queueProducer, "SyncQueueThread");
         syncQueueThread.start();
+        loadQueuedBlocks();
 
         if (config.makeDoneByTimeout() >= 0) {
             logger.info("Custom long sync done timeout set to {} second(s)", config.makeDoneByTimeout());
@@ -223,12 +245,38 @@ public class SyncManager extends BlockDownloader {
 
     @Override
     protected void pushBlocks(List<BlockWrapper> blockWrappers) {
-        if (!exec1.isShutdown()) {
+        if (exec1.isShutdown()) return;
+        if (persistentQueue != null) {
+            persistentQueue.add(blockWrappers);
+            loadQueuedBlocks();
+        } else {
             exec1.pushAll(blockWrappers);
             blocksInMem.addAndGet(blockWrappers.size());
         }
     }
 
+    /**
+     * Moves blocks from the persistent queue to the import pipeline
+     * while they fit into the memory limit
+     */
+    private synchronized void loadQueuedBlocks() {
+        if (persistentQueue == null || exec1.isShutdown()) return;
+        int memSlots = getEstimatedBlockSize() == 0 ? MAX_IN_REQUEST : (int) (blockBytesLimit / getEstimatedBlockSize());
+        int free = memSlots - blocksInMem.get();
+        if (free <= 0) return;
+        List<BlockWrapper> blocks = persistentQueue.load(free);
+        exec1.pushAll(blocks);
+        blocksInMem.addAndGet(blocks.size());
+    }
+
+    private int getQueuedBlocks() {
+        return persistentQueue != null ? persistentQueue.size() : blocksInMem.get();
+    }
+
+    private long getQueueBytesLimit() {
+        return persistentQueue != null ? queueDiskLimit : blockBytesLimit;
+    }
+
     @Override
     protected void pushHeaders(List<BlockHeaderWrapper> headers) {}
 
@@ -248,10 +296,10 @@ public class SyncManager extends BlockDownloader {
             }
         }
 
-        int inMem = blocksInMem.get();
-        int slotsLeft = Math.max(0, (int) (blockBytesLimit / getEstimatedBlockSize()) - inMem);
+        int queued = getQueuedBlocks();
+        int slotsLeft = Math.max(0, (int) (getQueueBytesLimit() / getEstimatedBlockSize()) - queued);
 
-        if (slotsLeft + inMem < MAX_IN_REQUEST) {
+        if (slotsLeft + queued < MAX_IN_REQUEST) {
             slotsLeft = MAX_IN_REQUEST;
         }
 
@@ -276,6 +324,7 @@ public class SyncManager extends BlockDownloader {
                 wrapper = blockQueue.take();
 
                 blocksInMem.decrementAndGet();
+                loadQueuedBlocks();
 
                 if (stale > 0) {
                     importIdleTime.addAndGet((System.nanoTime() - stale) / 1_000_000);
@@ -336,6 +385,8 @@ public class SyncManager extends BlockDownloader {
                 } else {
                     logger.error("Error processing unknown block", e);
                 }
+            } finally {
+                if (wrapper != null && persistentQueue != null) persistentQueue.imported(wrapper);
             }
         }
     }
@@ -351,7 +402,7 @@ public class SyncManager extends BlockDownloader {
         final CompletableFuture<Void> syncDoneF = new CompletableFuture<>();
         if(!syncDone && config.isSyncEnabled()) {
             new Thread(() -> {
-                while(!blockQueue.isEmpty() && !syncDone) {
+                while((!blockQueue.isEmpty() || getQueuedBlocks() > 0) && !syncDone) {
                     try {
                         Thread.sleep(100);
                     } catch (InterruptedException e) {
@@ -393,7 +444,7 @@ public class SyncManager extends BlockDownloader {
             return true;
         }
         // skip if memory limit is already hit
-        if ((blocksInMem.get() * getEstimatedBlockSize()) > blockBytesLimit) {
+        if ((getQueuedBlocks() * getEstimatedBlockSize()) > getQueueBytesLimit()) {
             return true;
         }
 
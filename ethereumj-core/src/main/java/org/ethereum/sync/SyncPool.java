@@ -38,6 +38,7 @@ import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
@@ -65,6 +66,9 @@ public class SyncPool {
 
     private static final long WORKER_TIMEOUT = 3; // 3 seconds
 
+    // peers that many times slower than the fastest one are used when no other peer is idle
+    static final int SLOW_PEER_RATIO = 8;
+
     private final List<Channel> activePeers = Collections.synchronizedList(new ArrayList<Channel>());
 
     private BigInteger lowerUsefulDifficulty = BigInteger.ZERO;
@@ -134,14 +138,8 @@ public class SyncPool {
 
     @Nullable
     public synchronized Channel getAnyIdle() {
-        ArrayList<Channel> channels = new ArrayList<>(activePeers);
-        Collections.shuffle(channels);
-        for (Channel peer : channels) {
-            if (peer.isIdle())
-                return peer;
-        }
-
-        return null;
+        List<Channel> idle = getIdleByScore();
+        return idle.isEmpty() ? null : idle.get(0);
     }
 
     @Nullable
@@ -155,20 +153,44 @@ public class SyncPool {
 
     @Nullable
     public synchronized Channel getNotLastIdle() {
-        ArrayList<Channel> channels = new ArrayList<>(activePeers);
-        Collections.shuffle(channels);
-        Channel candidate = null;
-        for (Channel peer : channels) {
-            if (peer.isIdle()) {
-                if (candidate == null) {
-                    candidate = peer;
-                } else {
-                    return candidate;
-                }
+        List<Channel> idle = getIdleByScore();
+        return idle.size() > 1 ? idle.get(0) : null;
+    }
+
+    /**
+     * Returns idle peers in random order weighted by their measured throughput,
+     * peers which haven't served anything yet are weighted as an average one.
+     * Peers {@link #SLOW_PEER_RATIO} times slower than the fastest idle peer are demoted to the end
+     */
+    synchronized List<Channel> getIdleByScore() {
+        List<Channel> idle = getAllIdle();
+        if (idle.size() < 2) return idle;
+
+        double best = 0, sum = 0;
+        int measured = 0;
+        for (Channel peer : idle) {
+            double throughput = peer.getPeerStats().getThroughput();
+            if (throughput > 0) {
+                best = max(best, throughput);
+                sum += throughput;
+                measured++;
             }
         }
-
-        return null;
+        double average = measured > 0 ? sum / measured : 1;
+
+        // weighted random order: the key is ln(U) / weight, the largest key goes first
+        final Map<Channel, Double> keys = new HashMap<>();
+        final Set<Channel> demoted = new HashSet<>();
+        Random rnd = ThreadLocalRandom.current();
+        for (Channel peer : idle) {
+            double throughput = peer.getPeerStats().getThroughput();
+            double weight = throughput > 0 ? throughput : average;
+            if (throughput > 0 && throughput * SLOW_PEER_RATIO < best) demoted.add(peer);
+            keys.put(peer, Math.log(1 - rnd.nextDouble()) / (weight / (best > 0 ? best : average)));
+        }
+        idle.sort((p1, p2) -> demoted.contains(p1) != demoted.contains(p2) ?
+                (demoted.contains(p1) ? 1 : -1) : Double.compare(keys.get(p2), keys.get(p1)));
+        return idle;
     }
 
     public synchronized List<Channel> getAllIdle() {
@@ -143,6 +143,20 @@ public interface SyncQueueIfc {
      */
     ValidatedHeaders addHeadersAndValidate(Collection<BlockHeaderWrapper> headers);
 
+    /**
+     * Same as {@link #addHeadersAndValidate(Collection)} for headers received
+     * in response to the request returned by {@link #requestHeaders(int, int, int)}
+     */
+    default ValidatedHeaders addHeadersAndValidate(HeadersRequest request, Collection<BlockHeaderWrapper> headers) {
+        return addHeadersAndValidate(headers);
+    }
+
+    /**
+     * Notifies that the request got no usable response: it was answered with no headers,
+     * with headers not matching the requested hash, or failed
+     */
+    default void headersRequestFailed(HeadersRequest request) {}
+
     /**
      * Returns wanted blocks hashes
      */
@@ -58,6 +58,24 @@ public class SyncQueueImpl implements SyncQueueIfc {
             this.step = step;
         }
 
+        public HeadersRequestImpl(long start, int count, boolean reverse, int step) {
+            this.start = start;
+            this.count = count;
+            this.reverse = reverse;
+            this.step = step;
+        }
+
+        /**
+         * Reverse request of the segment ending with the anchor header,
+         * start is the lowest block number of the segment
+         */
+        HeadersRequestImpl(BlockHeaderWrapper anchor, int count) {
+            this.hash = anchor.getHash();
+            this.start = anchor.getNumber() - count + 1;
+            this.count = count;
+            this.reverse = true;
+        }
+
 
         private long start;
         private byte[] hash;
@@ -186,6 +204,17 @@ public class SyncQueueImpl implements SyncQueueIfc {
 
     DependentBlockHeaderRule parentHeaderValidator = null;
 
+    // sparse headers fetched from the best peer, every MAX_CHAIN_LEN-th block
+    // the gaps between them are filled by requests anchored to their hashes
+    boolean skeletonEnabled = false;
+    TreeMap<Long, BlockHeaderWrapper> skeleton = new TreeMap<>();
+    HeadersRequestImpl skeletonRequest = null;
+    long skeletonRequestTime = 0;
+    static final long SKELETON_REQUEST_TIMEOUT = 30 * 1000;
+    // failed or empty segment requests to a single anchor after which the skeleton is given up
+    static final int MAX_ANCHOR_FAILURES = 3;
+    TreeMap<Long, Integer> anchorFailures = new TreeMap<>();
+
     public SyncQueueImpl(List<Block> initBlocks) {
         init(initBlocks);
     }
@@ -260,11 +289,6 @@ public class SyncQueueImpl implements SyncQueueIfc {
         return ret;
     }
 
-    private boolean hasGaps() {
-        List<HeaderElement> longestChain = getLongestChain();
-        return longestChain.get(longestChain.size() - 1).header.getNumber() < maxNum;
-    }
-
     private void trimChain() {
         List<HeaderElement> longestChain = getLongestChain();
         trimChainImpl(longestChain);
@@ -328,10 +352,21 @@ public class SyncQueueImpl implements SyncQueueIfc {
     private List<HeadersRequest> requestHeadersImpl(int count, int maxRequests, int maxTotHeaderCount) {
         List<HeadersRequest> ret = new ArrayList<>();
 
+        List<HeaderElement> longestChain = getLongestChain();
+        long chainEnd = longestChain.get(longestChain.size() - 1).header.getNumber();
+
+        // drop anchors already reached by the chain
+        skeleton.headMap(chainEnd, true).clear();
+        anchorFailures.headMap(chainEnd, true).clear();
+
+        if (skeletonEnabled) {
+            HeadersRequestImpl skeletonReq = getSkeletonReq(chainEnd, count, maxTotHeaderCount);
+            if (skeletonReq != null) ret.add(skeletonReq);
+        }
+
         long startNumber;
-        if (hasGaps()) {
-            List<HeaderElement> longestChain = getLongestChain();
-            startNumber = longestChain.get(longestChain.size() - 1).header.getNumber();
+        if (chainEnd < maxNum) {
+            startNumber = chainEnd;
             boolean reverse = rnd.nextBoolean();
             ret.add(new HeadersRequestImpl(startNumber, MAX_CHAIN_LEN, reverse));
             startNumber += reverse ? 1 : MAX_CHAIN_LEN;
@@ -352,12 +387,102 @@ public class SyncQueueImpl implements SyncQueueIfc {
 
     private HeadersRequestImpl getNextReq(long startFrom, int maxCount) {
         while(headers.containsKey(startFrom)) startFrom++;
+
+        // the segment below the anchor is requested back from the anchor hash,
+        // so whatever peer serves it the segment is chained to the anchor
+        Map.Entry<Long, BlockHeaderWrapper> anchor = skeleton.ceilingEntry(startFrom);
+        if (anchor != null && anchor.getKey() - startFrom < maxCount) {
+            return new HeadersRequestImpl(anchor.getValue(), (int) (anchor.getKey() - startFrom + 1));
+        }
+
         if (endBlockNumber != null && maxCount > endBlockNumber - startFrom + 1) {
             maxCount = (int) (endBlockNumber - startFrom + 1);
         }
         return new HeadersRequestImpl(startFrom, maxCount, false);
     }
 
+    /**
+     * Returns the next skeleton request if the known anchors are used up:
+     * every MAX_CHAIN_LEN-th header starting MAX_CHAIN_LEN blocks after the chain end
+     */
+    private HeadersRequestImpl getSkeletonReq(long chainEnd, int count, int maxTotHeaderCount) {
+        if (!skeleton.isEmpty()) return null;
+        if (skeletonRequest != null && System.currentTimeMillis() - skeletonRequestTime < SKELETON_REQUEST_TIMEOUT) {
+            return null;
+        }
+
+        long start = chainEnd + count;
+        int anchors = Math.max(1, min(count, maxTotHeaderCount / count));
+        if (endBlockNumber != null) {
+            if (start > endBlockNumber) return null;
+            anchors = (int) min(anchors, (endBlockNumber - start) / count + 1);
+        }
+
+        skeletonRequest = new HeadersRequestImpl(start, anchors, false, count - 1);
+        skeletonRequestTime = System.currentTimeMillis();
+        return skeletonRequest;
+    }
+
+    /**
+     * Takes the response to the pending skeleton request,
+     * a response which doesn't follow the requested numbers is discarded
+     */
+    private void addSkeleton(List<BlockHeaderWrapper> anchors) {
+        HeadersRequestImpl req = skeletonRequest;
+        skeletonRequest = null;
+        if (anchors.isEmpty() || anchors.get(0).getNumber() != req.getStart()) return;
+        for (int i = 1; i < anchors.size(); i++) {
+            if (anchors.get(i).getNumber() - anchors.get(i - 1).getNumber() != req.getStep() + 1) return;
+        }
+
+        for (BlockHeaderWrapper anchor : anchors) {
+            skeleton.put(anchor.getNumber(), anchor);
+        }
+        // the peer is near its head, contiguous requests do better from now on
+        if (anchors.size() < req.getCount()) skeletonEnabled = false;
+    }
+
+    @Override
+    public synchronized void headersRequestFailed(HeadersRequest request) {
+        // the skeleton is requested again on the next round instead of waiting for the timeout
+        if (request == skeletonRequest) {
+            skeletonRequest = null;
+            return;
+        }
+        if (request.getHash() == null) return;
+
+        for (BlockHeaderWrapper anchor : skeleton.values()) {
+            if (!Arrays.equals(anchor.getHash(), request.getHash())) continue;
+
+            // peers don't serve the segment: the anchor is likely from a fork or a disconnected peer
+            if (anchorFailures.merge(anchor.getNumber(), 1, Integer::sum) >= MAX_ANCHOR_FAILURES) {
+                skeleton.clear();
+                anchorFailures.clear();
+                skeletonEnabled = false;
+            }
+            return;
+        }
+    }
+
+    /**
+     * Checks that the chain goes through the skeleton anchors it has reached.
+     * If it doesn't the skeleton is discarded: the anchors came from a peer
+     * on a fork which the other peers don't follow
+     */
+    private void checkSkeleton(List<HeaderElement> longestChain) {
+        if (skeleton.isEmpty()) return;
+        long first = longestChain.get(0).header.getNumber();
+        for (BlockHeaderWrapper anchor : skeleton.headMap(first + longestChain.size(), false).values()) {
+            if (anchor.getNumber() < first) continue;
+            HeaderElement el = longestChain.get((int) (anchor.getNumber() - first));
+            if (!Arrays.equals(el.header.getHash(), anchor.getHash())) {
+                skeleton.clear();
+                anchorFailures.clear();
+                return;
+            }
+        }
+    }
+
     @Override
     public synchronized List<BlockHeaderWrapper> addHeaders(Collection<BlockHeaderWrapper> headers) {
         for (BlockHeaderWrapper header : headers) {
@@ -369,11 +494,22 @@ public class SyncQueueImpl implements SyncQueueIfc {
 
     @Override
     public synchronized ValidatedHeaders addHeadersAndValidate(Collection<BlockHeaderWrapper> headers) {
+        return addHeadersAndValidate(null, headers);
+    }
+
+    @Override
+    public synchronized ValidatedHeaders addHeadersAndValidate(HeadersRequest request, Collection<BlockHeaderWrapper> headers) {
+        if (request != null && request == skeletonRequest) {
+            addSkeleton(new ArrayList<>(headers));
+            return ValidatedHeaders.Empty;
+        }
+
         for (BlockHeaderWrapper header : headers) {
             addHeader(header);
         }
 
         List<HeaderElement> longestChain = getLongestChain();
+        checkSkeleton(longestChain);
 
         // do not run the payload if chain is too short
         if (longestChain.size() > MAX_CHAIN_LEN) {
@@ -530,6 +666,15 @@ public class SyncQueueImpl implements SyncQueueIfc {
         return this;
     }
 
+    /**
+     * Enables skeleton headers download: sparse anchor headers are requested
+     * from the best peer and the gaps between them are filled from any peers
+     */
+    public SyncQueueImpl withSkeleton() {
+        this.skeletonEnabled = true;
+        return this;
+    }
+
 
     interface Visitor<T> {
         T visit(HeaderElement el, List<T> childrenRes);
@@ -20,6 +20,8 @@ package org.ethereum.trie;
 import org.ethereum.datasource.Source;
 import org.ethereum.util.Value;
 
+import java.util.List;
+
 import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 
@@ -47,6 +49,11 @@ public class SecureTrie extends TrieImpl {
         super.put(sha3(key), value);
     }
 
+    @Override
+    public List<byte[]> getProof(byte[] key) {
+        return super.getProof(sha3(key));
+    }
+
     @Override
     public void delete(byte[] key) {
         put(key, EMPTY_BYTE_ARRAY);
@@ -19,6 +19,8 @@ package org.ethereum.trie;
 
 import org.ethereum.datasource.Source;
 
+import java.util.List;
+
 /**
  * Created by Anton Nashatyrev on 05.10.2016.
  */
@@ -32,4 +34,16 @@ public interface Trie<V> extends Source<byte[], V> {
      * Recursively delete all nodes from root
      */
     void clear();
+
+    /**
+     * Returns RLP encoded nodes on the path from the root to the key,
+     * which are enough to check the key value or its absence against the root hash
+     * with {@link TrieProof#verify(byte[], byte[], List)}
+     *
+     * @return proof nodes starting from the root one, empty list for an empty trie
+     * @throws UnsupportedOperationException if the trie doesn't support proofs
+     */
+    default List<byte[]> getProof(byte[] key) {
+        throw new UnsupportedOperationException("Proofs are not supported by " + getClass().getSimpleName());
+    }
 }
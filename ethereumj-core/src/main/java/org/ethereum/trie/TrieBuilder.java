@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.trie;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.Source;
+import org.ethereum.util.RLP;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.ethereum.util.RLP.EMPTY_ELEMENT_RLP;
+import static org.ethereum.util.RLP.encodeElement;
+import static org.ethereum.util.RLP.encodeList;
+
+/**
+ * Builds a trie from keys supplied in ascending order in a single pass. <br/>
+ *
+ * Unlike {@link TrieImpl} it never creates node objects for the whole trie:
+ * only branches on the path of the last key are kept open, a subtree is encoded,
+ * hashed and written out as soon as no further key can fall into it,
+ * so memory is bounded by the key length. The resulting nodes and root hash
+ * are the same as {@link TrieImpl} would produce for the same entries.
+ */
+public class TrieBuilder {
+
+    private static class Branch {
+        final int depth;
+        final byte[][] children = new byte[16][];
+        byte[] value;
+
+        Branch(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    private final Source<byte[], byte[]> nodeSink;
+
+    // branches on the path of the previous key, ordered by depth
+    private final List<Branch> stack = new ArrayList<>();
+    private byte[] prevKey;
+    private byte[] prevValue;
+    private byte[] root;
+
+    /**
+     * Calculates the root hash only
+     */
+    public TrieBuilder() {
+        this(null);
+    }
+
+    /**
+     * @param nodeSink receives hashed nodes, like the {@link TrieImpl} cache does on flush
+     */
+    public TrieBuilder(Source<byte[], byte[]> nodeSink) {
+        this.nodeSink = nodeSink;
+    }
+
+    /**
+     * Adds an entry, keys must be strictly ascending in the unsigned lexicographical order
+     * and entries with empty value are skipped like {@link TrieImpl#put(byte[], byte[])} does
+     *
+     * @throws IllegalArgumentException if the key is not greater than the previous one
+     */
+    public void put(byte[] key, byte[] value) {
+        if (root != null) throw new IllegalStateException("Trie is already built");
+        if (value == null || value.length == 0) return;
+
+        byte[] nibbles = toNibbles(key);
+        if (prevKey != null) {
+            int common = commonPrefix(prevKey, nibbles);
+            if (common == nibbles.length || (common < prevKey.length && prevKey[common] > nibbles[common]))
+                throw new IllegalArgumentException("Keys are not in ascending order");
+
+            // the keys diverge at the [common] nibble, so there is a branch at that depth
+            if (stack.isEmpty() || top().depth < common) {
+                stack.add(new Branch(common));
+            }
+            attachPrev();
+
+            while (top().depth > common) {
+                Branch branch = stack.remove(stack.size() - 1);
+                if (stack.isEmpty() || top().depth < common) {
+                    stack.add(new Branch(common));
+                }
+                attach(branch);
+            }
+        }
+        prevKey = nibbles;
+        prevValue = value;
+    }
+
+    /**
+     * Completes the trie, no more entries can be added after that
+     *
+     * @return root hash
+     */
+    public byte[] build() {
+        if (root != null) return root;
+
+        if (prevKey == null) {
+            root = HashUtil.EMPTY_TRIE_HASH;
+            return root;
+        }
+
+        byte[] rootNode;
+        if (stack.isEmpty()) {
+            rootNode = leaf(prevKey, 0, prevValue);
+        } else {
+            attachPrev();
+            while (stack.size() > 1) {
+                attach(stack.remove(stack.size() - 1));
+            }
+            Branch branch = stack.remove(0);
+            rootNode = branch.depth == 0 ? encode(branch) :
+                    encodeList(encodeElement(pack(prevKey, 0, branch.depth, false)), ref(encode(branch)));
+        }
+
+        root = HashUtil.sha3(rootNode);
+        if (nodeSink != null) nodeSink.put(root, rootNode);
+        return root;
+    }
+
+    /**
+     * Calculates the root of a trie keyed by the RLP encoded item index
+     * like transactions and receipts tries are. <br/>
+     * Encoded indexes are ordered as 1..127, 0, 128..n-1 which is what the builder is fed with
+     */
+    public static byte[] calcOrderedRoot(List<byte[]> values) {
+        TrieBuilder builder = new TrieBuilder();
+        for (int i = 1; i < Math.min(values.size(), 128); i++) {
+            builder.put(RLP.encodeInt(i), values.get(i));
+        }
+        if (!values.isEmpty()) {
+            builder.put(RLP.encodeInt(0), values.get(0));
+        }
+        for (int i = 128; i < values.size(); i++) {
+            builder.put(RLP.encodeInt(i), values.get(i));
+        }
+        return builder.build();
+    }
+
+    private Branch top() {
+        return stack.get(stack.size() - 1);
+    }
+
+    /**
+     * Puts previous entry to the deepest open branch
+     */
+    private void attachPrev() {
+        Branch branch = top();
+        if (prevKey.length == branch.depth) {
+            branch.value = prevValue;
+        } else {
+            branch.children[prevKey[branch.depth]] = ref(leaf(prevKey, branch.depth + 1, prevValue));
+        }
+    }
+
+    /**
+     * Encodes the branch which has no more children to come and puts it to the parent branch,
+     * inserting an extension node if they are not adjacent
+     */
+    private void attach(Branch branch) {
+        Branch parent = top();
+        byte[] node = encode(branch);
+        if (branch.depth > parent.depth + 1) {
+            node = encodeList(encodeElement(pack(prevKey, parent.depth + 1, branch.depth, false)), ref(node));
+        }
+        parent.children[prevKey[parent.depth]] = ref(node);
+    }
+
+    private static byte[] leaf(byte[] key, int from, byte[] value) {
+        return encodeList(encodeElement(pack(key, from, key.length, true)), encodeElement(value));
+    }
+
+    private static byte[] encode(Branch branch) {
+        byte[][] encoded = new byte[17][];
+        for (int i = 0; i < 16; i++) {
+            encoded[i] = branch.children[i] == null ? EMPTY_ELEMENT_RLP : branch.children[i];
+        }
+        encoded[16] = encodeElement(branch.value == null ? new byte[0] : branch.value);
+        return encodeList(encoded);
+    }
+
+    /**
+     * Small nodes are embedded into the parent, others are referenced by hash
+     */
+    private byte[] ref(byte[] node) {
+        if (node.length < 32) return node;
+
+        byte[] hash = HashUtil.sha3(node);
+        if (nodeSink != null) nodeSink.put(hash, node);
+        return encodeElement(hash);
+    }
+
+    private static byte[] toNibbles(byte[] key) {
+        byte[] ret = new byte[key.length * 2];
+        for (int i = 0; i < key.length; i++) {
+            ret[i * 2] = (byte) ((key[i] >> 4) & 0xF);
+            ret[i * 2 + 1] = (byte) (key[i] & 0xF);
+        }
+        return ret;
+    }
+
+    private static int commonPrefix(byte[] k1, byte[] k2) {
+        int len = Math.min(k1.length, k2.length);
+        for (int i = 0; i < len; i++) {
+            if (k1[i] != k2[i]) return i;
+        }
+        return len;
+    }
+
+    /**
+     * Hex-prefix encoding of the nibbles range, see {@link TrieKey#toPacked()}
+     */
+    private static byte[] pack(byte[] nibbles, int from, int to, boolean terminal) {
+        int len = to - from;
+        int flags = (terminal ? TrieKey.TERMINATOR_FLAG : 0) | (len % 2 == 1 ? TrieKey.ODD_OFFSET_FLAG : 0);
+        byte[] ret = new byte[len / 2 + 1];
+        int i = from;
+        if (len % 2 == 1) {
+            ret[0] = (byte) ((flags << 4) | nibbles[i++]);
+        } else {
+            ret[0] = (byte) (flags << 4);
+        }
+        for (int j = 1; j < ret.length; j++, i += 2) {
+            ret[j] = (byte) ((nibbles[i] << 4) | nibbles[i + 1]);
+        }
+        return ret;
+    }
+}
@@ -161,21 +161,10 @@ public class TrieImpl implements Trie<byte[]> {
                             throw new RuntimeException(e);
                         }
                     } else {
-                        byte[][] encoded = new byte[17][];
-                        for (int i = 0; i < 16; i++) {
-                            Node child = branchNodeGetChild(i);
-                            encoded[i] = child == null ? EMPTY_ELEMENT_RLP : child.encode(depth + 1, false);
-                        }
-                        byte[] value = branchNodeGetValue();
-                        encoded[16] = encodeElement(value);
-                        ret = encodeList(encoded);
+                        ret = encodeNode(depth);
                     }
-                } else if (type == NodeType.KVNodeNode) {
-                    ret = encodeList(encodeElement(kvNodeGetKey().toPacked()), kvNodeGetChildNode().encode(depth + 1, false));
                 } else {
-                    byte[] value = kvNodeGetValue();
-                    ret = encodeList(encodeElement(kvNodeGetKey().toPacked()),
-                                    encodeElement(value == null ? EMPTY_BYTE_ARRAY : value));
+                    ret = encodeNode(depth);
                 }
                 if (hash != null) {
                     deleteHash(hash);
@@ -192,6 +181,34 @@ public class TrieImpl implements Trie<byte[]> {
             }
         }
 
+        private byte[] encodeNode(int depth) {
+            NodeType type = getType();
+            if (type == NodeType.BranchNode) {
+                byte[][] encoded = new byte[17][];
+                for (int i = 0; i < 16; i++) {
+                    Node child = branchNodeGetChild(i);
+                    encoded[i] = child == null ? EMPTY_ELEMENT_RLP : child.encode(depth + 1, false);
+                }
+                byte[] value = branchNodeGetValue();
+                encoded[16] = encodeElement(value);
+                return encodeList(encoded);
+            } else if (type == NodeType.KVNodeNode) {
+                return encodeList(encodeElement(kvNodeGetKey().toPacked()), kvNodeGetChildNode().encode(depth + 1, false));
+            } else {
+                byte[] value = kvNodeGetValue();
+                return encodeList(encodeElement(kvNodeGetKey().toPacked()),
+                        encodeElement(value == null ? EMPTY_BYTE_ARRAY : value));
+            }
+        }
+
+        /**
+         * RLP of the parsed and already encoded (not dirty) node,
+         * nodes built in memory are encoded from their children instead of reading the storage
+         */
+        private byte[] getEncoded() {
+            return rlp != null ? rlp : encodeNode(1);
+        }
+
         @SafeVarargs
         private final byte[] encodeRlpListFutures(Object... list) throws ExecutionException, InterruptedException {
             byte[][] vals = new byte[list.length][];
@@ -246,6 +263,24 @@ public class TrieImpl implements Trie<byte[]> {
             return n == NULL_NODE ? null : (Node) n;
         }
 
+        /**
+         * Same as {@link #branchNodeGetChild(int)} but doesn't keep the child in this node
+         */
+        private Node branchNodePeekChild(int hex) {
+            parse();
+            assert getType() == NodeType.BranchNode;
+            Object n = children[hex];
+            if (n == null && parsedRlp != null) {
+                if (parsedRlp.isList(hex)) {
+                    return new Node(parsedRlp.getList(hex));
+                } else {
+                    byte[] bytes = parsedRlp.getBytes(hex);
+                    return bytes.length == 0 ? null : new Node(bytes);
+                }
+            }
+            return n == NULL_NODE ? null : (Node) n;
+        }
+
         public Node branchNodeSetChild(int hex, Node node) {
             parse();
             assert getType() == NodeType.BranchNode;
@@ -518,6 +553,32 @@ public class TrieImpl implements Trie<byte[]> {
         }
     }
 
+    @Override
+    public List<byte[]> getProof(byte[] key) {
+        List<byte[]> proof = new ArrayList<>();
+        if (!hasRoot()) return proof;
+        encode();
+        getProof(root, TrieKey.fromNormal(key), proof);
+        return proof;
+    }
+
+    /**
+     * Collects RLP of hashed nodes on the key path, embedded nodes are already a part of their parents
+     */
+    private void getProof(Node n, TrieKey k, List<byte[]> proof) {
+        if (n == null) return;
+
+        NodeType type = n.getType();
+        if (n.hash != null) proof.add(n.getEncoded());
+        if (type == NodeType.BranchNode) {
+            if (k.isEmpty()) return;
+            getProof(n.branchNodeGetChild(k.getHex(0)), k.shift(1), proof);
+        } else if (type == NodeType.KVNodeNode) {
+            TrieKey k1 = k.matchAndShift(n.kvNodeGetKey());
+            if (k1 != null) getProof(n.kvNodeGetChildNode(), k1, proof);
+        }
+    }
+
     public void put(byte[] key, byte[] value) {
         TrieKey k = TrieKey.fromNormal(key);
         if (root == null) {
@@ -725,6 +786,42 @@ public class TrieImpl implements Trie<byte[]> {
     }
 
 
+    /**
+     * Scans nodes of this trie skipping subtrees which the other trie has under the same path. <br>
+     * When the other trie is fully scanned before, this scan completes the set of nodes of both tries.
+     * Unlike {@link #scanTree(ScanAction)} scanned nodes are not kept in memory
+     *
+     * @param other trie to compare with, whole trie is scanned if it's null
+     */
+    public void scanTreeDiff(TrieImpl other, ScanAction scanAction) {
+        scanTreeDiff(root, other == null ? null : other.root, TrieKey.empty(false), scanAction);
+    }
+
+    private void scanTreeDiff(Node node, Node otherNode, TrieKey k, ScanAction scanAction) {
+        if (node == null) return;
+        if (otherNode != null && node.hash != null && otherNode.hash != null &&
+                FastByteComparisons.equal(node.hash, otherNode.hash)) return;
+
+        if (node.hash != null) {
+            scanAction.doOnNode(node.hash, node);
+        }
+        NodeType otherType = otherNode == null ? null : otherNode.getType();
+        if (node.getType() == NodeType.BranchNode) {
+            if (node.branchNodeGetValue() != null)
+                scanAction.doOnValue(node.hash, node, k.toNormal(), node.branchNodeGetValue());
+            for (int i = 0; i < 16; i++) {
+                Node otherChild = otherType == NodeType.BranchNode ? otherNode.branchNodePeekChild(i) : null;
+                scanTreeDiff(node.branchNodePeekChild(i), otherChild, k.concat(TrieKey.singleHex(i)), scanAction);
+            }
+        } else if (node.getType() == NodeType.KVNodeNode) {
+            Node otherChild = otherType == NodeType.KVNodeNode && otherNode.kvNodeGetKey().equals(node.kvNodeGetKey()) ?
+                    otherNode.kvNodeGetChildNode() : null;
+            scanTreeDiff(node.kvNodeGetChildNode(), otherChild, k.concat(node.kvNodeGetKey()), scanAction);
+        } else {
+            scanAction.doOnValue(node.hash, node, k.concat(node.kvNodeGetKey()).toNormal(), node.kvNodeGetValue());
+        }
+    }
+
     private static String hash2str(byte[] hash, boolean shortHash) {
         String ret = Hex.toHexString(hash);
         return "0x" + (shortHash ? ret.substring(0,8) : ret);
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.trie;
+
+import org.ethereum.util.ByteArrayMap;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+
+import java.util.List;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * Checks Merkle proofs made by {@link Trie#getProof(byte[])} against a root hash. <br/>
+ *
+ * Verification is stateless: the key path is walked over the supplied nodes only,
+ * each of them is accepted only when referenced by hash from the root or an already accepted node.
+ */
+public class TrieProof {
+
+    private TrieProof() {}
+
+    /**
+     * @param root trie root hash
+     * @param key key as it's put to the trie
+     * @param proof nodes returned by {@link Trie#getProof(byte[])}
+     * @return value of the key, or null if the proof shows the key is absent
+     * @throws IllegalArgumentException if the proof doesn't match the root
+     */
+    public static byte[] verify(byte[] root, byte[] key, List<byte[]> proof) {
+        if (FastByteComparisons.equal(root, EMPTY_TRIE_HASH)) return null;
+
+        ByteArrayMap<byte[]> nodes = new ByteArrayMap<>();
+        for (byte[] node : proof) {
+            nodes.put(sha3(node), node);
+        }
+
+        try {
+            RLP.LList node = resolve(nodes, root);
+            TrieKey k = TrieKey.fromNormal(key);
+            while (true) {
+                int childIdx;
+                if (node.size() == 17) {
+                    if (k.isEmpty()) {
+                        byte[] value = node.getBytes(16);
+                        return value.length == 0 ? null : value;
+                    }
+                    childIdx = k.getHex(0);
+                    k = k.shift(1);
+                } else if (node.size() == 2) {
+                    TrieKey nodeKey = TrieKey.fromPacked(node.getBytes(0));
+                    TrieKey k1 = k.matchAndShift(nodeKey);
+                    if (k1 == null) return null;
+                    if (nodeKey.isTerminal()) {
+                        return k1.isEmpty() ? node.getBytes(1) : null;
+                    }
+                    childIdx = 1;
+                    k = k1;
+                } else {
+                    throw new IllegalArgumentException("Invalid trie node with " + node.size() + " items");
+                }
+
+                if (node.isList(childIdx)) {
+                    // embedded node
+                    node = node.getList(childIdx);
+                } else {
+                    byte[] ref = node.getBytes(childIdx);
+                    if (ref.length == 0) return null;
+                    node = resolve(nodes, ref);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed proof node", e);
+        }
+    }
+
+    /**
+     * Same as {@link #verify(byte[], byte[], List)} for proofs made by {@link SecureTrie}
+     */
+    public static byte[] verifySecure(byte[] root, byte[] key, List<byte[]> proof) {
+        return verify(root, sha3(key), proof);
+    }
+
+    private static RLP.LList resolve(ByteArrayMap<byte[]> nodes, byte[] hash) {
+        if (hash.length != 32) throw new IllegalArgumentException("Invalid node reference " + toHexString(hash));
+        byte[] node = nodes.get(hash);
+        if (node == null) throw new IllegalArgumentException("Proof node is missing: " + toHexString(hash));
+        return RLP.decodeLazyList(node);
+    }
+}
@@ -138,7 +138,7 @@ public class ExecutorPipeline <In, Out>{
             exec.shutdown();
         } catch (Exception e) {}
         if (next != null) {
-            exec.shutdown();
+            next.shutdown();
         }
     }
 
@@ -476,6 +476,11 @@ public class StandaloneBlockchain implements LocalBlockchain {
         return pruningStateDS;
     }
 
+    public PruneManager getPruneManager() {
+        getBlockchain();
+        return pruneManager;
+    }
+
     public long getTotalDbHits() {
         return totalDbHits;
     }
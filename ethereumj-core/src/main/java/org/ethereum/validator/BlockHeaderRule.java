@@ -20,6 +20,8 @@ package org.ethereum.validator;
 import org.ethereum.core.BlockHeader;
 import org.slf4j.Logger;
 
+import java.util.List;
+
 /**
  * Parent class for {@link BlockHeader} validators
  *
@@ -40,6 +42,15 @@ public abstract class BlockHeaderRule extends AbstractValidationRule {
      */
     abstract public ValidationResult validate(BlockHeader header);
 
+    /**
+     * Prepares rule for validation of a batch of headers
+     * which might be checked concurrently and out of order afterwards
+     *
+     * @param headers batch in the order it's been received
+     */
+    public void prepare(List<BlockHeader> headers) {
+    }
+
     protected ValidationResult fault(String error) {
         return new ValidationResult(false, error);
     }
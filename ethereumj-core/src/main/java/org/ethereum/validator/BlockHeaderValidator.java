@@ -51,4 +51,11 @@ public class BlockHeaderValidator extends BlockHeaderRule {
         }
         return Success;
     }
+
+    @Override
+    public void prepare(List<BlockHeader> headers) {
+        for (BlockHeaderRule rule : rules) {
+            rule.prepare(headers);
+        }
+    }
 }
@@ -28,6 +28,7 @@ import org.ethereum.util.FastByteComparisons;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Random;
 
 import static org.ethereum.validator.EthashRule.ChainType.main;
@@ -121,6 +122,20 @@ public class EthashRule extends BlockHeaderRule {
         }
     }
 
+    /**
+     * Side chain caches are moved in the order of validation,
+     * triggers them for the whole batch before its headers are validated concurrently
+     */
+    @Override
+    public void prepare(List<BlockHeader> headers) {
+        if (ethashHelper == null || !chain.isSide())
+            return;
+
+        for (BlockHeader header : headers) {
+            ethashHelper.preCache(header.getNumber());
+        }
+    }
+
     @Override
     public ValidationResult validate(BlockHeader header) {
 
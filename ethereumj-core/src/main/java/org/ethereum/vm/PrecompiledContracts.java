@@ -217,7 +217,7 @@ public class PrecompiledContracts {
      */
     public static class ModExp extends PrecompiledContract {
 
-        private static final BigInteger GQUAD_DIVISOR = BigInteger.valueOf(20);
+        private static final long GQUAD_DIVISOR = 20;
 
         private static final int ARGS_OFFSET = 32 * 3; // addresses length part
 
@@ -235,10 +235,15 @@ public class PrecompiledContracts {
             long multComplexity = getMultComplexity(Math.max(baseLen, modLen));
             long adjExpLen = getAdjustedExponentLength(expHighBytes, expLen);
 
+            adjExpLen = Math.max(adjExpLen, 1);
+            if (multComplexity <= Long.MAX_VALUE / adjExpLen) {
+                return multComplexity * adjExpLen / GQUAD_DIVISOR;
+            }
+
             // use big numbers to stay safe in case of overflow
             BigInteger gas = BigInteger.valueOf(multComplexity)
-                    .multiply(BigInteger.valueOf(Math.max(adjExpLen, 1)))
-                    .divide(GQUAD_DIVISOR);
+                    .multiply(BigInteger.valueOf(adjExpLen))
+                    .divide(BigInteger.valueOf(GQUAD_DIVISOR));
 
             return isLessThan(gas, BigInteger.valueOf(Long.MAX_VALUE)) ? gas.longValue() : Long.MAX_VALUE;
         }
@@ -261,7 +266,7 @@ public class PrecompiledContracts {
             if (isZero(mod))
                 return Pair.of(true, new byte[modLen]); // should keep length of the result
 
-            byte[] res = stripLeadingZeroes(base.modPow(exp, mod).toByteArray());
+            byte[] res = stripLeadingZeroes(modPow(base, exp, mod).toByteArray());
 
             // adjust result to the same length as the modulus has
             if (res.length < modLen) {
@@ -276,6 +281,27 @@ public class PrecompiledContracts {
             }
         }
 
+        /**
+         * Shortcuts trivial cases before falling back to {@link BigInteger#modPow},
+         * which already does Montgomery multiplication with sliding windows for odd moduli
+         * and square-and-multiply with truncation for powers of two
+         */
+        private BigInteger modPow(BigInteger base, BigInteger exp, BigInteger mod) {
+
+            if (mod.equals(BigInteger.ONE)) return BigInteger.ZERO;
+            if (exp.signum() == 0) return BigInteger.ONE;
+            if (base.signum() == 0 || base.equals(BigInteger.ONE)) return base;
+            if (exp.equals(BigInteger.ONE)) return base.mod(mod);
+
+            // even base powered to exp >= k is a multiple of 2^k
+            if (!base.testBit(0) && mod.bitCount() == 1 &&
+                    exp.compareTo(BigInteger.valueOf(mod.getLowestSetBit())) >= 0) {
+                return BigInteger.ZERO;
+            }
+
+            return base.modPow(exp, mod);
+        }
+
         private long getMultComplexity(long x) {
 
             long x2 = x * x;
@@ -31,6 +31,7 @@ import javax.annotation.Nullable;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -248,4 +249,14 @@ public class Storage implements Repository, ProgramListenerAware {
     public Map<DataWord, DataWord> getStorage(byte[] addr, @Nullable Collection<DataWord> keys) {
         return repository.getStorage(addr, keys);
     }
+
+    @Override
+    public List<byte[]> getAccountProof(byte[] addr) {
+        return repository.getAccountProof(addr);
+    }
+
+    @Override
+    public List<byte[]> getStorageProof(byte[] addr, DataWord key) {
+        return repository.getStorageProof(addr, key);
+    }
 }
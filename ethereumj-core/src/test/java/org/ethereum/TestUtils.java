@@ -58,7 +58,7 @@ public final class TestUtils {
 
         for (int i = 0; i < length; ++i){
 
-            byte[] difficulty = BigIntegers.asUnsignedByteArray(new BigInteger(8, new Random()));
+            byte[] difficulty = BigIntegers.asUnsignedByteArray(new BigInteger(8, new Random()).add(BigInteger.ONE));
             byte[] newHash = randomHash();
 
             Block block = new Block(lastHash, newHash,  null, null, difficulty, lastIndex, new byte[] {0}, 0, 0, null, null,
@@ -89,7 +89,7 @@ public final class TestUtils {
 
             for (int j = 0; j < curMaxHeight; ++j){
                 byte[] parentHash = lastHashes.get(rnd.nextInt(lastHashes.size()));
-                byte[] difficulty = BigIntegers.asUnsignedByteArray(new BigInteger(8, new Random()));
+                byte[] difficulty = BigIntegers.asUnsignedByteArray(new BigInteger(8, new Random()).add(BigInteger.ONE));
                 byte[] newHash = randomHash();
 
                 Block block = new Block(parentHash, newHash, null, null, difficulty, lastIndex, new byte[]{0}, 0, 0, null, null,
@@ -212,6 +212,54 @@ public class PruneTest {
         }
     }
 
+    @Test
+    public void backgroundPruningTest() throws Exception {
+        final int pruneCount = 3;
+        SystemProperties.getDefault().overrideParams(
+                "database.prune.enabled", "true",
+                "database.prune.maxDepth", "" + pruneCount,
+                "mine.startNonce", "0");
+
+        StandaloneBlockchain syncBc = new StandaloneBlockchain();
+        StandaloneBlockchain bc = new StandaloneBlockchain();
+        bc.getPruneManager().withBackgroundPruning(2, 0);
+
+        ECKey alice = ECKey.fromPrivate(BigInteger.TEN);
+        ECKey bob = ECKey.fromPrivate(BigInteger.ONE);
+
+        for (StandaloneBlockchain b : Arrays.asList(syncBc, bc)) {
+            b.createBlock();
+            Block b0 = b.getBlockchain().getBestBlock();
+            b.sendEther(alice.getAddress(), convert(3, ETHER));
+            b.createBlock();
+            b.sendEther(bob.getAddress(), convert(3, ETHER));
+            b.createForkBlock(b0);
+
+            for (int i = 0; i < 20; i++) {
+                b.sendEther(alice.getAddress(), convert(3, ETHER));
+                b.sendEther(bob.getAddress(), convert(5, ETHER));
+                b.createBlock();
+            }
+        }
+
+        bc.getPruneManager().waitForPruning();
+        Assert.assertEquals(0, bc.getPruneManager().getPruneQueueSize());
+        Assert.assertEquals(bc.getBlockchain().getBestBlock().getNumber(), bc.getPruneManager().getLastPrunedBlock());
+
+        long bestBlockNum = bc.getBlockchain().getBestBlock().getNumber();
+        for (int i = 0; i < pruneCount; i++) {
+            Block b = bc.getBlockchain().getBlockByNumber(bestBlockNum - i);
+            Repository r = bc.getBlockchain().getRepository().getSnapshotTo(b.getStateRoot());
+            Assert.assertEquals(convert(3 * (21 - i), ETHER), r.getBalance(alice.getAddress()));
+            Assert.assertEquals(convert(5 * (20 - i), ETHER), r.getBalance(bob.getAddress()));
+        }
+
+        // same nodes are pruned as with the pruning in the import thread
+        Assert.assertEquals(syncBc.getStateDS().getStorage().size(), bc.getStateDS().getStorage().size());
+
+        bc.getBlockchain().close();
+    }
+
     static HashMapDB<byte[]> stateDS;
     static String getCount(String hash) {
         byte[] bytes = stateDS.get(Hex.decode(hash));
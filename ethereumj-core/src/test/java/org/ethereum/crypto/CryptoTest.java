@@ -17,8 +17,11 @@
  */
 package org.ethereum.crypto;
 
+import org.ethereum.crypto.cryptohash.Keccak256;
+import org.ethereum.crypto.jce.SpongyCastleProvider;
 import org.ethereum.util.Utils;
 
+import org.junit.Ignore;
 import org.junit.Test;
 
 import org.slf4j.Logger;
@@ -42,7 +45,12 @@ import org.spongycastle.math.ec.ECPoint;
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.ethereum.crypto.HashUtil.sha3;
 import static org.junit.Assert.assertArrayEquals;
@@ -106,6 +114,83 @@ public class CryptoTest {
         // 1) result: ~52 address calculation every second
     }
 
+    @Test
+    public void testSha3Slices() {
+        byte[] data = new byte[1000];
+        new SecureRandom().nextBytes(data);
+
+        for (int len : new int[] {0, 1, 135, 136, 137, 500}) {
+            byte[] expected = new Keccak256().digest(Arrays.copyOfRange(data, 7, 7 + len));
+            assertArrayEquals(expected, HashUtil.sha3(data, 7, len));
+
+            byte[] out = new byte[40];
+            HashUtil.sha3(data, 7, len, out, 5);
+            assertArrayEquals(expected, Arrays.copyOfRange(out, 5, 37));
+
+            ByteBuffer heap = ByteBuffer.wrap(data, 7, len).slice();
+            assertArrayEquals(expected, HashUtil.sha3(heap));
+            assertEquals(0, heap.remaining());
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(len + 3);
+            direct.put(new byte[3]).put(data, 7, len).flip().position(3);
+            HashUtil.sha3(direct, out, 0);
+            assertArrayEquals(expected, Arrays.copyOfRange(out, 0, 32));
+        }
+    }
+
+    @Test
+    public void testSha3Batch() {
+        List<byte[]> inputs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            inputs.add(new byte[i * 50]);
+            new SecureRandom().nextBytes(inputs.get(i));
+        }
+
+        List<byte[]> hashes = HashUtil.sha3(inputs);
+        byte[] out = new byte[32 * inputs.size() + 1];
+        HashUtil.sha3(inputs, out, 1);
+        for (int i = 0; i < inputs.size(); i++) {
+            byte[] expected = new Keccak256().digest(inputs.get(i));
+            assertArrayEquals(expected, hashes.get(i));
+            assertArrayEquals(expected, Arrays.copyOfRange(out, 1 + i * 32, 1 + (i + 1) * 32));
+        }
+    }
+
+    @Ignore
+    @Test   /* performance test */
+    public void testSha3Performance() throws Exception {
+        byte[] node = new byte[100];
+        new SecureRandom().nextBytes(node);
+        byte[] out = new byte[32];
+        int iterations = 5_000_000;
+
+        for (int round = 0; round < 3; round++) {
+            long s = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                MessageDigest digest = MessageDigest.getInstance("ETH-KECCAK-256", SpongyCastleProvider.getInstance());
+                digest.update(node);
+                out = digest.digest();
+            }
+            long provider = System.nanoTime() - s;
+
+            s = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                out = HashUtil.sha3(node);
+            }
+            long sha3 = System.nanoTime() - s;
+
+            s = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                HashUtil.sha3(node, 0, node.length, out, 0);
+            }
+            long sha3Into = System.nanoTime() - s;
+
+            System.out.printf("100 byte input, ns/hash: provider lookup %d, sha3 %d, sha3 into buffer %d%n",
+                    provider / iterations, sha3 / iterations, sha3Into / iterations);
+        }
+        System.out.println(Hex.toHexString(out));
+    }
+
     @Test /* real tx hash calc */
     public void test7() {
 
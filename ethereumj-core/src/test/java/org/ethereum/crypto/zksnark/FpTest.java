@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.crypto.zksnark;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.ethereum.crypto.zksnark.Params.P;
+import static org.junit.Assert.*;
+
+public class FpTest {
+
+    @Test
+    public void testArithmetic() {
+        Random rnd = new Random(1);
+        BigInteger[] special = {BigInteger.ZERO, BigInteger.ONE, P.subtract(BigInteger.ONE), P.shiftRight(1)};
+
+        for (int i = 0; i < 2000; i++) {
+            BigInteger a = i < special.length ? special[i] : new BigInteger(254, rnd).mod(P);
+            BigInteger b = i < special.length ? special[special.length - 1 - i] : new BigInteger(254, rnd).mod(P);
+            Fp fa = Fp.create(a), fb = Fp.create(b);
+
+            assertEquals(a, fa.toBigInteger());
+            assertEquals(a.add(b).mod(P), fa.add(fb).toBigInteger());
+            assertEquals(a.subtract(b).mod(P), fa.sub(fb).toBigInteger());
+            assertEquals(a.multiply(b).mod(P), fa.mul(fb).toBigInteger());
+            assertEquals(a.multiply(a).mod(P), fa.squared().toBigInteger());
+            assertEquals(a.shiftLeft(1).mod(P), fa.dbl().toBigInteger());
+            assertEquals(a.negate().mod(P), fa.negate().toBigInteger());
+            if (a.signum() != 0) {
+                assertEquals(a.modInverse(P), fa.inverse().toBigInteger());
+                assertEquals(Fp._1, fa.mul(fa.inverse()));
+            }
+            assertEquals(a.signum() == 0, fa.isZero());
+            assertArrayEquals(a.toByteArray(), fa.bytes());
+            assertEquals(a.toString(), fa.toString());
+        }
+    }
+
+    @Test
+    public void testValidity() {
+        assertTrue(Fp.create(P.subtract(BigInteger.ONE)).isValid());
+        assertFalse(Fp.create(P).isValid());
+        assertFalse(Fp.create(P).isZero());
+        assertFalse(Fp.create(BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE)).isValid());
+        assertNotEquals(Fp.ZERO, Fp.create(P));
+        assertEquals(Fp.ZERO, Fp.create(new byte[32]));
+        assertTrue(Fp.ZERO.isZero());
+    }
+}
@@ -118,4 +118,22 @@ public class BlockSerializerTest {
         assert actualBlockInfo.getTotalDifficulty().compareTo(BigInteger.ZERO) == 0;
         assert actualBlockInfo.getHash().length == 0;
     }
+
+    @Test
+    public void testFixedLayout() {
+        List<BlockInfo> blockInfoList = generateBlockInfos(10);
+        for (BlockInfo blockInfo : blockInfoList) {
+            blockInfo.setTotalDifficulty(blockInfo.getTotalDifficulty().shiftRight(256));
+        }
+        byte[] data = IndexedBlockStore.BLOCK_INFO_SERIALIZER.serialize(blockInfoList);
+        assert data.length == 1 + 10 * 65;
+        List<BlockInfo> blockInfoList2  = IndexedBlockStore.BLOCK_INFO_SERIALIZER.deserialize(data);
+
+        assert blockInfoList.size() == blockInfoList2.size();
+        for (int i = 0; i < blockInfoList2.size(); i++) {
+            assert FastByteComparisons.equal(blockInfoList2.get(i).getHash(), blockInfoList.get(i).getHash());
+            assert blockInfoList2.get(i).getTotalDifficulty().compareTo(blockInfoList.get(i).getTotalDifficulty()) == 0;
+            assert blockInfoList2.get(i).isMainChain() == blockInfoList.get(i).isMainChain();
+        }
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.datasource;
+
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.util.ByteUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link DataSourceArray}
+ */
+public class DataSourceArrayTest {
+
+    private static void checkTruncate(Source<byte[], byte[]> store, HashMapDB<byte[]> db) {
+        DataSourceArray<byte[]> array = new DataSourceArray<>(
+                new ObjectDataSource<>(store, new Serializers.Identity<byte[]>(), 16));
+        for (int i = 0; i < 10; i++) {
+            array.add(new byte[] {(byte) i});
+        }
+        assertEquals(11, db.getStorage().size());
+
+        array.truncate(4);
+        assertEquals(4, array.size());
+        // dropped elements are removed from the store, only size key and 4 elements left
+        assertEquals(5, db.getStorage().size());
+        assertNull(db.get(ByteUtil.intToBytes(4)));
+
+        array.add(new byte[] {42});
+        DataSourceArray<byte[]> reloaded = new DataSourceArray<>(
+                new ObjectDataSource<>(store, new Serializers.Identity<byte[]>(), 16));
+        assertEquals(5, reloaded.size());
+        assertArrayEquals(new byte[] {3}, reloaded.get(3));
+        assertArrayEquals(new byte[] {42}, reloaded.get(4));
+    }
+
+    @Test
+    public void testTruncateBatch() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        checkTruncate(db, db);
+    }
+
+    @Test
+    public void testTruncateNoBatch() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        checkTruncate(new SourceCodec.BytesKey<>(db, new Serializers.Identity<byte[]>()), db);
+    }
+}
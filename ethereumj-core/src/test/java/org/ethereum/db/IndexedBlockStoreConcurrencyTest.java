@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.Block;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.randomHash;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that readers don't block on and don't break with concurrent reorganizations
+ */
+public class IndexedBlockStoreConcurrencyTest {
+
+    @Test
+    public void readWhileReBranch() throws Exception {
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMapDB<byte[]>(), new HashMapDB<byte[]>());
+
+        List<Block> chainA = chain(new byte[32], 0, 200);
+        List<Block> chainB = chain(chainA.get(99).getHash(), 100, 120);
+        BigInteger td = BigInteger.ZERO;
+        for (Block block : chainA) {
+            blockStore.saveBlock(block, td = td.add(BigInteger.ONE), true);
+        }
+        for (Block block : chainB) {
+            blockStore.saveBlock(block, td = td.add(BigInteger.ONE), false);
+        }
+        final Block tipA = chainA.get(chainA.size() - 1);
+        final Block tipB = chainB.get(chainB.size() - 1);
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                Random rnd = new Random();
+                try {
+                    while (!stop.get()) {
+                        long number = rnd.nextInt((int) blockStore.getMaxNumber() + 1);
+                        Block block = blockStore.getChainBlockByNumber(number);
+                        if (block != null) {
+                            assertEquals(number, block.getNumber());
+                        }
+                        assertNotNull(blockStore.getBestBlock());
+                        for (byte[] hash : blockStore.getListHashesStartWith(number, 10)) {
+                            assertNotNull(blockStore.getBlockByHash(hash));
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            blockStore.reBranch(tipB);
+            assertArrayEquals(tipB.getHash(), blockStore.getBestBlock().getHash());
+            blockStore.reBranch(tipA);
+            assertArrayEquals(tipA.getHash(), blockStore.getBestBlock().getHash());
+        }
+
+        stop.set(true);
+        for (Thread reader : readers) reader.join();
+        assertNull(error.get());
+
+        for (Block block : chainA) {
+            assertArrayEquals(block.getHash(), blockStore.getBlockHashByNumber(block.getNumber()));
+        }
+        assertEquals(tipA.getNumber(), blockStore.getBestBlock().getNumber());
+    }
+
+    @Test
+    public void rewriteCanonicalWhileReadersMissCache() throws Exception {
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMapDB<byte[]>(), new HashMapDB<byte[]>());
+
+        // longer than any read cache, so readers keep loading levels from the source
+        List<Block> chainA = chain(new byte[32], 0, 6000);
+        List<Block> chainB = chain(chainA.get(5899).getHash(), 5900, 150);
+        BigInteger td = BigInteger.ZERO;
+        for (Block block : chainA) {
+            blockStore.saveBlock(block, td = td.add(BigInteger.ONE), true);
+        }
+        for (Block block : chainB) {
+            blockStore.saveBlock(block, td = td.add(BigInteger.ONE), false);
+        }
+        final Block tipA = chainA.get(chainA.size() - 1);
+        final Block tipB = chainB.get(chainB.size() - 1);
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                Random rnd = new Random();
+                while (!stop.get()) {
+                    blockStore.getBlockHashByNumber(rnd.nextInt(6050));
+                    blockStore.getBlockHashByNumber(5900 + rnd.nextInt(150));
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                blockStore.reBranch(tipB);
+                for (Block block : chainB) {
+                    assertArrayEquals(block.getHash(), blockStore.getBlockHashByNumber(block.getNumber()));
+                }
+                blockStore.reBranch(tipA);
+                for (Block block : chainA.subList(5900, 6000)) {
+                    assertArrayEquals(block.getHash(), blockStore.getBlockHashByNumber(block.getNumber()));
+                }
+            }
+        } finally {
+            stop.set(true);
+            for (Thread reader : readers) reader.join();
+        }
+    }
+
+    private static List<Block> chain(byte[] parentHash, long startNumber, int length) {
+        List<Block> ret = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            Block block = new Block(parentHash, randomHash(), null, null, new byte[] {1}, startNumber + i,
+                    new byte[] {0}, 0, 0, null, null, null, null, EMPTY_TRIE_HASH, randomHash(), null, null);
+            parentHash = block.getHash();
+            ret.add(block);
+        }
+        return ret;
+    }
+}
@@ -17,13 +17,16 @@
  */
 package org.ethereum.db;
 
+import org.ethereum.core.AccountState;
 import org.ethereum.core.Genesis;
 import org.ethereum.crypto.HashUtil;
 
 import org.ethereum.core.Repository;
 import org.ethereum.datasource.inmem.HashMapDB;
 import org.ethereum.datasource.NoDeleteSource;
+import org.ethereum.datasource.Serializers;
 import org.ethereum.datasource.Source;
+import org.ethereum.trie.TrieProof;
 import org.ethereum.vm.DataWord;
 
 import org.junit.Assert;
@@ -939,6 +942,38 @@ public class RepositoryTest {
 
     private boolean running = true;
 
+    @Test
+    public void testProofs() {
+        RepositoryRoot repository = new RepositoryRoot(new HashMapDB());
+
+        byte[] cow = Hex.decode("CD2A3D9F938E13CD947EC05ABC7FE734DF8DD826");
+        byte[] horse = Hex.decode("13978AEE95F38490E9769C39B2773ED763D9CD5F");
+        byte[] dog = Hex.decode("1DAB81E6C9CEE7D2BDF2C9CE8C8F0A4D4E7AFD0B");
+        DataWord cowKey = DataWord.of("A1A2A3");
+        DataWord cowValue = DataWord.of("A4A5A6");
+
+        Repository track = repository.startTracking();
+        track.addBalance(cow, BigInteger.TEN);
+        track.addStorageRow(cow, cowKey, cowValue);
+        track.addBalance(horse, BigInteger.ONE);
+        track.commit();
+        repository.commit();
+
+        byte[] root = repository.getRoot();
+        AccountState cowState = repository.getAccountState(cow);
+        assertArrayEquals(cowState.getEncoded(), TrieProof.verifySecure(root, cow, repository.getAccountProof(cow)));
+        assertArrayEquals(repository.getAccountState(horse).getEncoded(),
+                TrieProof.verifySecure(root, horse, repository.getAccountProof(horse)));
+        assertNull(TrieProof.verifySecure(root, dog, repository.getAccountProof(dog)));
+
+        byte[] value = TrieProof.verifySecure(cowState.getStateRoot(), cowKey.getData(), repository.getStorageProof(cow, cowKey));
+        assertEquals(cowValue, Serializers.StorageValueSerializer.deserialize(value));
+        DataWord absentKey = DataWord.of("B1B2B3");
+        assertNull(TrieProof.verifySecure(cowState.getStateRoot(), absentKey.getData(), repository.getStorageProof(cow, absentKey)));
+        assertTrue(repository.getStorageProof(horse, cowKey).isEmpty());
+        assertTrue(repository.getStorageProof(dog, cowKey).isEmpty());
+    }
+
     @Test // testing for snapshot
     public void testMultiThread() throws InterruptedException {
         // Add logging line to {@link org.ethereum.datasource.WriteCache} in the beginning of flushImpl() method:
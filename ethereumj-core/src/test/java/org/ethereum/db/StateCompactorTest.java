@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.NoDeleteSource;
+import org.ethereum.datasource.XorDataSource;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.ethereum.util.ByteUtil.xorAlignRight;
+import static org.junit.Assert.*;
+
+public class StateCompactorTest {
+
+    static final byte[] MASK = sha3("state".getBytes());
+
+    static byte[] addr(int i) {
+        return Arrays.copyOfRange(sha3(intToBytes(i)), 0, 20);
+    }
+
+    @Test
+    public void testCompaction() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        // old states are kept until compaction like it's done with pruning disabled
+        RepositoryRoot repo = new RepositoryRoot(new NoDeleteSource<>(new XorDataSource<>(db, MASK)));
+
+        // data of other kind sharing the same DB
+        XorDataSource<byte[]> other = new XorDataSource<>(db, sha3("journal".getBytes()));
+        other.put(sha3(new byte[] {1}), new byte[] {1, 2, 3});
+        db.put(new byte[] {1, 2}, new byte[] {1});
+
+        for (int i = 0; i < 50; i++) {
+            repo.addBalance(addr(i), BigInteger.valueOf(i + 1));
+            repo.addStorageRow(addr(i), DataWord.of(i), DataWord.of(i + 1));
+        }
+        repo.saveCode(addr(1), new byte[] {0x60, 0x00});
+        repo.commit();
+        byte[] root1 = repo.getRoot();
+
+        // storage update, account deletion
+        for (int i = 0; i < 10; i++) {
+            repo.addStorageRow(addr(i), DataWord.of(i), DataWord.of(i + 100));
+        }
+        repo.delete(addr(1));
+        repo.commit();
+        byte[] root2 = repo.getRoot();
+
+        repo.addBalance(addr(100), BigInteger.TEN);
+        repo.addStorageRow(addr(20), DataWord.of(1000), DataWord.of(1));
+        repo.commit();
+        byte[] root3 = repo.getRoot();
+
+        int sizeBefore = db.getStorage().size();
+        long deleted = new StateCompactor(db, MASK).compact(Arrays.asList(root2, root3));
+
+        assertTrue(deleted > 0);
+        assertEquals(sizeBefore - deleted, db.getStorage().size());
+        assertNull(db.get(xorAlignRight(root1, MASK)));
+        assertNotNull(db.get(new byte[] {1, 2}));
+        assertNotNull(other.get(sha3(new byte[] {1})));
+
+        // recent states are complete
+        Repository r2 = repo.getSnapshotTo(root2);
+        Repository r3 = repo.getSnapshotTo(root3);
+        for (int i = 0; i < 50; i++) {
+            if (i == 1) continue;
+            int val = i < 10 ? i + 100 : i + 1;
+            assertEquals(DataWord.of(val), r2.getStorageValue(addr(i), DataWord.of(i)));
+            assertEquals(DataWord.of(val), r3.getStorageValue(addr(i), DataWord.of(i)));
+            assertEquals(BigInteger.valueOf(i + 1), r3.getBalance(addr(i)));
+        }
+        assertFalse(r3.isExist(addr(1)));
+        assertEquals(DataWord.of(1), r3.getStorageValue(addr(20), DataWord.of(1000)));
+        assertEquals(BigInteger.TEN, r3.getBalance(addr(100)));
+
+        // nothing left to remove
+        assertEquals(0, new StateCompactor(db, MASK).compact(Arrays.asList(root2, root3)));
+    }
+
+    @Test
+    public void testCodeKept() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        RepositoryRoot repo = new RepositoryRoot(new NoDeleteSource<>(db));
+
+        repo.saveCode(addr(1), new byte[] {0x60, 0x01});
+        repo.commit();
+        repo.saveCode(addr(2), new byte[] {0x60, 0x02});
+        repo.commit();
+        byte[] root = repo.getRoot();
+
+        new StateCompactor(db, null).compact(Arrays.asList(root));
+
+        assertArrayEquals(new byte[] {0x60, 0x01}, repo.getSnapshotTo(root).getCode(addr(1)));
+        assertArrayEquals(new byte[] {0x60, 0x02}, repo.getSnapshotTo(root).getCode(addr(2)));
+    }
+}
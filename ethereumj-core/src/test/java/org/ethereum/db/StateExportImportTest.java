@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.BlockHeader;
+import org.ethereum.datasource.NoDeleteSource;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.*;
+
+public class StateExportImportTest {
+
+    static byte[] addr(int i) {
+        return Arrays.copyOfRange(sha3(intToBytes(i)), 0, 20);
+    }
+
+    static BlockHeader header(long number, byte[] stateRoot) {
+        BlockHeader header = new BlockHeader(new byte[32], EMPTY_TRIE_HASH, new byte[20], new byte[256],
+                new byte[] {1}, number, new byte[] {1}, 0, 0, new byte[0], new byte[32], new byte[8]);
+        header.setStateRoot(stateRoot);
+        return header;
+    }
+
+    private byte[] export(BlockHeader header, HashMapDB<byte[]> db) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StateExporter(db).export(header, out);
+        return out.toByteArray();
+    }
+
+    private byte[] createState(HashMapDB<byte[]> db) {
+        RepositoryRoot repo = new RepositoryRoot(new NoDeleteSource<>(db));
+        for (int i = 0; i < 500; i++) {
+            repo.addBalance(addr(i), BigInteger.valueOf(i + 1));
+            if (i % 10 == 0) {
+                repo.saveCode(addr(i), new byte[] {0x60, (byte) (i % 3)});
+                for (int k = 0; k < i; k++) {
+                    repo.addStorageRow(addr(i), DataWord.of(k), DataWord.of(k + i));
+                }
+            }
+        }
+        repo.commit();
+        return repo.getRoot();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        HashMapDB<byte[]> src = new HashMapDB<>();
+        byte[] root = createState(src);
+        BlockHeader header = header(100, root);
+        byte[] dump = export(header, src);
+
+        HashMapDB<byte[]> dst = new HashMapDB<>();
+        int[] commits = new int[1];
+        StateExporter.Header imported = new StateImporter(dst)
+                .withThreads(2)
+                .withCommit(() -> commits[0]++)
+                .importState(new ByteArrayInputStream(dump), root);
+
+        assertEquals(100, imported.getBlockNumber());
+        assertArrayEquals(header.getHash(), imported.getBlockHash());
+        assertTrue(commits[0] > 0);
+        assertEquals(src.keys().size(), dst.keys().size());
+
+        RepositoryRoot repo = new RepositoryRoot(dst, root);
+        for (int i = 0; i < 500; i++) {
+            assertEquals(BigInteger.valueOf(i + 1), repo.getBalance(addr(i)));
+            if (i % 10 == 0) {
+                assertArrayEquals(new byte[] {0x60, (byte) (i % 3)}, repo.getCode(addr(i)));
+                for (int k = 0; k < i; k++) {
+                    assertEquals(DataWord.of(k + i), repo.getStorageValue(addr(i), DataWord.of(k)));
+                }
+            }
+        }
+
+        // the dump is reproducible
+        assertArrayEquals(dump, export(header, dst));
+    }
+
+    @Test
+    public void testLargeStorage() throws IOException {
+        HashMapDB<byte[]> src = new HashMapDB<>();
+        RepositoryRoot repo = new RepositoryRoot(new NoDeleteSource<>(src));
+        int slots = StateImporter.MAX_BUFFERED_STORAGE * 2 + 1;
+        repo.addBalance(addr(0), BigInteger.ONE);
+        repo.saveCode(addr(1), new byte[] {0x60, 0x01});
+        for (int k = 0; k < slots; k++) {
+            repo.addStorageRow(addr(1), DataWord.of(k), DataWord.of(k + 1));
+        }
+        repo.addBalance(addr(2), BigInteger.TEN);
+        repo.commit();
+        byte[] root = repo.getRoot();
+        byte[] dump = export(header(1, root), src);
+
+        // the storage above the buffer limit is streamed in the reading thread
+        HashMapDB<byte[]> dst = new HashMapDB<>();
+        new StateImporter(dst).withThreads(2).importState(new ByteArrayInputStream(dump), root);
+        assertEquals(src.keys().size(), dst.keys().size());
+
+        repo = new RepositoryRoot(dst, root);
+        assertEquals(BigInteger.TEN, repo.getBalance(addr(2)));
+        for (int k = 0; k < slots; k += 97) {
+            assertEquals(DataWord.of(k + 1), repo.getStorageValue(addr(1), DataWord.of(k)));
+        }
+    }
+
+    @Test
+    public void testEmptyState() throws IOException {
+        byte[] dump = export(header(0, EMPTY_TRIE_HASH), new HashMapDB<>());
+        new StateImporter(new HashMapDB<>()).importState(new ByteArrayInputStream(dump), EMPTY_TRIE_HASH);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnexpectedRoot() throws IOException {
+        HashMapDB<byte[]> src = new HashMapDB<>();
+        byte[] dump = export(header(1, createState(src)), src);
+        new StateImporter(new HashMapDB<>()).importState(new ByteArrayInputStream(dump), sha3(new byte[] {1}));
+    }
+
+    @Test
+    public void testCorruptedDump() throws IOException {
+        HashMapDB<byte[]> src = new HashMapDB<>();
+        byte[] root = createState(src);
+        byte[] dump = export(header(1, root), src);
+
+        byte[] corrupted = dump.clone();
+        corrupted[dump.length / 2] ^= 1;
+        try {
+            new StateImporter(new HashMapDB<>()).importState(new ByteArrayInputStream(corrupted), root);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+
+        try {
+            new StateImporter(new HashMapDB<>()).importState(
+                    new ByteArrayInputStream(Arrays.copyOf(dump, dump.length - 100)), root);
+            fail();
+        } catch (IOException e) {
+            // truncated
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.NoDeleteSource;
+import org.ethereum.datasource.Source;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.*;
+
+public class StateSnapshotTest {
+
+    static byte[] addr(int i) {
+        return Arrays.copyOfRange(sha3(intToBytes(i)), 0, 20);
+    }
+
+    Source<byte[], byte[]> stateDS = new NoDeleteSource<>(new HashMapDB<byte[]>());
+    HashMapDB<byte[]> snapshotDb = new HashMapDB<>();
+
+    private void assertSameState(byte[] root, StateSnapshot snapshot) {
+        Repository expected = new RepositoryRoot(stateDS, root);
+        Repository actual = new RepositoryRoot(stateDS, root, snapshot);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(expected.isExist(addr(i)), actual.isExist(addr(i)));
+            if (expected.isExist(addr(i))) {
+                assertArrayEquals(expected.getAccountState(addr(i)).getEncoded(), actual.getAccountState(addr(i)).getEncoded());
+            }
+            for (int k = 0; k < 10; k++) {
+                assertEquals(expected.getStorageValue(addr(i), DataWord.of(k)),
+                        actual.getStorageValue(addr(i), DataWord.of(k)));
+            }
+        }
+    }
+
+    // accounts are deleted at the end like it's done for suicides
+    private void randomChanges(Repository repo, Random rnd) {
+        List<Integer> deleted = new ArrayList<>();
+        for (int j = 0; j < 10; j++) {
+            int a = rnd.nextInt(20);
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    repo.addBalance(addr(a), BigInteger.valueOf(rnd.nextInt(100) + 1));
+                    break;
+                case 1:
+                    deleted.add(a);
+                    break;
+                default:
+                    repo.addStorageRow(addr(a), DataWord.of(rnd.nextInt(10)), DataWord.of(rnd.nextInt(3)));
+            }
+        }
+        for (int a : deleted) {
+            repo.delete(addr(a));
+        }
+    }
+
+    @Test
+    public void testRandomForks() {
+        StateSnapshot snapshot = new StateSnapshot(snapshotDb, stateDS, 4);
+        snapshot.generate(EMPTY_TRIE_HASH);
+
+        Random rnd = new Random(1);
+        List<byte[]> roots = new ArrayList<>();
+        roots.add(EMPTY_TRIE_HASH);
+        for (int i = 0; i < 200; i++) {
+            // mostly extends the head, sometimes forks from a recent state
+            byte[] parent = roots.get(Math.max(0, roots.size() - 1 - (rnd.nextInt(5) == 0 ? rnd.nextInt(4) : 0)));
+            Repository repo = new RepositoryRoot(stateDS, parent, snapshot);
+
+            Repository track = repo.startTracking();
+            randomChanges(track, rnd);
+            track.commit();
+            // intermediate root within the block
+            repo.getRoot();
+            track = repo.startTracking();
+            randomChanges(track, rnd);
+            track.commit();
+            repo.commit();
+
+            byte[] root = repo.getRoot();
+            roots.add(root);
+            assertTrue(snapshot.isAvailable(root));
+            assertSameState(root, snapshot);
+        }
+
+        // older states are served by the trie
+        assertFalse(snapshot.isAvailable(roots.get(roots.size() - 10)));
+        assertSameState(roots.get(roots.size() - 10), snapshot);
+    }
+
+    @Test
+    public void testRecreatedAccount() {
+        StateSnapshot snapshot = new StateSnapshot(snapshotDb, stateDS, 1);
+        snapshot.generate(EMPTY_TRIE_HASH);
+
+        RepositoryRoot repo = new RepositoryRoot(stateDS, null, snapshot);
+        repo.addStorageRow(addr(1), DataWord.of(1), DataWord.of(1));
+        repo.addStorageRow(addr(1), DataWord.of(2), DataWord.of(2));
+        repo.commit();
+
+        Repository track = repo.startTracking();
+        track.delete(addr(1));
+        track.commit();
+        track = repo.startTracking();
+        track.addStorageRow(addr(1), DataWord.of(2), DataWord.of(3));
+        track.commit();
+        repo.commit();
+
+        assertNull(repo.getStorageValue(addr(1), DataWord.of(1)));
+        assertEquals(DataWord.of(3), repo.getStorageValue(addr(1), DataWord.of(2)));
+
+        // storage wipe is merged to the disk layer
+        repo.addBalance(addr(2), BigInteger.ONE);
+        repo.commit();
+        assertArrayEquals(new byte[0], snapshot.getStorage(repo.getRoot(), sha3(addr(1)), sha3(DataWord.of(1).getData())));
+        assertNull(snapshotDb.get(ByteUtil.merge(sha3(addr(1)), sha3(DataWord.of(1).getData()))));
+        assertNull(snapshotDb.get("snapshotWipe".getBytes()));
+        assertSameState(repo.getRoot(), snapshot);
+    }
+
+    @Test
+    public void testGenerateAndPersist() {
+        Repository repo = new RepositoryRoot(stateDS);
+        randomChanges(repo, new Random(2));
+        repo.saveCode(addr(1), new byte[] {0x60});
+        repo.commit();
+        byte[] root = repo.getRoot();
+
+        StateSnapshot snapshot = new StateSnapshot(snapshotDb, stateDS, 16);
+        assertFalse(snapshot.isAvailable(root));
+        snapshot.generate(root);
+        assertTrue(snapshot.isAvailable(root));
+        assertNotNull(snapshot.getAccount(root, sha3(addr(1))));
+        assertSameState(root, snapshot);
+
+        repo = new RepositoryRoot(stateDS, root, snapshot);
+        randomChanges(repo, new Random(3));
+        repo.commit();
+        byte[] root2 = repo.getRoot();
+        assertArrayEquals(new byte[] {0x60}, repo.getCode(addr(1)));
+
+        // diff layers are kept in memory only
+        assertFalse(new StateSnapshot(snapshotDb, stateDS, 16).isAvailable(root2));
+        snapshot.persist(root2);
+
+        StateSnapshot reloaded = new StateSnapshot(snapshotDb, stateDS, 16);
+        assertTrue(reloaded.isAvailable(root2));
+        assertFalse(reloaded.isAvailable(root));
+        assertSameState(root2, reloaded);
+
+        // the disk layer is not trusted if a storage wipe didn't complete
+        snapshotDb.put("snapshotWipe".getBytes(), new byte[] {1});
+        assertFalse(new StateSnapshot(snapshotDb, stateDS, 16).isAvailable(root2));
+    }
+}
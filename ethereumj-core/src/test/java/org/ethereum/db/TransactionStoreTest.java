@@ -23,6 +23,7 @@ import org.ethereum.config.net.MainNetConfig;
 import org.ethereum.core.Block;
 import org.ethereum.core.Transaction;
 import org.ethereum.core.TransactionInfo;
+import org.ethereum.core.TransactionReceipt;
 import org.ethereum.datasource.inmem.HashMapDB;
 import org.ethereum.util.blockchain.SolidityContract;
 import org.ethereum.util.blockchain.StandaloneBlockchain;
@@ -34,6 +35,7 @@ import org.junit.Test;
 
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Created by Anton Nashatyrev on 08.04.2016.
@@ -136,4 +138,41 @@ public class TransactionStoreTest {
         TransactionInfo info1 = transactionStore1.get(tx.getHash()).get(0);
         Assert.assertArrayEquals(info1.getReceipt().getPostTxState(), info.getReceipt().getPostTxState());
     }
+
+    @Test
+    public void blockReceiptsTest() {
+        HashMapDB<byte[]> txDb = new HashMapDB<>();
+        TransactionStore transactionStore = new TransactionStore(txDb);
+        StandaloneBlockchain bc = new StandaloneBlockchain();
+        bc.getBlockchain().withTransactionStore(transactionStore);
+
+        Block b1 = bc.createBlock();
+        bc.sendEther(new byte[20], BigInteger.valueOf(1000));
+        bc.sendEther(new byte[20], BigInteger.valueOf(2000));
+        Block b2 = bc.createBlock();
+        Block b2_ = bc.createForkBlock(b1);
+        Block b3_ = bc.createForkBlock(b2_);
+
+        List<TransactionReceipt> receipts = transactionStore.getReceipts(b2);
+        Assert.assertEquals(2, receipts.size());
+        Assert.assertEquals(0, transactionStore.getReceipts(b2_).size());
+        for (int i = 0; i < receipts.size(); i++) {
+            Transaction tx = b2.getTransactionsList().get(i);
+            TransactionInfo info = transactionStore.get(tx.getHash(), b2.getHash());
+            Assert.assertEquals(i, info.getIndex());
+            Assert.assertArrayEquals(receipts.get(i).getEncoded(), info.getReceipt().getEncoded());
+        }
+
+        // main chain is checked against the block index
+        Transaction tx = b2.getTransactionsList().get(1);
+        BlockStore blockStore = bc.getBlockchain().getBlockStore();
+        Assert.assertNull(transactionStore.getMainChain(tx.getHash(), blockStore));
+        Block b3 = bc.createForkBlock(b2);
+        bc.createForkBlock(b3);
+        Assert.assertArrayEquals(b2.getHash(), transactionStore.getMainChain(tx.getHash(), blockStore).getBlockHash());
+
+        // block receipts are stored once
+        Assert.assertFalse(transactionStore.put(b2, receipts));
+        Assert.assertEquals(1, transactionStore.get(tx.getHash()).size());
+    }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db.logs;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.core.BlockSummary;
+import org.ethereum.core.Bloom;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.listener.LogFilter;
+import org.ethereum.util.blockchain.StandaloneBlockchain;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.longToBytes;
+import static org.junit.Assert.*;
+
+public class LogIndexTest {
+
+    // init code returning a contract which emits LOG1 with the first word of call data as a topic
+    private static final byte[] LOGGER_CODE = Hex.decode("6009600c60003960096000f3" + "60003560006000a100");
+
+    private static final int SECTION_SIZE = 8;
+    private static final int CONFIRMATIONS = 2;
+
+    @AfterClass
+    public static void cleanup() {
+        SystemProperties.resetToDefault();
+    }
+
+    private StandaloneBlockchain bc;
+    private byte[] contractA;
+    private byte[] contractB;
+    private long nonce;
+
+    @Before
+    public void setup() {
+        bc = new StandaloneBlockchain();
+        bc.createBlock();
+        Transaction createA = createTx(new byte[0], LOGGER_CODE);
+        Transaction createB = createTx(new byte[0], LOGGER_CODE);
+        bc.submitTransaction(createA);
+        bc.submitTransaction(createB);
+        bc.createBlock();
+        contractA = createA.getContractAddress();
+        contractB = createB.getContractAddress();
+    }
+
+    private Transaction createTx(byte[] to, byte[] data) {
+        return bc.createTransaction(nonce++, to, 0, data);
+    }
+
+    private void generateBlocks(int count) {
+        for (int i = 0; i < count; i++) {
+            if (i % 7 != 6) {
+                bc.submitTransaction(createTx(contractA, DataWord.of(i % 3).getData()));
+                if (i % 2 == 0) {
+                    bc.submitTransaction(createTx(contractB, DataWord.of(i % 5).getData()));
+                }
+            }
+            bc.createBlock();
+        }
+    }
+
+    private LogIndexer createIndexer(boolean postings) {
+        LogIndex index = new LogIndex(new HashMapDB<>(), new HashMapDB<>(), SECTION_SIZE);
+        return new LogIndexer(index, bc.getBlockchain().getBlockStore(),
+                bc.getBlockchain().getTransactionStore(), CONFIRMATIONS, postings);
+    }
+
+    private LogFilter[] filters() {
+        return new LogFilter[] {
+                new LogFilter().withContractAddress(contractA),
+                new LogFilter().withTopic(DataWord.of(1).getData()),
+                new LogFilter().withContractAddress(contractB).withTopic(DataWord.of(2).getData()),
+                new LogFilter().withContractAddress(contractA, contractB).withTopic(DataWord.of(4).getData()),
+                new LogFilter().withTopic(DataWord.of(7).getData()),
+                new LogFilter()
+        };
+    }
+
+    private void assertSameLogs(List<IndexedLog> expected, List<IndexedLog> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getBlockNumber(), actual.get(i).getBlockNumber());
+            assertArrayEquals(expected.get(i).getBlockHash(), actual.get(i).getBlockHash());
+            assertArrayEquals(expected.get(i).getTxHash(), actual.get(i).getTxHash());
+            assertEquals(expected.get(i).getTxIndex(), actual.get(i).getTxIndex());
+            assertEquals(expected.get(i).getLogIndex(), actual.get(i).getLogIndex());
+        }
+    }
+
+    private void checkQueries(LogIndexer indexer) {
+        LogIndexer noIndex = new LogIndexer(null, bc.getBlockchain().getBlockStore(),
+                bc.getBlockchain().getTransactionStore(), CONFIRMATIONS, false);
+        long best = bc.getBlockchain().getBestBlock().getNumber();
+        long[][] ranges = {{0, best}, {3, 17}, {8, 15}, {20, best + 10}, {best, best}};
+        for (LogFilter filter : filters()) {
+            for (long[] range : ranges) {
+                assertSameLogs(noIndex.getLogs(filter, range[0], range[1]),
+                        indexer.getLogs(filter, range[0], range[1]));
+            }
+        }
+    }
+
+    @Test
+    public void bloomBitsTest() {
+        BloomBits bits = new BloomBits(16);
+        byte[] bloom = new byte[256];
+        bloom[255] = 0x01;      // bit 0
+        bloom[0] = (byte) 0x80; // bit 2047
+        bits.add(3, bloom);
+        bits.add(15, bloom);
+
+        assertArrayEquals(new int[] {2047, 0}, BloomBits.setBits(bloom));
+        assertTrue(BloomBits.hasBlock(bits.getVector(0), 3));
+        assertTrue(BloomBits.hasBlock(bits.getVector(2047), 15));
+        assertFalse(BloomBits.hasBlock(bits.getVector(0), 4));
+        assertNull(bits.getVector(1));
+    }
+
+    @Test
+    public void rebuildTest() throws Exception {
+        generateBlocks(40);
+
+        LogIndexer bloomBitsOnly = createIndexer(false);
+        bloomBitsOnly.rebuild().get();
+        long best = bc.getBlockchain().getBestBlock().getNumber();
+        assertEquals((best + 1 - CONFIRMATIONS) / SECTION_SIZE, bloomBitsOnly.getIndex().getSections());
+        assertEquals(-1, bloomBitsOnly.getIndex().getPostingsHead());
+        checkQueries(bloomBitsOnly);
+
+        LogIndexer withPostings = createIndexer(true);
+        withPostings.rebuild().get();
+        assertEquals(best, withPostings.getIndex().getPostingsHead());
+        checkQueries(withPostings);
+
+        assertEquals(11, withPostings.getLogs(new LogFilter().withContractAddress(contractA)
+                .withTopic(DataWord.of(1).getData()), 0, best).size());
+    }
+
+    @Test
+    public void importTest() throws Exception {
+        LogIndexer indexer = createIndexer(true);
+        bc.addEthereumListener(new EthereumListenerAdapter() {
+            @Override
+            public void onBlock(BlockSummary blockSummary) {
+                indexer.onBlock(blockSummary);
+            }
+        });
+        indexer.rebuild().get();
+        generateBlocks(30);
+
+        long best = bc.getBlockchain().getBestBlock().getNumber();
+        assertEquals(best, indexer.getIndex().getPostingsHead());
+        for (int i = 0; i < 100 && indexer.getIndex().getSections() < (best + 1 - CONFIRMATIONS) / SECTION_SIZE; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals((best + 1 - CONFIRMATIONS) / SECTION_SIZE, indexer.getIndex().getSections());
+        checkQueries(indexer);
+    }
+
+    @Test
+    public void postingsBucketTest() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        LogIndex index = new LogIndex(db, db, SECTION_SIZE);
+        byte[] address = new byte[20];
+        List<TransactionReceipt> receipts = Collections.singletonList(new TransactionReceipt(new byte[32],
+                new byte[0], new Bloom(), Collections.singletonList(new LogInfo(address,
+                        Collections.singletonList(DataWord.of(1)), new byte[0]))));
+
+        for (long num = 0; num < 300; num++) {
+            assertTrue(index.addPostings(num, sha3(longToBytes(num)), receipts));
+            index.setPostingsHead(num);
+        }
+        // the same block from the onBlock/catchUp race is skipped
+        assertFalse(index.addPostings(299, sha3(longToBytes(299)), receipts));
+        // head never goes back
+        index.setPostingsHead(100);
+        assertEquals(299, index.getPostingsHead());
+
+        assertEquals(300, index.getPostings(0, address, 0, 299).size());
+        assertEquals(44, index.getPostings(0, address, 256, 299).size());
+        assertEquals(2, index.getPostings(0, address, 255, 256).size());
+
+        // only the complete bucket is written
+        LogIndex reopened = new LogIndex(db, db, SECTION_SIZE);
+        assertEquals(255, reopened.getPostingsHead());
+        assertEquals(256, reopened.getPostings(0, address, 0, 299).size());
+
+        index.flush();
+        reopened = new LogIndex(db, db, SECTION_SIZE);
+        assertEquals(299, reopened.getPostingsHead());
+        assertEquals(300, reopened.getPostings(0, address, 0, 299).size());
+    }
+}
@@ -273,6 +273,16 @@ public class IterableTestRepository implements Repository {
         return src.getStorage(addr, keys);
     }
 
+    @Override
+    public List<byte[]> getAccountProof(byte[] addr) {
+        return src.getAccountProof(addr);
+    }
+
+    @Override
+    public List<byte[]> getStorageProof(byte[] addr, DataWord key) {
+        return src.getStorageProof(addr, key);
+    }
+
     private class IterableContractDetails implements ContractDetails {
         ContractDetails src;
 
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.listener;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockSummary;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.util.blockchain.StandaloneBlockchain;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BlockReplayPipelineTest {
+
+    private static StandaloneBlockchain bc;
+    private static List<Block> blocks = new ArrayList<>();
+
+    @BeforeClass
+    public static void setup() {
+        bc = new StandaloneBlockchain();
+        blocks.add(bc.getBlockchain().getBestBlock());
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < i % 4; j++) {
+                bc.sendEther(new byte[20], BigInteger.valueOf(i * 10 + j + 1));
+            }
+            blocks.add(bc.createBlock());
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        SystemProperties.resetToDefault();
+    }
+
+    private static class CollectingListener extends EthereumListenerAdapter {
+        List<BlockSummary> summaries = new ArrayList<>();
+
+        @Override
+        public void onBlock(BlockSummary blockSummary) {
+            summaries.add(blockSummary);
+        }
+    }
+
+    private BlockReplay createReplay(EthereumListener listener, long firstBlock) {
+        return new BlockReplay(bc.getBlockchain().getBlockStore(), bc.getBlockchain().getTransactionStore(),
+                listener, firstBlock);
+    }
+
+    private void checkReplayed(List<BlockSummary> summaries, long from, long to) {
+        assertEquals(to - from + 1, summaries.size());
+        for (int i = 0; i < summaries.size(); i++) {
+            Block block = blocks.get((int) from + i);
+            BlockSummary summary = summaries.get(i);
+            assertArrayEquals(block.getHash(), summary.getBlock().getHash());
+            assertEquals(block.getTransactionsList().size(), summary.getReceipts().size());
+            for (int j = 0; j < summary.getReceipts().size(); j++) {
+                assertArrayEquals(block.getTransactionsList().get(j).getHash(),
+                        summary.getReceipts().get(j).getTransaction().getHash());
+            }
+        }
+    }
+
+    @Test
+    public void testReplayInOrder() {
+        CollectingListener listener = new CollectingListener();
+        createReplay(listener, 3)
+                .withThreads(4)
+                .withBatchSize(3)
+                .replay();
+        checkReplayed(listener.summaries, 3, 50);
+    }
+
+    @Test
+    public void testRangeAndCheckpoint() {
+        HashMapDB<byte[]> checkpoints = new HashMapDB<>();
+
+        CollectingListener listener1 = new CollectingListener();
+        BlockReplay replay1 = createReplay(listener1, 5)
+                .withLastBlock(20)
+                .withBatchSize(4)
+                .withCheckpoint(checkpoints, "test");
+        replay1.replay();
+        checkReplayed(listener1.summaries, 5, 20);
+        assertEquals(20, replay1.getCheckpoint());
+
+        // newly imported blocks are not forwarded by bounded replay
+        replay1.onBlock(listener1.summaries.get(0));
+        assertEquals(16, listener1.summaries.size());
+
+        CollectingListener listener2 = new CollectingListener();
+        BlockReplay replay2 = createReplay(listener2, 5)
+                .withLastBlock(40)
+                .withCheckpoint(checkpoints, "test");
+        replay2.replay();
+        checkReplayed(listener2.summaries, 21, 40);
+        assertEquals(40, replay2.getCheckpoint());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.eth.handler;
+
+import org.ethereum.net.eth.message.BlockBodiesMessage;
+import org.ethereum.net.eth.message.BlockHeadersMessage;
+import org.ethereum.net.eth.message.EthMessage;
+import org.ethereum.net.eth.message.GetBlockBodiesMessage;
+import org.ethereum.net.eth.message.GetBlockHeadersMessage;
+import org.ethereum.net.server.Channel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.ethereum.net.eth.handler.PeerRequestExecutor.Priority.HIGH;
+import static org.ethereum.net.eth.handler.PeerRequestExecutor.Priority.LOW;
+import static org.junit.Assert.*;
+
+public class PeerRequestExecutorTest {
+
+    private PeerRequestExecutor executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) executor.close();
+    }
+
+    @Test
+    public void testPeerOrder() throws InterruptedException {
+        executor = new PeerRequestExecutor(4, 1000, 1000);
+        PeerRequestExecutor.PeerQueue queue = executor.createQueue("peer");
+
+        List<Integer> served = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            assertTrue(queue.submit(HIGH, () -> {
+                served.add(n);
+                done.countDown();
+            }));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) served.get(i));
+        }
+    }
+
+    @Test
+    public void testFairness() throws InterruptedException {
+        executor = new PeerRequestExecutor(1, 1000, 1000);
+        PeerRequestExecutor.PeerQueue greedy = executor.createQueue("greedy");
+        PeerRequestExecutor.PeerQueue modest = executor.createQueue("modest");
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        greedy.submit(HIGH, () -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        List<String> served = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(12);
+        for (int i = 0; i < 10; i++) {
+            greedy.submit(HIGH, () -> {
+                served.add("greedy");
+                done.countDown();
+            });
+        }
+        modest.submit(HIGH, () -> {
+            served.add("modest");
+            done.countDown();
+        });
+        modest.submit(LOW, () -> {
+            served.add("modest-low");
+            done.countDown();
+        });
+        blocker.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // modest peer doesn't wait for all the greedy requests
+        assertTrue(served.indexOf("modest") <= 1);
+        assertTrue(served.indexOf("modest-low") < 11);
+    }
+
+    @Test
+    public void testLimits() throws InterruptedException {
+        executor = new PeerRequestExecutor(1, 2, 3);
+        PeerRequestExecutor.PeerQueue queue = executor.createQueue("peer");
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        Runnable blocking = () -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        assertTrue(queue.submit(HIGH, blocking));
+        assertTrue(queue.submit(HIGH, () -> {}));
+        // queue limit
+        assertFalse(queue.submit(HIGH, () -> {}));
+
+        blocker.countDown();
+        Thread.sleep(200);
+        assertTrue(queue.submit(HIGH, () -> {}));
+        // rate limit
+        assertFalse(queue.submit(HIGH, () -> {}));
+
+        queue.close();
+        assertFalse(queue.submit(LOW, () -> {}));
+    }
+
+    @Test
+    public void testRejectedRequestReply() {
+        executor = new PeerRequestExecutor(1, 0, 0);
+        List<EthMessage> sent = new ArrayList<>();
+        Eth62 handler = new Eth62() {
+            {
+                this.channel = new Channel();
+                this.requestExecutor = executor;
+            }
+
+            @Override
+            protected void sendMessage(EthMessage message) {
+                sent.add(message);
+            }
+        };
+
+        // rejected requests are answered in place with empty responses
+        handler.processGetBlockHeaders(new GetBlockHeadersMessage(1, 10));
+        handler.processGetBlockBodies(new GetBlockBodiesMessage(Collections.singletonList(new byte[32])));
+
+        assertEquals(2, sent.size());
+        assertTrue(((BlockHeadersMessage) sent.get(0)).getBlockHeaders().isEmpty());
+        assertTrue(((BlockBodiesMessage) sent.get(1)).getBlockBodies().isEmpty());
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.rlpx;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.ethereum.config.SystemProperties;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.net.p2p.HelloMessage;
+import org.ethereum.net.rlpx.discover.NodeStatistics;
+import org.ethereum.net.server.Channel;
+import org.junit.After;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class HandshakeExecutorTest {
+
+    private HandshakeExecutor executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) executor.close();
+    }
+
+    @Test
+    public void testAdmitPerIp() throws Exception {
+        executor = new HandshakeExecutor(1, 4, 3);
+        InetAddress remote = InetAddress.getByName("8.8.8.8");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(executor.admit(remote));
+        }
+        assertFalse(executor.admit(remote));
+        assertTrue(executor.admit(InetAddress.getByName("8.8.4.4")));
+
+        // local addresses are not limited
+        for (int i = 0; i < 10; i++) {
+            assertTrue(executor.admit(InetAddress.getByName("127.0.0.1")));
+            assertTrue(executor.admit(InetAddress.getByName("192.168.1.1")));
+        }
+    }
+
+    @Test
+    public void testContinuationOnEventLoop() throws Exception {
+        executor = new HandshakeExecutor(2, 4, 10);
+        ContextHandler handler = new ContextHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        final AtomicReference<String> taskThread = new AtomicReference<>();
+        final AtomicReference<Integer> result = new AtomicReference<>();
+        final CountDownLatch taskDone = new CountDownLatch(1);
+        executor.execute(handler.ctx, () -> {
+            taskThread.set(Thread.currentThread().getName());
+            taskDone.countDown();
+            return 42;
+        }, result::set);
+
+        assertTrue(taskDone.await(5, TimeUnit.SECONDS));
+        assertTrue(taskThread.get().startsWith("rlpx-handshake"));
+
+        // continuation is only run by the channel event loop
+        waitForPendingTasks(channel);
+        assertEquals(42, (int) result.get());
+    }
+
+    @Test
+    public void testFailureFiredToPipeline() throws Exception {
+        executor = new HandshakeExecutor(1, 4, 10);
+        ContextHandler handler = new ContextHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        executor.execute(handler.ctx, () -> {
+            throw new IllegalStateException("bad auth");
+        }, r -> fail());
+
+        waitForPendingTasks(channel);
+        assertTrue(handler.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testRejectedWhenQueueFull() throws Exception {
+        executor = new HandshakeExecutor(1, 1, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        ContextHandler handler = new ContextHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        // one running, one queued
+        executor.execute(handler.ctx, () -> release.await(5, TimeUnit.SECONDS), r -> {});
+        executor.execute(handler.ctx, () -> true, r -> {});
+
+        ContextHandler rejectedHandler = new ContextHandler();
+        EmbeddedChannel rejected = new EmbeddedChannel(rejectedHandler);
+        executor.execute(rejectedHandler.ctx, () -> true, r -> fail());
+        assertFalse(rejected.isActive());
+        assertTrue(channel.isActive());
+
+        release.countDown();
+    }
+
+    @Test
+    public void testHandshake() throws Exception {
+        runHandshake(false);
+    }
+
+    @Test
+    public void testHandshakeEIP8() throws Exception {
+        runHandshake(true);
+    }
+
+    private void runHandshake(boolean eip8) throws Exception {
+        executor = new HandshakeExecutor(2, 4, 10);
+        ECKey serverKey = new ECKey();
+        final Channel serverChannel = mockChannel();
+        final Channel clientChannel = mockChannel();
+        final CountDownLatch finished = new CountDownLatch(2);
+        doAnswer(i -> { finished.countDown(); return null; }).when(serverChannel).publicRLPxHandshakeFinished(any(), any(), any());
+        doAnswer(i -> { finished.countDown(); return null; }).when(clientChannel).publicRLPxHandshakeFinished(any(), any(), any());
+
+        EventLoopGroup group = new NioEventLoopGroup(2);
+        try {
+            io.netty.channel.Channel server = new ServerBootstrap().group(group)
+                    .channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+                            HandshakeHandler handler = new HandshakeHandler(mockConfig(serverKey, eip8), null, executor);
+                            handler.setRemoteId("", serverChannel);
+                            ctx.pipeline().replace(this, "handshake", handler);
+                        }
+                    })
+                    .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+            final HandshakeHandler clientHandler = new HandshakeHandler(mockConfig(new ECKey(), eip8), null, executor);
+            clientHandler.setRemoteId(Hex.toHexString(serverKey.getNodeId()), clientChannel);
+            new Bootstrap().group(group).channel(NioSocketChannel.class).handler(clientHandler)
+                    .connect(server.localAddress()).sync();
+
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+            server.close().sync();
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    private SystemProperties mockConfig(ECKey key, boolean eip8) {
+        SystemProperties config = mock(SystemProperties.class);
+        when(config.getMyKey()).thenReturn(key);
+        when(config.eip8()).thenReturn(eip8);
+        return config;
+    }
+
+    private Channel mockChannel() throws Exception {
+        Channel channel = mock(Channel.class);
+        NodeStatistics stats = new NodeStatistics(new Node(new ECKey().getNodeId(), "127.0.0.1", 30303));
+        when(channel.getNodeStatistics()).thenReturn(stats);
+        doAnswer(i -> {
+            ChannelHandlerContext ctx = (ChannelHandlerContext) i.getArguments()[0];
+            FrameCodec codec = (FrameCodec) i.getArguments()[1];
+            HelloMessage hello = new HelloMessage((byte) 5, "test", Collections.emptyList(), 30303, (String) i.getArguments()[2]);
+            ByteBuf buf = ctx.alloc().buffer();
+            codec.writeFrame(new FrameCodec.Frame(hello.getCode(), hello.getEncoded()), buf);
+            ctx.writeAndFlush(buf);
+            return null;
+        }).when(channel).sendHelloMessage(any(), any(), anyString());
+        return channel;
+    }
+
+    private void waitForPendingTasks(EmbeddedChannel channel) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            channel.runPendingTasks();
+            Thread.sleep(20);
+        }
+        channel.runPendingTasks();
+    }
+
+    private static class ContextHandler extends ChannelInboundHandlerAdapter {
+        ChannelHandlerContext ctx;
+        Throwable error;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            error = cause;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.ethereum.net.rlpx.discover.table.NodeTable;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
@@ -89,6 +90,58 @@ public class KademliaTest {
         assertEquals(t.getBuckets()[0].getNodesCount(), KademliaOptions.BUCKET_SIZE);
     }
 
+    @Test
+    public void testClosestNodes() {
+        Random rnd = new Random(1);
+        NodeTable t = new NodeTable(getNode(rnd));
+        for (int i = 0; i < 3000; i++) {
+            t.addNode(getNode(rnd));
+        }
+        // nodes close to the home node and the home node itself
+        for (int i = 1; i < 40; i++) {
+            byte[] id = t.getNode().getId().clone();
+            id[i % 64] ^= (byte) (1 << (i % 8));
+            t.addNode(new Node(id, "127.0.0.1", 30303));
+        }
+
+        List<byte[]> targets = new ArrayList<>();
+        targets.add(t.getNode().getId());
+        for (int i = 0; i < 200; i++) {
+            byte[] id = new byte[64];
+            rnd.nextBytes(id);
+            targets.add(id);
+            byte[] near = t.getNode().getId().clone();
+            near[i % 64] ^= (byte) rnd.nextInt(256);
+            targets.add(near);
+            // swarm uses 32 byte keys as targets
+            byte[] key = new byte[32];
+            rnd.nextBytes(key);
+            targets.add(key);
+        }
+
+        for (byte[] target : targets) {
+            assertEquals(sortClosestNodes(t, target), t.getClosestNodes(target));
+        }
+    }
+
+    private static List<Node> sortClosestNodes(NodeTable t, byte[] targetId) {
+        List<NodeEntry> entries = t.getAllNodes();
+        entries.sort((e1, e2) -> Integer.compare(
+                NodeEntry.distance(targetId, e1.getNode().getId()),
+                NodeEntry.distance(targetId, e2.getNode().getId())));
+        List<Node> closest = new ArrayList<>();
+        for (NodeEntry e : entries.subList(0, Math.min(entries.size(), KademliaOptions.BUCKET_SIZE))) {
+            if (!e.getNode().isDiscoveryNode()) closest.add(e.getNode());
+        }
+        return closest;
+    }
+
+    private static Node getNode(Random rnd) {
+        byte[] id = new byte[64];
+        rnd.nextBytes(id);
+        return new Node(id, "127.0.0.1", 30303);
+    }
+
     public static byte[] getNodeId() {
         Random gen = new Random();
         byte[] id = new byte[64];
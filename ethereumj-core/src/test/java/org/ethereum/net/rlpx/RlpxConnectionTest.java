@@ -18,6 +18,8 @@
 package org.ethereum.net.rlpx;
 
 import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.ethereum.crypto.ECKey;
 import org.ethereum.net.client.Capability;
 import org.junit.Before;
@@ -80,11 +82,42 @@ public class RlpxConnectionTest {
         FrameCodec.Frame frame1 = rCodec.readFrames(new DataInputStream(to)).get(0);
         byte[] payload1 = new byte[frame1.size];
         assertEquals(frame.size, frame1.size);
-        frame1.payload.read(payload1);
+        frame1.getStream().read(payload1);
         assertArrayEquals(payload, payload1);
         assertEquals(frame.type, frame1.type);
     }
 
+    @Test
+    public void testFrameDirectBuffer() throws Exception {
+        byte[] payload = new byte[100_000];
+        new SecureRandom().nextBytes(payload);
+        ByteBuf wire = PooledByteBufAllocator.DEFAULT.directBuffer();
+        iCodec.writeFrame(new FrameCodec.Frame(12345, payload), wire);
+        iCodec.writeFrame(new FrameCodec.Frame(1, new byte[] {1, 2, 3}), wire);
+
+        // frame is not read until all its bytes arrive
+        ByteBuf in = PooledByteBufAllocator.DEFAULT.directBuffer();
+        in.writeBytes(wire, 1000);
+        assertNull(rCodec.readFrames(in));
+        in.writeBytes(wire);
+
+        FrameCodec.Frame frame = rCodec.readFrames(in).get(0);
+        assertEquals(12345, frame.getType());
+        byte[] payload1 = new byte[frame.getSize()];
+        frame.getPayload().getBytes(frame.getPayload().readerIndex(), payload1);
+        assertArrayEquals(payload, payload1);
+
+        FrameCodec.Frame frame2 = rCodec.readFrames(in).get(0);
+        assertEquals(1, frame2.getType());
+        assertEquals(3, frame2.getSize());
+        assertEquals(0, in.readableBytes());
+
+        frame.release();
+        frame2.release();
+        assertTrue(in.release());
+        assertTrue(wire.release());
+    }
+
     @Test
     public void testMessageEncoding() throws IOException {
         byte[] wire = iMessage.encode();
@@ -59,6 +59,29 @@ public class SnappyCodecTest {
         assertEquals(1, result.size());
     }
 
+    @Test
+    public void testEncodeDecode() throws Exception {
+        SnappyCodec codec = new SnappyCodec(new Channel());
+        byte[] payload = new byte[100_000];
+        for (int i = 0; i < payload.length; i++) payload[i] = (byte) (i % 17);
+
+        List<Object> compressed = newArrayList();
+        codec.encode(null, new FrameCodec.Frame(7, payload), compressed);
+        FrameCodec.Frame compressedFrame = (FrameCodec.Frame) compressed.get(0);
+        assertTrue(compressedFrame.getSize() < payload.length);
+
+        List<Object> decompressed = newArrayList();
+        codec.decode(null, compressedFrame, decompressed);
+        FrameCodec.Frame frame = (FrameCodec.Frame) decompressed.get(0);
+        assertEquals(7, frame.getType());
+        byte[] payload1 = new byte[frame.getSize()];
+        frame.getPayload().readBytes(payload1);
+        assertArrayEquals(payload, payload1);
+
+        compressedFrame.release();
+        frame.release();
+    }
+
     @Test
     public void testFramedDecodeDisconnect() throws Exception {
         byte[] frameBytes = new byte[] {(byte) 0xff, 0x06, 0x00, 0x00, 0x73, 0x4e, 0x61, 0x50, 0x70, 0x59};
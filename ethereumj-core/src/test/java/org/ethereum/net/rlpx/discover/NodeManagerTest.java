@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.rlpx.discover;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.ethereum.config.SystemProperties;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.db.PeerSource;
+import org.ethereum.listener.EthereumListener;
+import org.ethereum.net.rlpx.Node;
+import org.junit.Test;
+import org.springframework.context.ApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NodeManagerTest {
+
+    private static final SystemProperties config = new SystemProperties();
+    static {
+        config.overrideParams(
+                "peer.discovery.persist", "true",
+                "peer.discovery.external.ip", "127.0.0.1",
+                "peer.privateKey", "3ec771c31cac8c0dba77a69e503765701d3c2bb62435888d4ffa38fed60c445c");
+    }
+
+    @Test
+    public void testPersistDelta() {
+        AtomicInteger puts = new AtomicInteger();
+        PeerSource peerSource = new PeerSource(new HashMapDB<byte[]>() {
+            @Override
+            public void put(byte[] key, byte[] val) {
+                puts.incrementAndGet();
+                super.put(key, val);
+            }
+        });
+
+        NodeManager nodeManager = createNodeManager(peerSource);
+        for (int i = 0; i < 20; i++) {
+            nodeManager.getNodeHandler(node(i));
+        }
+        nodeManager.close();
+        assertEquals(20, peerSource.getNodes().size());
+
+        // nothing is changed, nothing is written
+        puts.set(0);
+        nodeManager = createNodeManager(peerSource);
+        assertEquals(20, nodeManager.getNodes(0).size());
+        nodeManager.close();
+        assertEquals(0, puts.get());
+
+        // only new nodes are written
+        nodeManager = createNodeManager(peerSource);
+        nodeManager.getNodeHandler(node(20));
+        nodeManager.getNodeHandler(node(21));
+        nodeManager.close();
+        assertEquals(22, peerSource.getNodes().size());
+        // two nodes and two array size updates
+        assertEquals(4, puts.get());
+
+        Set<Integer> ports = new HashSet<>();
+        for (Pair<Node, Integer> entry : peerSource.getNodes()) {
+            assertTrue(ports.add(entry.getLeft().getPort()));
+        }
+        assertEquals(22, ports.size());
+    }
+
+    private static NodeManager createNodeManager(PeerSource peerSource) {
+        ApplicationContext ctx = mock(ApplicationContext.class);
+        when(ctx.getBean(PeerSource.class)).thenReturn(peerSource);
+        NodeManager nodeManager = new NodeManager(config, mock(EthereumListener.class), ctx, mock(PeerConnectionTester.class));
+        nodeManager.setBootNodes(Collections.emptyList());
+        nodeManager.channelActivated();
+        return nodeManager;
+    }
+
+    private static final List<byte[]> ids = new ArrayList<>();
+
+    private static Node node(int i) {
+        while (ids.size() <= i) ids.add(new ECKey().getNodeId());
+        return new Node(ids.get(i), "10.0.0.1", 10000 + i);
+    }
+}
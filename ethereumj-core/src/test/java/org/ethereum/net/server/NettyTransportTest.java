@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class NettyTransportTest {
+
+    @Test
+    public void testNio() throws Exception {
+        NettyTransport transport = new NettyTransport(false);
+        assertFalse(transport.isEpoll());
+        transfer(transport);
+    }
+
+    @Test
+    public void testEpoll() throws Exception {
+        // falls back to NIO where epoll is not supported
+        transfer(new NettyTransport(true));
+    }
+
+    private void transfer(NettyTransport transport) throws Exception {
+        EventLoopGroup group = transport.newEventLoopGroup(1, null);
+        WireTrafficStats.TrafficStatHandler stats = new WireTrafficStats.TrafficStatHandler();
+        AtomicLong received = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        int size = 1024 * 1024;
+        try {
+            io.netty.channel.Channel server = new ServerBootstrap()
+                    .group(group)
+                    .channel(transport.serverSocketChannel())
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.config().setAllocator(PooledByteBufAllocator.DEFAULT);
+                            ch.config().setRecvByteBufAllocator(NettyTransport.recvBufAllocator());
+                            ch.pipeline().addLast(stats);
+                            ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                    ByteBuf buf = (ByteBuf) msg;
+                                    assertTrue(buf.capacity() <= NettyTransport.MAX_READ_BUFFER);
+                                    if (received.addAndGet(buf.readableBytes()) == size) done.countDown();
+                                    buf.release();
+                                }
+                            });
+                        }
+                    })
+                    .bind("127.0.0.1", 0).sync().channel();
+
+            io.netty.channel.Channel client = new Bootstrap()
+                    .group(group)
+                    .channel(transport.socketChannel())
+                    .handler(new ChannelInboundHandlerAdapter())
+                    .connect(server.localAddress()).sync().channel();
+            client.writeAndFlush(Unpooled.wrappedBuffer(new byte[size])).sync();
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(size, stats.inSize.get());
+            assertTrue(stats.stats().contains("bytes per read"));
+
+            client.close().sync();
+            server.close().sync();
+        } finally {
+            group.shutdownGracefully().sync();
+        }
+    }
+}
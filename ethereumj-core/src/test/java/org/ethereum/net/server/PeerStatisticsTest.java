@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import org.junit.Test;
+
+import static org.ethereum.net.eth.message.EthMessageCodes.GET_BLOCK_BODIES;
+import static org.ethereum.net.eth.message.EthMessageCodes.GET_RECEIPTS;
+import static org.junit.Assert.*;
+
+public class PeerStatisticsTest {
+
+    @Test
+    public void testWindowGrowth() {
+        PeerStatistics stats = new PeerStatistics();
+        assertEquals(32, stats.getRequestSize(GET_BLOCK_BODIES, 192));
+        assertEquals(10, stats.getRequestSize(GET_BLOCK_BODIES, 10));
+
+        // slow start
+        stats.requestDone(GET_BLOCK_BODIES, 32, 32, 32 * 1000, 100);
+        assertEquals(64, stats.getRequestSize(GET_BLOCK_BODIES, 192));
+        stats.requestDone(GET_BLOCK_BODIES, 64, 64, 64 * 1000, 100);
+        assertEquals(128, stats.getRequestSize(GET_BLOCK_BODIES, 192));
+
+        // capped by the caller
+        stats.requestDone(GET_BLOCK_BODIES, 128, 128, 128 * 1000, 100);
+        assertEquals(192, stats.getRequestSize(GET_BLOCK_BODIES, 192));
+
+        // request types are independent
+        assertEquals(32, stats.getRequestSize(GET_RECEIPTS, 100));
+    }
+
+    @Test
+    public void testWindowShrink() {
+        PeerStatistics stats = new PeerStatistics();
+        stats.requestDone(GET_BLOCK_BODIES, 32, 32, 32 * 1000, 100);
+        stats.requestDone(GET_BLOCK_BODIES, 64, 64, 64 * 1000, 100);
+
+        // partial response halves the window, then it grows by 1/8
+        stats.requestDone(GET_BLOCK_BODIES, 128, 40, 40 * 1000, 100);
+        assertEquals(64, stats.getRequestStats(GET_BLOCK_BODIES).getWindow());
+        stats.requestDone(GET_BLOCK_BODIES, 64, 64, 64 * 1000, 100);
+        assertEquals(72, stats.getRequestStats(GET_BLOCK_BODIES).getWindow());
+
+        // slow response halves the window too
+        stats.requestDone(GET_BLOCK_BODIES, 72, 72, 72 * 1000, 2000);
+        assertEquals(36, stats.getRequestStats(GET_BLOCK_BODIES).getWindow());
+
+        // the window doesn't grow when it isn't used
+        stats.requestDone(GET_BLOCK_BODIES, 10, 10, 10 * 1000, 100);
+        assertEquals(36, stats.getRequestStats(GET_BLOCK_BODIES).getWindow());
+    }
+
+    @Test
+    public void testThroughput() {
+        PeerStatistics stats = new PeerStatistics();
+        assertEquals(0, stats.getThroughput(), 0);
+        stats.requestDone(GET_BLOCK_BODIES, 10, 10, 100_000, 1000);
+        assertEquals(100_000, stats.getThroughput(), 1);
+        stats.requestDone(GET_RECEIPTS, 10, 10, 200_000, 1000);
+        assertEquals(120_000, stats.getThroughput(), 1);
+        assertEquals(10, stats.getRequestStats(GET_RECEIPTS).getItemsPerSec(), 0.01);
+        assertEquals(1000, stats.getRequestStats(GET_RECEIPTS).getLatency(), 0.01);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.sync;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.BlockHeaderWrapper;
+import org.ethereum.core.BlockWrapper;
+import org.ethereum.validator.BlockHeaderRule;
+import org.ethereum.validator.BlockHeaderValidator;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.ethereum.TestUtils.getRandomChain;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class BlockDownloaderTest {
+
+    static class TestRule extends BlockHeaderRule {
+        Set<Long> invalid = new HashSet<>();
+        Set<Long> validated = ConcurrentHashMap.newKeySet();
+        List<BlockHeader> prepared;
+        // hook run by the validation pool threads only
+        Runnable inWorker;
+
+        @Override
+        public void prepare(List<BlockHeader> headers) {
+            prepared = headers;
+        }
+
+        @Override
+        public ValidationResult validate(BlockHeader header) {
+            if (inWorker != null && Thread.currentThread().getName().startsWith("header-validation")) {
+                inWorker.run();
+            }
+            validated.add(header.getNumber());
+            return invalid.contains(header.getNumber()) ? fault("invalid") : Success;
+        }
+    }
+
+    static class TestDownloader extends BlockDownloader {
+        TestDownloader(BlockHeaderValidator validator) {
+            super(validator);
+        }
+
+        @Override
+        protected void pushBlocks(List<BlockWrapper> blockWrappers) {}
+        @Override
+        protected void pushHeaders(List<BlockHeaderWrapper> headers) {}
+        @Override
+        protected int getBlockQueueFreeSize() { return 0; }
+        @Override
+        protected int getMaxHeadersInQueue() { return 0; }
+    }
+
+    @Test
+    public void testFirstInvalidHeaderReported() {
+        List<BlockHeader> headers = new ArrayList<>();
+        for (Block b : getRandomChain(new byte[32], 1, 500)) {
+            headers.add(b.getHeader());
+        }
+
+        TestRule rule = new TestRule();
+        BlockDownloader downloader = new TestDownloader(new BlockHeaderValidator(rule));
+
+        assertEquals(-1, downloader.findInvalidHeader(headers));
+        assertSame(headers, rule.prepared);
+        assertEquals(500, rule.validated.size());
+
+        rule.invalid.addAll(Arrays.asList(490L, 300L, 17L));
+        assertEquals(16, downloader.findInvalidHeader(headers));
+
+        rule.invalid.clear();
+        rule.invalid.addAll(Arrays.asList(490L, 300L));
+        assertEquals(299, downloader.findInvalidHeader(headers));
+
+        // small batches are validated sequentially
+        rule.invalid.add(3L);
+        assertEquals(2, downloader.findInvalidHeader(headers.subList(0, 10)));
+    }
+
+    @Test
+    public void testLocalValidationFailure() {
+        assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+        List<BlockHeader> headers = new ArrayList<>();
+        for (Block b : getRandomChain(new byte[32], 1, 500)) {
+            headers.add(b.getHeader());
+        }
+
+        TestRule rule = new TestRule();
+        BlockDownloader downloader = new TestDownloader(new BlockHeaderValidator(rule));
+
+        // validator error in the pool falls back to sequential validation instead of blaming the headers
+        rule.inWorker = () -> { throw new RuntimeException("Validator failure"); };
+        assertEquals(-1, downloader.findInvalidHeader(headers));
+        rule.invalid.add(300L);
+        assertEquals(299, downloader.findInvalidHeader(headers));
+
+        // interrupted validation is reported as aborted
+        CountDownLatch workers = new CountDownLatch(1);
+        rule.inWorker = () -> {
+            try {
+                workers.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        Thread.currentThread().interrupt();
+        assertEquals(BlockDownloader.VALIDATION_ABORTED, downloader.findInvalidHeader(headers));
+        assertTrue(Thread.interrupted());
+        workers.countDown();
+    }
+}
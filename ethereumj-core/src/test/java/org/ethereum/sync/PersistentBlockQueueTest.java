@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.sync;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockWrapper;
+import org.ethereum.core.Blockchain;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.util.FastByteComparisons;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.ethereum.TestUtils.getRandomChain;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PersistentBlockQueueTest {
+
+    @Test
+    public void testQueue() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        List<Block> chain = getRandomChain(new byte[32], 1, 10);
+
+        PersistentBlockQueue queue = new PersistentBlockQueue(db);
+        queue.add(wrap(chain.subList(0, 6)));
+        queue.add(wrap(chain.subList(6, 10)));
+        assertEquals(10, queue.size());
+
+        List<BlockWrapper> loaded = queue.load(4);
+        assertEquals(4, loaded.size());
+        assertEquals(6, queue.notLoaded());
+        assertArrayEquals(chain.get(0).getHash(), loaded.get(0).getHash());
+
+        queue.imported(loaded.get(0));
+        queue.imported(loaded.get(1));
+        assertEquals(8, queue.size());
+
+        // blocks which were loaded but not imported are kept after reopening
+        queue = new PersistentBlockQueue(db);
+        assertEquals(8, queue.size());
+        loaded = queue.load(100);
+        assertEquals(8, loaded.size());
+        for (int i = 0; i < loaded.size(); i++) {
+            assertArrayEquals(chain.get(i + 2).getHash(), loaded.get(i).getHash());
+        }
+
+        for (int i = 0; i < 8; i++) queue.imported(loaded.get(i));
+        assertEquals(0, queue.size());
+        queue.imported(loaded.get(0));
+        assertEquals(0, queue.size());
+        assertEquals(2, db.keys().size());
+    }
+
+    @Test
+    public void testDroppedBlock() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        List<Block> chain = getRandomChain(new byte[32], 1, 10);
+
+        PersistentBlockQueue queue = new PersistentBlockQueue(db);
+        queue.add(wrap(chain));
+        List<BlockWrapper> loaded = queue.load(4);
+
+        // the first block is dropped by the import pipeline
+        queue.imported(loaded.get(1));
+        queue.imported(loaded.get(2));
+        queue.imported(loaded.get(3));
+        assertEquals(10, queue.size());
+
+        // only the dropped one is loaded again after reopening
+        queue = new PersistentBlockQueue(db);
+        loaded = queue.load(100);
+        assertEquals(7, loaded.size());
+        assertArrayEquals(chain.get(0).getHash(), loaded.get(0).getHash());
+        assertArrayEquals(chain.get(4).getHash(), loaded.get(1).getHash());
+
+        for (BlockWrapper block : loaded) queue.imported(block);
+        assertEquals(0, queue.size());
+        assertEquals(2, db.keys().size());
+    }
+
+    @Test
+    public void testRestore() {
+        List<Block> chain = getRandomChain(new byte[32], 0, 500);
+        Blockchain bc = mockBlockchain(chain.subList(0, 300));
+
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        PersistentBlockQueue queue = new PersistentBlockQueue(db);
+        // the first block was imported but not yet removed from the queue
+        queue.add(wrap(chain.subList(299, 500)));
+
+        queue = new PersistentBlockQueue(db);
+        List<Block> init = queue.restore(bc, 192);
+        assertEquals(192, init.size());
+        assertEquals(308, init.get(0).getNumber());
+        assertArrayEquals(chain.get(499).getHash(), init.get(191).getHash());
+        assertEquals(201, queue.size());
+        assertEquals(201, queue.load(1000).size());
+
+        // queue is empty, init from the blockchain
+        queue = new PersistentBlockQueue(new HashMapDB<>());
+        init = queue.restore(bc, 192);
+        assertEquals(192, init.size());
+        assertArrayEquals(chain.get(299).getHash(), init.get(191).getHash());
+    }
+
+    @Test
+    public void testRestoreDisconnected() {
+        List<Block> chain = getRandomChain(new byte[32], 0, 400);
+        Blockchain bc = mockBlockchain(chain.subList(0, 300));
+
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        PersistentBlockQueue queue = new PersistentBlockQueue(db);
+        queue.add(wrap(chain.subList(300, 350)));
+        queue.add(wrap(getRandomChain(new byte[32], 351, 10)));
+        queue.add(wrap(chain.subList(350, 400)));
+
+        queue = new PersistentBlockQueue(db);
+        List<Block> init = queue.restore(bc, 192);
+        assertArrayEquals(chain.get(349).getHash(), init.get(init.size() - 1).getHash());
+        assertEquals(50, queue.size());
+
+        // nothing is connected to the chain
+        db = new HashMapDB<>();
+        queue = new PersistentBlockQueue(db);
+        queue.add(wrap(chain.subList(350, 400)));
+        init = queue.restore(bc, 192);
+        assertArrayEquals(chain.get(299).getHash(), init.get(init.size() - 1).getHash());
+        assertEquals(0, queue.size());
+        queue.add(wrap(chain.subList(300, 301)));
+        assertEquals(1, new PersistentBlockQueue(db).size());
+    }
+
+    private static List<BlockWrapper> wrap(List<Block> blocks) {
+        List<BlockWrapper> ret = new ArrayList<>();
+        for (Block block : blocks) {
+            ret.add(new BlockWrapper(block, null));
+        }
+        return ret;
+    }
+
+    private static Blockchain mockBlockchain(List<Block> blocks) {
+        Blockchain bc = mock(Blockchain.class);
+        when(bc.getBestBlock()).thenReturn(blocks.get(blocks.size() - 1));
+        when(bc.getBlockByNumber(anyLong())).then(inv -> blocks.get(((Long) inv.getArguments()[0]).intValue()));
+        when(bc.getBlockByHash(any(byte[].class))).then(inv -> find(blocks, (byte[]) inv.getArguments()[0]));
+        when(bc.isBlockExist(any(byte[].class))).then(inv -> find(blocks, (byte[]) inv.getArguments()[0]) != null);
+        return bc;
+    }
+
+    private static Block find(List<Block> blocks, byte[] hash) {
+        for (Block block : blocks) {
+            if (FastByteComparisons.equal(block.getHash(), hash)) return block;
+        }
+        return null;
+    }
+}
@@ -35,6 +35,9 @@ import static org.ethereum.crypto.HashUtil.randomPeerId;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by Anton Nashatyrev on 30.05.2016.
@@ -365,6 +368,125 @@ public class SyncQueueImplTest {
                 longestChain.get(longestChain.size() - 1).header.getHeader());
     }
 
+    @Test
+    public void testSkeleton() {
+        List<Block> randomChain = TestUtils.getRandomChain(new byte[32], 0, 1024);
+        List<Block> forkChain = new ArrayList<>(randomChain.subList(0, 100));
+        forkChain.addAll(TestUtils.getRandomChain(randomChain.get(99).getHash(), 100, 924));
+        Peer peer = new Peer(randomChain);
+        Peer forkPeer = new Peer(forkChain);
+
+        SyncQueueImpl queue = new SyncQueueImpl(randomChain.subList(0, 32)).withSkeleton();
+
+        // anchors are requested first: every MAX_CHAIN_LEN-th header
+        List<SyncQueueIfc.HeadersRequest> reqs = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE);
+        SyncQueueIfc.HeadersRequest skeletonReq = reqs.get(0);
+        assertEquals(31 + DEFAULT_REQUEST_LEN, skeletonReq.getStart());
+        assertEquals(DEFAULT_REQUEST_LEN - 1, skeletonReq.getStep());
+        assertEquals(SyncQueueIfc.ValidatedHeaders.Empty,
+                queue.addHeadersAndValidate(skeletonReq, createHeadersFromHeaders(serve(peer, skeletonReq), peer0)));
+        assertEquals(5, queue.skeleton.size());
+
+        // the gaps are requested back from the anchors
+        reqs = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE);
+        SyncQueueIfc.HeadersRequest fill = reqs.get(0);
+        assertArrayEquals(randomChain.get(31 + DEFAULT_REQUEST_LEN).getHash(), fill.getHash());
+        assertEquals(DEFAULT_REQUEST_LEN, fill.getCount());
+        assertTrue(fill.isReverse());
+        // a peer on another fork doesn't know the anchor
+        assertTrue(serve(forkPeer, reqs.get(1)).isEmpty());
+
+        for (int i = 0; i < 10 && queue.getLongestChain().size() < 1024 - 31; i++) {
+            for (SyncQueueIfc.HeadersRequest req : reqs) {
+                queue.addHeadersAndValidate(req, createHeadersFromHeaders(serve(peer, req), peer0));
+            }
+            reqs = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE);
+        }
+        List<SyncQueueImpl.HeaderElement> longestChain = queue.getLongestChain();
+        assertArrayEquals(randomChain.get(1023).getHash(), longestChain.get(longestChain.size() - 1).header.getHash());
+        assertTrue(queue.skeleton.isEmpty());
+    }
+
+    @Test
+    public void testSkeletonFromFork() {
+        List<Block> randomChain = TestUtils.getRandomChain(new byte[32], 0, 1024);
+        List<Block> forkChain = new ArrayList<>(randomChain.subList(0, 100));
+        forkChain.addAll(TestUtils.getRandomChain(randomChain.get(99).getHash(), 100, 924));
+
+        SyncQueueImpl queue = new SyncQueueImpl(randomChain.subList(0, 32)).withSkeleton();
+        SyncQueueIfc.HeadersRequest skeletonReq = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE).get(0);
+        queue.addHeadersAndValidate(skeletonReq, createHeadersFromHeaders(serve(new Peer(forkChain), skeletonReq), peer0));
+        assertFalse(queue.skeleton.isEmpty());
+
+        // the chain built by other peers passes the first anchor with another header
+        queue.addHeadersAndValidate(createHeadersFromBlocks(randomChain.subList(32, 300), peer0));
+        assertTrue(queue.skeleton.isEmpty());
+    }
+
+    @Test
+    public void testSkeletonMatchedByRequest() {
+        List<Block> randomChain = TestUtils.getRandomChain(new byte[32], 0, 1024);
+        Peer peer = new Peer(randomChain);
+
+        SyncQueueImpl queue = new SyncQueueImpl(randomChain.subList(0, 32)).withSkeleton();
+        SyncQueueIfc.HeadersRequest skeletonReq = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE).get(0);
+
+        // a regular response starting at the first anchor number is not taken for the skeleton
+        int start = (int) skeletonReq.getStart();
+        queue.addHeadersAndValidate(createHeadersFromBlocks(randomChain.subList(start, start + 1), peer0));
+        assertTrue(queue.skeleton.isEmpty());
+        assertTrue(queue.skeletonEnabled);
+
+        // the skeleton request is pending until it fails
+        assertFalse(queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE).get(0).getStep() > 0);
+        queue.headersRequestFailed(skeletonReq);
+        SyncQueueIfc.HeadersRequest retry = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE).get(0);
+        assertEquals(skeletonReq.getStart(), retry.getStart());
+        assertTrue(retry.getStep() > 0);
+
+        queue.addHeadersAndValidate(retry, createHeadersFromHeaders(serve(peer, retry), peer0));
+        assertEquals(5, queue.skeleton.size());
+    }
+
+    @Test
+    public void testSkeletonAnchorFailures() {
+        List<Block> randomChain = TestUtils.getRandomChain(new byte[32], 0, 1024);
+        Peer peer = new Peer(randomChain);
+
+        SyncQueueImpl queue = new SyncQueueImpl(randomChain.subList(0, 32)).withSkeleton();
+        SyncQueueIfc.HeadersRequest skeletonReq = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE).get(0);
+        queue.addHeadersAndValidate(skeletonReq, createHeadersFromHeaders(serve(peer, skeletonReq), peer0));
+        assertEquals(5, queue.skeleton.size());
+
+        // nobody serves the segment below the first anchor
+        for (int i = 0; i < SyncQueueImpl.MAX_ANCHOR_FAILURES; i++) {
+            assertFalse(queue.skeleton.isEmpty());
+            SyncQueueIfc.HeadersRequest fill = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE).get(0);
+            assertNotNull(fill.getHash());
+            queue.headersRequestFailed(fill);
+        }
+        assertTrue(queue.skeleton.isEmpty());
+        assertFalse(queue.skeletonEnabled);
+
+        for (SyncQueueIfc.HeadersRequest req : queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE)) {
+            assertNull(req.getHash());
+            assertEquals(0, req.getStep());
+        }
+    }
+
+    /**
+     * Serves the request like a remote peer: step is the number of blocks skipped
+     */
+    private List<BlockHeader> serve(Peer peer, SyncQueueIfc.HeadersRequest req) {
+        long start = req.getStart();
+        if (req.getHash() != null) {
+            Block block = peer.blocks.get(new ByteArrayWrapper(req.getHash()));
+            if (block == null) return Collections.emptyList();
+            start = block.getNumber();
+        }
+        return peer.getHeaders(start, req.getCount(), req.isReverse(), req.getStep() + 1);
+    }
+
     public void test2Impl(List<Block> mainChain, List<Block> initChain, Peer[] peers) {
         List<Block> randomChain = TestUtils.getRandomChain(new byte[32], 0, 1024);
         final Block[] maxExportedBlock = new Block[] {randomChain.get(31)};
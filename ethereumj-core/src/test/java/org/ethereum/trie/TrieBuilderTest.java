@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.trie;
+
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.junit.Assert.*;
+
+public class TrieBuilderTest {
+
+    private void assertSameTrie(TreeMap<byte[], byte[]> entries) {
+        HashMapDB<byte[]> expectedNodes = new HashMapDB<>();
+        TrieImpl trie = new TrieImpl(expectedNodes);
+        for (byte[] key : entries.keySet()) {
+            trie.put(key, entries.get(key));
+        }
+        trie.flush();
+
+        HashMapDB<byte[]> nodes = new HashMapDB<>();
+        TrieBuilder builder = new TrieBuilder(nodes);
+        for (byte[] key : entries.keySet()) {
+            builder.put(key, entries.get(key));
+        }
+
+        assertArrayEquals(trie.getRootHash(), builder.build());
+        assertEquals(expectedNodes.getStorage().size(), nodes.getStorage().size());
+        for (byte[] hash : expectedNodes.keys()) {
+            assertArrayEquals(expectedNodes.get(hash), nodes.get(hash));
+        }
+    }
+
+    private static TreeMap<byte[], byte[]> newMap() {
+        return new TreeMap<>((k1, k2) -> FastByteComparisons.compareTo(k1, 0, k1.length, k2, 0, k2.length));
+    }
+
+    @Test
+    public void testFixedLengthKeys() {
+        Random rnd = new Random(1);
+        for (int n : new int[] {1, 2, 3, 17, 100, 1000}) {
+            TreeMap<byte[], byte[]> entries = newMap();
+            for (int i = 0; i < n; i++) {
+                byte[] key = new byte[32];
+                rnd.nextBytes(key);
+                // short values to get embedded nodes
+                byte[] value = new byte[1 + rnd.nextInt(i % 2 == 0 ? 3 : 100)];
+                rnd.nextBytes(value);
+                entries.put(key, value);
+            }
+            assertSameTrie(entries);
+        }
+    }
+
+    @Test
+    public void testPrefixKeys() {
+        Random rnd = new Random(2);
+        for (int round = 0; round < 200; round++) {
+            TreeMap<byte[], byte[]> entries = newMap();
+            int n = 1 + rnd.nextInt(30);
+            for (int i = 0; i < n; i++) {
+                // small alphabet and variable length produce keys which are prefixes of others
+                byte[] key = new byte[rnd.nextInt(4)];
+                for (int j = 0; j < key.length; j++) key[j] = (byte) (rnd.nextInt(3) * 0x11 + rnd.nextInt(2));
+                entries.put(key, new byte[] {(byte) (i + 1)});
+            }
+            assertSameTrie(entries);
+        }
+    }
+
+    @Test
+    public void testOrderedIndexes() {
+        for (int n : new int[] {1, 2, 127, 128, 129, 300}) {
+            TreeMap<byte[], byte[]> entries = newMap();
+            for (int i = 0; i < n; i++) {
+                entries.put(RLP.encodeInt(i), RLP.encodeInt(i * 1000));
+            }
+            assertSameTrie(entries);
+        }
+    }
+
+    @Test
+    public void testCalcOrderedRoot() {
+        for (int n : new int[] {0, 1, 2, 127, 128, 129, 300}) {
+            TrieImpl trie = new TrieImpl();
+            List<byte[]> values = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                values.add(RLP.encodeInt(i + 1));
+                trie.put(RLP.encodeInt(i), values.get(i));
+            }
+            assertArrayEquals(trie.getRootHash(), TrieBuilder.calcOrderedRoot(values));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        TrieBuilder builder = new TrieBuilder();
+        builder.put(new byte[] {1}, new byte[0]);
+        assertArrayEquals(EMPTY_TRIE_HASH, builder.build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnordered() {
+        TrieBuilder builder = new TrieBuilder();
+        builder.put(new byte[] {2}, new byte[] {1});
+        builder.put(new byte[] {1}, new byte[] {1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicate() {
+        TrieBuilder builder = new TrieBuilder();
+        builder.put(new byte[] {1}, new byte[] {1});
+        builder.put(new byte[] {1}, new byte[] {2});
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.trie;
+
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class TrieProofTest {
+
+    @Test
+    public void testSecureTrie() {
+        Random rnd = new Random(1);
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        SecureTrie trie = new SecureTrie(db);
+
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = new byte[20];
+            rnd.nextBytes(key);
+            byte[] value = new byte[1 + rnd.nextInt(i % 2 == 0 ? 4 : 100)];
+            rnd.nextBytes(value);
+            trie.put(key, value);
+            keys.add(key);
+        }
+        byte[] root = trie.getRootHash();
+        trie.flush();
+
+        // proofs are checked against a fresh trie instance reading nodes from the db
+        SecureTrie trie1 = new SecureTrie(db, root);
+        for (byte[] key : keys) {
+            assertArrayEquals(trie1.get(key), TrieProof.verifySecure(root, key, trie1.getProof(key)));
+        }
+        for (int i = 0; i < 100; i++) {
+            byte[] key = new byte[20];
+            rnd.nextBytes(key);
+            assertNull(TrieProof.verifySecure(root, key, trie1.getProof(key)));
+        }
+    }
+
+    @Test
+    public void testNodesReadOnce() {
+        AtomicInteger reads = new AtomicInteger();
+        HashMapDB<byte[]> db = new HashMapDB<byte[]>() {
+            @Override
+            public byte[] get(byte[] key) {
+                reads.incrementAndGet();
+                return super.get(key);
+            }
+        };
+        SecureTrie trie = new SecureTrie(db);
+        for (int i = 0; i < 1000; i++) {
+            trie.put(sha3(new byte[] {(byte) i, (byte) (i >> 8)}), sha3(new byte[] {(byte) i}));
+        }
+        byte[] root = trie.getRootHash();
+        trie.flush();
+
+        SecureTrie trie1 = new SecureTrie(db, root);
+        byte[] key = sha3(new byte[] {7, 0});
+        reads.set(0);
+        List<byte[]> proof = trie1.getProof(key);
+        assertEquals(proof.size(), reads.get());
+        assertArrayEquals(sha3(new byte[] {7}), TrieProof.verifySecure(root, key, proof));
+    }
+
+    @Test
+    public void testPrefixKeys() {
+        // keys being prefixes of others end up in branch values, short nodes are embedded
+        TrieImpl trie = new TrieImpl();
+        String[] keys = {"a", "ab", "abc", "abd", "b", "ba", "bcdefghijklmnopqrstuvwxyz", "bcdefghijklmnopqrstuvwxyzz"};
+        for (String key : keys) {
+            trie.put(key.getBytes(), ("value of " + key).getBytes());
+        }
+        // proof of a dirty trie is made without flushing
+        byte[] root = trie.getRootHash();
+
+        for (String key : keys) {
+            assertArrayEquals(("value of " + key).getBytes(), TrieProof.verify(root, key.getBytes(), trie.getProof(key.getBytes())));
+        }
+        for (String key : new String[] {"", "abcd", "ac", "bb", "c", "bcdefghijklmnopqrstuvwxy"}) {
+            assertNull(TrieProof.verify(root, key.getBytes(), trie.getProof(key.getBytes())));
+        }
+    }
+
+    @Test
+    public void testEmptyTrie() {
+        TrieImpl trie = new TrieImpl();
+        assertTrue(trie.getProof(new byte[] {1}).isEmpty());
+        assertNull(TrieProof.verify(trie.getRootHash(), new byte[] {1}, new ArrayList<>()));
+    }
+
+    @Test
+    public void testInvalidProofs() {
+        SecureTrie trie = new SecureTrie((byte[]) null);
+        for (int i = 0; i < 100; i++) {
+            trie.put(sha3(new byte[] {(byte) i}), sha3(new byte[] {(byte) (i + 1)}));
+        }
+        byte[] root = trie.getRootHash();
+        byte[] key = sha3(new byte[] {7});
+        List<byte[]> proof = trie.getProof(key);
+        assertTrue(proof.size() > 1);
+
+        // wrong root
+        assertInvalid(sha3(root), key, proof);
+
+        // missing node
+        List<byte[]> truncated = new ArrayList<>(proof.subList(0, proof.size() - 1));
+        assertInvalid(root, key, truncated);
+
+        // tampered node
+        List<byte[]> tampered = new ArrayList<>(proof);
+        byte[] node = tampered.get(tampered.size() - 1).clone();
+        node[node.length - 1] ^= 1;
+        tampered.set(tampered.size() - 1, node);
+        assertInvalid(root, key, tampered);
+
+        // proof of another key doesn't prove this one
+        assertInvalid(root, sha3(new byte[] {8}), truncated);
+    }
+
+    private static void assertInvalid(byte[] root, byte[] key, List<byte[]> proof) {
+        try {
+            TrieProof.verifySecure(root, key, proof);
+            fail("Invalid proof accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -31,6 +31,7 @@ import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
+import java.util.Random;
 
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.ByteUtil.bytesToBigInteger;
@@ -126,6 +127,72 @@ public class PrecompiledContractTest {
 
     }
 
+    @Test
+    public void bn128Test() {
+
+        PrecompiledContract add = PrecompiledContracts.getContractForAddress(DataWord.of(6), byzantiumConfig);
+        PrecompiledContract mul = PrecompiledContracts.getContractForAddress(DataWord.of(7), byzantiumConfig);
+        PrecompiledContract pairing = PrecompiledContracts.getContractForAddress(DataWord.of(8), byzantiumConfig);
+
+        String g1 = "0000000000000000000000000000000000000000000000000000000000000001" +
+                "0000000000000000000000000000000000000000000000000000000000000002";
+        String negG1 = "0000000000000000000000000000000000000000000000000000000000000001" +
+                "30644e72e131a029b85045b68181585d97816a916871ca8d3c208c16d87cfd45";
+        String g1x2 = "030644e72e131a029b85045b68181585d97816a916871ca8d3c208c16d87cfd3" +
+                "15ed738c0e0a7c92e7845f96b2ae9c0a68a6a449e3538fc7ff3ebf7a5a18a2c4";
+        String g2 = "198e9393920d483a7260bfb731fb5d25f1aa493335a9e71297e485b7aef312c2" +
+                "1800deef121f1e76426a00665e5c4479674322d4f75edadd46debd5cd992f6ed" +
+                "090689d0585ff075ec9e99ad690c3395bc4b313370b38ef355acdadcd122975b" +
+                "12c85ea5db8c6deb4aab71808dcb408fe3d1e7690c43d37b4ce6cc0166fa7daa";
+
+        assertEquals(g1x2, Hex.toHexString(add.execute(Hex.decode(g1 + g1)).getRight()));
+        assertEquals(g1x2, Hex.toHexString(mul.execute(Hex.decode(g1 +
+                "0000000000000000000000000000000000000000000000000000000000000002")).getRight()));
+        assertArrayEquals(new byte[64], add.execute(Hex.decode(g1 + negG1)).getRight());
+
+        // x equal to the field modulus is not a valid coordinate
+        assertFalse(add.execute(Hex.decode("30644e72e131a029b85045b68181585d97816a916871ca8d3c208c16d87cfd47" +
+                "0000000000000000000000000000000000000000000000000000000000000000" + g1)).getLeft());
+
+        assertEquals(BigInteger.ONE, bytesToBigInteger(pairing.execute(Hex.decode(g1 + g2 + negG1 + g2)).getRight()));
+        assertEquals(BigInteger.ZERO, bytesToBigInteger(pairing.execute(Hex.decode(g1 + g2 + g1 + g2)).getRight()));
+    }
+
+    @Test
+    public void modExpRandomTest() {
+
+        PrecompiledContract contract = PrecompiledContracts.getContractForAddress(DataWord.of(5), byzantiumConfig);
+        Random rnd = new Random(1);
+
+        for (int i = 0; i < 2000; i++) {
+            BigInteger base = randomArg(rnd, i);
+            BigInteger exp = randomArg(rnd, i / 2);
+            BigInteger mod = randomArg(rnd, i / 3);
+            if (i % 5 == 0) mod = BigInteger.ONE.shiftLeft(rnd.nextInt(300));
+            if (i % 7 == 0) base = base.shiftLeft(rnd.nextInt(10));
+
+            byte[] baseBytes = ByteUtil.bigIntegerToBytes(base);
+            byte[] expBytes = ByteUtil.bigIntegerToBytes(exp);
+            byte[] modBytes = ByteUtil.bigIntegerToBytes(mod);
+            byte[] data = ByteUtil.merge(DataWord.of(baseBytes.length).getData(), DataWord.of(expBytes.length).getData(),
+                    DataWord.of(modBytes.length).getData(), baseBytes, expBytes, modBytes);
+
+            byte[] res = contract.execute(data).getRight();
+            assertEquals(modBytes.length, res.length);
+            BigInteger expected = mod.signum() == 0 ? BigInteger.ZERO : base.modPow(exp, mod);
+            assertEquals(expected, bytesToBigInteger(res));
+        }
+    }
+
+    private static BigInteger randomArg(Random rnd, int i) {
+        switch (i % 11) {
+            case 0: return BigInteger.ZERO;
+            case 1: return BigInteger.ONE;
+            case 2: return BigInteger.valueOf(2);
+            default: return new BigInteger(1 + rnd.nextInt(i % 3 == 0 ? 1024 : 64), rnd);
+        }
+    }
+
     @Test
     public void modExpTest() {
 